@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.jfr;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import org.jscsi.parser.ProtocolDataUnit;
+
+
+/**
+ * <h1>PduEvent</h1>
+ * <p>
+ * The fields shared by the events of received and sent PDUs. The events are disabled by default, since they are
+ * emitted for every PDU; recordings with a threshold only keep the PDUs, whose transfer took longer.
+ */
+@Category({ "jSCSI", "PDU" })
+@StackTrace(false)
+abstract class PduEvent extends jdk.jfr.Event {
+
+    @Label("Operation Code")
+    String opcode;
+
+    @Label("Initiator Task Tag")
+    int initiatorTaskTag;
+
+    @Label("Length")
+    @DataAmount
+    long length;
+
+    /**
+     * Ends this event and commits it, if it is enabled and passes the threshold.
+     * 
+     * @param pdu The transferred PDU.
+     * @param pduLength The number of bytes of the PDU including the Basic Header Segment.
+     */
+    public final void finish (final ProtocolDataUnit pdu, final long pduLength) {
+
+        end();
+        if (!shouldCommit()) { return; }
+        opcode = pdu.getBasicHeaderSegment().getOpCode().name();
+        initiatorTaskTag = pdu.getBasicHeaderSegment().getInitiatorTaskTag();
+        length = pduLength;
+        commit();
+    }
+}
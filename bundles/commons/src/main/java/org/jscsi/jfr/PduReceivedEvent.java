@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.jfr;
+
+
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * <h1>PduReceivedEvent</h1>
+ * <p>
+ * Emitted, when a PDU was read from a connection. The event begins after the Basic Header Segment arrived, so the
+ * time a connection waits for the next PDU is not included.
+ */
+@Name("org.jscsi.PduReceived")
+@Label("PDU Received")
+@Description("The time from the arrival of the Basic Header Segment of a PDU until the PDU was completely received and decoded.")
+@Enabled(false)
+public final class PduReceivedEvent extends PduEvent {
+
+    /** Tells, whether the event is enabled, without allocating an event per PDU. */
+    private static final PduReceivedEvent PROBE = new PduReceivedEvent();
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     * 
+     * @return The begun event, or <code>null</code> if the event is disabled.
+     */
+    public static PduReceivedEvent start () {
+
+        if (!PROBE.isEnabled()) { return null; }
+        final PduReceivedEvent event = new PduReceivedEvent();
+        event.begin();
+        return event;
+    }
+}
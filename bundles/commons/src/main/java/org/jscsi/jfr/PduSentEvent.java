@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.jfr;
+
+
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * <h1>PduSentEvent</h1>
+ * <p>
+ * Emitted, when a PDU was written to a connection, or handed over to the thread writing to the connection.
+ */
+@Name("org.jscsi.PduSent")
+@Label("PDU Sent")
+@Description("The time needed to serialize a PDU and to write it to the connection or to hand it over to the sending thread.")
+@Enabled(false)
+public final class PduSentEvent extends PduEvent {
+
+    /** Tells, whether the event is enabled, without allocating an event per PDU. */
+    private static final PduSentEvent PROBE = new PduSentEvent();
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     * 
+     * @return The begun event, or <code>null</code> if the event is disabled.
+     */
+    public static PduSentEvent start () {
+
+        if (!PROBE.isEnabled()) { return null; }
+        final PduSentEvent event = new PduSentEvent();
+        event.begin();
+        return event;
+    }
+}
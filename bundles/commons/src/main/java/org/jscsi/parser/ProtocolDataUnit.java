@@ -21,6 +21,7 @@ package org.jscsi.parser;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.security.DigestException;
 import java.util.AbstractList;
@@ -28,6 +29,12 @@ import java.util.ArrayList;
 import java.util.Iterator;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
+import org.jscsi.jfr.PduReceivedEvent;
+import org.jscsi.jfr.PduSentEvent;
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
 import org.jscsi.parser.datasegment.AbstractDataSegment;
 import org.jscsi.parser.datasegment.IDataSegmentIterator.IDataSegmentChunk;
 import org.jscsi.parser.digest.IDigest;
@@ -50,6 +57,9 @@ public final class ProtocolDataUnit {
     /** The initial size of the Additional Header Segment. */
     private static final int AHS_INITIAL_SIZE = 0;
 
+    /** The empty data segment of a PDU, whose pooled data segment was released. */
+    private static final ByteBuffer EMPTY_DATA_SEGMENT = ByteBuffer.allocate(0);
+
     /** The Log interface. */
     private static final Logger LOGGER = LoggerFactory.getLogger(ProtocolDataUnit.class);
 
@@ -69,6 +79,15 @@ public final class ProtocolDataUnit {
      */
     private ByteBuffer dataSegment;
 
+    /**
+     * The pooled buffer, which backs the {@link #dataSegment} of a received PDU. It is <code>null</code>, if the data
+     * segment was not obtained from the {@link #allocator}.
+     */
+    private PooledBuffer pooledDataSegment;
+
+    /** The allocator of the buffers, which are needed to receive this PDU. */
+    private final IBufferAllocator allocator;
+
     /**
      * Optional header and data digests protect the integrity of the header and data, respectively. The digests, if
      * present, are located, respectively, after the header and PDU-specific data, and cover respectively the header and
@@ -101,6 +120,20 @@ public final class ProtocolDataUnit {
      */
     public ProtocolDataUnit (final IDigest initHeaderDigest, final IDigest initDataDigest) {
 
+        this(initHeaderDigest, initDataDigest, HeapBufferAllocator.getInstance());
+    }
+
+    /**
+     * Constructor to create a new, empty ProtcolDataUnit object, which obtains its receive buffers from the given
+     * allocator.
+     * 
+     * @param initHeaderDigest The instance of the digest to use for the Basic Header Segment protection.
+     * @param initDataDigest The instance of the digest to use for the Data Segment protection.
+     * @param initAllocator The allocator of the buffers, which are needed by {@link #read(SocketChannel)}.
+     */
+    public ProtocolDataUnit (final IDigest initHeaderDigest, final IDigest initDataDigest, final IBufferAllocator initAllocator) {
+
+        allocator = initAllocator;
         basicHeaderSegment = new BasicHeaderSegment();
         headerDigest = initHeaderDigest;
 
@@ -153,6 +186,41 @@ public final class ProtocolDataUnit {
         return (ByteBuffer) pdu.rewind();
     }
 
+    /**
+     * Serializes only the header of this PDU, i.e. the Basic Header Segment, the Additional Header Segments and the
+     * header digest, announcing a data segment of the given length.
+     * <p>
+     * The caller is responsible for sending the data segment, including its padding, directly after the returned
+     * bytes. This allows the payload to be transferred from its source to the network without being copied into the
+     * serialized PDU. The data segment of this PDU is discarded. Data digests are not supported.
+     *
+     * @param dataSegmentLength The length of the data segment, which is sent separately.
+     * @return The byte representation of the header of this PDU.
+     * @throws InternetSCSIException If any violation of the iSCSI-Standard emerge.
+     * @throws IOException if an I/O error occurs.
+     */
+    public final ByteBuffer serializeHeader (final int dataSegmentLength) throws InternetSCSIException , IOException {
+
+        release();
+        dataSegment = EMPTY_DATA_SEGMENT;
+        basicHeaderSegment.setDataSegmentLength(dataSegmentLength);
+        basicHeaderSegment.getParser().checkIntegrity();
+
+        int size = BasicHeaderSegment.BHS_FIXED_SIZE;
+        size += basicHeaderSegment.getTotalAHSLength() * AdditionalHeaderSegment.AHS_FACTOR;
+        size += headerDigest.getSize();
+        final ByteBuffer header = ByteBuffer.allocate(size);
+
+        int offset = 0;
+        offset += basicHeaderSegment.serialize(header, offset);
+        offset += serializeAdditionalHeaderSegments(header, offset);
+        if (basicHeaderSegment.getParser().canHaveDigests()) {
+            offset += serializeDigest(header, headerDigest);
+        }
+
+        return (ByteBuffer) header.rewind();
+    }
+
     /**
      * Deserializes (parses) a given byte representation of a PDU to an PDU object.
      * 
@@ -325,6 +393,8 @@ public final class ProtocolDataUnit {
             LOGGER.trace(basicHeaderSegment.getParser().getShortInfo());
         }
 
+        final PduSentEvent event = FlightRecording.AVAILABLE ? PduSentEvent.start() : null;
+
         final ByteBuffer src = serialize();
         int length = 0;
 
@@ -332,6 +402,10 @@ public final class ProtocolDataUnit {
             length += sChannel.write(src);
         }
 
+        if (event != null) {
+            event.finish(this, length);
+        }
+
         return length;
     }
 
@@ -350,46 +424,157 @@ public final class ProtocolDataUnit {
         // Protocol Data Unit.
         clear();
 
-        final ByteBuffer bhs = ByteBuffer.allocate(BasicHeaderSegment.BHS_FIXED_SIZE);
-        int len = 0;
-        while (len < BasicHeaderSegment.BHS_FIXED_SIZE) {
-            int lens = sChannel.read(bhs);
-            if (lens == -1) {
-                // The Channel was closed at the Target (e.g. the Target does
-                // not support Multiple Connections)
-                // throw new ClosedChannelException();
-                return lens;
+        final PooledBuffer bhsBuffer = allocator.allocate(BasicHeaderSegment.BHS_FIXED_SIZE);
+        try {
+            final ByteBuffer bhs = bhsBuffer.getBuffer();
+            int len = 0;
+            while (len < BasicHeaderSegment.BHS_FIXED_SIZE) {
+                int lens = sChannel.read(bhs);
+                if (lens == -1) {
+                    // The Channel was closed at the Target (e.g. the Target does
+                    // not support Multiple Connections)
+                    // throw new ClosedChannelException();
+                    return lens;
+                }
+                len += lens;
+                LOGGER.trace("Receiving through SocketChannel: " + len + " of maximal " + BasicHeaderSegment.BHS_FIXED_SIZE);
+
             }
-            len += lens;
-            LOGGER.trace("Receiving through SocketChannel: " + len + " of maximal " + BasicHeaderSegment.BHS_FIXED_SIZE);
+            bhs.flip();
 
+            deserializeBasicHeaderSegment(bhs);
+        } finally {
+            bhsBuffer.release();
         }
-        bhs.flip();
 
-        deserializeBasicHeaderSegment(bhs);
+        final PduReceivedEvent event = FlightRecording.AVAILABLE ? PduReceivedEvent.start() : null;
+        int len = BasicHeaderSegment.BHS_FIXED_SIZE;
 
         // check for further reading
         if (getBasicHeaderSegment().getTotalAHSLength() > 0) {
-            final ByteBuffer ahs = ByteBuffer.allocate(basicHeaderSegment.getTotalAHSLength());
-            int ahsLength = 0;
-            while (ahsLength < getBasicHeaderSegment().getTotalAHSLength()) {
-                ahsLength += sChannel.read(ahs);
+            final PooledBuffer ahsBuffer = allocator.allocate(basicHeaderSegment.getTotalAHSLength());
+            try {
+                final ByteBuffer ahs = ahsBuffer.getBuffer();
+                int ahsLength = 0;
+                while (ahsLength < getBasicHeaderSegment().getTotalAHSLength()) {
+                    ahsLength += readFrom(sChannel, ahs);
+                }
+                len += ahsLength;
+                ahs.flip();
+
+                deserializeAdditionalHeaderSegments(ahs);
+            } finally {
+                ahsBuffer.release();
             }
-            len += ahsLength;
-            ahs.flip();
-
-            deserializeAdditionalHeaderSegments(ahs);
         }
         if (basicHeaderSegment.getDataSegmentLength() > 0) {
-            dataSegment = ByteBuffer.allocate(AbstractDataSegment.getTotalLength(basicHeaderSegment.getDataSegmentLength()));
+            final int totalLength = AbstractDataSegment.getTotalLength(basicHeaderSegment.getDataSegmentLength());
+            pooledDataSegment = allocator.allocate(totalLength);
+            dataSegment = pooledDataSegment.getBuffer();
             int dataSegmentLength = 0;
-            while (dataSegmentLength < basicHeaderSegment.getDataSegmentLength()) {
-                dataSegmentLength += sChannel.read(dataSegment);
+            while (dataSegmentLength < totalLength) {
+                dataSegmentLength += readFrom(sChannel, dataSegment);
             }
             len += dataSegmentLength;
             dataSegment.flip();
         }
 
+        if (event != null) {
+            event.finish(this, len);
+        }
+
+        // print debug informations
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(basicHeaderSegment.getParser().getShortInfo());
+        }
+
+        return len;
+    }
+
+    /**
+     * Reads all the neccassary bytes to fill this PDU, using a read buffer, which is shared by all PDUs received over
+     * the given <code>SocketChannel</code>.
+     * <p>
+     * Whenever more bytes are needed, as many bytes as are available (up to the capacity of the read buffer) are read
+     * from the channel with one call, so several small PDUs can be decoded from the result of a single read. Bytes
+     * belonging to the following PDUs remain in the read buffer. Large data segments are copied from the read buffer
+     * as far as they are contained in it, the rest is read directly into the data segment.
+     * <p>
+     * The read buffer must be in draining mode, i.e. the bytes between its position and its limit are the received,
+     * but not yet decoded bytes. An empty read buffer therefore has a limit of <code>0</code>.
+     * 
+     * @param sChannel <code>SocketChannel</code> to read from.
+     * @param readBuffer The read buffer of the channel.
+     * @return The number of bytes of this PDU, or <code>-1</code> if the channel has reached end-of-stream
+     * @throws IOException if an I/O error occurs.
+     * @throws InternetSCSIException if any violation of the iSCSI-Standard emerge.
+     * @throws DigestException if a mismatch of the digest exists.
+     */
+    public final int read (final SocketChannel sChannel, final ByteBuffer readBuffer) throws InternetSCSIException , IOException , DigestException {
+
+        clear();
+
+        if (!fill(sChannel, readBuffer, BasicHeaderSegment.BHS_FIXED_SIZE)) {
+            if (readBuffer.hasRemaining()) { throw new ClosedChannelException(); }
+            // The Channel was closed between two PDUs
+            return -1;
+        }
+
+        final PduReceivedEvent event = FlightRecording.AVAILABLE ? PduReceivedEvent.start() : null;
+        final PooledBuffer bhsBuffer = allocator.allocate(BasicHeaderSegment.BHS_FIXED_SIZE);
+        try {
+            final ByteBuffer bhs = bhsBuffer.getBuffer();
+            transfer(readBuffer, bhs);
+            bhs.flip();
+
+            deserializeBasicHeaderSegment(bhs);
+        } finally {
+            bhsBuffer.release();
+        }
+
+        int len = BasicHeaderSegment.BHS_FIXED_SIZE;
+
+        // check for further reading
+        final int totalAHSLength = basicHeaderSegment.getTotalAHSLength();
+        if (totalAHSLength > 0) {
+            if (!fill(sChannel, readBuffer, totalAHSLength)) { throw new ClosedChannelException(); }
+
+            final PooledBuffer ahsBuffer = allocator.allocate(totalAHSLength);
+            try {
+                final ByteBuffer ahs = ahsBuffer.getBuffer();
+                transfer(readBuffer, ahs);
+                ahs.flip();
+
+                deserializeAdditionalHeaderSegments(ahs);
+            } finally {
+                ahsBuffer.release();
+            }
+            len += totalAHSLength;
+        }
+
+        if (basicHeaderSegment.getDataSegmentLength() > 0) {
+            final int totalLength = AbstractDataSegment.getTotalLength(basicHeaderSegment.getDataSegmentLength());
+            pooledDataSegment = allocator.allocate(totalLength);
+            dataSegment = pooledDataSegment.getBuffer();
+
+            // take what has already been received, then decide how to get the rest
+            transfer(readBuffer, dataSegment);
+            while (dataSegment.hasRemaining()) {
+                if (dataSegment.remaining() >= readBuffer.capacity() / 2) {
+                    readFrom(sChannel, dataSegment);
+                } else {
+                    if (!fill(sChannel, readBuffer, dataSegment.remaining())) { throw new ClosedChannelException(); }
+                    transfer(readBuffer, dataSegment);
+                }
+            }
+            len += totalLength;
+            dataSegment.flip();
+        }
+
+        if (event != null) {
+            event.finish(this, len);
+        }
+
         // print debug informations
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace(basicHeaderSegment.getParser().getShortInfo());
@@ -398,11 +583,102 @@ public final class ProtocolDataUnit {
         return len;
     }
 
+    /**
+     * Increments the reference count of the data segment of this PDU, if it was obtained from a buffer allocator
+     * during {@link #read(SocketChannel)}. Each call must be balanced by a call of {@link #release()}.
+     * 
+     * @return This <code>ProtocolDataUnit</code> object.
+     */
+    public final ProtocolDataUnit retain () {
+
+        if (pooledDataSegment != null) {
+            pooledDataSegment.retain();
+        }
+
+        return this;
+    }
+
+    /**
+     * Releases the data segment of this PDU, if it was obtained from a buffer allocator during
+     * {@link #read(SocketChannel)}. After the last reference was released, the data segment is handed back to the
+     * allocator and must not be accessed anymore. The data segment of this PDU is empty afterwards.
+     */
+    public final void release () {
+
+        if (pooledDataSegment != null) {
+            final PooledBuffer buffer = pooledDataSegment;
+            pooledDataSegment = null;
+            dataSegment = EMPTY_DATA_SEGMENT;
+            buffer.release();
+        }
+    }
+
+    /**
+     * Makes sure, that the read buffer contains at least the given number of bytes. If not, the remaining bytes are
+     * moved to the beginning of the read buffer and as many bytes as are available are read from the channel.
+     * 
+     * @param sChannel <code>SocketChannel</code> to read from.
+     * @param readBuffer The read buffer in draining mode.
+     * @param length The number of bytes needed, at most the capacity of the read buffer.
+     * @return <code>true</code>, if enough bytes are available, <code>false</code> if the channel has reached
+     *         end-of-stream before.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static final boolean fill (final SocketChannel sChannel, final ByteBuffer readBuffer, final int length) throws IOException {
+
+        final int needed = Math.min(length, readBuffer.capacity());
+        if (readBuffer.remaining() >= needed) { return true; }
+
+        readBuffer.compact();
+        try {
+            while (readBuffer.position() < needed) {
+                if (sChannel.read(readBuffer) == -1) { return false; }
+            }
+        } finally {
+            readBuffer.flip();
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies as many bytes as possible from the read buffer to the destination buffer.
+     * 
+     * @param readBuffer The read buffer in draining mode.
+     * @param dst The buffer to fill.
+     */
+    private static final void transfer (final ByteBuffer readBuffer, final ByteBuffer dst) {
+
+        final int length = Math.min(readBuffer.remaining(), dst.remaining());
+        final int limit = readBuffer.limit();
+        readBuffer.limit(readBuffer.position() + length);
+        dst.put(readBuffer);
+        readBuffer.limit(limit);
+    }
+
+    /**
+     * Reads from the given channel into the given buffer and fails, if the end of the stream was reached.
+     * 
+     * @param sChannel <code>SocketChannel</code> to read from.
+     * @param dst The buffer to fill.
+     * @return The number of bytes read.
+     * @throws IOException if an I/O error occurs or the end of the stream was reached.
+     */
+    private static final int readFrom (final SocketChannel sChannel, final ByteBuffer dst) throws IOException {
+
+        final int length = sChannel.read(dst);
+        if (length == -1) { throw new ClosedChannelException(); }
+
+        return length;
+    }
+
     /**
      * Clears all stored content of this ProtocolDataUnit object.
      */
     public final void clear () {
 
+        release();
+
         basicHeaderSegment.clear();
 
         headerDigest.reset();
@@ -450,7 +726,13 @@ public final class ProtocolDataUnit {
         return dataSegment;
     }
 
+    /**
+     * Sets a new data segment in this PDU. The length of the data segment is the capacity of the given buffer.
+     * 
+     * @param dataSegment The new data segment of this <code>ProtocolDataUnit</code> object.
+     */
     public final void setDataSegment (final ByteBuffer dataSegment) {
+        release();
         dataSegment.clear();
         this.dataSegment = dataSegment;
         basicHeaderSegment.setDataSegmentLength(dataSegment.capacity());
@@ -465,6 +747,7 @@ public final class ProtocolDataUnit {
 
         if (chunk == null) { throw new NullPointerException(); }
 
+        release();
         dataSegment = ByteBuffer.allocate(chunk.getTotalLength());
         dataSegment.put(chunk.getData());
         basicHeaderSegment.setDataSegmentLength(chunk.getLength());
@@ -19,7 +19,10 @@
 package org.jscsi.parser;
 
 
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.IBufferAllocator;
 import org.jscsi.parser.digest.DigestFactory;
+import org.jscsi.parser.digest.DigestType;
 
 
 /**
@@ -37,6 +40,9 @@ public final class ProtocolDataUnitFactory {
     /** The factory to create the supported digests. */
     private final DigestFactory digestFactory = new DigestFactory();
 
+    /** The allocator of the receive buffers of the created <code>ProtocolDataUnit</code> instances. */
+    private final IBufferAllocator allocator;
+
     // --------------------------------------------------------------------------
     // --------------------------------------------------------------------------
 
@@ -45,6 +51,18 @@ public final class ProtocolDataUnitFactory {
      */
     public ProtocolDataUnitFactory () {
 
+        this(HeapBufferAllocator.getInstance());
+    }
+
+    /**
+     * Constructor to create a new, empty <code>ProtocolDataUnitFactory</code> instance, whose PDUs obtain their receive
+     * buffers from the given allocator.
+     * 
+     * @param initAllocator The allocator of the receive buffers.
+     */
+    public ProtocolDataUnitFactory (final IBufferAllocator initAllocator) {
+
+        allocator = initAllocator;
     }
 
     // --------------------------------------------------------------------------
@@ -60,7 +78,7 @@ public final class ProtocolDataUnitFactory {
      */
     public final ProtocolDataUnit create (final String headerDigest, final String dataDigest) {
 
-        return new ProtocolDataUnit(digestFactory.create(headerDigest), digestFactory.create(dataDigest));
+        return new ProtocolDataUnit(digestFactory.create(headerDigest), digestFactory.create(dataDigest), allocator);
     }
 
     /**
@@ -76,7 +94,7 @@ public final class ProtocolDataUnitFactory {
      */
     public final ProtocolDataUnit create (final boolean immediateFlag, final boolean finalFlag, final OperationCode operationCode, final String headerDigest, final String dataDigest) {
 
-        final ProtocolDataUnit protocolDataUnit = new ProtocolDataUnit(digestFactory.create(headerDigest), digestFactory.create(dataDigest));
+        final ProtocolDataUnit protocolDataUnit = new ProtocolDataUnit(digestFactory.create(headerDigest), digestFactory.create(dataDigest), allocator);
 
         protocolDataUnit.getBasicHeaderSegment().setImmediate(immediateFlag);
         protocolDataUnit.getBasicHeaderSegment().setFinal(finalFlag);
@@ -85,6 +103,19 @@ public final class ProtocolDataUnitFactory {
         return protocolDataUnit;
     }
 
+    /**
+     * This method creates a <code>ProtocolDataUnit</code> instance, which initializes only the digests to use, and
+     * returns it. Unlike {@link #create(String, String)}, the digest types do not have to be looked up by name.
+     * 
+     * @param headerDigest The type of the digest to use for the protection of the Basic Header Segment.
+     * @param dataDigest The type of the digest to use for the protection of the Data Segment.
+     * @return A new <code>ProtocolDataUnit</code> instance.
+     */
+    public final ProtocolDataUnit create (final DigestType headerDigest, final DigestType dataDigest) {
+
+        return new ProtocolDataUnit(headerDigest.create(), dataDigest.create(), allocator);
+    }
+
     // --------------------------------------------------------------------------
     // --------------------------------------------------------------------------
     // --------------------------------------------------------------------------
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.buffer;
+
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * <h1>HeapBufferAllocator</h1>
+ * <p/>
+ * This allocator does not pool anything. Each call of {@link #allocate(int)} returns a new heap buffer with exactly
+ * the requested capacity, which is left to the garbage collector after its release. This is the behavior of a
+ * <code>ProtocolDataUnit</code>, which was created without an explicit allocator.
+ */
+public final class HeapBufferAllocator implements IBufferAllocator {
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** The singleton instance. */
+    private static final HeapBufferAllocator INSTANCE = new HeapBufferAllocator();
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Use {@link #getInstance()} instead.
+     */
+    private HeapBufferAllocator () {
+
+    }
+
+    /**
+     * Returns the singleton instance of this allocator.
+     * 
+     * @return The <code>HeapBufferAllocator</code> instance.
+     */
+    public static final HeapBufferAllocator getInstance () {
+
+        return INSTANCE;
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** {@inheritDoc} */
+    @Override
+    public final PooledBuffer allocate (final int capacity) {
+
+        return new PooledBuffer(this, ByteBuffer.allocate(capacity), -1).acquire(capacity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public final void recycle (final PooledBuffer buffer) {
+
+        // nothing to do, the buffer is left to the garbage collector
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.buffer;
+
+
+/**
+ * <h1>IBufferAllocator</h1>
+ * <p/>
+ * An interface for all allocators, which hand out the buffers used to receive the segments of a
+ * <code>ProtocolDataUnit</code>. Buffers are obtained with {@link #allocate(int)} and handed back to their allocator
+ * as soon as the last reference to the {@link PooledBuffer} has been released.
+ */
+public interface IBufferAllocator {
+
+    /**
+     * Returns a buffer with a reference count of <code>1</code>. The position of the wrapped <code>ByteBuffer</code>
+     * is <code>0</code> and its limit equals <code>capacity</code>, whereas the capacity of the wrapped
+     * <code>ByteBuffer</code> may be larger than requested.
+     * 
+     * @param capacity The number of bytes, which are needed.
+     * @return A buffer with at least the given capacity.
+     */
+    PooledBuffer allocate (final int capacity);
+
+    /**
+     * Takes back a buffer, whose reference count has dropped to <code>0</code>. This method is called by
+     * {@link PooledBuffer#release()} and must not be called directly.
+     * 
+     * @param buffer The buffer to recycle.
+     */
+    void recycle (final PooledBuffer buffer);
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.buffer;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <h1>PooledBuffer</h1>
+ * <p/>
+ * A reference counted <code>ByteBuffer</code>, which was obtained from an {@link IBufferAllocator}. Every holder of a
+ * reference must call {@link #release()} exactly once. If a buffer is shared, e.g. because it is still queued for
+ * sending, the sharing party has to call {@link #retain()} first. The buffer is handed back to its allocator as soon as
+ * the reference count drops to <code>0</code>, so it must not be accessed afterwards.
+ */
+public final class PooledBuffer {
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** The allocator, which receives this buffer after the last release. */
+    private final IBufferAllocator allocator;
+
+    /** The wrapped buffer. */
+    private final ByteBuffer buffer;
+
+    /** The index of the size class of this buffer within its allocator, or <code>-1</code> if it is not pooled. */
+    private final int sizeClass;
+
+    /** The number of references, which are held to this buffer. */
+    private final AtomicInteger referenceCount;
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Constructor to create a new <code>PooledBuffer</code> with a reference count of <code>0</code>. The allocator
+     * has to call {@link #acquire(int)} before handing out this buffer.
+     * 
+     * @param initAllocator The allocator, which owns this buffer.
+     * @param initBuffer The buffer to wrap.
+     * @param initSizeClass The size class of this buffer within the allocator.
+     */
+    public PooledBuffer (final IBufferAllocator initAllocator, final ByteBuffer initBuffer, final int initSizeClass) {
+
+        allocator = initAllocator;
+        buffer = initBuffer;
+        sizeClass = initSizeClass;
+        referenceCount = new AtomicInteger(0);
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Prepares this buffer to be handed out by its allocator. The position is set to <code>0</code> and the limit to
+     * the given length.
+     * 
+     * @param length The number of bytes, which were requested.
+     * @return This buffer.
+     */
+    public final PooledBuffer acquire (final int length) {
+
+        if (!referenceCount.compareAndSet(0, 1)) { throw new IllegalStateException("Buffer is still referenced."); }
+        buffer.clear();
+        buffer.limit(length);
+        return this;
+    }
+
+    /**
+     * Increments the reference count of this buffer.
+     * 
+     * @return This buffer.
+     */
+    public final PooledBuffer retain () {
+
+        int count;
+        do {
+            count = referenceCount.get();
+            if (count <= 0) { throw new IllegalStateException("Buffer has already been released."); }
+        } while (!referenceCount.compareAndSet(count, count + 1));
+
+        return this;
+    }
+
+    /**
+     * Decrements the reference count of this buffer and hands it back to the allocator, if this was the last
+     * reference.
+     * 
+     * @return <code>true</code>, if the buffer was handed back to its allocator, else <code>false</code>.
+     */
+    public final boolean release () {
+
+        final int count = referenceCount.decrementAndGet();
+        if (count < 0) {
+            referenceCount.incrementAndGet();
+            throw new IllegalStateException("Buffer has already been released.");
+        }
+
+        if (count == 0) {
+            allocator.recycle(this);
+            return true;
+        }
+
+        return false;
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Returns the wrapped buffer. Its limit is the requested length, its capacity may be larger.
+     * 
+     * @return The wrapped <code>ByteBuffer</code>.
+     */
+    public final ByteBuffer getBuffer () {
+
+        return buffer;
+    }
+
+    /**
+     * Returns the size class of this buffer within its allocator.
+     * 
+     * @return The index of the size class, or <code>-1</code> if this buffer is not pooled.
+     */
+    public final int getSizeClass () {
+
+        return sizeClass;
+    }
+
+    /**
+     * Returns the current number of references to this buffer.
+     * 
+     * @return The reference count.
+     */
+    public final int getReferenceCount () {
+
+        return referenceCount.get();
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
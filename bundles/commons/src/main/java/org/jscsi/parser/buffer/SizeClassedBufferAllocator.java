@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.buffer;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * <h1>SizeClassedBufferAllocator</h1>
+ * <p/>
+ * A thread-safe allocator, which keeps released buffers in power-of-two size classes for later reuse. A request is
+ * served from the smallest size class, which is large enough. Requests larger than the largest size class are served
+ * with a new buffer, which is not pooled. The number of buffers kept per size class is bounded by the number of bytes
+ * each size class may retain, so that small buffers are cached in larger numbers than big ones.
+ * <p/>
+ * The buffers are either allocated on the heap or as direct buffers. Note that direct buffers do not offer a backing
+ * array, so all consumers of the received data segments have to access them through the <code>ByteBuffer</code>
+ * interface.
+ */
+public final class SizeClassedBufferAllocator implements IBufferAllocator {
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** The default size of the smallest size class (<code>2^9 = 512</code> bytes). */
+    public static final int DEFAULT_MIN_SHIFT = 9;
+
+    /** The default size of the largest size class (<code>2^24 = 16</code> MiB). */
+    public static final int DEFAULT_MAX_SHIFT = 24;
+
+    /** The default number of bytes each size class may retain. */
+    public static final int DEFAULT_RETAINED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** Shall the buffers be allocated outside of the heap? */
+    private final boolean direct;
+
+    /** The logarithm of the smallest size class. */
+    private final int minShift;
+
+    /** The logarithm of the largest size class. */
+    private final int maxShift;
+
+    /** The free lists, one for each size class. */
+    private final ArrayBlockingQueue<PooledBuffer>[] freeLists;
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Constructor to create a new <code>SizeClassedBufferAllocator</code> with the default size classes.
+     * 
+     * @param initDirect <code>true</code>, if direct buffers should be allocated, else <code>false</code>.
+     */
+    public SizeClassedBufferAllocator (final boolean initDirect) {
+
+        this(initDirect, DEFAULT_MIN_SHIFT, DEFAULT_MAX_SHIFT, DEFAULT_RETAINED_BYTES_PER_CLASS);
+    }
+
+    /**
+     * Constructor to create a new <code>SizeClassedBufferAllocator</code>.
+     * 
+     * @param initDirect <code>true</code>, if direct buffers should be allocated, else <code>false</code>.
+     * @param initMinShift The logarithm of the size of the smallest size class.
+     * @param initMaxShift The logarithm of the size of the largest size class.
+     * @param retainedBytesPerClass The number of bytes each size class may retain. Each size class retains at least
+     *            one buffer.
+     */
+    @SuppressWarnings ("unchecked")
+    public SizeClassedBufferAllocator (final boolean initDirect, final int initMinShift, final int initMaxShift, final int retainedBytesPerClass) {
+
+        if (initMinShift < 0 || initMaxShift < initMinShift || initMaxShift > 30) { throw new IllegalArgumentException("Invalid size classes [2^" + initMinShift + ", 2^" + initMaxShift + "]."); }
+
+        direct = initDirect;
+        minShift = initMinShift;
+        maxShift = initMaxShift;
+
+        freeLists = new ArrayBlockingQueue[maxShift - minShift + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new ArrayBlockingQueue<PooledBuffer>(Math.max(1, retainedBytesPerClass >>> (minShift + i)));
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** {@inheritDoc} */
+    @Override
+    public final PooledBuffer allocate (final int capacity) {
+
+        final int sizeClass = sizeClassOf(capacity);
+        if (sizeClass < 0) { return new PooledBuffer(this, allocateBuffer(capacity), -1).acquire(capacity); }
+
+        PooledBuffer buffer = freeLists[sizeClass].poll();
+        if (buffer == null) {
+            buffer = new PooledBuffer(this, allocateBuffer(1 << (minShift + sizeClass)), sizeClass);
+        }
+
+        return buffer.acquire(capacity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public final void recycle (final PooledBuffer buffer) {
+
+        final int sizeClass = buffer.getSizeClass();
+        if (sizeClass >= 0) {
+            // if the free list is full, the buffer is left to the garbage collector
+            freeLists[sizeClass].offer(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of buffers, which are currently cached for reuse.
+     * 
+     * @return The number of cached buffers over all size classes.
+     */
+    public final int getCachedBufferCount () {
+
+        int count = 0;
+        for (ArrayBlockingQueue<PooledBuffer> freeList : freeLists) {
+            count += freeList.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code>, if this allocator hands out direct buffers.
+     * 
+     * @return <code>true</code>, if the buffers are direct, else <code>false</code>.
+     */
+    public final boolean isDirect () {
+
+        return direct;
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Determines the index of the smallest size class, which can hold the given number of bytes.
+     * 
+     * @param capacity The number of bytes.
+     * @return The index of the size class, or <code>-1</code> if the capacity exceeds the largest size class.
+     */
+    private final int sizeClassOf (final int capacity) {
+
+        if (capacity <= (1 << minShift)) { return 0; }
+
+        final int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        if (shift > maxShift) { return -1; }
+
+        return shift - minShift;
+    }
+
+    private final ByteBuffer allocateBuffer (final int capacity) {
+
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity);
+        } else {
+            return ByteBuffer.allocate(capacity);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
@@ -48,16 +48,7 @@ public final class DigestFactory {
      */
     public final IDigest create (final String digestName) {
 
-        IDigest digest;
-        if (digestName.compareTo("None") == 0) {
-            digest = new NullDigest();
-        } else if (digestName.compareTo("CRC32C") == 0) {
-            digest = new CRC32CDigest();
-        } else {
-            throw new IllegalArgumentException("Digest Type (" + digestName + ") is unknown.");
-        }
-
-        return digest;
+        return DigestType.valueOfName(digestName).create();
     }
 
     // --------------------------------------------------------------------------
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.digest;
+
+
+/**
+ * <h1>DigestType</h1>
+ * <p>
+ * The supported digest algorithms, resolved from their names once, e.g. when the <code>HeaderDigest</code> and
+ * <code>DataDigest</code> parameters have been negotiated, so that the digests of each PDU can be created without
+ * comparing names.
+ */
+public enum DigestType {
+
+    /** No digest. */
+    NONE("None") {
+
+        @Override
+        public IDigest create () {
+
+            return NULL_DIGEST;
+        }
+    },
+
+    /** The CRC32C digest. */
+    CRC32C("CRC32C") {
+
+        @Override
+        public IDigest create () {
+
+            return new CRC32CDigest();
+        }
+    };
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /** The stateless digest shared by all PDUs without digests. */
+    private static final IDigest NULL_DIGEST = new NullDigest();
+
+    /** The name of the digest type. */
+    private final String digestName;
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    private DigestType (final String digestName) {
+
+        this.digestName = digestName;
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Returns the name of the digest type.
+     * 
+     * @return The name of the digest type.
+     */
+    public final String getDigestName () {
+
+        return digestName;
+    }
+
+    /**
+     * This method creates an <code>IDigest</code> instance of this type.
+     * 
+     * @return The <code>IDigest</code> instance.
+     */
+    public abstract IDigest create ();
+
+    /**
+     * Returns the digest type with the given name.
+     * 
+     * @param digestName The name of the digest type.
+     * @return The digest type.
+     * @throws IllegalArgumentException if the digest type is unknown.
+     */
+    public static final DigestType valueOfName (final String digestName) {
+
+        for (DigestType type : values()) {
+            if (type.digestName.equals(digestName)) return type;
+        }
+        throw new IllegalArgumentException("Digest Type (" + digestName + ") is unknown.");
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
@@ -373,7 +373,8 @@ public final class TaskManagementFunctionRequestParser extends InitiatorMessageP
     @Override
     protected final void deserializeBytes1to3 (final int line) throws InternetSCSIException {
 
-        functionCode = FunctionCode.valueOf((byte) (line & Constants.SECOND_BYTE_MASK));
+        // the most significant bit of the second byte is the final flag
+        functionCode = FunctionCode.valueOf((byte) ((line & Constants.SECOND_BYTE_MASK) >>> Constants.TWO_BYTES_SHIFT & 0x7f));
         Utils.isReserved(line & Constants.LAST_TWO_BYTES_MASK);
     }
 
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser;
+
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import org.jscsi.parser.buffer.SizeClassedBufferAllocator;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * <h1>ProtocolDataUnitReadTest</h1>
+ * <p>
+ * Tests the receiving of several PDUs over a loopback connection with a shared read buffer.
+ */
+public class ProtocolDataUnitReadTest {
+
+    /** The data segment lengths of the sent Data-Out PDUs, <code>0</code> stands for a NOP-Out without data. */
+    private static final int[] LENGTHS = { 0, 4096, 1001, 40000, 0, 512, 3 };
+
+    /** The capacity of the read buffer, which is smaller than the largest data segment. */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private ServerSocketChannel server;
+
+    private SocketChannel sender;
+
+    private SocketChannel receiver;
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    @BeforeMethod
+    public void setUp () throws IOException {
+
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        sender = SocketChannel.open(server.socket().getLocalSocketAddress());
+        receiver = server.accept();
+    }
+
+    @AfterMethod
+    public void tearDown () throws IOException {
+
+        receiver.close();
+        sender.close();
+        server.close();
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Sends all PDUs at once and tests, if they are decoded correctly from the shared read buffer.
+     * 
+     * @throws Exception This exception should be never thrown.
+     */
+    @Test
+    public void testReadBuffered () throws Exception {
+
+        final Random random = new Random(42);
+        final byte[][] data = new byte[LENGTHS.length][];
+        final ProtocolDataUnitFactory factory = new ProtocolDataUnitFactory();
+
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final ProtocolDataUnit pdu;
+            if (LENGTHS[i] == 0) {
+                pdu = factory.create(true, true, OperationCode.NOP_OUT, "None", "None");
+            } else {
+                pdu = factory.create(false, true, OperationCode.SCSI_DATA_OUT, "None", "None");
+                data[i] = new byte[LENGTHS[i]];
+                random.nextBytes(data[i]);
+                pdu.setDataSegment(ByteBuffer.wrap(data[i]));
+            }
+            pdu.getBasicHeaderSegment().setInitiatorTaskTag(i);
+            final ByteBuffer serialized = pdu.serialize();
+            while (serialized.hasRemaining()) {
+                sender.write(serialized);
+            }
+        }
+        sender.close();
+
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        readBuffer.limit(0);
+        final ProtocolDataUnitFactory receiveFactory = new ProtocolDataUnitFactory(new SizeClassedBufferAllocator(false));
+
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final ProtocolDataUnit pdu = receiveFactory.create("None", "None");
+            assertTrue(pdu.read(receiver, readBuffer) > 0);
+
+            final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+            assertEquals(i, bhs.getInitiatorTaskTag());
+            assertEquals(LENGTHS[i], bhs.getDataSegmentLength());
+            if (LENGTHS[i] == 0) {
+                assertEquals(OperationCode.NOP_OUT, bhs.getOpCode());
+            } else {
+                assertEquals(OperationCode.SCSI_DATA_OUT, bhs.getOpCode());
+                final ByteBuffer dataSegment = pdu.getDataSegment();
+                for (int j = 0; j < LENGTHS[i]; j++) {
+                    assertEquals(data[i][j], dataSegment.get(j));
+                }
+            }
+            pdu.release();
+        }
+
+        assertEquals(-1, receiveFactory.create("None", "None").read(receiver, readBuffer));
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
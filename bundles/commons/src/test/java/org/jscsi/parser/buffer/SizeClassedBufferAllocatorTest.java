@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2012, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jscsi.parser.buffer;
+
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+
+/**
+ * <h1>SizeClassedBufferAllocatorTest</h1>
+ * <p>
+ * Tests the size classes and the reference counting of the pooled buffers.
+ */
+public class SizeClassedBufferAllocatorTest {
+
+    /** Instance of the class, which is to be tested. */
+    private final SizeClassedBufferAllocator allocator = new SizeClassedBufferAllocator(false, 9, 13, 4 * 8192);
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+    /**
+     * Tests, if requests are rounded up to the next size class and the limit is set to the requested length.
+     */
+    @Test
+    public void testSizeClasses () {
+
+        final PooledBuffer small = allocator.allocate(48);
+        assertEquals(0, small.getSizeClass());
+        assertEquals(512, small.getBuffer().capacity());
+        assertEquals(48, small.getBuffer().limit());
+        assertEquals(0, small.getBuffer().position());
+
+        final PooledBuffer exact = allocator.allocate(8192);
+        assertEquals(4, exact.getSizeClass());
+        assertEquals(8192, exact.getBuffer().capacity());
+
+        final PooledBuffer odd = allocator.allocate(513);
+        assertEquals(1, odd.getSizeClass());
+        assertEquals(1024, odd.getBuffer().capacity());
+
+        final PooledBuffer large = allocator.allocate(8193);
+        assertEquals(-1, large.getSizeClass());
+        assertEquals(8193, large.getBuffer().capacity());
+
+        small.release();
+        exact.release();
+        odd.release();
+        large.release();
+    }
+
+    /**
+     * Tests, if released buffers are reused and retained buffers are not.
+     */
+    @Test
+    public void testReferenceCounting () {
+
+        final PooledBuffer first = allocator.allocate(4096);
+        first.retain();
+        assertEquals(2, first.getReferenceCount());
+
+        assertFalse(first.release());
+        final PooledBuffer second = allocator.allocate(4096);
+        assertNotSame(first, second);
+
+        assertTrue(first.release());
+        final PooledBuffer third = allocator.allocate(4000);
+        assertSame(first, third);
+        assertEquals(4000, third.getBuffer().limit());
+
+        second.release();
+        third.release();
+    }
+
+    /**
+     * Tests, if a buffer cannot be released twice.
+     */
+    @Test (expectedExceptions = IllegalStateException.class)
+    public void testDoubleRelease () {
+
+        final PooledBuffer buffer = allocator.allocate(100);
+        buffer.release();
+        buffer.release();
+    }
+
+    /**
+     * Tests, if direct buffers are handed out.
+     */
+    @Test
+    public void testDirect () {
+
+        final SizeClassedBufferAllocator directAllocator = new SizeClassedBufferAllocator(true);
+        final PooledBuffer buffer = directAllocator.allocate(1000);
+        assertTrue(buffer.getBuffer().isDirect());
+        buffer.release();
+        assertEquals(1, directAllocator.getCachedBufferCount());
+    }
+
+    // --------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
+
+}
@@ -8,7 +8,10 @@ import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -21,8 +24,15 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.SizeClassedBufferAllocator;
+import org.jscsi.target.metrics.JmxMetricsExporter;
+import org.jscsi.target.metrics.MetricsExporter;
+import org.jscsi.target.qos.QosLimits;
+import org.jscsi.target.qos.QosPolicy;
 import org.jscsi.target.scsi.lun.LogicalUnitNumber;
 import org.jscsi.target.settings.TextKeyword;
+import org.jscsi.target.storage.ElevatorStorageModule;
 import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.storage.JCloudsStorageModule;
 import org.jscsi.target.storage.RandomAccessStorageModule;
@@ -62,6 +72,23 @@ public class Configuration {
     public static final String ELEMENT_CREATE = "Create";
     public static final String ATTRIBUTE_SIZE = "size";
 
+    // I/O scheduler configuration element of a target
+    public static final String ELEMENT_IO_SCHEDULER = "IoScheduler";
+    public static final String ATTRIBUTE_WINDOW = "window";
+    public static final String ATTRIBUTE_DEADLINE = "deadline";
+    public static final String ATTRIBUTE_MAX_MERGE_LENGTH = "maxMergeLength";
+    public static final String ATTRIBUTE_MAX_BATCH_SIZE = "maxBatchSize";
+
+    // QoS configuration elements of a target
+    public static final String ELEMENT_QOS = "QoS";
+    public static final String ELEMENT_INITIATOR = "Initiator";
+    public static final String ATTRIBUTE_NAME = "name";
+    public static final String ATTRIBUTE_IOPS = "iops";
+    public static final String ATTRIBUTE_IOPS_BURST = "iopsBurst";
+    public static final String ATTRIBUTE_BANDWIDTH = "bandwidth";
+    public static final String ATTRIBUTE_BANDWIDTH_BURST = "bandwidthBurst";
+    public static final String ATTRIBUTE_WEIGHT = "weight";
+
     // Global configuration elements
     public static final String ELEMENT_ALLOWSLOPPYNEGOTIATION = "AllowSloppyNegotiation";
     public static final String ELEMENT_PORT = "Port";
@@ -160,6 +187,78 @@ public class Configuration {
      */
     private final int maxRecvTextPduSequenceLength = 4;
 
+    /**
+     * The allocator of the buffers, into which the segments of received PDUs are read.
+     * <p>
+     * By default released data segments are kept in size classes for reuse by all connections, so that receiving a
+     * Data-Out PDU does not need to allocate a new data segment. Embedding applications may plug in a different
+     * allocator, e.g. one handing out direct buffers, before the {@link TargetServer} is started.
+     */
+    private IBufferAllocator receiveBufferAllocator = new SizeClassedBufferAllocator(false);
+
+    /**
+     * Toggles the assembly of received write data before it is passed to the storage module.
+     * <p>
+     * If <code>true</code>, the data segments of the Data-Out PDUs of a burst are placed in a buffer from the
+     * {@link #receiveBufferAllocator} according to their <code>BufferOffset</code> and stored with a single write per
+     * burst. This reduces the number of calls to the storage module, which matters for backends with a high per-call
+     * cost. If <code>false</code>, each data segment is stored as soon as it has been received.
+     */
+    private boolean burstAssembly = true;
+
+    /**
+     * The length in bytes up to which the write data of a whole task, instead of a single burst, is assembled before
+     * it is stored.
+     */
+    private int maxTaskAssemblyLength = 1024 * 1024;
+
+    /**
+     * The number of bytes read from the storage module with a single call when serving a READ command, which is
+     * rounded down to a multiple of the negotiated <code>MaxRecvDataSegmentLength</code>.
+     */
+    private int readChunkLength = 1024 * 1024;
+
+    /**
+     * The number of chunks of a single READ command, which are read from the storage module concurrently. This is also
+     * the number of threads of the target-wide pool performing these reads. A value of <code>1</code> reads each
+     * command sequentially on the thread processing it.
+     * <p>
+     * Striped, mirrored and cloud storage modules need several requests in flight to reach their throughput, but
+     * every chunk in flight occupies a buffer from the {@link #receiveBufferAllocator}.
+     */
+    private int parallelReads = 4;
+
+    /**
+     * The number of bytes copied with a single read and write, or transfer, by server-side copies (<code>EXTENDED
+     * COPY</code>).
+     */
+    private int copyChunkLength = 1024 * 1024;
+
+    /**
+     * The maximum number of bytes per second copied by all server-side copies together, so that they do not starve the
+     * commands of the initiators. A value of <code>0</code> disables the limit.
+     */
+    private long copyBandwidth = 128L * 1024 * 1024;
+
+    /**
+     * The number of server-side copies executed concurrently. Further copies wait until one of them has finished.
+     */
+    private int concurrentCopies = 2;
+
+    /**
+     * The number of milliseconds a new connection may take from being accepted until it enters the full feature phase,
+     * before it is closed. Without a limit, an initiator which stays silent or never finishes its login occupies a
+     * worker thread for good. A value of <code>0</code> disables the timeout.
+     */
+    private int loginTimeout = 15000;
+
+    /**
+     * Publishes the command counters and latency histograms of the targets and sessions. By default they are
+     * registered as MXBeans with the platform MBean server, <code>null</code> disables the export, but not the
+     * recording.
+     */
+    private MetricsExporter metricsExporter = new JmxMetricsExporter();
+
     public Configuration(final String pTargetAddress, String externalTargetAddress, int externalPort) throws IOException {
         this.port = 3260;
         this.externalPort = externalPort;
@@ -213,6 +312,86 @@ public class Configuration {
         return targets;
     }
 
+    public IBufferAllocator getReceiveBufferAllocator () {
+        return receiveBufferAllocator;
+    }
+
+    public void setReceiveBufferAllocator (final IBufferAllocator receiveBufferAllocator) {
+        this.receiveBufferAllocator = receiveBufferAllocator;
+    }
+
+    public boolean getBurstAssembly () {
+        return burstAssembly;
+    }
+
+    public void setBurstAssembly (final boolean burstAssembly) {
+        this.burstAssembly = burstAssembly;
+    }
+
+    public int getMaxTaskAssemblyLength () {
+        return maxTaskAssemblyLength;
+    }
+
+    public void setMaxTaskAssemblyLength (final int maxTaskAssemblyLength) {
+        this.maxTaskAssemblyLength = maxTaskAssemblyLength;
+    }
+
+    public int getReadChunkLength () {
+        return readChunkLength;
+    }
+
+    public void setReadChunkLength (final int readChunkLength) {
+        this.readChunkLength = readChunkLength;
+    }
+
+    public int getParallelReads () {
+        return parallelReads;
+    }
+
+    public void setParallelReads (final int parallelReads) {
+        this.parallelReads = parallelReads;
+    }
+
+    public int getCopyChunkLength () {
+        return copyChunkLength;
+    }
+
+    public void setCopyChunkLength (final int copyChunkLength) {
+        this.copyChunkLength = copyChunkLength;
+    }
+
+    public long getCopyBandwidth () {
+        return copyBandwidth;
+    }
+
+    public void setCopyBandwidth (final long copyBandwidth) {
+        this.copyBandwidth = copyBandwidth;
+    }
+
+    public int getLoginTimeout () {
+        return loginTimeout;
+    }
+
+    public void setLoginTimeout (final int loginTimeout) {
+        this.loginTimeout = loginTimeout;
+    }
+
+    public MetricsExporter getMetricsExporter () {
+        return metricsExporter;
+    }
+
+    public void setMetricsExporter (final MetricsExporter metricsExporter) {
+        this.metricsExporter = metricsExporter;
+    }
+
+    public int getConcurrentCopies () {
+        return concurrentCopies;
+    }
+
+    public void setConcurrentCopies (final int concurrentCopies) {
+        this.concurrentCopies = concurrentCopies;
+    }
+
     public static Configuration create (final String pTargetAddress) throws SAXException , ParserConfigurationException , IOException {
         return create(CONFIGURATION_SCHEMA_FILE, CONFIGURATION_CONFIG_FILE, pTargetAddress);
     }
@@ -336,6 +515,8 @@ public class Configuration {
                 break;
         }
 
+        final Node storageNode = nextNode;
+
         // Getting storagepath
         nextNode = nextNode.getFirstChild();
         nextNode = chopWhiteSpaces(nextNode);
@@ -354,10 +535,66 @@ public class Configuration {
             create = false;
             // assert nextNode.getLocalName().equals(ELEMENT_DONTCREATE);
         }
-        final IStorageModule module = RandomAccessStorageModule.open(new File(storageFilePath), storageLength, create, kind);
+        IStorageModule module = RandomAccessStorageModule.open(new File(storageFilePath), storageLength, create, kind);
+
+        // I/O scheduler (optional)
+        nextNode = chopWhiteSpaces(storageNode.getNextSibling());
+        if (nextNode != null && ELEMENT_IO_SCHEDULER.equals(nextNode.getLocalName())) {
+            module = parseIoSchedulerElement((Element) nextNode, module);
+            nextNode = chopWhiteSpaces(nextNode.getNextSibling());
+        }
+
+        // QoS (optional)
+        QosPolicy qosPolicy = QosPolicy.UNLIMITED;
+        if (nextNode != null && ELEMENT_QOS.equals(nextNode.getLocalName())) {
+            qosPolicy = parseQosElement((Element) nextNode);
+        }
+
+        return new Target(targetName, targetAlias, module, qosPolicy);
 
-        return new Target(targetName, targetAlias, module);
+    }
+
+    /**
+     * Puts an I/O scheduler in front of the storage module of a target. Times are given in microseconds, missing
+     * attributes select the defaults of {@link ElevatorStorageModule}.
+     * 
+     * @param ioSchedulerElement the <code>IoScheduler</code> element of a target
+     * @param module the storage module of the target
+     * @return the scheduled storage module
+     */
+    protected static IStorageModule parseIoSchedulerElement (final Element ioSchedulerElement, final IStorageModule module) {
+        final String window = ioSchedulerElement.getAttribute(ATTRIBUTE_WINDOW);
+        final String deadline = ioSchedulerElement.getAttribute(ATTRIBUTE_DEADLINE);
+        final String maxMergeLength = ioSchedulerElement.getAttribute(ATTRIBUTE_MAX_MERGE_LENGTH);
+        final String maxBatchSize = ioSchedulerElement.getAttribute(ATTRIBUTE_MAX_BATCH_SIZE);
+        return new ElevatorStorageModule(module, window.isEmpty() ? ElevatorStorageModule.DEFAULT_WINDOW_NANOS : TimeUnit.MICROSECONDS.toNanos(Long.parseLong(window)), deadline.isEmpty() ? ElevatorStorageModule.DEFAULT_DEADLINE_NANOS : TimeUnit.MICROSECONDS.toNanos(Long.parseLong(deadline)), maxMergeLength.isEmpty() ? ElevatorStorageModule.DEFAULT_MAX_MERGE_LENGTH : Integer.parseInt(maxMergeLength), maxBatchSize.isEmpty() ? ElevatorStorageModule.DEFAULT_MAX_BATCH_SIZE : Integer.parseInt(maxBatchSize));
+    }
+
+    /**
+     * Parses the QoS limits of a target and of the initiators accessing it. Rates are given in commands or bytes per
+     * second, missing attributes mean unlimited.
+     * 
+     * @param qosElement the <code>QoS</code> element of a target
+     * @return the QoS policy of the target
+     */
+    protected static QosPolicy parseQosElement (final Element qosElement) {
+        final Map<String , QosLimits> initiatorLimits = new HashMap<String , QosLimits>();
+        final NodeList initiators = qosElement.getElementsByTagNameNS("*", ELEMENT_INITIATOR);
+        for (int i = 0; i < initiators.getLength(); i++) {
+            final Element initiator = (Element) initiators.item(i);
+            initiatorLimits.put(initiator.getAttribute(ATTRIBUTE_NAME), parseQosLimits(initiator));
+        }
+        return new QosPolicy(parseQosLimits(qosElement), initiatorLimits);
+    }
+
+    private static QosLimits parseQosLimits (final Element element) {
+        final String weight = element.getAttribute(ATTRIBUTE_WEIGHT);
+        return new QosLimits(parseRate(element, ATTRIBUTE_IOPS), parseRate(element, ATTRIBUTE_IOPS_BURST), parseRate(element, ATTRIBUTE_BANDWIDTH), parseRate(element, ATTRIBUTE_BANDWIDTH_BURST), weight.isEmpty() ? 1 : Integer.parseInt(weight));
+    }
 
+    private static long parseRate (final Element element, final String attribute) {
+        final String value = element.getAttribute(attribute);
+        return value.isEmpty() ? 0 : Long.parseLong(value);
     }
 
     protected static Node chopWhiteSpaces (final Node node) {
@@ -1,7 +1,16 @@
 package org.jscsi.target;
 
 
+import org.jscsi.target.metrics.TargetMetrics;
+import org.jscsi.target.qos.QosPolicy;
+import org.jscsi.target.qos.QosScheduler;
+import org.jscsi.target.scsi.ResponseDataCache;
+import org.jscsi.target.scsi.inquiry.DeviceIdentificationVpdPage;
+import org.jscsi.target.scsi.inquiry.NaaIdentifier;
+import org.jscsi.target.storage.ElevatorStorageModule;
 import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.jscsi.target.storage.RangeLock;
 
 
 /**
@@ -18,10 +27,57 @@ public class Target {
     private final String targetAlias;
     private final IStorageModule storageModule;
 
+    /**
+     * Locks ranges of logical blocks of the {@link #storageModule} across all sessions.
+     */
+    private final RangeLock rangeLock = new RangeLock();
+
+    /**
+     * Identifies the target's logical unit, e.g. in the parameter lists of <code>EXTENDED COPY</code> commands.
+     */
+    private final NaaIdentifier logicalUnitIdentifier;
+
+    private final DeviceIdentificationVpdPage deviceIdentificationVpdPage;
+
+    /**
+     * The serialized responses to <code>INQUIRY</code>, <code>MODE SENSE</code>, <code>READ CAPACITY</code> and
+     * <code>REPORT LUNS</code> commands, which are shared by all sessions.
+     */
+    private final ResponseDataCache responseDataCache;
+
+    /**
+     * Counts the commands executed on this target by all sessions and records their latencies.
+     */
+    private final TargetMetrics metrics = new TargetMetrics();
+
+    /**
+     * Enforces the limits of the storage accesses of all sessions.
+     */
+    private final QosScheduler qosScheduler;
+
     public Target (String targetName, String targetAlias, IStorageModule storageModule) {
+        this(targetName, targetAlias, storageModule, QosPolicy.UNLIMITED);
+    }
+
+    public Target (String targetName, String targetAlias, IStorageModule storageModule, QosPolicy qosPolicy) {
         this.targetName = targetName;
         this.targetAlias = targetAlias;
         this.storageModule = storageModule;
+        this.logicalUnitIdentifier = new NaaIdentifier(targetName);
+        this.deviceIdentificationVpdPage = new DeviceIdentificationVpdPage(this);
+        this.responseDataCache = new ResponseDataCache(storageModule);
+        this.qosScheduler = new QosScheduler(qosPolicy);
+
+        metrics.addHistogram("RangeLockHoldMicros", rangeLock.getHoldTimeHistogram());
+        metrics.addHistogram("RangeLockWaitMicros", rangeLock.getWaitTimeHistogram());
+        IStorageModule module = storageModule;
+        if (module instanceof ElevatorStorageModule) {
+            final ElevatorStorageModule scheduler = (ElevatorStorageModule) module;
+            metrics.addHistogram("ElevatorBatchSize", scheduler.getBatchSizeHistogram());
+            metrics.addHistogram("ElevatorMergeSize", scheduler.getMergeSizeHistogram());
+            module = scheduler.getStorageModule();
+        }
+        if (module instanceof RandomAccessStorageModule) metrics.addHistogram("GroupCommitBatchSize", ((RandomAccessStorageModule) module).getGroupCommit().getBatchSizeHistogram());
     }
 
     public String getTargetName () {
@@ -36,6 +92,41 @@ public class Target {
         return storageModule;
     }
 
+    /**
+     * Returns the locks on ranges of logical blocks of the target's {@link IStorageModule}, which are shared by all
+     * sessions.
+     * 
+     * @return the range locks of the storage module
+     */
+    public RangeLock getRangeLock () {
+        return rangeLock;
+    }
+
+    public NaaIdentifier getLogicalUnitIdentifier () {
+        return logicalUnitIdentifier;
+    }
+
+    public DeviceIdentificationVpdPage getDeviceIdentificationVpdPage () {
+        return deviceIdentificationVpdPage;
+    }
+
+    public ResponseDataCache getResponseDataCache () {
+        return responseDataCache;
+    }
+
+    public TargetMetrics getMetrics () {
+        return metrics;
+    }
+
+    /**
+     * Returns the scheduler enforcing the target's {@link QosPolicy}, which is shared by all sessions.
+     * 
+     * @return the QoS scheduler of the target
+     */
+    public QosScheduler getQosScheduler () {
+        return qosScheduler;
+    }
+
     @Override
     public int hashCode () {
         final int prime = 31;
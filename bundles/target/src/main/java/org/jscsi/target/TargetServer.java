@@ -21,6 +21,11 @@ import java.util.Vector;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -33,6 +38,7 @@ import org.jscsi.target.connection.Connection.TargetConnection;
 import org.jscsi.target.connection.TargetSession;
 import org.jscsi.target.scsi.inquiry.DeviceIdentificationVpdPage;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,19 +84,52 @@ public class TargetServer implements Callable<Void> {
      */
     private final ExecutorService workerPool;
 
+    /**
+     * The pool reading the chunks of large READ commands concurrently, see {@link Configuration#getParallelReads()}.
+     */
+    private final ExecutorService readPool;
+
+    /**
+     * Closes the connections which have not finished their login within {@link Configuration#getLoginTimeout()}.
+     */
+    private final ScheduledExecutorService loginTimer;
+
+    /**
+     * Executes server-side copies between the targets' storage modules (<code>EXTENDED COPY</code>).
+     */
+    private final CopyManager copyManager;
+
     /**
      * A target-wide counter used for providing the value of sent {@link ProtocolDataUnit}s'
      * <code>Target Transfer Tag</code> field, unless that field is reserved.
      */
     private static final AtomicInteger nextTargetTransferTag = new AtomicInteger();
 
+    /**
+     * The number of connection requests queued by the operating system until they are accepted. After a restart of
+     * the target, all initiators reconnect at once, and connection requests exceeding the default backlog of 50 would
+     * only be retried after a second.
+     */
+    private static final int ACCEPT_BACKLOG = 1024;
+
     /**
      * while this value is true, the target is active.
      */
     private boolean running = true;
 
     public TargetServer (final Configuration conf) {
+        this(conf, createLoginTimer());
+    }
+
+    /**
+     * Creates a target server whose login timeouts are scheduled by the given executor.
+     * 
+     * @param conf the configuration
+     * @param loginTimer the executor scheduling the {@link LoginTimeout}s, shut down by {@link #call()}
+     */
+    TargetServer (final Configuration conf, final ScheduledExecutorService loginTimer) {
         this.config = conf;
+        this.loginTimer = loginTimer;
 
         LOGGER.debug("Starting jSCSI-target: ");
 
@@ -105,10 +144,37 @@ public class TargetServer implements Callable<Void> {
             targets.put(curTargetInfo.getTargetName(), curTargetInfo);
             // print configuration and medium details
             LOGGER.debug("   target name:    " + curTargetInfo.getTargetName() + " loaded.");
+            if (getConfig().getMetricsExporter() != null) getConfig().getMetricsExporter().targetAdded(curTargetInfo);
         }
 
         this.deviceIdentificationVpdPage = new DeviceIdentificationVpdPage(this);
         this.workerPool = Executors.newCachedThreadPool();
+        this.readPool = Executors.newFixedThreadPool(Math.max(1, getConfig().getParallelReads()), new ThreadFactory() {
+
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread (final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jSCSI Target Reader " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.copyManager = new CopyManager(getConfig().getCopyChunkLength(), getConfig().getCopyBandwidth(), Math.max(1, getConfig().getConcurrentCopies()));
+    }
+
+    private static ScheduledExecutorService createLoginTimer () {
+        final ScheduledThreadPoolExecutor loginTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread (final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jSCSI Target Login Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        loginTimer.setRemoveOnCancelPolicy(true);
+        return loginTimer;
     }
 
     /**
@@ -200,6 +266,10 @@ public class TargetServer implements Callable<Void> {
         target.call();
     }
 
+    /**
+     * Logs in and runs a connection accepted by {@link TargetServer#call()}, so that the accept loop does not wait for
+     * the first Login PDU of one initiator while others are connecting.
+     */
     private class ConnectionHandler implements Callable {
 
         private final TargetConnection targetConnection;
@@ -210,17 +280,29 @@ public class TargetServer implements Callable<Void> {
 
         @Override
         public Void call() throws Exception {
+            final ScheduledFuture< ? > loginTimeout = scheduleLoginTimeout();
+            try {
+                createSession();
+            } catch (Exception e) {
+                // including runtime exceptions, which would otherwise leave the connection open
+                LOGGER.info("Throws Exception", e);
+                if (loginTimeout != null) loginTimeout.cancel(false);
+                targetConnection.close();
+                return null;
+            }
             try {
                 targetConnection.call();
             } catch (Exception e) {
                 LOGGER.error("running target error:", e);
             } finally {
+                if (loginTimeout != null) loginTimeout.cancel(false);
                 // coming back from call() means the session is ended
                 // we can delete the target from local cache.
                 synchronized (targets) {
                     Target target = targetConnection.getTargetSession().getTarget();
                     if (target != null) {
                         targets.remove(target.getTargetName());
+                        if (getConfig().getMetricsExporter() != null) getConfig().getMetricsExporter().targetRemoved(target);
                         try {
                             target.getStorageModule().close();
                         } catch (Exception e) {
@@ -234,6 +316,70 @@ public class TargetServer implements Callable<Void> {
             }
             return null;
         }
+
+        /**
+         * Receives the first Login PDU and creates the new session.
+         */
+        private void createSession () throws DigestException , InternetSCSIException , IOException , SettingsException {
+            final ProtocolDataUnit pdu = targetConnection.receivePdu();
+            // confirm OpCode-
+            if (pdu.getBasicHeaderSegment().getOpCode() != OperationCode.LOGIN_REQUEST) throw new InternetSCSIException();
+            // get initiatorSessionID
+
+            LoginRequestParser parser = (LoginRequestParser) pdu.getBasicHeaderSegment().getParser();
+            ISID initiatorSessionID = parser.getInitiatorSessionID();
+
+            /*
+             * TODO get (new or existing) session based on TSIH But since we don't do session reinstatement and
+             * MaxConnections=1, we can just create a new one.
+             */
+            // set ExpCmdSN (PDU is immediate, hence no ++)
+            TargetSession session = new TargetSession(TargetServer.this, targetConnection, initiatorSessionID, parser.getCommandSequenceNumber(), parser.getExpectedStatusSequenceNumber());
+
+            sessions.add(session);
+            if (getConfig().getMetricsExporter() != null) getConfig().getMetricsExporter().sessionAdded(session);
+        }
+
+        /**
+         * Closes the connection if it has not entered the full feature phase within the login timeout.
+         * 
+         * @return the scheduled timeout, or <code>null</code> if the login timeout is disabled
+         */
+        private ScheduledFuture< ? > scheduleLoginTimeout () {
+            if (getConfig().getLoginTimeout() <= 0) return null;
+            return loginTimer.schedule(new LoginTimeout(targetConnection), getConfig().getLoginTimeout(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Closes a connection which has not entered the full feature phase when its login timeout expires.
+     */
+    static final class LoginTimeout implements Runnable {
+
+        private final TargetConnection targetConnection;
+
+        LoginTimeout (final TargetConnection targetConnection) {
+            this.targetConnection = targetConnection;
+        }
+
+        @Override
+        public void run () {
+            try {
+                if (expire()) LOGGER.info("closed connection, login timed out");
+            } catch (IOException e) {
+                LOGGER.error("Exception throws", e);
+            }
+        }
+
+        /**
+         * Closes the connection, unless it has finished its login.
+         * 
+         * @return <code>true</code> if the connection has been closed
+         * @throws IOException if an I/O error occurs
+         */
+        boolean expire () throws IOException {
+            return targetConnection.expireLogin();
+        }
     }
 
     public Void call () throws Exception {
@@ -246,7 +392,7 @@ public class TargetServer implements Callable<Void> {
             serverSocketChannel.configureBlocking(true);
 
             // Making sure the socket is bound to the address used in the config.
-            serverSocketChannel.socket().bind(new InetSocketAddress(getConfig().getTargetAddress(), getConfig().getPort()));
+            serverSocketChannel.socket().bind(new InetSocketAddress(getConfig().getTargetAddress(), getConfig().getPort()), ACCEPT_BACKLOG);
 
             while (running) {
                 // Accept the connection request.
@@ -257,37 +403,8 @@ public class TargetServer implements Callable<Void> {
                 // deactivate Nagle algorithm
                 socketChannel.socket().setTcpNoDelay(true);
 
-                TargetConnection newConnection = new TargetConnection(socketChannel, true);
-                try {
-                    final ProtocolDataUnit pdu = newConnection.receivePdu();
-                    // confirm OpCode-
-                    if (pdu.getBasicHeaderSegment().getOpCode() != OperationCode.LOGIN_REQUEST) throw new InternetSCSIException();
-                    // get initiatorSessionID
-                    
-                    LoginRequestParser parser = (LoginRequestParser) pdu.getBasicHeaderSegment().getParser();
-                    ISID initiatorSessionID = parser.getInitiatorSessionID();
-
-                    /*
-                     * TODO get (new or existing) session based on TSIH But since we don't do session reinstatement and
-                     * MaxConnections=1, we can just create a new one.
-                     */
-                    TargetSession session = new TargetSession(this, newConnection, initiatorSessionID, parser.getCommandSequenceNumber(),// set
-                                                                                                                                      // ExpCmdSN
-                                                                                                                                      // (PDU
-                                                                                                                                      // is
-                                                                                                                                      // immediate,
-                                                                                                                                      // hence
-                                                                                                                                      // no
-                                                                                                                                      // ++)
-                    parser.getExpectedStatusSequenceNumber());
-
-                    sessions.add(session);
-                    // threadPool.submit(connection);// ignore returned Future
-                    workerPool.submit(new ConnectionHandler(newConnection)); // ignore returned Future
-                } catch (DigestException | InternetSCSIException | SettingsException e) {
-                    LOGGER.info("Throws Exception", e);
-                    continue;
-                }
+                TargetConnection newConnection = new TargetConnection(socketChannel, true, getConfig().getReceiveBufferAllocator());
+                workerPool.submit(new ConnectionHandler(newConnection)); // ignore returned Future
             }
         } catch (IOException e) {
             // this block is entered if the desired port is already in use
@@ -296,6 +413,15 @@ public class TargetServer implements Callable<Void> {
 
         System.out.println("Closing socket channel.");
         serverSocketChannel.close();
+        readPool.shutdown();
+        loginTimer.shutdownNow();
+        if (getConfig().getMetricsExporter() != null) {
+            synchronized (targets) {
+                for (Target target : targets.values()) {
+                    getConfig().getMetricsExporter().targetRemoved(target);
+                }
+            }
+        }
         for(TargetSession session: sessions){
             System.out.println("Commiting uncommited changes.");
             session.getStorageModule().close();
@@ -307,6 +433,14 @@ public class TargetServer implements Callable<Void> {
         return config;
     }
 
+    public ExecutorService getReadPool () {
+        return readPool;
+    }
+
+    public CopyManager getCopyManager () {
+        return copyManager;
+    }
+
     public DeviceIdentificationVpdPage getDeviceIdentificationVpdPage () {
         return deviceIdentificationVpdPage;
     }
@@ -323,7 +457,23 @@ public class TargetServer implements Callable<Void> {
      * @param session the session to remove from the list of active sessions
      */
     public synchronized void removeTargetSession (TargetSession session) {
-        sessions.remove(session);
+        if (sessions.remove(session) && getConfig().getMetricsExporter() != null) getConfig().getMetricsExporter().sessionRemoved(session);
+    }
+
+    /**
+     * Returns the active sessions accessing a target.
+     *
+     * @param target the target
+     * @return the sessions of the target
+     */
+    public List<TargetSession> getTargetSessions (Target target) {
+        final List<TargetSession> targetSessions = new ArrayList<>();
+        synchronized (sessions) {
+            for (TargetSession session : sessions) {
+                if (session.getTarget() == target) targetSessions.add(session);
+            }
+        }
+        return targetSessions;
     }
 
     public String[] getTargetNames () {
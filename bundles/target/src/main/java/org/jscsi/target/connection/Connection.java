@@ -2,25 +2,42 @@ package org.jscsi.target.connection;
 
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.channels.SocketChannel;
 import java.security.DigestException;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.OperationNotSupportedException;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.AbstractMessageParser;
+import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.OperationCode;
 import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.parser.data.DataInParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.connection.phase.TargetLoginPhase;
 import org.jscsi.target.connection.phase.TargetPhase;
+import org.jscsi.target.connection.stage.TMStage;
 import org.jscsi.target.connection.stage.fullfeature.PingStage;
 import org.jscsi.target.connection.stage.fullfeature.ReadStage;
 import org.jscsi.target.settings.ConnectionSettingsNegotiator;
 import org.jscsi.target.settings.SessionSettingsNegotiator;
 import org.jscsi.target.settings.Settings;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.settings.StageSettings;
+import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.FastByteArrayProvider;
+import org.jscsi.target.util.LogHistogram;
 import org.jscsi.target.util.SerialArithmeticNumber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +58,8 @@ public interface Connection extends Callable<Void> {
 
     Settings getSettings ();
 
+    StageSettings getStageSettings ();
+
     SerialArithmeticNumber getStatusSequenceNumber ();
 
     boolean isLeadingConnection ();
@@ -49,6 +68,61 @@ public interface Connection extends Callable<Void> {
 
     void sendPdu (ProtocolDataUnit pDataUnit) throws InterruptedException , IOException , InternetSCSIException;
 
+    void sendPdu (ProtocolDataUnit pDataUnit, PooledBuffer pOwner) throws InterruptedException , IOException , InternetSCSIException;
+
+    void sendPdu (ProtocolDataUnit pDataUnit, IStorageModule pStorage, long pStorageIndex, int pLength) throws InterruptedException , IOException , InternetSCSIException;
+
+    void flush () throws InterruptedException , IOException;
+
+    /**
+     * Returns the nanoseconds spent in {@link #receivePdu()} since the last call of {@link #resetIoNanos()}.
+     * 
+     * @return the time spent waiting for received PDUs
+     */
+    long getReceiveNanos ();
+
+    /**
+     * Returns the nanoseconds spent sending PDUs and in {@link #flush()} since the last call of {@link #resetIoNanos()}.
+     * 
+     * @return the time spent sending PDUs
+     */
+    long getSendNanos ();
+
+    /**
+     * Starts measuring the I/O times of a new command, see {@link #getReceiveNanos()} and {@link #getSendNanos()}.
+     */
+    void resetIoNanos ();
+
+    /**
+     * Returns the status of the last SCSI Response PDU or Data-In PDU with status sent since the last call of
+     * {@link #resetIoNanos()}.
+     * 
+     * @return the status sent for the current command, or <code>null</code> if none has been sent
+     */
+    SCSIStatus getSentStatus ();
+
+    /**
+     * Returns the residual underflow of the PDU whose status is returned by {@link #getSentStatus()}, the number of
+     * bytes of the expected data transfer length which have not been transferred.
+     * 
+     * @return the residual count if the residual underflow flag was set, <code>0</code> otherwise
+     */
+    long getSentResidualUnderflow ();
+
+    /**
+     * Returns a histogram of the number of PDUs waiting to be written to the socket, sampled before each write.
+     * 
+     * @return the send queue depth histogram
+     */
+    LogHistogram getSendQueueDepthHistogram ();
+
+    /**
+     * Returns a histogram of the number of PDUs written to the socket with a single gathering write.
+     * 
+     * @return the send batch size histogram
+     */
+    LogHistogram getSendBatchSizeHistogram ();
+
     ConnectionSettingsNegotiator getConnectionSettingsNegotiator ();
 
     void setSession (TargetSession pSession);
@@ -112,6 +186,64 @@ public interface Connection extends Callable<Void> {
          */
         private ProtocolDataUnit lastReceivedPDU;
 
+        /**
+         * The PDUs read by the {@link #receiver} which have not been processed yet, interspersed with the running
+         * {@link Task}s which have been aborted while waiting for a PDU, and followed by the exception which stopped the
+         * receiver, if any.
+         */
+        private final BlockingQueue<Object> receivedPdus = new LinkedBlockingQueue<>();
+
+        /**
+         * Reads the PDUs of the full feature phase from the socket, so that task management requests can be carried out
+         * while a command is executed, see {@link #startReceiver()}.
+         */
+        private Thread receiver;
+
+        /**
+         * Set once the login phase has either been finished or been cut short by {@link #expireLogin()}, whichever
+         * happens first.
+         */
+        private final AtomicBoolean loginEnded = new AtomicBoolean();
+
+        /**
+         * The thread executing the stages of the current command, which has last called {@link #resetIoNanos()}. Only
+         * the PDUs sent by this thread are measured and noted, not those sent concurrently by other threads, like the
+         * responses to task management requests.
+         */
+        private volatile Thread ioThread;
+
+        /**
+         * The nanoseconds spent in {@link #receivePdu()} since the last call of {@link #resetIoNanos()}. Like the
+         * {@link #sendNanos} and the {@link #sentStatus}, only accessed by the {@link #ioThread}.
+         */
+        private long receiveNanos;
+
+        /**
+         * The nanoseconds spent sending PDUs and in {@link #flush()} since the last call of {@link #resetIoNanos()}.
+         */
+        private long sendNanos;
+
+        /**
+         * The last status sent since the last call of {@link #resetIoNanos()}.
+         */
+        private SCSIStatus sentStatus;
+
+        /**
+         * The residual underflow sent with the {@link #sentStatus}.
+         */
+        private long sentResidualUnderflow;
+
+        /**
+         * Stops waiting for the Data-Out PDUs of a task which has been aborted.
+         */
+        private final Task.AbortHandler abortHandler = new Task.AbortHandler() {
+
+            @Override
+            public void aborted (final Task task) {
+                receivedPdus.add(task);
+            }
+        };
+
         /**
          * The {@link TargetConnection} constructor.
          * 
@@ -120,8 +252,20 @@ public interface Connection extends Callable<Void> {
          *            associated with its enclosing session
          */
         public TargetConnection (SocketChannel socketChannel, final boolean isLeadingConnection) {
+            this(socketChannel, isLeadingConnection, HeapBufferAllocator.getInstance());
+        }
+
+        /**
+         * The {@link TargetConnection} constructor.
+         * 
+         * @param socketChannel used for sending and receiving PDUs
+         * @param isLeadingConnection <code>true</code> if and only if this connection is the first connection
+         *            associated with its enclosing session
+         * @param receiveBufferAllocator the allocator of the buffers into which received PDUs are read
+         */
+        public TargetConnection (SocketChannel socketChannel, final boolean isLeadingConnection, final IBufferAllocator receiveBufferAllocator) {
             this.isLeadingConnection = isLeadingConnection;
-            senderWorker = new TargetSenderWorker(this, socketChannel);
+            senderWorker = new TargetSenderWorker(this, socketChannel, receiveBufferAllocator);
         }
 
         /**
@@ -166,6 +310,17 @@ public interface Connection extends Callable<Void> {
          * @throws SettingsException will not happen
          */
         public ProtocolDataUnit receivePdu () throws DigestException , InternetSCSIException , IOException , SettingsException {
+            final long start = System.nanoTime();
+            try {
+                return nextPdu();
+            } finally {
+                receiveNanos += System.nanoTime() - start;
+            }
+        }
+
+        private ProtocolDataUnit nextPdu () throws DigestException , InternetSCSIException , IOException , SettingsException {
+            if (receiver != null) return takeReceivedPdu();
+
             lastReceivedPDU = senderWorker.receiveFromWire();
 
             if (lastReceivedPDU.getBasicHeaderSegment().getOpCode().equals(OperationCode.NOP_OUT)) {
@@ -175,7 +330,9 @@ public interface Connection extends Callable<Void> {
                     // java.sql.Timestamp(System.currentTimeMillis()).toString() + "\n" + lastReceivedPDU +
                     // "\n******************************");
                     new PingStage(new TargetFullFeaturePhase(this)).execute(lastReceivedPDU);
-                } catch (InterruptedException e) {}
+                } catch (InterruptedException e) {} finally {
+                    lastReceivedPDU.release();
+                }
                 lastReceivedPDU = senderWorker.receiveFromWire();
             }
 
@@ -185,6 +342,94 @@ public interface Connection extends Callable<Void> {
             return lastReceivedPDU;
         }
 
+        /**
+         * Returns the next {@link ProtocolDataUnit} read by the {@link #receiver}, answering NOP-Out PDUs on the way.
+         * 
+         * @return the next received PDU
+         * @throws CancellationException if the running task has been aborted
+         * @throws DigestException if a digest error has occured
+         * @throws InternetSCSIException if a general iSCSI protocol error has been detected
+         * @throws IOException if the connection was closed
+         * @throws SettingsException will not happen
+         */
+        private ProtocolDataUnit takeReceivedPdu () throws DigestException , InternetSCSIException , IOException , SettingsException {
+            while (true) {
+                final Object received;
+                try {
+                    received = receivedPdus.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+
+                if (received instanceof ProtocolDataUnit) {
+                    lastReceivedPDU = (ProtocolDataUnit) received;
+                    if (!lastReceivedPDU.getBasicHeaderSegment().getOpCode().equals(OperationCode.NOP_OUT)) return lastReceivedPDU;
+                    try {
+                        new PingStage(new TargetFullFeaturePhase(this)).execute(lastReceivedPDU);
+                    } catch (InterruptedException e) {} finally {
+                        lastReceivedPDU.release();
+                    }
+                } else if (received instanceof Task) {
+                    // ignore tasks which have terminated in the meantime
+                    if (((Task) received).isRunning()) ((Task) received).checkAborted();
+                } else {
+                    // the receiver has stopped, as will all further calls
+                    receivedPdus.add(received);
+                    if (received instanceof DigestException) throw (DigestException) received;
+                    if (received instanceof InternetSCSIException) throw (InternetSCSIException) received;
+                    if (received instanceof SettingsException) throw (SettingsException) received;
+                    if (received instanceof IOException) throw (IOException) received;
+                    throw (RuntimeException) received;
+                }
+            }
+        }
+
+        /**
+         * Starts reading the PDUs of the full feature phase on a separate thread.
+         * <p>
+         * The thread registers each SCSI Command PDU as a {@link Task} of the session and carries out task management
+         * requests immediately, instead of queuing them behind the command being executed, which they may have to
+         * abort. All other PDUs are handed to {@link #receivePdu()} in the order they were received.
+         */
+        private void startReceiver () {
+            receiver = new Thread("jSCSI Target Receiver") {
+
+                @Override
+                public void run () {
+                    receive();
+                }
+            };
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        /**
+         * Reads PDUs until the connection is closed, see {@link #startReceiver()}.
+         */
+        private void receive () {
+            try {
+                while (true) {
+                    final ProtocolDataUnit pdu = senderWorker.receiveFromWire();
+                    final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+                    if (bhs.getOpCode() == OperationCode.SCSI_TM_REQUEST) {
+                        try {
+                            new TMStage(new TargetFullFeaturePhase(this)).execute(pdu);
+                        } finally {
+                            pdu.release();
+                        }
+                        continue;
+                    }
+                    if (bhs.getOpCode() == OperationCode.SCSI_COMMAND) {
+                        targetSession.getTaskSet().add(new Task(bhs.getInitiatorTaskTag(), bhs.getParser().getLogicalUnitNumber(), abortHandler));
+                    }
+                    receivedPdus.add(pdu);
+                }
+            } catch (DigestException | InternetSCSIException | IOException | SettingsException | InterruptedException | RuntimeException e) {
+                receivedPdus.add(e instanceof InterruptedException ? new InterruptedIOException() : e);
+            }
+        }
+
         /**
          * Serializes and sends a {@link ProtocolDataUnit} over the connection.
          * 
@@ -197,7 +442,129 @@ public interface Connection extends Callable<Void> {
             // System.out.println("******************************\nSending\nSystem Time: " + new
             // java.sql.Timestamp(System.currentTimeMillis()).toString() + "\n" + pdu +
             // "\n******************************");
-            senderWorker.sendOverWire(pdu);
+            final long start = System.nanoTime();
+            try {
+                senderWorker.sendOverWire(pdu);
+                noteStatus(pdu);
+            } finally {
+                addSendNanos(start);
+            }
+        }
+
+        /**
+         * Sends a {@link ProtocolDataUnit} whose data segment is a view of a pooled buffer, without copying the data
+         * segment.
+         * <p>
+         * The buffer must have been {@link PooledBuffer#retain() retained} for this PDU, it is released once the data
+         * segment has been written.
+         * 
+         * @param pdu the PDU to send
+         * @param owner the pooled buffer backing the data segment of the PDU
+         * @throws InterruptedException
+         * @throws IOException
+         * @throws InternetSCSIException
+         */
+        public void sendPdu (ProtocolDataUnit pdu, PooledBuffer owner) throws InterruptedException , IOException , InternetSCSIException {
+            final long start = System.nanoTime();
+            try {
+                senderWorker.sendOverWire(pdu, owner);
+                noteStatus(pdu);
+            } finally {
+                addSendNanos(start);
+            }
+        }
+
+        /**
+         * Sends a {@link ProtocolDataUnit} whose data segment is transferred directly from storage to the socket,
+         * without being copied into the Java heap.
+         * <p>
+         * The stored bytes are read asynchronously, so {@link #flush()} must be called before they may be modified.
+         * 
+         * @param pdu the PDU to send, its data segment is ignored
+         * @param storage the storage holding the data segment
+         * @param storageIndex the position of the data segment in storage
+         * @param length the length of the data segment, must be a multiple of four
+         * @throws InterruptedException
+         * @throws IOException
+         * @throws InternetSCSIException
+         * @see IStorageModule#supportsTransferTo()
+         */
+        public void sendPdu (ProtocolDataUnit pdu, IStorageModule storage, long storageIndex, int length) throws InterruptedException , IOException , InternetSCSIException {
+            final long start = System.nanoTime();
+            try {
+                senderWorker.sendOverWire(pdu, storage, storageIndex, length);
+                noteStatus(pdu);
+            } finally {
+                addSendNanos(start);
+            }
+        }
+
+        /**
+         * Waits until all PDUs sent over this connection have been written to the socket.
+         * 
+         * @throws InterruptedException
+         * @throws IOException
+         */
+        public void flush () throws InterruptedException , IOException {
+            final long start = System.nanoTime();
+            try {
+                senderWorker.flush();
+            } finally {
+                addSendNanos(start);
+            }
+        }
+
+        public long getReceiveNanos () {
+            return receiveNanos;
+        }
+
+        public long getSendNanos () {
+            return sendNanos;
+        }
+
+        public void resetIoNanos () {
+            ioThread = Thread.currentThread();
+            receiveNanos = 0;
+            sendNanos = 0;
+            sentStatus = null;
+            sentResidualUnderflow = 0;
+        }
+
+        public SCSIStatus getSentStatus () {
+            return sentStatus;
+        }
+
+        public long getSentResidualUnderflow () {
+            return sentResidualUnderflow;
+        }
+
+        /**
+         * Adds the time since <i>start</i> to the {@link #sendNanos}, if called by the {@link #ioThread}.
+         * 
+         * @param start the value of {@link System#nanoTime()} when sending started
+         */
+        private void addSendNanos (final long start) {
+            if (Thread.currentThread() == ioThread) sendNanos += System.nanoTime() - start;
+        }
+
+        /**
+         * Remembers the status and residual underflow carried by a PDU sent by the {@link #ioThread}, see
+         * {@link #getSentStatus()}.
+         * 
+         * @param pdu the sent PDU
+         */
+        private void noteStatus (final ProtocolDataUnit pdu) {
+            if (Thread.currentThread() != ioThread) return;
+            final AbstractMessageParser parser = pdu.getBasicHeaderSegment().getParser();
+            if (parser instanceof SCSIResponseParser) {
+                final SCSIResponseParser responseParser = (SCSIResponseParser) parser;
+                sentStatus = responseParser.getStatus();
+                sentResidualUnderflow = responseParser.isResidualUnderflow() ? responseParser.getResidualCount() & 0xffffffffL : 0;
+            } else if (parser instanceof DataInParser && ((DataInParser) parser).isStatusFlag()) {
+                final DataInParser dataInParser = (DataInParser) parser;
+                sentStatus = dataInParser.getStatus();
+                sentResidualUnderflow = dataInParser.isResidualUnderflow() ? dataInParser.getResidualCount() & 0xffffffffL : 0;
+            }
         }
 
         /**
@@ -212,7 +579,7 @@ public interface Connection extends Callable<Void> {
             try {
                 // *** login phase ***
                 phase = new TargetLoginPhase(this);
-                if (phase.execute(lastReceivedPDU)) {
+                if (phase.execute(lastReceivedPDU) && loginEnded.compareAndSet(false, true)) {
                     LOGGER.debug("Login Phase successful");
 
                     // if this is the leading connection, set the session type
@@ -221,13 +588,19 @@ public interface Connection extends Callable<Void> {
                     targetSession.setTargetName(settings.getTargetName());
                     // *** full feature phase ***
                     phase = new TargetFullFeaturePhase(this);
+                    startReceiver();
 
                     phase.execute();
                 }
-                senderWorker.close();
             } catch (OperationNotSupportedException | IOException | InterruptedException | InternetSCSIException | DigestException
                     | SettingsException e) {
                 LOGGER.error("Exception throws", e);
+            } finally {
+                try {
+                    close();
+                } catch (IOException e) {
+                    LOGGER.error("Exception throws", e);
+                }
             }
 
             targetSession.removeTargetConnection(this);
@@ -241,6 +614,47 @@ public interface Connection extends Callable<Void> {
             return targetSession;
         }
 
+        /**
+         * Closes the connection after all PDUs passed to {@link #sendPdu(ProtocolDataUnit)} have been written.
+         * 
+         * @throws IOException if an I/O error occurs
+         */
+        public void close () throws IOException {
+            senderWorker.close();
+        }
+
+        /**
+         * Closes the socket of this connection, unless the login phase has already been finished. A thread waiting for
+         * the next Login PDU fails with an {@link IOException}, and a login phase finishing concurrently does not enter
+         * the full feature phase.
+         * 
+         * @return <code>true</code> if the login has been cut short
+         * @throws IOException if an I/O error occurs
+         */
+        public boolean expireLogin () throws IOException {
+            if (!loginEnded.compareAndSet(false, true)) return false;
+            senderWorker.abort();
+            return true;
+        }
+
+        /**
+         * Returns a histogram of the number of PDUs waiting to be written to the socket, sampled before each write.
+         * 
+         * @return the send queue depth histogram
+         */
+        public LogHistogram getSendQueueDepthHistogram () {
+            return senderWorker.getSendQueueDepthHistogram();
+        }
+
+        /**
+         * Returns a histogram of the number of PDUs written to the socket with a single gathering write.
+         * 
+         * @return the send batch size histogram
+         */
+        public LogHistogram getSendBatchSizeHistogram () {
+            return senderWorker.getSendBatchSizeHistogram();
+        }
+
         /**
          * Returns <code>true</code> if this is the leading connection, i.e. the first TargetConnection in the
          * connection's {@link TargetSession}. Otherwise <code>false</code> is returned.
@@ -269,6 +683,15 @@ public interface Connection extends Callable<Void> {
             return connectionSettingsNegotiator.getSettings();
         }
 
+        /**
+         * Returns the parameters read by the stages, which are resolved whenever a negotiation has finished.
+         * 
+         * @return the current {@link StageSettings}
+         */
+        public StageSettings getStageSettings () {
+            return connectionSettingsNegotiator.getStageSettings();
+        }
+
         public ConnectionSettingsNegotiator getConnectionSettingsNegotiator () {
             return connectionSettingsNegotiator;
         }
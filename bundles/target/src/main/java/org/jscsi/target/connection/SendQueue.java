@@ -0,0 +1,380 @@
+package org.jscsi.target.connection;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jscsi.jfr.FlightRecording;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.target.jfr.StorageReadEvent;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.LogHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The outbound queue of a {@link Connection}.
+ * <p>
+ * Serialized PDUs are enqueued by the stages and written to the socket by a dedicated writer thread, so command
+ * execution is decoupled from slow network consumers. The writer takes all PDUs that have accumulated since its last
+ * write (up to {@link #MAX_BATCH_SIZE}) and sends them with a single gathering write, so R2Ts, SCSI Responses and small
+ * Data-In PDUs share system calls.
+ * <p>
+ * Enqueuing does not block while the queue has space, but it does block once {@link #CAPACITY} entries are waiting.
+ * An unbounded queue would let the stages of a session whose initiator does not keep up buffer any amount of read
+ * data, so the bounded queue is what applies back pressure to them.
+ * <p>
+ * Besides serialized PDUs, the queue accepts data segments backed by pooled buffers, which are sent without being
+ * copied into a serialized PDU, see {@link #enqueue(ByteBuffer, ByteBuffer, PooledBuffer)}, and transfers of stored
+ * data, which are sent directly from the {@link IStorageModule} to the socket, see
+ * {@link #enqueue(ByteBuffer, IStorageModule, long, int)}.
+ * <p>
+ * The order in which PDUs are enqueued is the order in which they are sent.
+ */
+final class SendQueue implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SendQueue.class);
+
+    /**
+     * The maximum number of serialized PDUs waiting to be sent.
+     */
+    static final int CAPACITY = 128;
+
+    /**
+     * The maximum number of buffers sent with a single gathering write.
+     */
+    static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * The padding of data segments whose length is not a multiple of four.
+     */
+    private static final ByteBuffer PADDING = ByteBuffer.allocate(3);
+
+    /**
+     * Marks the end of the queue, the writer thread stops after taking it.
+     */
+    private static final ByteBuffer END_OF_QUEUE = ByteBuffer.allocate(0);
+
+    /**
+     * The serialized PDUs and {@link StorageTransfer}s waiting to be sent.
+     */
+    private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    /**
+     * The socket the PDUs are written to.
+     */
+    private final SocketChannel socketChannel;
+
+    /**
+     * The buffers of the current gathering write, only used by the writer thread.
+     */
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_SIZE];
+
+    /**
+     * The pooled buffers backing data segments in the current gathering write, only used by the writer thread.
+     */
+    private final PooledBuffer[] owners = new PooledBuffer[MAX_BATCH_SIZE];
+
+    /**
+     * The number of PDUs waiting in the queue at the beginning of each write.
+     */
+    private final LogHistogram queueDepthHistogram = new LogHistogram();
+
+    /**
+     * The number of PDUs sent with each gathering write.
+     */
+    private final LogHistogram batchSizeHistogram = new LogHistogram();
+
+    /**
+     * The thread writing the queued PDUs to the {@link #socketChannel}.
+     */
+    private final Thread writer;
+
+    /**
+     * The exception that terminated the {@link #writer}, or <code>null</code>.
+     */
+    private volatile IOException failure;
+
+    /**
+     * The number of entries which have been enqueued, only used by the producer.
+     */
+    private long enqueuedCount;
+
+    /**
+     * The number of entries which have been written, guarded by itself.
+     */
+    private final long[] writtenCount = new long[1];
+
+    /**
+     * Creates a new {@link SendQueue}. The writer thread is started when the first PDU is enqueued.
+     *
+     * @param socketChannel the socket the PDUs are written to
+     */
+    SendQueue (final SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+        writer = new Thread(this, "jSCSI Target Writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Appends a serialized PDU to the queue, waiting for space if the queue is full.
+     *
+     * @param serializedPdu the PDU to send
+     * @throws IOException if a previous write has failed or the queue has been closed
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    synchronized void enqueue (final ByteBuffer serializedPdu) throws IOException , InterruptedException {
+        put(serializedPdu);
+    }
+
+    /**
+     * Appends the serialized header of a PDU and its data segment to the queue, without copying the data segment.
+     * <p>
+     * The data segment must be a view of the given pooled buffer, which is released once the data segment has been
+     * written, or if it cannot be sent. The caller must therefore {@link PooledBuffer#retain() retain} the buffer for
+     * each enqueued data segment.
+     *
+     * @param serializedHeader the header of the PDU to send, see {@link org.jscsi.parser.ProtocolDataUnit#serializeHeader(int)}
+     * @param dataSegment the unpadded data segment of the PDU
+     * @param owner the pooled buffer backing the data segment
+     * @throws IOException if a previous write has failed or the queue has been closed
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    synchronized void enqueue (final ByteBuffer serializedHeader, final ByteBuffer dataSegment, final PooledBuffer owner) throws IOException , InterruptedException {
+        try {
+            put(new PooledSegment(serializedHeader, dataSegment, owner));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            owner.release();
+            throw e;
+        }
+        // the writer may have failed after the check, then it does not take this segment any more
+        if (failure != null) releaseQueued();
+    }
+
+    /**
+     * Appends the serialized header of a PDU to the queue, whose data segment will be sent directly from storage.
+     * <p>
+     * The stored bytes are read when the writer thread gets to them. Call {@link #flush()} before the stored bytes may
+     * be modified.
+     *
+     * @param serializedHeader the header of the PDU to send, see {@link org.jscsi.parser.ProtocolDataUnit#serializeHeader(int)}
+     * @param storage the storage holding the data segment
+     * @param storageIndex the position of the data segment in storage
+     * @param length the length of the data segment, must be a multiple of four
+     * @throws IOException if a previous write has failed or the queue has been closed
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    synchronized void enqueue (final ByteBuffer serializedHeader, final IStorageModule storage, final long storageIndex, final int length) throws IOException , InterruptedException {
+        put(serializedHeader);
+        put(new StorageTransfer(storage, storageIndex, length));
+    }
+
+    /**
+     * Waits until everything enqueued so far has been written to the socket.
+     *
+     * @throws IOException if a write has failed or the queue has been closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void flush () throws IOException , InterruptedException {
+        synchronized (writtenCount) {
+            while (writtenCount[0] < enqueuedCount) {
+                checkFailure();
+                if (!writer.isAlive()) throw new IOException("send queue is closed");
+                writtenCount.wait(100);
+            }
+        }
+    }
+
+    private void put (final Object entry) throws IOException , InterruptedException {
+        checkFailure();
+        if (writer.getState() == Thread.State.NEW) writer.start();
+        if (!writer.isAlive()) throw new IOException("send queue is closed");
+        while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+            if (!writer.isAlive()) throw new IOException("send queue is closed");
+        }
+        ++enqueuedCount;
+    }
+
+    /**
+     * Sends all PDUs enqueued so far and stops the writer thread.
+     *
+     * @throws IOException if a write has failed
+     * @throws InterruptedException if interrupted while waiting for the writer thread
+     */
+    synchronized void close () throws IOException , InterruptedException {
+        if (writer.isAlive()) {
+            while (!queue.offer(END_OF_QUEUE, 100, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) break;
+            }
+            writer.join();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Returns a histogram of the number of PDUs waiting in the queue at the beginning of each write.
+     *
+     * @return the queue depth histogram
+     */
+    LogHistogram getQueueDepthHistogram () {
+        return queueDepthHistogram;
+    }
+
+    /**
+     * Returns a histogram of the number of PDUs sent with each gathering write.
+     *
+     * @return the batch size histogram
+     */
+    LogHistogram getBatchSizeHistogram () {
+        return batchSizeHistogram;
+    }
+
+    private void checkFailure () throws IOException {
+        final IOException e = failure;
+        if (e != null) throw new IOException("sending failed", e);
+    }
+
+    /**
+     * The loop of the writer thread.
+     */
+    @Override
+    public void run () {
+        try {
+            boolean open = true;
+            while (open) {
+                Object next = queue.take();
+                queueDepthHistogram.record(queue.size() + 1);
+                if (next == END_OF_QUEUE) break;
+
+                // collect what has accumulated, without waiting
+                int entries = 0;
+                int size = 0;
+                int ownerCount = 0;
+                StorageTransfer transfer = null;
+                while (next != null) {
+                    if (next == END_OF_QUEUE) {
+                        open = false;
+                        break;
+                    }
+                    if (next instanceof StorageTransfer) {
+                        // send the preceding PDUs and headers first
+                        transfer = (StorageTransfer) next;
+                        break;
+                    }
+                    if (next instanceof PooledSegment) {
+                        final PooledSegment segment = (PooledSegment) next;
+                        batch[size++] = segment.header;
+                        batch[size++] = segment.dataSegment;
+                        final int padding = (4 - segment.dataSegment.remaining() % 4) % 4;
+                        if (padding > 0) batch[size++] = (ByteBuffer) PADDING.duplicate().limit(padding);
+                        owners[ownerCount++] = segment.owner;
+                    } else {
+                        batch[size++] = (ByteBuffer) next;
+                    }
+                    ++entries;
+                    // leave room for the next header, data segment and padding
+                    if (size > MAX_BATCH_SIZE - 3) break;
+                    next = queue.poll();
+                }
+                write(size);
+                for (int i = 0; i < ownerCount; ++i) {
+                    owners[i].release();
+                    owners[i] = null;
+                }
+                if (transfer != null) {
+                    final StorageReadEvent event = FlightRecording.AVAILABLE ? StorageReadEvent.start() : null;
+                    transfer.storage.transferTo(transfer.storageIndex, transfer.length, socketChannel);
+                    if (event != null) event.finish(transfer.storageIndex, transfer.length);
+                    ++entries;
+                }
+                batchSizeHistogram.record(entries);
+
+                synchronized (writtenCount) {
+                    writtenCount[0] += entries;
+                    writtenCount.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Sending PDUs failed", e);
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException(e);
+        } finally {
+            // release the pooled buffers of the unsent batch and of everything still queued
+            for (int i = 0; i < owners.length; ++i) {
+                if (owners[i] != null) {
+                    owners[i].release();
+                    owners[i] = null;
+                }
+            }
+            releaseQueued();
+        }
+    }
+
+    /**
+     * Removes all entries from the queue and releases the pooled buffers of their data segments.
+     */
+    private void releaseQueued () {
+        Object entry;
+        while ((entry = queue.poll()) != null) {
+            if (entry instanceof PooledSegment) ((PooledSegment) entry).owner.release();
+        }
+    }
+
+    /**
+     * Writes the first <i>size</i> buffers in {@link #batch} with as few gathering writes as possible.
+     *
+     * @param size the number of buffers in {@link #batch}
+     * @throws IOException if an I/O error occurs
+     */
+    private void write (final int size) throws IOException {
+        int offset = 0;
+        while (offset < size) {
+            socketChannel.write(batch, offset, size - offset);
+            while (offset < size && !batch[offset].hasRemaining()) {
+                batch[offset++] = null;
+            }
+        }
+    }
+
+    /**
+     * A header and a data segment backed by a pooled buffer.
+     */
+    private static final class PooledSegment {
+
+        final ByteBuffer header;
+
+        final ByteBuffer dataSegment;
+
+        final PooledBuffer owner;
+
+        PooledSegment (final ByteBuffer header, final ByteBuffer dataSegment, final PooledBuffer owner) {
+            this.header = header;
+            this.dataSegment = dataSegment;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * A data segment, which is sent directly from storage.
+     */
+    private static final class StorageTransfer {
+
+        final IStorageModule storage;
+
+        final long storageIndex;
+
+        final int length;
+
+        StorageTransfer (final IStorageModule storage, final long storageIndex, final int length) {
+            this.storage = storage;
+            this.storageIndex = storageIndex;
+            this.length = length;
+        }
+    }
+}
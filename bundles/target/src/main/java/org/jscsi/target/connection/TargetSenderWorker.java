@@ -2,23 +2,31 @@ package org.jscsi.target.connection;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.security.DigestException;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
+import org.jscsi.jfr.PduSentEvent;
 import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.InitiatorMessageParser;
 import org.jscsi.parser.OperationCode;
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.ProtocolDataUnitFactory;
 import org.jscsi.parser.TargetMessageParser;
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.parser.digest.DigestType;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
-import org.jscsi.target.settings.Settings;
 import org.jscsi.target.settings.SettingsException;
-import org.jscsi.target.settings.TextKeyword;
+import org.jscsi.target.settings.StageSettings;
+import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.Debug;
+import org.jscsi.target.util.LogHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +41,11 @@ public class TargetSenderWorker {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TargetSenderWorker.class);
 
+    /**
+     * The size of the {@link #readBuffer}.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     /**
      * The connection which uses this object for sending and receiving PDUs.
      */
@@ -67,6 +80,19 @@ public class TargetSenderWorker {
      */
     private boolean initialPdu;
 
+    /**
+     * Holds the bytes which have been read from the {@link #socketChannel}, but not yet been decoded.
+     * <p>
+     * Each read from the socket transfers as many bytes as are available, so that several small PDUs can be decoded
+     * from a single read. Only large data segments bypass this buffer and are read directly into their destination.
+     */
+    private final ByteBuffer readBuffer;
+
+    /**
+     * Holds the serialized PDUs which have been sent, but not yet been written to the {@link #socketChannel}.
+     */
+    private final SendQueue sendQueue;
+
     /**
      * Creates a new {@link TargetSenderWorker} object.
      * 
@@ -74,9 +100,24 @@ public class TargetSenderWorker {
      * @param socketChannel used for sending and receiving serialized PDU to and from the target
      */
     public TargetSenderWorker (final Connection connection, final SocketChannel socketChannel) {
+        this(connection, socketChannel, HeapBufferAllocator.getInstance());
+    }
+
+    /**
+     * Creates a new {@link TargetSenderWorker} object, whose received PDUs obtain their buffers from the given
+     * allocator.
+     * 
+     * @param connection the connection that will use this object for sending and receiving PDUs
+     * @param socketChannel used for sending and receiving serialized PDU to and from the target
+     * @param receiveBufferAllocator the allocator of the buffers into which received PDUs are read
+     */
+    public TargetSenderWorker (final Connection connection, final SocketChannel socketChannel, final IBufferAllocator receiveBufferAllocator) {
         this.connection = connection;
         this.socketChannel = socketChannel;
-        protocolDataUnitFactory = new ProtocolDataUnitFactory();
+        protocolDataUnitFactory = new ProtocolDataUnitFactory(receiveBufferAllocator);
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        readBuffer.limit(0);
+        sendQueue = new SendQueue(socketChannel);
         initialPdu = connection.isLeadingConnection();
     }
 
@@ -95,13 +136,50 @@ public class TargetSenderWorker {
 
     /**
      * This method does all the necessary steps, which are needed when a connection should be closed.
+     * <p>
+     * All PDUs that have been passed to {@link #sendOverWire(ProtocolDataUnit)} are written before the socket is
+     * closed.
      * 
      * @throws IOException if an I/O error occurs.
      */
     public final void close () throws IOException {
+        try {
+            sendQueue.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            socketChannel.close();
+        }
+    }
+
+    /**
+     * Closes the socket without waiting for pending PDUs, so that a thread blocked reading from or writing to it fails
+     * with an {@link IOException}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    final void abort () throws IOException {
         socketChannel.close();
     }
 
+    /**
+     * Returns a histogram of the number of PDUs waiting to be written to the socket, sampled before each write.
+     * 
+     * @return the send queue depth histogram
+     */
+    public LogHistogram getSendQueueDepthHistogram () {
+        return sendQueue.getQueueDepthHistogram();
+    }
+
+    /**
+     * Returns a histogram of the number of PDUs written to the socket with a single gathering write.
+     * 
+     * @return the send batch size histogram
+     */
+    public LogHistogram getSendBatchSizeHistogram () {
+        return sendQueue.getBatchSizeHistogram();
+    }
+
     /**
      * Receives a <code>ProtocolDataUnit</code> from the socket and appends it to the end of the receiving queue of this
      * connection.
@@ -120,17 +198,17 @@ public class TargetSenderWorker {
              * The connection's ConnectionSettingsNegotiator has not been initialized, hence getSettings() would throw a
              * NullPointerException. Initialize PDU with default values, i.e. no digests.
              */
-            pdu = protocolDataUnitFactory.create(TextKeyword.NONE,// header
-                                                                  // digest
-                    TextKeyword.NONE);// data digest
+            pdu = protocolDataUnitFactory.create(DigestType.NONE,// header
+                                                                 // digest
+                    DigestType.NONE);// data digest
         } else {
             // use negotiated or (now available) default settings
-            final Settings settings = connection.getSettings();
+            final StageSettings settings = connection.getStageSettings();
             pdu = protocolDataUnitFactory.create(settings.getHeaderDigest(), settings.getDataDigest());
         }
 
         try {
-            pdu.read(socketChannel);
+            if (pdu.read(socketChannel, readBuffer) == -1) throw new ClosedChannelException();
         } catch (ClosedChannelException e) {
             throw new InternetSCSIException(e);
         }
@@ -195,6 +273,9 @@ public class TargetSenderWorker {
 
     /**
      * Sends the given <code>ProtocolDataUnit</code> instance over the socket to the connected iSCSI Target.
+     * <p>
+     * The PDU is serialized immediately and appended to the {@link #sendQueue}, so its data segment may be reused as
+     * soon as this method returns. The actual write happens asynchronously, in the order of the calls.
      * 
      * @param pdu The <code>ProtocolDataUnit</code> instances to send.
      * @throws InternetSCSIException if any violation of the iSCSI-Standard emerge.
@@ -203,25 +284,116 @@ public class TargetSenderWorker {
      *             was waiting for a notification. The interrupted status of the current caller is cleared when this
      *             exception is thrown.
      */
+    final synchronized void sendOverWire (final ProtocolDataUnit pdu) throws InternetSCSIException , IOException , InterruptedException {
 
-    final void sendOverWire (final ProtocolDataUnit pdu) throws InternetSCSIException , IOException , InterruptedException {
-
-        // set sequence counters
-        final TargetMessageParser parser = (TargetMessageParser) pdu.getBasicHeaderSegment().getParser();
-        parser.setExpectedCommandSequenceNumber(session.getExpectedCommandSequenceNumber().getValue());
-        parser.setMaximumCommandSequenceNumber(session.getMaximumCommandSequenceNumber().getValue());
-        final boolean incrementSequenceNumber = parser.incrementSequenceNumber();
-        if (incrementSequenceNumber) // set StatSN only if field is not reserved
-        parser.setStatusSequenceNumber(connection.getStatusSequenceNumber().getValue());
+        final PduSentEvent event = FlightRecording.AVAILABLE ? PduSentEvent.start() : null;
+        final boolean incrementSequenceNumber = setSequenceNumbers(pdu);
 
         if (LOGGER.isDebugEnabled()) LOGGER.debug("Sending this PDU:\n" + pdu);
 
         // send pdu
-        pdu.write(socketChannel);
+        final ByteBuffer serialized = pdu.serialize();
+        final int length = serialized.remaining();
+        sendQueue.enqueue(serialized);
+        if (event != null) event.finish(pdu, length);
 
         // increment StatusSN if this was a Response PDU (with status)
         // or if special cases apply
         if (incrementSequenceNumber) connection.getStatusSequenceNumber().increment();
 
     }
+
+    /**
+     * Sends the given <code>ProtocolDataUnit</code> instance over the socket, without copying its data segment.
+     * <p>
+     * The data segment must be a view of the given pooled buffer, which has been {@link PooledBuffer#retain()
+     * retained} for this PDU. It is released once the data segment has been written, or if the PDU cannot be sent. Data
+     * digests are not supported.
+     * 
+     * @param pdu The <code>ProtocolDataUnit</code> instances to send.
+     * @param owner the pooled buffer backing the data segment of the PDU
+     * @throws InternetSCSIException if any violation of the iSCSI-Standard emerge.
+     * @throws IOException if an I/O error occurs.
+     * @throws InterruptedException if interrupted while waiting for space in the send queue.
+     */
+    final synchronized void sendOverWire (final ProtocolDataUnit pdu, final PooledBuffer owner) throws InternetSCSIException , IOException , InterruptedException {
+
+        final PduSentEvent event = FlightRecording.AVAILABLE ? PduSentEvent.start() : null;
+        final boolean incrementSequenceNumber = setSequenceNumbers(pdu);
+
+        if (LOGGER.isDebugEnabled()) LOGGER.debug("Sending this PDU:\n" + pdu);
+
+        final ByteBuffer dataSegment = pdu.getDataSegment();
+        dataSegment.position(0);
+        dataSegment.limit(pdu.getBasicHeaderSegment().getDataSegmentLength());
+        final ByteBuffer header;
+        try {
+            header = pdu.serializeHeader(dataSegment.remaining());
+        } catch (InternetSCSIException | RuntimeException e) {
+            owner.release();
+            throw e;
+        }
+        final long length = header.remaining() + dataSegment.remaining();
+        sendQueue.enqueue(header, dataSegment, owner);
+        if (event != null) event.finish(pdu, length);
+
+        if (incrementSequenceNumber) connection.getStatusSequenceNumber().increment();
+    }
+
+    /**
+     * Sends the given <code>ProtocolDataUnit</code> instance over the socket, with a data segment which is transferred
+     * directly from storage to the socket.
+     * <p>
+     * The data segment of the PDU is ignored. Since the stored bytes are read asynchronously, {@link #flush()} must be
+     * called before they may be modified.
+     * 
+     * @param pdu The <code>ProtocolDataUnit</code> instances to send.
+     * @param storage the storage holding the data segment
+     * @param storageIndex the position of the data segment in storage
+     * @param length the length of the data segment, must be a multiple of four
+     * @throws InternetSCSIException if any violation of the iSCSI-Standard emerge.
+     * @throws IOException if an I/O error occurs.
+     * @throws InterruptedException if interrupted while waiting for space in the send queue.
+     * @see IStorageModule#transferTo(long, int, java.nio.channels.WritableByteChannel)
+     */
+    final synchronized void sendOverWire (final ProtocolDataUnit pdu, final IStorageModule storage, final long storageIndex, final int length) throws InternetSCSIException , IOException , InterruptedException {
+
+        final PduSentEvent event = FlightRecording.AVAILABLE ? PduSentEvent.start() : null;
+        final boolean incrementSequenceNumber = setSequenceNumbers(pdu);
+
+        final ByteBuffer header = pdu.serializeHeader(length);
+        final int headerLength = header.remaining();
+        sendQueue.enqueue(header, storage, storageIndex, length);
+        if (event != null) event.finish(pdu, headerLength + length);
+
+        if (LOGGER.isDebugEnabled()) LOGGER.debug("Sending this PDU from storage:\n" + pdu);
+
+        if (incrementSequenceNumber) connection.getStatusSequenceNumber().increment();
+    }
+
+    /**
+     * Waits until all PDUs passed to this object have been written to the socket.
+     * 
+     * @throws IOException if an I/O error occurs.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    final void flush () throws IOException , InterruptedException {
+        sendQueue.flush();
+    }
+
+    /**
+     * Sets the sequence counters of a PDU which is about to be sent.
+     * 
+     * @param pdu the PDU to send
+     * @return <code>true</code> if the StatSN has to be incremented once the PDU has been enqueued
+     */
+    private boolean setSequenceNumbers (final ProtocolDataUnit pdu) {
+        final TargetMessageParser parser = (TargetMessageParser) pdu.getBasicHeaderSegment().getParser();
+        parser.setExpectedCommandSequenceNumber(session.getExpectedCommandSequenceNumber().getValue());
+        parser.setMaximumCommandSequenceNumber(session.getMaximumCommandSequenceNumber().getValue());
+        final boolean incrementSequenceNumber = parser.incrementSequenceNumber();
+        if (incrementSequenceNumber) // set StatSN only if field is not reserved
+        parser.setStatusSequenceNumber(connection.getStatusSequenceNumber().getValue());
+        return incrementSequenceNumber;
+    }
 }
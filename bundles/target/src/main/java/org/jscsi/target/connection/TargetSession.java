@@ -1,11 +1,16 @@
 package org.jscsi.target.connection;
 
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.login.ISID;
 import org.jscsi.target.Target;
 import org.jscsi.target.TargetServer;
+import org.jscsi.target.metrics.CommandCounters;
 import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.CopyManager.CopyOperation;
 import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.SerialArithmeticNumber;
 
@@ -93,6 +98,22 @@ public class TargetSession {
      */
     private SessionType sessionType;
 
+    /**
+     * The copy operations started by <code>EXTENDED COPY</code> commands in this session, by LIST IDENTIFIER, whose
+     * status can be requested with <code>RECEIVE COPY RESULTS</code>.
+     */
+    private final Map<Integer , CopyOperation> copyOperations = new ConcurrentHashMap<>();
+
+    /**
+     * The SCSI tasks of this session which have not terminated yet.
+     */
+    private final TaskSet taskSet = new TaskSet();
+
+    /**
+     * Counts the commands executed in this session.
+     */
+    private final CommandCounters commandCounters = new CommandCounters();
+
     /**
      * Constructs a new {@link TargetSession}
      * 
@@ -147,6 +168,33 @@ public class TargetSession {
         return target;
     }
 
+    /**
+     * Returns the copy operations started by <code>EXTENDED COPY</code> commands in this session, by LIST IDENTIFIER.
+     * 
+     * @return the session's copy operations
+     */
+    public Map<Integer , CopyOperation> getCopyOperations () {
+        return copyOperations;
+    }
+
+    /**
+     * Returns the SCSI tasks of this session which have not terminated yet.
+     * 
+     * @return the session's {@link TaskSet}
+     */
+    public TaskSet getTaskSet () {
+        return taskSet;
+    }
+
+    /**
+     * Returns the counters of the commands executed in this session.
+     * 
+     * @return the session's {@link CommandCounters}
+     */
+    public CommandCounters getCommandCounters () {
+        return commandCounters;
+    }
+
     /**
      * Returns the session's {@link IStorageModule}.
      * 
@@ -0,0 +1,204 @@
+package org.jscsi.target.connection;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+
+/**
+ * A SCSI task, i.e. a SCSI command received in a {@link TargetSession}, from the time its Command PDU has been received
+ * until its status has been sent.
+ * <p>
+ * Tasks are aborted by task management functions. An aborted task which has not been started yet is dropped, see
+ * {@link #start()}. A running task is stopped as soon as possible: the storage operations it waits for, see
+ * {@link #register(Future)}, are cancelled, so that waiting for them throws a {@link CancellationException}, and the
+ * connection stops waiting for its Data-Out PDUs. Cancelled storage operations are not interrupted, since interrupting
+ * a thread closes the channels it is blocked in. No status is sent for an aborted task.
+ */
+public final class Task {
+
+    /**
+     * Stops the execution of a running {@link Task} which has been aborted.
+     */
+    public static interface AbortHandler {
+
+        /**
+         * Called when a running task has been aborted.
+         *
+         * @param task the task
+         */
+        void aborted (Task task);
+    }
+
+    /**
+     * The states of a {@link Task}.
+     */
+    private static enum State {
+        QUEUED, RUNNING, TERMINATED
+    }
+
+    /**
+     * The Initiator Task Tag of the command.
+     */
+    private final int initiatorTaskTag;
+
+    /**
+     * The logical unit addressed by the command.
+     */
+    private final long logicalUnitNumber;
+
+    /**
+     * Called when the task is aborted while it is running, to stop waiting for its PDUs.
+     */
+    private final AbortHandler abortHandler;
+
+    /**
+     * The current state, guarded by <code>this</code>.
+     */
+    private State state = State.QUEUED;
+
+    /**
+     * <code>true</code> if the task has been aborted.
+     */
+    private volatile boolean aborted;
+
+    /**
+     * The storage operations the task is waiting for, guarded by <code>this</code>.
+     */
+    private final List<Future< ? >> operations = new ArrayList<>(4);
+
+    /**
+     * The actions to run once the task has terminated, guarded by <code>this</code>.
+     */
+    private final List<Runnable> terminationListeners = new ArrayList<>(1);
+
+    /**
+     * Creates a new {@link Task}.
+     *
+     * @param initiatorTaskTag the Initiator Task Tag of the command
+     * @param logicalUnitNumber the logical unit addressed by the command
+     * @param abortHandler called when the task is aborted while it is running, may be <code>null</code>
+     */
+    public Task (final int initiatorTaskTag, final long logicalUnitNumber, final AbortHandler abortHandler) {
+        this.initiatorTaskTag = initiatorTaskTag;
+        this.logicalUnitNumber = logicalUnitNumber;
+        this.abortHandler = abortHandler;
+    }
+
+    public int getInitiatorTaskTag () {
+        return initiatorTaskTag;
+    }
+
+    public long getLogicalUnitNumber () {
+        return logicalUnitNumber;
+    }
+
+    /**
+     * Returns <code>true</code> if the task has been aborted.
+     *
+     * @return <code>true</code> if the task has been aborted
+     */
+    public boolean isAborted () {
+        return aborted;
+    }
+
+    /**
+     * Returns <code>true</code> if the task is being executed.
+     *
+     * @return <code>true</code> if the task is being executed
+     */
+    public synchronized boolean isRunning () {
+        return state == State.RUNNING;
+    }
+
+    /**
+     * Marks the task as being executed.
+     *
+     * @return <code>false</code> if the task has been aborted and must be dropped
+     */
+    public synchronized boolean start () {
+        if (aborted) return false;
+        state = State.RUNNING;
+        return true;
+    }
+
+    /**
+     * Registers a storage operation the task is going to wait for. The operation is cancelled if the task is aborted,
+     * immediately if it already has been.
+     *
+     * @param operation the storage operation
+     */
+    public void register (final Future< ? > operation) {
+        synchronized (this) {
+            if (!aborted) {
+                operations.add(operation);
+                return;
+            }
+        }
+        operation.cancel(false);
+    }
+
+    /**
+     * Throws a {@link CancellationException} if the task has been aborted.
+     */
+    public void checkAborted () {
+        if (aborted) throw new CancellationException("task 0x" + Integer.toHexString(initiatorTaskTag) + " aborted");
+    }
+
+    /**
+     * Aborts the task.
+     */
+    public void abort () {
+        final List<Future< ? >> cancelled;
+        final boolean running;
+        synchronized (this) {
+            if (aborted || state == State.TERMINATED) return;
+            aborted = true;
+            running = state == State.RUNNING;
+            cancelled = new ArrayList<>(operations);
+            operations.clear();
+        }
+        for (Future< ? > operation : cancelled)
+            operation.cancel(false);
+        if (running) {
+            if (abortHandler != null) abortHandler.aborted(this);
+        } else {
+            // dropped before it was started
+            terminate();
+        }
+    }
+
+    /**
+     * Marks the task as terminated, after its status has been sent or it has been aborted, and runs the termination
+     * listeners.
+     */
+    public void terminate () {
+        final List<Runnable> listeners;
+        synchronized (this) {
+            if (state == State.TERMINATED) return;
+            state = State.TERMINATED;
+            operations.clear();
+            listeners = new ArrayList<>(terminationListeners);
+            terminationListeners.clear();
+        }
+        for (Runnable listener : listeners)
+            listener.run();
+    }
+
+    /**
+     * Runs an action once the task has terminated, immediately if it already has.
+     *
+     * @param listener the action
+     */
+    public void whenTerminated (final Runnable listener) {
+        synchronized (this) {
+            if (state != State.TERMINATED) {
+                terminationListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+}
@@ -0,0 +1,60 @@
+package org.jscsi.target.connection;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * The {@link Task}s of a {@link TargetSession}, by Initiator Task Tag, from the time their Command PDUs have been
+ * received until they have terminated.
+ */
+public final class TaskSet {
+
+    private final ConcurrentMap<Integer , Task> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a task, replacing a terminated task with the same Initiator Task Tag.
+     *
+     * @param task the new task
+     */
+    public void add (final Task task) {
+        tasks.put(task.getInitiatorTaskTag(), task);
+    }
+
+    /**
+     * Removes a terminated task.
+     *
+     * @param task the task
+     */
+    public void remove (final Task task) {
+        tasks.remove(task.getInitiatorTaskTag(), task);
+    }
+
+    /**
+     * Returns the task with the specified Initiator Task Tag.
+     *
+     * @param initiatorTaskTag the Initiator Task Tag
+     * @return the task, or <code>null</code> if there is none
+     */
+    public Task get (final int initiatorTaskTag) {
+        return tasks.get(initiatorTaskTag);
+    }
+
+    /**
+     * Returns all tasks addressing the specified logical unit.
+     *
+     * @param logicalUnitNumber the logical unit
+     * @return the tasks
+     */
+    public List<Task> getTasks (final long logicalUnitNumber) {
+        final Collection<Task> all = tasks.values();
+        final List<Task> result = new ArrayList<>(all.size());
+        for (Task task : all)
+            if (task.getLogicalUnitNumber() == logicalUnitNumber) result.add(task);
+        return result;
+    }
+}
@@ -2,31 +2,50 @@ package org.jscsi.target.connection.phase;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
+import java.util.concurrent.CancellationException;
 
 import javax.naming.OperationNotSupportedException;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
 import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.OperationCode;
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
 import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.Task;
 import org.jscsi.target.connection.stage.TMStage;
+import org.jscsi.target.connection.stage.fullfeature.CompareAndWriteStage;
+import org.jscsi.target.connection.stage.fullfeature.ExtendedCopyStage;
 import org.jscsi.target.connection.stage.fullfeature.FormatUnitStage;
+import org.jscsi.target.connection.stage.fullfeature.GetLbaStatusStage;
 import org.jscsi.target.connection.stage.fullfeature.InquiryStage;
 import org.jscsi.target.connection.stage.fullfeature.LogoutStage;
 import org.jscsi.target.connection.stage.fullfeature.ModeSenseStage;
 import org.jscsi.target.connection.stage.fullfeature.PingStage;
+import org.jscsi.target.connection.stage.fullfeature.PreFetchStage;
 import org.jscsi.target.connection.stage.fullfeature.ReadCapacityStage;
 import org.jscsi.target.connection.stage.fullfeature.ReadStage;
+import org.jscsi.target.connection.stage.fullfeature.ReceiveCopyResultsStage;
 import org.jscsi.target.connection.stage.fullfeature.ReportLunsStage;
 import org.jscsi.target.connection.stage.fullfeature.RequestSenseStage;
 import org.jscsi.target.connection.stage.fullfeature.SendDiagnosticStage;
+import org.jscsi.target.connection.stage.fullfeature.SynchronizeCacheStage;
 import org.jscsi.target.connection.stage.fullfeature.TargetFullFeatureStage;
 import org.jscsi.target.connection.stage.fullfeature.TestUnitReadyStage;
 import org.jscsi.target.connection.stage.fullfeature.TextNegotiationStage;
+import org.jscsi.target.connection.stage.fullfeature.UnmapStage;
 import org.jscsi.target.connection.stage.fullfeature.UnsupportedOpCodeStage;
+import org.jscsi.target.connection.stage.fullfeature.VerifyStage;
+import org.jscsi.target.connection.stage.fullfeature.WriteSameStage;
 import org.jscsi.target.connection.stage.fullfeature.WriteStage;
+import org.jscsi.target.jfr.ScsiCommandEvent;
+import org.jscsi.target.qos.QosScheduler;
+import org.jscsi.target.scsi.cdb.GetLbaStatusCdb;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
 import org.jscsi.target.settings.SettingsException;
 import org.slf4j.Logger;
@@ -48,12 +67,46 @@ public final class TargetFullFeaturePhase extends TargetPhase {
      */
     private TargetFullFeatureStage stage;
 
+    /**
+     * The SCSI task executed by the current stage, or <code>null</code>.
+     */
+    private Task task;
+
     /**
      * While this variable is <code>true</code> the phase is still running, either executing a specific stage or waiting
      * for the next one to begin.
      */
     private boolean running;
 
+    /**
+     * The flight recorder event of the SCSI command executed by the current stage, or <code>null</code> if the event
+     * is disabled.
+     */
+    private ScsiCommandEvent commandEvent;
+
+    /**
+     * The flow of the session in the QoS scheduler of its target, created when the first command is executed.
+     */
+    private QosScheduler.Flow qosFlow;
+
+    /**
+     * The stages executing SCSI commands, indexed by operation code. Each stage is created when its operation code is
+     * first received and executes all following commands with that operation code, see
+     * {@link TargetFullFeatureStage#reset()}. Unsupported operation codes map to {@link #unsupportedOpCodeStage}.
+     */
+    private final TargetFullFeatureStage[] scsiStages = new TargetFullFeatureStage[256];
+
+    /**
+     * The stage executing <code>GET LBA STATUS</code>, which shares its operation code with
+     * <code>READ CAPACITY (16)</code>.
+     */
+    private TargetFullFeatureStage getLbaStatusStage;
+
+    /**
+     * The stage rejecting unsupported commands.
+     */
+    private TargetFullFeatureStage unsupportedOpCodeStage;
+
     /**
      * The constructor.
      * 
@@ -81,71 +134,21 @@ public final class TargetFullFeaturePhase extends TargetPhase {
         while (running) {
             ProtocolDataUnit pdu = connection.receivePdu();
             BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+            task = null;
 
             // identify desired stage
             switch (bhs.getOpCode()) {
 
                 case SCSI_COMMAND :
+                    task = connection.getTargetSession().getTaskSet().get(bhs.getInitiatorTaskTag());
+                    if (task != null && !task.start()) {
+                        // aborted while queued
+                        LOGGER.debug("dropping aborted task 0x" + Integer.toHexString(bhs.getInitiatorTaskTag()));
+                        stage = null;
+                        break;
+                    }
                     if (connection.getTargetSession().isNormalSession()) {
-                        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
-                        ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
-
-                        LOGGER.debug("scsiOpCode = " + scsiOpCode);// log SCSI
-                                                                   // Operation Code
-
-                        if (scsiOpCode != null) {
-                            switch (scsiOpCode) {
-                                case TEST_UNIT_READY :
-                                    stage = new TestUnitReadyStage(this);
-                                    break;
-                                case REQUEST_SENSE :
-                                    stage = new RequestSenseStage(this);
-                                    break;
-                                case FORMAT_UNIT :
-                                    stage = new FormatUnitStage(this);
-                                    break;
-                                case INQUIRY :
-                                    stage = new InquiryStage(this);
-                                    break;
-                                case MODE_SELECT_6 :
-                                    stage = null;
-                                    scsiOpCode = null;
-                                    break;
-                                case MODE_SENSE_6 :
-                                    stage = new ModeSenseStage(this);
-                                    if (!((ModeSenseStage) stage).canHandle(pdu)) {
-                                        stage = null;
-                                        scsiOpCode = null;
-                                    }
-                                    break;
-                                case SEND_DIAGNOSTIC :
-                                    stage = new SendDiagnosticStage(this);
-                                    break;
-                                case READ_CAPACITY_10 :// use common read capacity stage
-                                case READ_CAPACITY_16 :
-                                    stage = new ReadCapacityStage(this);
-                                    break;
-                                case WRITE_6 :// use common write stage
-                                case WRITE_10 :
-                                    stage = new WriteStage(this);
-                                    break;
-                                case READ_6 :// use common read stage
-                                case READ_10 :
-                                    stage = new ReadStage(this);
-                                    break;
-                                case REPORT_LUNS :
-                                    stage = new ReportLunsStage(this);
-                                    break;
-                                default :
-                                    scsiOpCode = null;
-
-                            }
-                        }// else, or if default block was entered (programmer error)
-                        if (scsiOpCode == null) {
-                            LOGGER.error("Unsupported SCSI OpCode 0x" + Integer.toHexString(parser.getCDB().get(0) & 255) + " in SCSI Command PDU.");
-                            stage = new UnsupportedOpCodeStage(this);
-                        }
-
+                        stage = getScsiStage(pdu);
                     } else {// session is discovery session
                         throw new InternetSCSIException("received SCSI command in discovery session");
                     }
@@ -164,17 +167,209 @@ public final class TargetFullFeaturePhase extends TargetPhase {
                     stage = new LogoutStage(this);
                     running = false;
                     break;
+                case SCSI_DATA_OUT :
+                    // the rest of the data of an aborted task
+                    LOGGER.debug("dropping Data-Out PDU of task 0x" + Integer.toHexString(bhs.getInitiatorTaskTag()));
+                    stage = null;
+                    break;
                 default :
                     LOGGER.error("Received unsupported opcode for " + pdu.getBasicHeaderSegment().getOpCode());
-                    stage = new UnsupportedOpCodeStage(this);
+                    stage = getUnsupportedOpCodeStage();
             }
 
-            // process the PDU
-            stage.execute(pdu);
+            // process the PDU and hand its data segment back to the allocator
+            final boolean scsiCommand = stage != null && bhs.getOpCode() == OperationCode.SCSI_COMMAND;
+            final long start = scsiCommand ? startCommand(pdu) : 0;
+            try {
+                if (stage != null) stage.execute(pdu);
+            } catch (CancellationException e) {
+                // no status is sent for an aborted task
+                if (task == null || !task.isAborted()) throw e;
+                LOGGER.debug("aborted task 0x" + Integer.toHexString(task.getInitiatorTaskTag()));
+            } finally {
+                if (scsiCommand) finishCommand(pdu, start);
+                pdu.release();
+                if (task != null) {
+                    task.terminate();
+                    connection.getTargetSession().getTaskSet().remove(task);
+                }
+            }
         }
 
         return false;
     }
+
+    /**
+     * Waits until the QoS limits admit a SCSI command transferring data. Then counts the command, whose stage is about
+     * to be executed, starts measuring its I/O times and begins its flight recorder event.
+     * 
+     * @param pdu the SCSI Command PDU
+     * @return the start time of the command
+     * @throws InterruptedException if interrupted while throttled
+     * @throws SettingsException if the initiator name is unknown
+     */
+    private long startCommand (final ProtocolDataUnit pdu) throws InterruptedException , SettingsException {
+        final TargetSession session = connection.getTargetSession();
+        final SCSICommandParser parser = (SCSICommandParser) pdu.getBasicHeaderSegment().getParser();
+        if (parser.isReadExpectedFlag() || parser.isWriteExpectedFlag()) {
+            final QosScheduler qosScheduler = session.getTarget().getQosScheduler();
+            if (qosFlow == null) qosFlow = qosScheduler.createFlow(connection.getSettings().getInitiatorName());
+            final long throttled = qosScheduler.acquire(qosFlow, parser.getExpectedDataTransferLength() & 0xffffffffL);
+            if (throttled > 0) {
+                session.getCommandCounters().commandThrottled(throttled);
+                session.getTarget().getMetrics().commandThrottled(throttled);
+            }
+        }
+        session.getCommandCounters().commandStarted();
+        session.getTarget().getMetrics().commandStarted();
+        connection.resetIoNanos();
+        commandEvent = FlightRecording.AVAILABLE ? ScsiCommandEvent.start() : null;
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a SCSI command whose stage has been executed, records its latencies and commits its flight recorder
+     * event.
+     * 
+     * @param pdu the SCSI Command PDU
+     * @param start the start time returned by {@link #startCommand(ProtocolDataUnit)}
+     */
+    void finishCommand (final ProtocolDataUnit pdu, final long start) {
+        final long total = System.nanoTime() - start;
+        final long receiveNanos = connection.getReceiveNanos();
+        final long sendNanos = connection.getSendNanos();
+        final SCSICommandParser parser = (SCSICommandParser) pdu.getBasicHeaderSegment().getParser();
+        // the data of failed commands is not counted, short transfers are reported as residual underflow
+        final long transferred = connection.getSentStatus() == SCSIStatus.GOOD ? Math.max(0, (parser.getExpectedDataTransferLength() & 0xffffffffL) - connection.getSentResidualUnderflow()) : 0;
+        final long read = parser.isReadExpectedFlag() ? transferred : 0;
+        final long written = parser.isWriteExpectedFlag() ? transferred : 0;
+
+        final TargetSession session = connection.getTargetSession();
+        session.getCommandCounters().commandFinished(read, written);
+        session.getTarget().getMetrics().commandFinished(parser.getCDB().get(0), read, written, receiveNanos, total - receiveNanos - sendNanos, sendNanos);
+
+        if (commandEvent != null) {
+            commandEvent.finish(pdu.getBasicHeaderSegment(), connection.getSentStatus());
+            commandEvent = null;
+        }
+    }
+
+    /**
+     * Returns the stage executing the SCSI command in the given PDU, prepared for the {@link #task}.
+     * 
+     * @param pdu a SCSI Command PDU
+     * @return the stage executing the command
+     */
+    TargetFullFeatureStage getScsiStage (final ProtocolDataUnit pdu) {
+        final SCSICommandParser parser = (SCSICommandParser) pdu.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = parser.getCDB();
+        final int operationCode = cdb.get(0) & 255;
+
+        TargetFullFeatureStage scsiStage;
+        if (operationCode == (ScsiOperationCode.READ_CAPACITY_16.value() & 255) && (cdb.get(1) & 31) == GetLbaStatusCdb.SERVICE_ACTION) {
+            // SERVICE ACTION IN (16)
+            if (getLbaStatusStage == null) getLbaStatusStage = new GetLbaStatusStage(this);
+            scsiStage = getLbaStatusStage;
+        } else {
+            scsiStage = scsiStages[operationCode];
+            if (scsiStage == null) {
+                scsiStage = createScsiStage(ScsiOperationCode.valueOf(cdb.get(0)));
+                if (scsiStage == null) scsiStage = getUnsupportedOpCodeStage();
+                scsiStages[operationCode] = scsiStage;
+            }
+            if (scsiStage instanceof ModeSenseStage && !((ModeSenseStage) scsiStage).canHandle(pdu)) scsiStage = getUnsupportedOpCodeStage();
+        }
+
+        if (scsiStage == unsupportedOpCodeStage) {
+            LOGGER.error("Unsupported SCSI OpCode 0x" + Integer.toHexString(operationCode) + " in SCSI Command PDU.");
+        } else if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("scsiOpCode = " + ScsiOperationCode.valueOf(cdb.get(0)));
+        }
+        scsiStage.reset();
+        return scsiStage;
+    }
+
+    /**
+     * Creates the stage executing the commands with the given operation code.
+     * 
+     * @param scsiOpCode the operation code
+     * @return the new stage, or <code>null</code> if the operation code is not supported
+     */
+    private TargetFullFeatureStage createScsiStage (final ScsiOperationCode scsiOpCode) {
+        if (scsiOpCode == null) return null;
+        switch (scsiOpCode) {
+            case TEST_UNIT_READY :
+                return new TestUnitReadyStage(this);
+            case REQUEST_SENSE :
+                return new RequestSenseStage(this);
+            case FORMAT_UNIT :
+                return new FormatUnitStage(this);
+            case INQUIRY :
+                return new InquiryStage(this);
+            case MODE_SENSE_6 :
+                return new ModeSenseStage(this);
+            case SEND_DIAGNOSTIC :
+                return new SendDiagnosticStage(this);
+            case READ_CAPACITY_10 :// use common read capacity stage
+            case READ_CAPACITY_16 :
+                return new ReadCapacityStage(this);
+            case WRITE_6 :// use common write stage
+            case WRITE_10 :
+            case WRITE_12 :
+            case WRITE_16 :
+                return new WriteStage(this);
+            case READ_6 :// use common read stage
+            case READ_10 :
+            case READ_12 :
+            case READ_16 :
+                return new ReadStage(this);
+            case VERIFY_10 :
+            case VERIFY_16 :
+                return new VerifyStage(this);
+            case PRE_FETCH_10 :
+            case PRE_FETCH_16 :
+                return new PreFetchStage(this);
+            case SYNCHRONIZE_CACHE_10 :
+            case SYNCHRONIZE_CACHE_16 :
+                return new SynchronizeCacheStage(this);
+            case COMPARE_AND_WRITE :
+                return new CompareAndWriteStage(this);
+            case WRITE_SAME_10 :
+            case WRITE_SAME_16 :
+                return new WriteSameStage(this);
+            case UNMAP :
+                if (connection.getTargetSession().getStorageModule().supportsUnmap()) return new UnmapStage(this);
+                return null;
+            case EXTENDED_COPY :
+                return new ExtendedCopyStage(this);
+            case RECEIVE_COPY_RESULTS :
+                return new ReceiveCopyResultsStage(this);
+            case REPORT_LUNS :
+                return new ReportLunsStage(this);
+            default :// e.g. MODE SELECT (6)
+                return null;
+        }
+    }
+
+    /**
+     * Returns the stage rejecting unsupported commands, prepared for the {@link #task}.
+     * 
+     * @return the {@link UnsupportedOpCodeStage}
+     */
+    private TargetFullFeatureStage getUnsupportedOpCodeStage () {
+        if (unsupportedOpCodeStage == null) unsupportedOpCodeStage = new UnsupportedOpCodeStage(this);
+        unsupportedOpCodeStage.reset();
+        return unsupportedOpCodeStage;
+    }
+
+    /**
+     * Returns the SCSI task executed by the current stage.
+     * 
+     * @return the current task, or <code>null</code> if the stage does not execute a SCSI command
+     */
+    public Task getTask () {
+        return task;
+    }
     
     /**
      * Stopping this phases execution
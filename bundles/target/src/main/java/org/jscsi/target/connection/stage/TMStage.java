@@ -3,6 +3,10 @@ package org.jscsi.target.connection.stage;
 
 import java.io.IOException;
 import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jscsi.exception.InternetSCSIException;
 import org.jscsi.parser.BasicHeaderSegment;
@@ -10,7 +14,10 @@ import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.tmf.TaskManagementFunctionRequestParser;
 import org.jscsi.parser.tmf.TaskManagementFunctionResponseParser;
 import org.jscsi.parser.tmf.TaskManagementFunctionResponseParser.ResponseCode;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.Task;
 import org.jscsi.target.connection.TargetPduFactory;
+import org.jscsi.target.connection.TargetSession;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.connection.stage.fullfeature.TargetFullFeatureStage;
 import org.jscsi.target.settings.SettingsException;
@@ -20,9 +27,17 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A stage for processing Task Management Function Request defined in RFC(7320).
- * 
- * Warning, this class is only a dummy to react on the request without functionality except for response.
- * 
+ * <p>
+ * <code>ABORT TASK</code>, <code>ABORT TASK SET</code>, <code>CLEAR TASK SET</code> and
+ * <code>LOGICAL UNIT RESET</code> abort the affected {@link Task}s: queued tasks are dropped and running tasks stop
+ * waiting for storage operations and Data-Out PDUs. The first two functions affect the tasks of this session, the other
+ * two the tasks of all sessions accessing the logical unit. The response is sent once all affected tasks have
+ * terminated, so that it is never followed by a PDU belonging to one of them. Since this may take as long as the
+ * running task needs to notice, the response is sent by the thread terminating the last task, and this stage returns
+ * immediately.
+ * <p>
+ * The reset functions of the whole target and task reassignment are not supported.
+ *
  * @author Andreas Rain
  */
 public class TMStage extends TargetFullFeatureStage {
@@ -42,41 +57,69 @@ public class TMStage extends TargetFullFeatureStage {
         final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
         final TaskManagementFunctionRequestParser parser = (TaskManagementFunctionRequestParser) bhs.getParser();
         final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final long logicalUnitNumber = parser.getLogicalUnitNumber();
 
-        TaskManagementFunctionResponseParser.ResponseCode responseCode = ResponseCode.TASK_DOES_NOT_EXIST;
+        TaskManagementFunctionResponseParser.ResponseCode responseCode = ResponseCode.FUNCTION_COMPLETE;
+        List<Task> tasks = Collections.emptyList();
 
         switch (parser.getFunction()) {
             case ABORT_TASK :
-                LOGGER.error("ABORT_TASK");
+                final Task task = session.getTaskSet().get(parser.getReferencedTaskTag());
+                if (task != null && task.getLogicalUnitNumber() == logicalUnitNumber) {
+                    tasks = Collections.singletonList(task);
+                } else {
+                    // completed before the request arrived, or never received
+                    responseCode = ResponseCode.TASK_DOES_NOT_EXIST;
+                }
                 break;
             case ABORT_TASK_SET :
-                LOGGER.error("ABORT_TASK_SET");
+                tasks = session.getTaskSet().getTasks(logicalUnitNumber);
                 break;
             case CLEAR_ACA :
-                responseCode = ResponseCode.FUNCTION_COMPLETE;
                 break;
             case CLEAR_TASK_SET :
-                responseCode = ResponseCode.FUNCTION_COMPLETE;
-                break;
             case LUN_RESET :
-                LOGGER.error("LUN_RESET");
-                break;
-            case TARGET_WARM_RESET :
-                LOGGER.error("TARGET_WARM_RESET");
-                break;
-            case TARGET_COLD_RESET :
-                LOGGER.error("TARGET_COLD_RESET");
-                break;
-            case TASK_REASSIGN :
-                LOGGER.error("TASK_REASSIGN");
+                // the task set is shared by all initiators
+                tasks = new ArrayList<>();
+                for (TargetSession targetSession : session.getTargetServer().getTargetSessions(session.getTarget())) {
+                    tasks.addAll(targetSession.getTaskSet().getTasks(logicalUnitNumber));
+                }
                 break;
             default :
-                break;
+                LOGGER.error("unsupported task management function " + parser.getFunction());
+                responseCode = ResponseCode.TASK_MANAGEMENT_FUNCTION_NOT_SUPPORTED;
         }
 
+        if (LOGGER.isDebugEnabled()) LOGGER.debug(parser.getFunction() + " aborts " + tasks.size() + " task(s)");
+
         final ProtocolDataUnit responsePDU = TargetPduFactory.createTMResponsePdu(responseCode, initiatorTaskTag);
-        connection.sendPdu(responsePDU);
+        final AtomicInteger remainingTasks = new AtomicInteger(tasks.size() + 1);
+        final Runnable respond = new Runnable() {
 
+            @Override
+            public void run () {
+                if (remainingTasks.decrementAndGet() == 0) sendResponse(connection, responsePDU);
+            }
+        };
+        for (Task task : tasks) {
+            task.abort();
+            task.whenTerminated(respond);
+        }
+        respond.run();
+    }
+
+    /**
+     * Sends the response to a task management request.
+     *
+     * @param connection the connection the request was received on
+     * @param responsePDU the response
+     */
+    private static void sendResponse (final Connection connection, final ProtocolDataUnit responsePDU) {
+        try {
+            connection.sendPdu(responsePDU);
+        } catch (InterruptedException | IOException | InternetSCSIException e) {
+            LOGGER.error("sending the task management response failed", e);
+        }
     }
 
 }
@@ -9,8 +9,8 @@ import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.target.connection.Connection;
 import org.jscsi.target.connection.TargetSession;
 import org.jscsi.target.connection.phase.TargetPhase;
-import org.jscsi.target.settings.Settings;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.settings.StageSettings;
 
 
 /**
@@ -40,9 +40,9 @@ public abstract class TargetStage {
     protected final TargetSession session;
 
     /**
-     * The current {@link Settings} of {@link #connection}.
+     * The current {@link StageSettings} of {@link #connection}.
      */
-    protected final Settings settings;
+    protected StageSettings settings;
 
     /**
      * The abstract constructor.
@@ -53,7 +53,7 @@ public abstract class TargetStage {
         this.targetPhase = targetPhase;
         this.connection = targetPhase.getTargetConnection();
         this.session = connection.getTargetSession();
-        this.settings = connection.getSettings();
+        this.settings = connection.getStageSettings();
     }
 
     /**
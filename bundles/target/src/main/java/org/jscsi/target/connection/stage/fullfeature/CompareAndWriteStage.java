@@ -0,0 +1,105 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.jfr.StorageReadEvent;
+import org.jscsi.target.jfr.StorageWriteEvent;
+import org.jscsi.target.scsi.cdb.CompareAndWriteCdb;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RangeLock;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>COMPARE AND WRITE</code> SCSI commands.
+ * <p>
+ * The verify data and the write data are received completely before the addressed logical blocks are locked with the
+ * target's {@link RangeLock}. While the lock is held, the stored blocks are read and compared with the verify data,
+ * and, if they match, overwritten with the write data. Since only the addressed blocks are locked, and only for the
+ * duration of the storage accesses, commands on other blocks of the logical unit are not delayed.
+ */
+public final class CompareAndWriteStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompareAndWriteStage.class);
+
+    public CompareAndWriteStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final CompareAndWriteCdb cdb = new CompareAndWriteCdb(parser.getCDB());
+        final IStorageModule storageModule = session.getStorageModule();
+        final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        final int numberOfLogicalBlocks = cdb.getNumberOfLogicalBlocks();
+        final int boundsCheck = storageModule.checkBounds(logicalBlockAddress, numberOfLogicalBlocks);
+        if (boundsCheck == 1)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (boundsCheck == 2) cdb.addIllegalFieldPointerForNumberOfLogicalBlocks();
+
+        if (cdb.getIllegalFieldPointers() != null) {
+            LOGGER.debug("illegal field in COMPARE AND WRITE CDB:\n" + Debug.byteBufferToString(parser.getCDB()));
+            // see WriteStage, unsolicited data can not be ignored
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        if (numberOfLogicalBlocks == 0) {
+            // nothing to compare or write
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+            return;
+        }
+
+        // receive verify and write data
+        final int length = numberOfLogicalBlocks * storageModule.getBlockSize();
+        final ByteBuffer data = receiveDataOut(pdu, 2 * length);
+        final ByteBuffer stored = ByteBuffer.allocate(length);
+        final long storageIndex = logicalBlockAddress * storageModule.getBlockSize();
+
+        // compare and write atomically
+        int miscompareOffset = -1;
+        final RangeLock rangeLock = session.getTarget().getRangeLock();
+        final RangeLock.Range range = rangeLock.lock(logicalBlockAddress, numberOfLogicalBlocks);
+        try {
+            final StorageReadEvent readEvent = FlightRecording.AVAILABLE ? StorageReadEvent.start() : null;
+            storageModule.read(stored, storageIndex);
+            if (readEvent != null) readEvent.finish(storageIndex, length);
+            miscompareOffset = mismatch(data, stored, length);
+            if (miscompareOffset < 0) {
+                data.limit(2 * length);
+                data.position(length);
+                final StorageWriteEvent writeEvent = FlightRecording.AVAILABLE ? StorageWriteEvent.start() : null;
+                storageModule.write(data, storageIndex);
+                if (writeEvent != null) writeEvent.finish(storageIndex, length);
+            }
+        } finally {
+            rangeLock.unlock(range);
+        }
+
+        if (miscompareOffset >= 0) {
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("COMPARE AND WRITE miscompare at offset " + miscompareOffset);
+            connection.sendPdu(createMiscompareErrorPdu(miscompareOffset, initiatorTaskTag, expectedDataTransferLength));
+        } else {
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 2 * length));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ExtendedCopyCdb;
+import org.jscsi.target.scsi.copy.CopyOperatingParameters;
+import org.jscsi.target.scsi.copy.ExtendedCopyParameterList;
+import org.jscsi.target.scsi.inquiry.IdentifierType;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.CopyManager;
+import org.jscsi.target.storage.CopyManager.CopyOperation;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RangeLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>EXTENDED COPY (LID1)</code> SCSI commands.
+ * <p>
+ * The parameter list is received and checked completely before the copy operation is handed to the target server's
+ * {@link CopyManager}, so that an invalid descriptor terminates the command without side effects. The copy sources and
+ * destinations can be the logical units of all targets of the target server, which are identified by their
+ * {@link org.jscsi.target.scsi.inquiry.NaaIdentifier}s. The data is copied inside the target, without being
+ * transferred to the initiator and back. The command completes when the copy operation has finished, its progress can
+ * be requested with <code>RECEIVE COPY RESULTS</code> meanwhile.
+ */
+public final class ExtendedCopyStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExtendedCopyStage.class);
+
+    /**
+     * The offset of the PARAMETER LIST LENGTH field in the CDB.
+     */
+    private static final int PARAMETER_LIST_LENGTH_INDEX = 10;
+
+    public ExtendedCopyStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final ExtendedCopyCdb cdb = new ExtendedCopyCdb(parser.getCDB());
+        if (cdb.getIllegalFieldPointers() != null) {
+            // see WriteStage, unsolicited data can not be ignored
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        // receive the parameter list
+        final int length = Math.min(cdb.getParameterListLength(), expectedDataTransferLength);
+        if (length == 0) {
+            // nothing to copy
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+            return;
+        }
+        final ByteBuffer data = receiveDataOut(pdu, length);
+
+        if (length < ExtendedCopyParameterList.HEADER_LENGTH || new ExtendedCopyParameterList(data).isTruncated()) {
+            sendIllegalRequest(true, PARAMETER_LIST_LENGTH_INDEX, AdditionalSenseCodeAndQualifier.PARAMETER_LIST_LENGTH_ERROR, initiatorTaskTag, expectedDataTransferLength);
+            return;
+        }
+        final ExtendedCopyParameterList parameterList = new ExtendedCopyParameterList(data);
+        if (parameterList.getCscdDescriptorCount() > CopyOperatingParameters.MAX_CSCD_DESCRIPTORS) {
+            sendIllegalRequest(false, 2, AdditionalSenseCodeAndQualifier.TOO_MANY_TARGET_DESCRIPTORS, initiatorTaskTag, expectedDataTransferLength);
+            return;
+        }
+        if (parameterList.getSegmentDescriptorCount() > CopyOperatingParameters.MAX_SEGMENT_DESCRIPTORS) {
+            sendIllegalRequest(false, 8, AdditionalSenseCodeAndQualifier.TOO_MANY_SEGMENT_DESCRIPTORS, initiatorTaskTag, expectedDataTransferLength);
+            return;
+        }
+
+        // identify the logical units
+        final IStorageModule[] storageModules = new IStorageModule[parameterList.getCscdDescriptorCount()];
+        final RangeLock[] rangeLocks = new RangeLock[storageModules.length];
+        for (int i = 0; i < storageModules.length; ++i) {
+            final int descriptorIndex = parameterList.getCscdDescriptorIndex(i);
+            if (parameterList.getCscdDescriptorType(i) != ExtendedCopyParameterList.IDENTIFICATION_DESCRIPTOR) {
+                sendIllegalRequest(false, descriptorIndex, AdditionalSenseCodeAndQualifier.UNSUPPORTED_TARGET_DESCRIPTOR_TYPE_CODE, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            if (parameterList.getPeripheralDeviceType(i) != 0) {
+                // only block devices
+                sendIllegalRequest(false, descriptorIndex + 1, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            final Target target = getTarget(parameterList, i);
+            if (target == null) {
+                LOGGER.error("EXTENDED COPY: CSCD descriptor " + i + " does not identify a logical unit of this target server");
+                connection.sendPdu(createCopyAbortedErrorPdu(0, AdditionalSenseCodeAndQualifier.COPY_TARGET_DEVICE_NOT_REACHABLE, initiatorTaskTag, expectedDataTransferLength));
+                return;
+            }
+            storageModules[i] = target.getStorageModule();
+            rangeLocks[i] = target.getRangeLock();
+            if (parameterList.getDiskBlockLength(i) != storageModules[i].getBlockSize()) {
+                sendIllegalRequest(false, descriptorIndex + 29, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+        }
+
+        // check the segments
+        final List<CopyManager.Segment> segments = new ArrayList<>(parameterList.getSegmentDescriptorCount());
+        for (int i = 0; i < parameterList.getSegmentDescriptorCount(); ++i) {
+            final int descriptorIndex = parameterList.getSegmentDescriptorIndex(i);
+            if (parameterList.getSegmentDescriptorType(i) != ExtendedCopyParameterList.BLOCK_TO_BLOCK_DESCRIPTOR) {
+                sendIllegalRequest(false, descriptorIndex, AdditionalSenseCodeAndQualifier.UNSUPPORTED_SEGMENT_DESCRIPTOR_TYPE_CODE, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            if (parameterList.getSegmentDescriptorLength(i) != ExtendedCopyParameterList.BLOCK_TO_BLOCK_DESCRIPTOR_LENGTH) {
+                sendIllegalRequest(false, descriptorIndex + 2, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            final int sourceId = parameterList.getSourceDescriptorId(i);
+            final int destinationId = parameterList.getDestinationDescriptorId(i);
+            if (sourceId >= storageModules.length) {
+                sendIllegalRequest(false, descriptorIndex + 4, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            if (destinationId >= storageModules.length || storageModules[destinationId].getBlockSize() != storageModules[sourceId].getBlockSize()) {
+                sendIllegalRequest(false, descriptorIndex + 6, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            final IStorageModule source = storageModules[sourceId];
+            final IStorageModule destination = storageModules[destinationId];
+            final int numberOfBlocks = parameterList.getNumberOfBlocks(i);
+            final long sourceLogicalBlockAddress = parameterList.getSourceLogicalBlockAddress(i);
+            final long destinationLogicalBlockAddress = parameterList.getDestinationLogicalBlockAddress(i);
+            if (source.checkBounds(sourceLogicalBlockAddress, numberOfBlocks) != 0) {
+                sendIllegalRequest(false, descriptorIndex + 12, AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            if (destination.checkBounds(destinationLogicalBlockAddress, numberOfBlocks) != 0) {
+                sendIllegalRequest(false, descriptorIndex + 20, AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE, initiatorTaskTag, expectedDataTransferLength);
+                return;
+            }
+            final int blockSize = source.getBlockSize();
+            segments.add(new CopyManager.Segment(source, sourceLogicalBlockAddress * blockSize, destination, destinationLogicalBlockAddress * blockSize, (long) numberOfBlocks * blockSize, rangeLocks[destinationId]));
+        }
+
+        // a list identifier must not be reused while its copy operation is in progress
+        final boolean holdStatus = parameterList.getListIdUsage() != ExtendedCopyParameterList.NO_LIST_IDENTIFIER;
+        final CopyOperation previous = holdStatus ? session.getCopyOperations().get(parameterList.getListIdentifier()) : null;
+        if (previous != null && !previous.isDone()) {
+            sendIllegalRequest(false, 0, AdditionalSenseCodeAndQualifier.OPERATION_IN_PROGRESS, initiatorTaskTag, expectedDataTransferLength);
+            return;
+        }
+
+        // copy
+        final CopyOperation copyOperation = session.getTargetServer().getCopyManager().copy(segments);
+        if (holdStatus) session.getCopyOperations().put(parameterList.getListIdentifier(), copyOperation);
+        register(copyOperation.getFuture());
+        try {
+            copyOperation.await();
+        } catch (IOException e) {
+            connection.sendPdu(createCopyAbortedErrorPdu(copyOperation.getSegmentsProcessed(), AdditionalSenseCodeAndQualifier.THIRD_PARTY_DEVICE_FAILURE, initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, length));
+    }
+
+    /**
+     * Returns the target of this target server whose logical unit is identified by the specified CSCD descriptor.
+     *
+     * @param parameterList the parameter list
+     * @param descriptor the index of the CSCD descriptor
+     * @return the identified target or <code>null</code>
+     */
+    private Target getTarget (final ExtendedCopyParameterList parameterList, final int descriptor) {
+        if (parameterList.getDesignatorType(descriptor) != IdentifierType.NAA.getValue()) return null;
+        final TargetServer targetServer = session.getTargetServer();
+        for (String targetName : targetServer.getTargetNames()) {
+            final Target target = targetServer.getTarget(targetName);
+            if (target != null && target.getLogicalUnitIdentifier().matches(parameterList.getBuffer(), parameterList.getDesignatorIndex(descriptor), parameterList.getDesignatorLength(descriptor))) return target;
+        }
+        return null;
+    }
+
+    private void sendIllegalRequest (final boolean commandData, final int fieldPointer, final AdditionalSenseCodeAndQualifier additionalSenseCodeAndQualifier, final int initiatorTaskTag, final int expectedDataTransferLength) throws InterruptedException , IOException , InternetSCSIException {
+        LOGGER.error("illegal EXTENDED COPY request: " + additionalSenseCodeAndQualifier + " at " + (commandData ? "CDB" : "parameter list") + " byte " + fieldPointer);
+        connection.sendPdu(createFixedFormatErrorPdu(new FieldPointerSenseKeySpecificData[] { createFieldPointer(commandData, fieldPointer) }, additionalSenseCodeAndQualifier, initiatorTaskTag, expectedDataTransferLength));
+    }
+}
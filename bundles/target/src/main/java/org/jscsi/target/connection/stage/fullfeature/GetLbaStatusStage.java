@@ -0,0 +1,57 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.GetLbaStatusCdb;
+import org.jscsi.target.scsi.provisioning.LbaStatusParameterData;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+
+
+/**
+ * A stage for processing <code>GET LBA STATUS</code> SCSI commands, which report the mapped and deallocated extents of
+ * the medium, starting at the requested logical block.
+ */
+public final class GetLbaStatusStage extends TargetFullFeatureStage {
+
+    public GetLbaStatusStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+
+        final GetLbaStatusCdb cdb = new GetLbaStatusCdb(parser.getCDB());
+        if (cdb.getIllegalFieldPointers() != null) {
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), bhs.getInitiatorTaskTag(), parser.getExpectedDataTransferLength()));
+            return;
+        }
+
+        final long startingLogicalBlockAddress = cdb.getStartingLogicalBlockAddress();
+        if (startingLogicalBlockAddress < 0 || startingLogicalBlockAddress >= session.getStorageModule().getSizeInBlocks()) {
+            final FieldPointerSenseKeySpecificData fp = new FieldPointerSenseKeySpecificData(true,// senseKeySpecificDataValid
+                    true,// commandData (i.e. invalid field in CDB)
+                    false,// bitPointerValid
+                    0,// bitPointer, reserved since invalid
+                    2);// fieldPointer to the STARTING LOGICAL BLOCK ADDRESS field
+            connection.sendPdu(createFixedFormatErrorPdu(new FieldPointerSenseKeySpecificData[] { fp },// senseKeySpecificData
+                    AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE,// additionalSenseCodeAndQualifier
+                    bhs.getInitiatorTaskTag(),// initiatorTaskTag
+                    parser.getExpectedDataTransferLength()));// expectedDataTransferLength
+            return;
+        }
+
+        sendResponse(bhs.getInitiatorTaskTag(), parser.getExpectedDataTransferLength(), new LbaStatusParameterData(session.getStorageModule(), startingLogicalBlockAddress, Math.min(cdb.getAllocationLength(), parser.getExpectedDataTransferLength())));
+    }
+}
@@ -2,6 +2,7 @@ package org.jscsi.target.connection.stage.fullfeature;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -10,7 +11,12 @@ import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.scsi.ResponseDataCache;
 import org.jscsi.target.scsi.cdb.InquiryCDB;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.inquiry.BlockDeviceCharacteristicsVpdPage;
+import org.jscsi.target.scsi.inquiry.BlockLimitsVpdPage;
+import org.jscsi.target.scsi.inquiry.LogicalBlockProvisioningVpdPage;
 import org.jscsi.target.scsi.inquiry.PageCode.VitalProductDataPageName;
 import org.jscsi.target.scsi.inquiry.StandardInquiryData;
 import org.jscsi.target.scsi.inquiry.SupportedVpdPages;
@@ -71,38 +77,69 @@ public class InquiryStage extends TargetFullFeatureStage {
             // PDU is okay
             // carry out command
 
-            IResponseData responseData;
-
-            // "If the EVPD bit is set to zero, ...
-            if (!cdb.getEnableVitalProductData()) {
-                // ... the device server shall return the standard INQUIRY
-                // data."
-                responseData = StandardInquiryData.getInstance();
-            } else {
-                /*
-                 * SCSI initiator is requesting either "device identification" or "supported VPD pages" or this else
-                 * block would not have been entered. (see {@link InquiryCDB#checkIntegrity(ByteBuffer dataSegment)})
-                 */
-                final VitalProductDataPageName pageName = cdb.getPageCode().getVitalProductDataPageName();
-
-                switch (pageName) {// is never null
-                    case SUPPORTED_VPD_PAGES :
-                        responseData = SupportedVpdPages.getInstance();
-                        break;
-                    case DEVICE_IDENTIFICATION :
-                        responseData = session.getTargetServer().getDeviceIdentificationVpdPage();
-                        break;
-                    default :
-                        // The initiator must not request unsupported mode pages.
-                        throw new InternetSCSIException();
-                }
+            // the standard INQUIRY data and the VPD pages are cached under different keys
+            final int key = ResponseDataCache.key(ScsiOperationCode.INQUIRY.value(), cdb.getEnableVitalProductData() ? 0x100 | (cdb.getPageCode().getValue() & 0xff) : 0);
+            // the BLOCK LIMITS VPD page depends on the MaxBurstLength of the connection
+            final int parameter = cdb.getEnableVitalProductData() && cdb.getPageCode().getVitalProductDataPageName() == VitalProductDataPageName.BLOCK_LIMITS ? settings.getMaxBurstLength() : 0;
+
+            final ResponseDataCache cache = session.getTarget().getResponseDataCache();
+            ByteBuffer response = cache.get(key, parameter, parser.getExpectedDataTransferLength());
+            if (response == null) {
+                response = cache.put(key, parameter, createResponseData(cdb), parser.getExpectedDataTransferLength());
             }
 
             // send response
-            sendResponse(bhs.getInitiatorTaskTag(), parser.getExpectedDataTransferLength(), responseData);
-           
+            sendResponse(bhs.getInitiatorTaskTag(), parser.getExpectedDataTransferLength(), response, ResponseDataCache.size(response));
+
         }
 
     }
 
+    /**
+     * Creates the response data requested by a legal <code>INQUIRY</code> command.
+     * 
+     * @param cdb the CDB of the command
+     * @return the standard INQUIRY data or the requested VPD page
+     * @throws InternetSCSIException if an unsupported VPD page has been requested
+     */
+    private IResponseData createResponseData (final InquiryCDB cdb) throws InternetSCSIException {
+
+        IResponseData responseData;
+
+        // "If the EVPD bit is set to zero, ...
+        if (!cdb.getEnableVitalProductData()) {
+            // ... the device server shall return the standard INQUIRY
+            // data."
+            responseData = StandardInquiryData.getInstance();
+        } else {
+            /*
+             * SCSI initiator is requesting either "device identification" or "supported VPD pages" or this else block
+             * would not have been entered. (see {@link InquiryCDB#checkIntegrity(ByteBuffer dataSegment)})
+             */
+            final VitalProductDataPageName pageName = cdb.getPageCode().getVitalProductDataPageName();
+
+            switch (pageName) {// is never null
+                case SUPPORTED_VPD_PAGES :
+                    responseData = SupportedVpdPages.getInstance();
+                    break;
+                case DEVICE_IDENTIFICATION :
+                    responseData = session.getTarget().getDeviceIdentificationVpdPage();
+                    break;
+                case BLOCK_LIMITS :
+                    responseData = new BlockLimitsVpdPage(session.getStorageModule(), settings.getMaxBurstLength());
+                    break;
+                case BLOCK_DEVICE_CHARACTERISTICS :
+                    responseData = new BlockDeviceCharacteristicsVpdPage(session.getStorageModule());
+                    break;
+                case LOGICAL_BLOCK_PROVISIONING :
+                    responseData = new LogicalBlockProvisioningVpdPage(session.getStorageModule());
+                    break;
+                default :
+                    // The initiator must not request unsupported mode pages.
+                    throw new InternetSCSIException();
+            }
+        }
+        return responseData;
+    }
+
 }
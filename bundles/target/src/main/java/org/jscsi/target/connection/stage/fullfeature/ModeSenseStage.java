@@ -1,6 +1,7 @@
 package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -8,7 +9,9 @@ import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.ResponseDataCache;
 import org.jscsi.target.scsi.cdb.ModeSense6Cdb;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
 import org.jscsi.target.scsi.modeSense.CachingModePage;
 import org.jscsi.target.scsi.modeSense.HeaderType;
 import org.jscsi.target.scsi.modeSense.InformationExceptionsControlModePage;
@@ -77,17 +80,25 @@ public final class ModeSenseStage extends TargetFullFeatureStage {
         // create and send response PDU
         if (modePages != null) {
 
-            // create ModeParameterList
-            final ModeParameterListBuilder builder = new ModeParameterListBuilder(HeaderType.MODE_PARAMETER_HEADER_6);
-            builder.setLogicalBlockDescriptors(new ShortLogicalBlockDescriptor(session.getStorageModule().getSizeInBlocks(),// numberOfLogicalBlocks
-            session.getStorageModule().getBlockSize()));// logicalBlockLength
-            builder.setModePages(modePages);
-            ModeParameterList modeParameterList = ModeParameterList.build(builder);
+            // the pages do not depend on the PAGE CONTROL field, and the block descriptor is always returned
+            final int key = ResponseDataCache.key(ScsiOperationCode.MODE_SENSE_6.value(), (cdb.getPageCode() << 8) | cdb.getSubpageCode());
+            final ResponseDataCache cache = session.getTarget().getResponseDataCache();
+            ByteBuffer response = cache.get(key, 0, parser.getExpectedDataTransferLength());
+            if (response == null) {
+                // create ModeParameterList
+                final ModeParameterListBuilder builder = new ModeParameterListBuilder(HeaderType.MODE_PARAMETER_HEADER_6);
+                builder.setLogicalBlockDescriptors(new ShortLogicalBlockDescriptor(session.getStorageModule().getSizeInBlocks(),// numberOfLogicalBlocks
+                session.getStorageModule().getBlockSize()));// logicalBlockLength
+                builder.setModePages(modePages);
+                ModeParameterList modeParameterList = ModeParameterList.build(builder);
+                response = cache.put(key, 0, modeParameterList, parser.getExpectedDataTransferLength());
+            }
 
             // send response
             sendResponse(bhs.getInitiatorTaskTag(),// initiatorTaskTag,
                     parser.getExpectedDataTransferLength(),// expectedDataTransferLength,
-                    modeParameterList);// responseData
+                    response,// trimmedBuffer
+                    ResponseDataCache.size(response));// responseSize
 
         } else {
             /*
@@ -120,7 +131,7 @@ public final class ModeSenseStage extends TargetFullFeatureStage {
         false,// cachingAnalysisPermitted
         false,// discontinuity
         true,// sizeEnable
-        false,// writebackCacheEnable
+        true,// writebackCacheEnable
         false,// multiplicationFactor
         true,// readCacheDisable
         0x0,// demandReadRetentionPriority
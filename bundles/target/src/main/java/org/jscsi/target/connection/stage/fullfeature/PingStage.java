@@ -57,11 +57,12 @@ public class PingStage extends TargetFullFeatureStage {
         // else
         // prepare response data segment (copy up to initiator's
         // MaxRecvDataSegmentLength)
-        final int dataSegmentLength = Math.min(pdu.getDataSegment().capacity(), settings.getMaxRecvDataSegmentLength());
+        final int dataSegmentLength = Math.min(bhs.getDataSegmentLength(), settings.getMaxRecvDataSegmentLength());
         final ByteBuffer responseDataSegment = ByteBuffer.allocate(dataSegmentLength);
-        responseDataSegment.put(pdu.getDataSegment().array(),// source array,
-                0,// offset within the array of the first byte to be read
-                dataSegmentLength);// length
+        final ByteBuffer pingData = pdu.getDataSegment();
+        pingData.position(0);
+        pingData.limit(dataSegmentLength);
+        responseDataSegment.put(pingData);
 
         // send response
         final ProtocolDataUnit responsePdu = TargetPduFactory.createNopInPDU(0,// logicalUnitNumber,
@@ -0,0 +1,78 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.PreFetch10Cdb;
+import org.jscsi.target.scsi.cdb.PreFetch16Cdb;
+import org.jscsi.target.scsi.cdb.PreFetchCdb;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>PRE-FETCH (10)</code> and <code>PRE-FETCH (16)</code> SCSI commands.
+ * <p>
+ * The addressed range is passed on to {@link IStorageModule#prefetch(long, long)} as a hint, which returns without
+ * waiting for the transfer. Since the logical blocks are therefore not known to be in the cache when the command
+ * completes, GOOD status is returned instead of CONDITION MET, regardless of the IMMED bit.
+ */
+public final class PreFetchStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreFetchStage.class);
+
+    public PreFetchStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final PreFetchCdb cdb;
+        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
+        if (scsiOpCode == ScsiOperationCode.PRE_FETCH_10)
+            cdb = new PreFetch10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.PRE_FETCH_16)
+            cdb = new PreFetch16Cdb(parser.getCDB());
+        else {
+            // programmer error, close connection
+            throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in PreFetchStage");
+        }
+
+        // check bounds, a PREFETCH LENGTH of zero means up to the end of the medium
+        final IStorageModule storageModule = session.getStorageModule();
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        final long prefetchLength = cdb.getPrefetchLength() == 0 ? sizeInBlocks - logicalBlockAddress : cdb.getPrefetchLength();
+        if (logicalBlockAddress < 0 || logicalBlockAddress >= sizeInBlocks)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (logicalBlockAddress + prefetchLength > sizeInBlocks) cdb.addIllegalFieldPointerForPrefetchLength();
+
+        if (cdb.getIllegalFieldPointers() != null) {
+            LOGGER.debug("illegal field in PRE-FETCH CDB:\n" + Debug.byteBufferToString(parser.getCDB()));
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        final int blockSize = storageModule.getBlockSize();
+        storageModule.prefetch(logicalBlockAddress * blockSize, prefetchLength * blockSize);
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+    }
+}
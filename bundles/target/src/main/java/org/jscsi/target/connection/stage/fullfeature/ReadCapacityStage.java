@@ -1,6 +1,7 @@
 package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -8,6 +9,7 @@ import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.ResponseDataCache;
 import org.jscsi.target.scsi.cdb.ReadCapacity10Cdb;
 import org.jscsi.target.scsi.cdb.ReadCapacity16Cdb;
 import org.jscsi.target.scsi.cdb.ReadCapacityCdb;
@@ -73,17 +75,25 @@ public final class ReadCapacityStage extends TargetFullFeatureStage {
             return;
         } else {
             // send PDU with requested READ CAPACITY parameter data
-            ReadCapacityParameterData parameterData;
-            if (cdb instanceof ReadCapacity10Cdb)
-                parameterData = new ReadCapacity10ParameterData(session.getStorageModule().getSizeInBlocks(),// returnedLogicalBlockAddress
-                session.getStorageModule().getBlockSize());// logicalBlockLengthInBytes
-            else
-                parameterData = new ReadCapacity16ParameterData(session.getStorageModule().getSizeInBlocks(),// returnedLogicalBlockAddress
-                session.getStorageModule().getBlockSize());// logicalBlockLengthInBytes
+            final int key = ResponseDataCache.key(opCode.value(), 0);
+            final ResponseDataCache cache = session.getTarget().getResponseDataCache();
+            ByteBuffer response = cache.get(key, 0, parser.getExpectedDataTransferLength());
+            if (response == null) {
+                ReadCapacityParameterData parameterData;
+                if (cdb instanceof ReadCapacity10Cdb)
+                    parameterData = new ReadCapacity10ParameterData(session.getStorageModule().getSizeInBlocks(),// returnedLogicalBlockAddress
+                    session.getStorageModule().getBlockSize());// logicalBlockLengthInBytes
+                else
+                    parameterData = new ReadCapacity16ParameterData(session.getStorageModule().getSizeInBlocks(),// returnedLogicalBlockAddress
+                    session.getStorageModule().getBlockSize(),// logicalBlockLengthInBytes
+                    session.getStorageModule().supportsUnmap());// logicalBlockProvisioning
+                response = cache.put(key, 0, parameterData, parser.getExpectedDataTransferLength());
+            }
 
             sendResponse(bhs.getInitiatorTaskTag(),// initiatorTaskTag,
                     parser.getExpectedDataTransferLength(),// expectedDataTransferLength,
-                    parameterData);// responseData
+                    response,// trimmedBuffer
+                    ResponseDataCache.size(response));// responseSize
         }
     }
 
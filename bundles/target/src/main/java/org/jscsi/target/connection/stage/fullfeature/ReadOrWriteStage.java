@@ -4,7 +4,9 @@ package org.jscsi.target.connection.stage.fullfeature;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.scsi.cdb.CommandDescriptorBlock;
 import org.jscsi.target.scsi.cdb.ReadOrWriteCdb;
+import org.jscsi.target.scsi.cdb.ReadOrWriteCdbView;
 import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.storage.IStorageModule;
 
 
 /**
@@ -15,6 +17,11 @@ import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPoi
  */
 public abstract class ReadOrWriteStage extends TargetFullFeatureStage {
 
+    /**
+     * The CDB of the command being executed, which is decoded from the command's PDU without copying its fields.
+     */
+    protected final ReadOrWriteCdbView cdb = new ReadOrWriteCdbView();
+
     public ReadOrWriteStage (TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
     }
@@ -34,7 +41,29 @@ public abstract class ReadOrWriteStage extends TargetFullFeatureStage {
         // add illegal field pointer, or not
         if (boundsCheck == 1)
             cdb.addIllegalFieldPointerForLogicalBlockAddress();
-        else if (boundsCheck == 2) cdb.addIllegalFieldPointerForTransferLength();
+        else if (boundsCheck == 2)
+            cdb.addIllegalFieldPointerForTransferLength();
+        else if ((long) cdb.getTransferLength() * session.getStorageModule().getBlockSize() > Integer.MAX_VALUE) {
+            // the four-byte TRANSFER LENGTH fields of 12 and 16 byte CDBs allow more bytes than a task can transfer
+            cdb.addIllegalFieldPointerForTransferLength();
+        }
+    }
+
+    /**
+     * Returns the illegal fields of {@link #cdb}, including the <code>LOGICAL BLOCK ADDRESS</code> and <code>TRANSFER
+     * LENGTH</code> fields if the requested blocks are out of bounds. The complete {@link ReadOrWriteCdb} is only
+     * created if there is an illegal field to report.
+     * 
+     * @return <code>null</code> or the illegal fields
+     * @see #checkOverAndUnderflow(ReadOrWriteCdb)
+     */
+    protected final FieldPointerSenseKeySpecificData[] getIllegalFieldPointers () {
+        final IStorageModule storage = session.getStorageModule();
+        if (!cdb.hasIllegalFields() && storage.checkBounds(cdb.getLogicalBlockAddress(), cdb.getTransferLength()) == 0
+                && (long) cdb.getTransferLength() * storage.getBlockSize() <= Integer.MAX_VALUE) return null;
+        final ReadOrWriteCdb completeCdb = cdb.toCdb();
+        checkOverAndUnderflow(completeCdb);
+        return completeCdb.getIllegalFieldPointers();
     }
 
 }
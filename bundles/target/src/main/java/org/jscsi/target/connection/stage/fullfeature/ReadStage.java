@@ -2,27 +2,40 @@ package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
 import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.parser.scsi.SCSIResponseParser.ServiceResponse;
 import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
 import org.jscsi.target.connection.TargetPduFactory;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.jfr.StorageReadEvent;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
-import org.jscsi.target.scsi.cdb.Read10Cdb;
-import org.jscsi.target.scsi.cdb.Read6Cdb;
-import org.jscsi.target.scsi.cdb.ReadCdb;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * A stage for processing <code>READ (6)</code> and <code>READ (10)</code> SCSI commands.
+ * A stage for processing <code>READ (6)</code>, <code>READ (10)</code>, <code>READ (12)</code> and
+ * <code>READ (16)</code> SCSI commands.
  * 
  * @author Andreas Ergenzinger
  */
@@ -30,6 +43,11 @@ public class ReadStage extends ReadOrWriteStage {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ReadStage.class);
 
+    /**
+     * The data segment of Data-In PDUs whose payload is sent directly from storage.
+     */
+    private static final ByteBuffer EMPTY_DATA_SEGMENT = ByteBuffer.allocate(0);
+
     public ReadStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
     }
@@ -51,30 +69,23 @@ public class ReadStage extends ReadOrWriteStage {
         SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
         final int initiatorTaskTag = bhs.getInitiatorTaskTag();
 
-        // get the Read(6) or Read(10) CDB
-        ReadCdb cdb;
-        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
-        if (scsiOpCode == ScsiOperationCode.READ_10)// most likely option first
-            cdb = new Read10Cdb(parser.getCDB());
-        else if (scsiOpCode == ScsiOperationCode.READ_6)
-            cdb = new Read6Cdb(parser.getCDB());
-        else {
+        // get the Read(6), Read(10), Read(12) or Read(16) CDB
+        final ScsiOperationCode scsiOpCode = cdb.wrap(parser.getCDB()).getScsiOperationCode();
+        if (scsiOpCode != ScsiOperationCode.READ_10 && scsiOpCode != ScsiOperationCode.READ_16 && scsiOpCode != ScsiOperationCode.READ_12 && scsiOpCode != ScsiOperationCode.READ_6) {
             // anything else wouldn't be good (programmer error)
             // close connection
             throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in ReadStage");
         }
 
-        // check if requested blocks are out of bounds
-        checkOverAndUnderflow(cdb);
-
-        // check illegal field pointers
-        if (cdb.getIllegalFieldPointers() != null) {
+        // check illegal fields and if requested blocks are out of bounds
+        final FieldPointerSenseKeySpecificData[] illegalFieldPointers = getIllegalFieldPointers();
+        if (illegalFieldPointers != null) {
             // the command must fail
 
             LOGGER.debug("illegal field in Read CDB");
 
             // create and send error PDU and leave stage
-            final ProtocolDataUnit responsePdu = createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(),// senseKeySpecificData
+            final ProtocolDataUnit responsePdu = createFixedFormatErrorPdu(illegalFieldPointers,// senseKeySpecificData
                     initiatorTaskTag, parser.getExpectedDataTransferLength());
             connection.sendPdu(responsePdu);
             return;
@@ -91,89 +102,42 @@ public class ReadStage extends ReadOrWriteStage {
         }
 
         // *** start sending ***
-        // initialize counters and data segment buffer
-        int bytesSent = 0;
-        int dataSequenceNumber = 0;
-        byte[] dataSegmentArray = null;
-        ByteBuffer dataSegment = null;
-        ProtocolDataUnit responsePdu;
-
-        // *** send up to last but one Data-In PDU ***
-        // (with DataSegmentSize == MaxRecvDataSegmentLength)
-
-        if (bytesSent < totalTransferLength - settings.getMaxRecvDataSegmentLength()) {
-            /*
-             * Initialize dataSegmentArray and dataSegment with MaxRecvDataSegmentLength bytes.
-             */
-            dataSegmentArray = connection.getDataInArray(settings.getMaxRecvDataSegmentLength());
-            dataSegment = ByteBuffer.wrap(dataSegmentArray);
-        }
-
-        while (bytesSent < totalTransferLength - settings.getMaxRecvDataSegmentLength()) {
-
-            // get data and prepare data segment
-            session.getStorageModule().read(dataSegmentArray, storageOffset + bytesSent);
-
-            // create and send PDU
-            responsePdu = TargetPduFactory.createDataInPdu(false,// finalFlag,
-                                                                 // not the last
-                                                                 // PDU with
-                                                                 // data payload
-                                                                 // in the
-                                                                 // sequence
-                    false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we
-                          // never do that
-                    false,// residualOverflowFlag
-                    false,// residualUnderflowFlag
-                    false,// statusFlag
-                    SCSIStatus.GOOD,// status, actually reserved i.e. 0x0
-                    0L,// logicalUnitNumber, reserved
-                    initiatorTaskTag, 0xffffffff,// targetTransferTag
-                    dataSequenceNumber,// dataSequenceNumber
-                    bytesSent,// bufferOffset
-                    0,// residualCount
-                    dataSegment);
-
-            connection.sendPdu(responsePdu);
-
-            // increment counters
-            ++dataSequenceNumber;
-            bytesSent += settings.getMaxRecvDataSegmentLength();
-        }
+        final IStorageModule storage = session.getStorageModule();
+        final boolean noDigests = settings.hasNoDigests();
+        // Without digests, Data-In payloads can be sent straight from a file-based storage module to the socket.
+        final boolean zeroCopy = noDigests && storage.supportsTransferTo();
 
         /*
-         * If ImmediateData=Yes has been negotiated, then a phase collapse has to take place, i.e. the status is sent in
-         * the last Data-In PDU. Otherwise a separate SCSI Response PDU must follow.
+         * Each Data-In PDU carries up to MaxRecvDataSegmentLength bytes and each Data-In sequence up to MaxBurstLength
+         * bytes. If ImmediateData=Yes has been negotiated, then a phase collapse has to take place, i.e. the status is
+         * sent in the last Data-In PDU. Otherwise a separate SCSI Response PDU must follow.
          */
+        final DataInSequencer sequencer = new DataInSequencer(initiatorTaskTag, totalTransferLength, settings.getMaxRecvDataSegmentLength(), settings.getMaxBurstLength(), immediateData);
+        ProtocolDataUnit responsePdu;
 
-        // *** send last Data-In PDU ***
-
-        // get data and prepare data segment
-        final int bytesRemaining = totalTransferLength - bytesSent;
-        dataSegmentArray = connection.getDataInArray(bytesRemaining);
-        session.getStorageModule().read(dataSegmentArray, storageOffset + bytesSent);
-        dataSegment = ByteBuffer.wrap(dataSegmentArray);
-
-        // create and send PDU (with or without status)
-        responsePdu = TargetPduFactory.createDataInPdu(true,// finalFlag, last
-                                                            // PDU in the
-                                                            // sequence with
-                                                            // data payload
-                false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we never
-                      // do that
-                false,// residualOverflowFlag
-                false,// residualUnderflowFlag
-                immediateData,// statusFlag
-                SCSIStatus.GOOD,// status, or not (reserved if no status)
-                0L,// logicalUnitNumber, reserved
-                initiatorTaskTag, 0xffffffff,// targetTransferTag
-                dataSequenceNumber,// dataSequenceNumber
-                bytesSent,// bufferOffset
-                0,// residualCount
-                dataSegment);
-
-        LOGGER.debug("sending last Data-In PDU");
-        connection.sendPdu(responsePdu);
+        if (totalTransferLength == 0) {
+            connection.sendPdu(sequencer.createPdu(0, 0, EMPTY_DATA_SEGMENT));
+        } else if (zeroCopy) {
+            int bytesSent = 0;
+            while (bytesSent < totalTransferLength) {
+                final int length = sequencer.getSegmentLength(bytesSent, totalTransferLength);
+                if (length % 4 == 0) {
+                    responsePdu = sequencer.createPdu(bytesSent, length, EMPTY_DATA_SEGMENT);
+                    connection.sendPdu(responsePdu, storage, storageOffset + bytesSent, length);
+                } else {
+                    // the data segment needs padding
+                    final byte[] dataSegmentArray = connection.getDataInArray(length);
+                    final StorageReadEvent event = FlightRecording.AVAILABLE ? StorageReadEvent.start() : null;
+                    storage.read(dataSegmentArray, storageOffset + bytesSent);
+                    if (event != null) event.finish(storageOffset + bytesSent, length);
+                    responsePdu = sequencer.createPdu(bytesSent, length, ByteBuffer.wrap(dataSegmentArray));
+                    connection.sendPdu(responsePdu);
+                }
+                bytesSent += length;
+            }
+        } else {
+            sendChunks(storage, storageOffset, sequencer, noDigests);
+        }
 
         // send SCSI Response PDU?
         if (!immediateData) {
@@ -196,6 +160,286 @@ public class ReadStage extends ReadOrWriteStage {
             connection.sendPdu(responsePdu);
         }
 
+        // the payload must have left the storage before the next command may modify it
+        if (zeroCopy) connection.flush();
+    }
+
+    /**
+     * Reads the requested data in chunks of {@link Configuration#getReadChunkLength()} bytes with a single storage call
+     * each and sends them as Data-In PDUs.
+     * <p>
+     * Up to {@link Configuration#getParallelReads()} chunks are read concurrently on the target-wide read pool, so the
+     * storage module has several requests in flight while earlier chunks are being sent. Without digests the chunks
+     * are sliced into data segments and handed to the send queue without copying.
+     * <p>
+     * Chunks are sent in the order of their offsets, unless DataPDUInOrder=No and DataSequenceInOrder=No have been
+     * negotiated. Then each chunk is sent as soon as it has been read, so a slow chunk does not hold back the ones
+     * following it. Such chunks consist of whole Data-In sequences, which are thus never interleaved.
+     * 
+     * @param storage the storage module to read from
+     * @param storageOffset the position of the requested data in storage
+     * @param sequencer the Data-In sequencer of the command
+     * @param noDigests <code>true</code> if neither header nor data digests are used
+     * @throws IOException if reading or sending fails
+     * @throws InterruptedException if interrupted while waiting for a chunk
+     * @throws InternetSCSIException if a Data-In PDU cannot be created
+     * @throws SettingsException if the ordering settings cannot be retrieved
+     * @throws CancellationException if the task has been aborted
+     */
+    private void sendChunks (final IStorageModule storage, final long storageOffset, final DataInSequencer sequencer, final boolean noDigests) throws IOException , InterruptedException , InternetSCSIException , SettingsException {
+        final Configuration config = session.getTargetServer().getConfig();
+        final int totalTransferLength = sequencer.totalTransferLength;
+        final boolean inOrder = settings.getDataPduInOrder() || settings.getDataSequenceInOrder();
+        final int chunkAlignment = inOrder ? sequencer.maxRecvDataSegmentLength : sequencer.maxBurstLength;
+        final int chunkLength = Math.max(1, config.getReadChunkLength() / chunkAlignment) * chunkAlignment;
+        final boolean parallel = config.getParallelReads() > 1 && totalTransferLength > chunkLength;
+        final int maxPendingReads = parallel ? config.getParallelReads() : 1;
+
+        // the reads in the order they were issued and, if chunks may be sent out of order, in the order they completed
+        final ArrayDeque<ChunkReadTask> pendingReads = new ArrayDeque<>(maxPendingReads);
+        final BlockingQueue<ChunkReadTask> completedReads = inOrder ? null : new LinkedBlockingQueue<ChunkReadTask>();
+        int nextChunkOffset = 0;
+        int bytesSent = 0;
+        try {
+            while (bytesSent < totalTransferLength) {
+                // keep the pipeline of chunk reads filled
+                while (nextChunkOffset < totalTransferLength && pendingReads.size() < maxPendingReads) {
+                    final int length = Math.min(chunkLength, totalTransferLength - nextChunkOffset);
+                    final ChunkReadTask read = new ChunkReadTask(new ChunkRead(storage, config.getReceiveBufferAllocator(), storageOffset + nextChunkOffset, length), nextChunkOffset, completedReads);
+                    register(read);
+                    if (parallel) {
+                        session.getTargetServer().getReadPool().execute(read);
+                    } else {
+                        read.run();
+                    }
+                    pendingReads.add(read);
+                    nextChunkOffset += length;
+                }
+
+                final ChunkReadTask read = inOrder ? pendingReads.peek() : completedReads.take();
+                pendingReads.remove(read);
+                final PooledBuffer chunk = getChunk(read);
+                try {
+                    final int length = chunk.getBuffer().limit();
+                    sendChunk(chunk, read.chunkOffset, sequencer, noDigests);
+                    bytesSent += length;
+                } finally {
+                    chunk.release();
+                }
+            }
+        } finally {
+            // release the chunks of a failed command, reads still in progress release their chunks when cancelled
+            for (ChunkReadTask read : pendingReads) {
+                if (read.cancel(false)) continue;
+                try {
+                    read.get().release();
+                } catch (ExecutionException | CancellationException e) {
+                    // already reported by the first failed chunk, or the task has been aborted
+                } catch (InterruptedException e) {
+                    // the read is done, so this does not wait, but the interrupt must not mask the original failure
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a chunk of read data as Data-In PDUs.
+     * 
+     * @param chunk the chunk
+     * @param chunkOffset the offset of the chunk in the transfer
+     * @param sequencer the Data-In sequencer of the command
+     * @param noDigests <code>true</code> if the data segments may be sent without being copied
+     * @throws IOException if sending fails
+     * @throws InterruptedException if interrupted while waiting for space in the send queue
+     * @throws InternetSCSIException if a Data-In PDU cannot be created
+     */
+    private void sendChunk (final PooledBuffer chunk, final int chunkOffset, final DataInSequencer sequencer, final boolean noDigests) throws IOException , InterruptedException , InternetSCSIException {
+        final ByteBuffer buffer = chunk.getBuffer();
+        final int chunkEnd = chunkOffset + buffer.limit();
+        int bufferOffset = chunkOffset;
+        while (bufferOffset < chunkEnd) {
+            final int segmentLength = sequencer.getSegmentLength(bufferOffset, chunkEnd);
+            buffer.limit(bufferOffset - chunkOffset + segmentLength);
+            buffer.position(bufferOffset - chunkOffset);
+            final ProtocolDataUnit responsePdu = sequencer.createPdu(bufferOffset, segmentLength, buffer.slice());
+            if (noDigests) {
+                chunk.retain();
+                connection.sendPdu(responsePdu, chunk);
+            } else {
+                connection.sendPdu(responsePdu);
+            }
+            bufferOffset += segmentLength;
+        }
+    }
+
+    /**
+     * Waits for a chunk read to complete.
+     * 
+     * @param read the chunk read
+     * @return the chunk
+     * @throws IOException if the read failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static PooledBuffer getChunk (final Future<PooledBuffer> read) throws IOException , InterruptedException {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A {@link ChunkRead}, which knows the offset of its chunk in the transfer and reports its completion.
+     */
+    private static final class ChunkReadTask extends FutureTask<PooledBuffer> {
+
+        final int chunkOffset;
+
+        private final BlockingQueue<ChunkReadTask> completedReads;
+
+        ChunkReadTask (final ChunkRead read, final int chunkOffset, final BlockingQueue<ChunkReadTask> completedReads) {
+            super(read);
+            this.chunkOffset = chunkOffset;
+            this.completedReads = completedReads;
+        }
+
+        /**
+         * Releases the chunk if the task has been cancelled while reading it, since nobody is going to get it.
+         */
+        @Override
+        protected void set (final PooledBuffer chunk) {
+            super.set(chunk);
+            if (isCancelled()) chunk.release();
+        }
+
+        @Override
+        protected void done () {
+            if (completedReads != null) completedReads.add(this);
+        }
+    }
+
+    /**
+     * Reads a chunk of data from storage into a pooled buffer.
+     */
+    private static final class ChunkRead implements Callable<PooledBuffer> {
+
+        private final IStorageModule storage;
+
+        private final IBufferAllocator allocator;
+
+        private final long storageIndex;
+
+        private final int length;
+
+        ChunkRead (final IStorageModule storage, final IBufferAllocator allocator, final long storageIndex, final int length) {
+            this.storage = storage;
+            this.allocator = allocator;
+            this.storageIndex = storageIndex;
+            this.length = length;
+        }
+
+        @Override
+        public PooledBuffer call () throws IOException {
+            final PooledBuffer chunk = allocator.allocate(length);
+            try {
+                final StorageReadEvent event = FlightRecording.AVAILABLE ? StorageReadEvent.start() : null;
+                storage.read(chunk.getBuffer(), storageIndex);
+                if (event != null) event.finish(storageIndex, length);
+            } catch (IOException | RuntimeException e) {
+                chunk.release();
+                throw e;
+            }
+            chunk.getBuffer().flip();
+            return chunk;
+        }
+    }
+
+    /**
+     * Cuts the data of a READ command into Data-In PDUs and numbers them in the order they are sent.
+     * <p>
+     * A data segment never exceeds <code>MaxRecvDataSegmentLength</code> and never crosses a multiple of
+     * <code>MaxBurstLength</code>, where the current Data-In sequence ends and the F bit is set. The F bit is also set
+     * at the end of the transfer and on the last PDU sent, which carries the status if phase collapse is used.
+     */
+    private static final class DataInSequencer {
+
+        final int initiatorTaskTag;
+
+        final int totalTransferLength;
+
+        final int maxRecvDataSegmentLength;
+
+        final int maxBurstLength;
+
+        final boolean immediateData;
+
+        private int dataSequenceNumber;
+
+        private int bytesSent;
+
+        DataInSequencer (final int initiatorTaskTag, final int totalTransferLength, final int maxRecvDataSegmentLength, final int maxBurstLength, final boolean immediateData) {
+            this.initiatorTaskTag = initiatorTaskTag;
+            this.totalTransferLength = totalTransferLength;
+            this.maxRecvDataSegmentLength = maxRecvDataSegmentLength;
+            this.maxBurstLength = maxBurstLength;
+            this.immediateData = immediateData;
+        }
+
+        /**
+         * Returns the length of the data segment starting at the specified offset.
+         * 
+         * @param bufferOffset the offset of the data segment in the transfer
+         * @param end the offset up to which data is available
+         * @return the length of the data segment
+         */
+        int getSegmentLength (final int bufferOffset, final int end) {
+            return Math.min(Math.min(maxRecvDataSegmentLength, end - bufferOffset), maxBurstLength - bufferOffset % maxBurstLength);
+        }
+
+        /**
+         * Creates the next Data-In PDU.
+         * 
+         * @param bufferOffset the offset of the data segment in the transfer
+         * @param length the length of the data segment
+         * @param dataSegment the data segment, or an empty buffer if it is sent from storage
+         * @return the Data-In PDU
+         */
+        ProtocolDataUnit createPdu (final int bufferOffset, final int length, final ByteBuffer dataSegment) {
+            final int end = bufferOffset + length;
+            bytesSent += length;
+            final boolean last = bytesSent == totalTransferLength;
+            return createDataInPdu(last || end == totalTransferLength || end % maxBurstLength == 0, last && immediateData, initiatorTaskTag, dataSequenceNumber++, bufferOffset, dataSegment);
+        }
     }
 
+    /**
+     * Creates a Data-In PDU.
+     * 
+     * @param finalFlag <code>true</code> if this is the last PDU of the sequence
+     * @param statusFlag <code>true</code> if the PDU contains the status of the command
+     * @param initiatorTaskTag the Initiator Task Tag of the command
+     * @param dataSequenceNumber the DataSN of the PDU
+     * @param bufferOffset the offset of the data segment in the transfer
+     * @param dataSegment the data segment
+     * @return the Data-In PDU
+     */
+    private static ProtocolDataUnit createDataInPdu (final boolean finalFlag, final boolean statusFlag, final int initiatorTaskTag, final int dataSequenceNumber, final int bufferOffset, final ByteBuffer dataSegment) {
+        return TargetPduFactory.createDataInPdu(finalFlag,// finalFlag
+                false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we never
+                      // do that
+                false,// residualOverflowFlag
+                false,// residualUnderflowFlag
+                statusFlag,// statusFlag
+                SCSIStatus.GOOD,// status, or not (reserved if no status)
+                0L,// logicalUnitNumber, reserved
+                initiatorTaskTag, 0xffffffff,// targetTransferTag
+                dataSequenceNumber,// dataSequenceNumber
+                bufferOffset,// bufferOffset
+                0,// residualCount
+                dataSegment);
+    }
 }
@@ -0,0 +1,62 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ReceiveCopyResultsCdb;
+import org.jscsi.target.scsi.copy.CopyOperatingParameters;
+import org.jscsi.target.scsi.copy.CopyStatusParameterData;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.CopyManager.CopyOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>RECEIVE COPY RESULTS</code> SCSI commands, which return the status of an
+ * <code>EXTENDED COPY</code> command issued in the same session, or the operating parameters of the copy manager.
+ */
+public final class ReceiveCopyResultsStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReceiveCopyResultsStage.class);
+
+    public ReceiveCopyResultsStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final ReceiveCopyResultsCdb cdb = new ReceiveCopyResultsCdb(parser.getCDB());
+        if (cdb.getIllegalFieldPointers() != null) {
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        if (cdb.getServiceAction() == ReceiveCopyResultsCdb.OPERATING_PARAMETERS) {
+            sendResponse(initiatorTaskTag, expectedDataTransferLength, CopyOperatingParameters.getInstance());
+            return;
+        }
+
+        // COPY STATUS
+        final CopyOperation copyOperation = session.getCopyOperations().get(cdb.getListIdentifier());
+        if (copyOperation == null) {
+            LOGGER.error("RECEIVE COPY RESULTS: no copy status held for list identifier " + cdb.getListIdentifier());
+            connection.sendPdu(createFixedFormatErrorPdu(new FieldPointerSenseKeySpecificData[] { createFieldPointer(true, 2) }, initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+        sendResponse(initiatorTaskTag, expectedDataTransferLength, new CopyStatusParameterData(copyOperation));
+    }
+}
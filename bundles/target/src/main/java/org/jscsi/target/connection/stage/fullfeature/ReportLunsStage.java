@@ -2,6 +2,7 @@ package org.jscsi.target.connection.stage.fullfeature;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -9,7 +10,9 @@ import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.ResponseDataCache;
 import org.jscsi.target.scsi.cdb.ReportLunsCDB;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
 import org.jscsi.target.scsi.cdb.SelectReport;
 import org.jscsi.target.scsi.lun.ReportLunsParameterData;
 import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
@@ -58,16 +61,12 @@ public class ReportLunsStage extends TargetFullFeatureStage {
             final SelectReport selectReport = cdb.getSelectReport();
             LOGGER.debug("selectReport = " + selectReport);
 
-            // there are only well known LUNs
-            ReportLunsParameterData reportLunsParameterData;
-
             // TODO the switch isn't really needed right now, but maybe in
             // future implementations
             switch (selectReport) {
                 case SELECTED_ADDRESSING_METHODS :
                 case WELL_KNOWN_LUNS_ONLY :
                 case ALL :
-                    reportLunsParameterData = new ReportLunsParameterData(session.getTargetServer().getConfig().getLogicalUnitNumber());
                     break;
                 default :
                     throw new InternetSCSIException();
@@ -76,10 +75,20 @@ public class ReportLunsStage extends TargetFullFeatureStage {
                      */
             }
 
+            // there are only well known LUNs, so all reports are the same
+            final int key = ResponseDataCache.key(ScsiOperationCode.REPORT_LUNS.value(), 0);
+            final ResponseDataCache cache = session.getTarget().getResponseDataCache();
+            ByteBuffer response = cache.get(key, 0, parser.getExpectedDataTransferLength());
+            if (response == null) {
+                final ReportLunsParameterData reportLunsParameterData = new ReportLunsParameterData(session.getTargetServer().getConfig().getLogicalUnitNumber());
+                response = cache.put(key, 0, reportLunsParameterData, parser.getExpectedDataTransferLength());
+            }
+
             // send response
             sendResponse(bhs.getInitiatorTaskTag(),// initiatorTaskTag
                     parser.getExpectedDataTransferLength(),// expectedDataTransferLength
-                    reportLunsParameterData);// responseData
+                    response,// trimmedBuffer
+                    ResponseDataCache.size(response));// responseSize
 
         }
     }
@@ -0,0 +1,80 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.cdb.SynchronizeCache10Cdb;
+import org.jscsi.target.scsi.cdb.SynchronizeCache16Cdb;
+import org.jscsi.target.scsi.cdb.SynchronizeCacheCdb;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>SYNCHRONIZE CACHE (10)</code> and <code>SYNCHRONIZE CACHE (16)</code> SCSI commands.
+ * <p>
+ * The whole logical unit is synchronized with {@link IStorageModule#flush()}, regardless of the specified range. The
+ * requests of concurrent sessions may share a single flush of the storage medium. If the IMMED bit is set, GOOD status
+ * is sent before the cache is synchronized.
+ */
+public final class SynchronizeCacheStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SynchronizeCacheStage.class);
+
+    public SynchronizeCacheStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final SynchronizeCacheCdb cdb;
+        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
+        if (scsiOpCode == ScsiOperationCode.SYNCHRONIZE_CACHE_10)
+            cdb = new SynchronizeCache10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.SYNCHRONIZE_CACHE_16)
+            cdb = new SynchronizeCache16Cdb(parser.getCDB());
+        else {
+            // programmer error, close connection
+            throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in SynchronizeCacheStage");
+        }
+
+        // check bounds, a NUMBER OF LOGICAL BLOCKS of zero means up to the end of the medium
+        final IStorageModule storageModule = session.getStorageModule();
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        if (logicalBlockAddress < 0 || logicalBlockAddress >= sizeInBlocks)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (logicalBlockAddress + cdb.getNumberOfLogicalBlocks() > sizeInBlocks) cdb.addIllegalFieldPointerForNumberOfLogicalBlocks();
+
+        if (cdb.getIllegalFieldPointers() != null) {
+            LOGGER.debug("illegal field in SYNCHRONIZE CACHE CDB:\n" + Debug.byteBufferToString(parser.getCDB()));
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        if (cdb.getImmediate()) {
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+            storageModule.flush();
+        } else {
+            storageModule.flush();
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+        }
+    }
+}
@@ -2,15 +2,22 @@ package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.util.concurrent.Future;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.data.DataOutParser;
 import org.jscsi.parser.scsi.SCSIResponseParser;
 import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Task;
 import org.jscsi.target.connection.TargetPduFactory;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.connection.stage.TargetStage;
 import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.scsi.ResponseDataCache;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
 import org.jscsi.target.scsi.sense.AdditionalSenseBytes;
 import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
@@ -19,6 +26,7 @@ import org.jscsi.target.scsi.sense.FixedFormatSenseData;
 import org.jscsi.target.scsi.sense.SenseKey;
 import org.jscsi.target.scsi.sense.information.FourByteInformation;
 import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
 
 /**
  * This class is an abstract super-class for stages of the {@link TargetFullFeaturePhase}.
@@ -28,6 +36,11 @@ import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPoi
  */
 public abstract class TargetFullFeatureStage extends TargetStage {
 
+    /**
+     * The SCSI task executed by this stage, or <code>null</code>.
+     */
+    protected Task task;
+
     /**
      * The abstract constructor.
      * 
@@ -36,6 +49,28 @@ public abstract class TargetFullFeatureStage extends TargetStage {
      */
     public TargetFullFeatureStage(TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
+        task = targetFullFeaturePhase.getTask();
+    }
+
+    /**
+     * Prepares the stage for executing the current task of its phase with the current settings of the connection, so
+     * that a single instance can execute all commands with the same operation code received on a connection.
+     */
+    public void reset() {
+        task = ((TargetFullFeaturePhase) targetPhase).getTask();
+        settings = connection.getStageSettings();
+    }
+
+    /**
+     * Registers a storage operation the task of this stage is going to wait for, so that it is cancelled if the task
+     * is aborted.
+     * 
+     * @param operation
+     *            the storage operation
+     * @see Task#register(Future)
+     */
+    protected final void register(final Future<?> operation) {
+        if (task != null) task.register(operation);
     }
 
     /**
@@ -75,6 +110,137 @@ public abstract class TargetFullFeatureStage extends TargetStage {
                                     // first problem
             new AdditionalSenseBytes());// additional sense bytes
 
+        return createCheckConditionPdu(senseData, initiatorTaskTag, expectedDataTransferLength);
+    }
+
+    /**
+     * Creates a PDU with {@link FixedFormatSenseData} that must be sent to the initiator if the verify data of a
+     * <code>COMPARE AND WRITE</code> or <code>VERIFY</code> command does not match the stored data. The sense key is
+     * {@link SenseKey#MISCOMPARE} and the INFORMATION field contains the offset of the first byte that did not match.
+     * 
+     * @param miscompareOffset
+     *            the offset of the first miscompared byte in the verify data
+     * @param initiatorTaskTag
+     *            used by the initiator to identify the task
+     * @param expectedDataTransferLength
+     *            the amount of payload data expected by the initiator (i.e. allocated buffer
+     *            space)
+     * @return the error PDU
+     */
+    protected static final ProtocolDataUnit createMiscompareErrorPdu(final int miscompareOffset,
+        final int initiatorTaskTag, final int expectedDataTransferLength) {
+
+        FixedFormatSenseData senseData = new FixedFormatSenseData(true,// valid, i.e. the INFORMATION field
+            ErrorType.CURRENT,// error type
+            false,// file mark
+            false,// end of medium
+            false,// incorrect length indicator
+            SenseKey.MISCOMPARE,// sense key
+            new FourByteInformation(miscompareOffset),// information
+            new FourByteInformation(),// command specific information
+            AdditionalSenseCodeAndQualifier.MISCOMPARE_DURING_VERIFY_OPERATION,// additional sense code and
+                                                                               // qualifier
+            (byte)0,// field replaceable unit code
+            null,// sense key specific data
+            new AdditionalSenseBytes());// additional sense bytes
+
+        return createCheckConditionPdu(senseData, initiatorTaskTag, expectedDataTransferLength);
+    }
+
+    /**
+     * Returns the offset of the first byte in which the first <i>length</i> bytes of the two buffers differ.
+     * 
+     * @param a
+     *            a buffer with position zero
+     * @param b
+     *            a buffer with position zero
+     * @param length
+     *            the number of bytes to compare
+     * @return the offset of the first difference, or <code>-1</code> if the bytes are identical
+     */
+    protected static final int mismatch(final ByteBuffer a, final ByteBuffer b, final int length) {
+        // compare eight bytes at a time, then find the differing byte
+        int i = 0;
+        while (i + 8 <= length && a.getLong(i) == b.getLong(i))
+            i += 8;
+        for (; i < length; ++i)
+            if (a.get(i) != b.get(i))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Creates a PDU with {@link FixedFormatSenseData} that must be sent to the initiator if an
+     * <code>EXTENDED COPY</code> command failed after the copy operation was started. The sense key is
+     * {@link SenseKey#COPY_ABORTED} and the COMMAND-SPECIFIC INFORMATION field contains the number of segments
+     * copied completely.
+     * 
+     * @param segmentsProcessed
+     *            the number of segment descriptors processed completely
+     * @param additionalSenseCodeAndQualifier
+     *            provides more specific information about the cause of the check condition
+     * @param initiatorTaskTag
+     *            used by the initiator to identify the task
+     * @param expectedDataTransferLength
+     *            the amount of payload data expected by the initiator (i.e. allocated buffer
+     *            space)
+     * @return the error PDU
+     */
+    protected static final ProtocolDataUnit createCopyAbortedErrorPdu(final int segmentsProcessed,
+        final AdditionalSenseCodeAndQualifier additionalSenseCodeAndQualifier, final int initiatorTaskTag,
+        final int expectedDataTransferLength) {
+
+        FixedFormatSenseData senseData = new FixedFormatSenseData(false,// valid
+            ErrorType.CURRENT,// error type
+            false,// file mark
+            false,// end of medium
+            false,// incorrect length indicator
+            SenseKey.COPY_ABORTED,// sense key
+            new FourByteInformation(),// information
+            new FourByteInformation(segmentsProcessed),// command specific information
+            additionalSenseCodeAndQualifier,// additional sense code and
+                                            // qualifier
+            (byte)0,// field replaceable unit code
+            null,// sense key specific data
+            new AdditionalSenseBytes());// additional sense bytes
+
+        return createCheckConditionPdu(senseData, initiatorTaskTag, expectedDataTransferLength);
+    }
+
+    /**
+     * Creates sense key specific data pointing to an illegal field.
+     * 
+     * @param commandData
+     *            <code>true</code> if the field is part of the CDB, <code>false</code> if it is part of the
+     *            parameter list
+     * @param fieldPointer
+     *            the index of the first byte of the illegal field
+     * @return the sense key specific data
+     */
+    protected static final FieldPointerSenseKeySpecificData createFieldPointer(final boolean commandData,
+        final int fieldPointer) {
+        return new FieldPointerSenseKeySpecificData(true,// senseKeySpecificDataValid
+            commandData,// commandData
+            false,// bitPointerValid
+            0,// bitPointer
+            fieldPointer);// fieldPointer
+    }
+
+    /**
+     * Creates a SCSI Response PDU with {@link SCSIStatus#CHECK_CONDITION} status and the specified sense data.
+     * 
+     * @param senseData
+     *            the sense data describing the error
+     * @param initiatorTaskTag
+     *            used by the initiator to identify the task
+     * @param expectedDataTransferLength
+     *            the amount of payload data expected by the initiator (i.e. allocated buffer
+     *            space)
+     * @return the error PDU
+     */
+    private static ProtocolDataUnit createCheckConditionPdu(final FixedFormatSenseData senseData,
+        final int initiatorTaskTag, final int expectedDataTransferLength) {
+
         // keep only the part of the sense data that will be sent
         final ScsiResponseDataSegment dataSegment =
             new ScsiResponseDataSegment(senseData, expectedDataTransferLength);
@@ -164,6 +330,123 @@ public abstract class TargetFullFeatureStage extends TargetStage {
             ScsiResponseDataSegment.EMPTY_DATA_SEGMENT);// data segment
     }
 
+    /**
+     * Receives the write data of a command which is not stored as it is, e.g. the parameter list of an
+     * <code>UNMAP</code> command or the block written by <code>WRITE SAME</code>, and returns it in a single buffer.
+     * <p>
+     * Immediate data and unsolicited Data-Out PDUs are accepted as negotiated. The remaining data is requested with
+     * one R2T per burst of at most <code>MaxBurstLength</code> bytes.
+     * 
+     * @param pdu
+     *            the SCSI Command PDU
+     * @param length
+     *            the number of bytes to receive
+     * @return a buffer with position zero and limit <i>length</i>, containing the received data
+     * @throws InterruptedException
+     * @throws IOException
+     * @throws InternetSCSIException
+     *             if an unexpected PDU or data outside of the requested range is received
+     * @throws DigestException
+     * @throws SettingsException
+     */
+    protected final ByteBuffer receiveDataOut(final ProtocolDataUnit pdu, final int length)
+        throws InterruptedException, IOException, InternetSCSIException, DigestException, SettingsException {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        int bytesReceived = 0;
+
+        // immediate data
+        if (settings.getImmediateData() && bhs.getDataSegmentLength() > 0) {
+            putDataSegment(buffer, pdu, 0);
+            bytesReceived = bhs.getDataSegmentLength();
+        }
+
+        // unsolicited data
+        if (!settings.getInitialR2T() && !bhs.isFinalFlag()) {
+            boolean finalFlag = false;
+            while (!finalFlag) {
+                final ProtocolDataUnit dataOutPdu = receiveDataOutPdu();
+                putDataSegment(buffer, dataOutPdu,
+                    ((DataOutParser)dataOutPdu.getBasicHeaderSegment().getParser()).getBufferOffset());
+                bytesReceived += dataOutPdu.getBasicHeaderSegment().getDataSegmentLength();
+                finalFlag = dataOutPdu.getBasicHeaderSegment().isFinalFlag();
+                dataOutPdu.release();
+            }
+        }
+
+        // solicited data, one burst at a time
+        int readyToTransferSequenceNumber = 0;
+        while (bytesReceived < length) {
+            final int desiredDataTransferLength = Math.min(settings.getMaxBurstLength(), length - bytesReceived);
+            connection.sendPdu(TargetPduFactory.createReadyToTransferPdu(0,// logicalUnitNumber
+                initiatorTaskTag, TargetServer.getNextTargetTransferTag(),// targetTransferTag
+                readyToTransferSequenceNumber++, bytesReceived,// bufferOffset
+                desiredDataTransferLength));
+            int burstReceived = 0;
+            boolean finalFlag = false;
+            while (!finalFlag && burstReceived < desiredDataTransferLength) {
+                final ProtocolDataUnit dataOutPdu = receiveDataOutPdu();
+                putDataSegment(buffer, dataOutPdu,
+                    ((DataOutParser)dataOutPdu.getBasicHeaderSegment().getParser()).getBufferOffset());
+                burstReceived += dataOutPdu.getBasicHeaderSegment().getDataSegmentLength();
+                finalFlag = dataOutPdu.getBasicHeaderSegment().isFinalFlag();
+                dataOutPdu.release();
+            }
+            if (burstReceived == 0) {
+                throw new InternetSCSIException("received empty Data-Out sequence");
+            }
+            bytesReceived += burstReceived;
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Receives the next PDU and makes sure that it is a Data-Out PDU.
+     * 
+     * @return the received Data-Out PDU
+     * @throws InternetSCSIException
+     *             if a different PDU has been received
+     */
+    private ProtocolDataUnit receiveDataOutPdu() throws InternetSCSIException, DigestException, IOException,
+        SettingsException {
+        final ProtocolDataUnit pdu = connection.receivePdu();
+        if (!(pdu.getBasicHeaderSegment().getParser() instanceof DataOutParser)) {
+            throw new InternetSCSIException("received erroneous PDU in data-out sequence, "
+                + pdu.getBasicHeaderSegment().getOpCode());
+        }
+        return pdu;
+    }
+
+    /**
+     * Copies the data segment of the passed PDU into the buffer.
+     * 
+     * @param buffer
+     *            the buffer collecting the write data
+     * @param pdu
+     *            a PDU carrying write data
+     * @param bufferOffset
+     *            the offset of the data segment in the transfer
+     * @throws InternetSCSIException
+     *             if the data segment does not fit into the buffer
+     */
+    private static void putDataSegment(final ByteBuffer buffer, final ProtocolDataUnit pdu, final int bufferOffset)
+        throws InternetSCSIException {
+        final int dataSegmentLength = pdu.getBasicHeaderSegment().getDataSegmentLength();
+        if (bufferOffset < 0 || bufferOffset + dataSegmentLength > buffer.capacity()) {
+            throw new InternetSCSIException("received data segment at buffer offset " + bufferOffset
+                + " outside of the expected range");
+        }
+        final ByteBuffer dataSegment = pdu.getDataSegment();
+        dataSegment.position(0);
+        dataSegment.limit(dataSegmentLength);
+        buffer.position(bufferOffset);
+        buffer.put(dataSegment);
+    }
+
     /**
      * Sends a two byte sequence of a Data-In and a SCSI Response PDU with the specified <i>responseData</i>
      * payload to
@@ -201,10 +484,33 @@ public abstract class TargetFullFeatureStage extends TargetStage {
                 expectedDataTransferLength);// length
         }
 
+        sendResponse(initiatorTaskTag, expectedDataTransferLength, trimmedBuffer, fullBuffer.capacity());
+    }
+
+    /**
+     * Sends already serialized response data like {@link #sendResponse(int, int, IResponseData)}, e.g. a response
+     * returned by the {@link ResponseDataCache} of the target.
+     * 
+     * @param initiatorTaskTag
+     *            used by the initiator to identify the task
+     * @param expectedDataTransferLength
+     *            the total amount of payload data in bytes expected by the initiator
+     * @param trimmedBuffer
+     *            the serialized response data, trimmed to at most <i>expectedDataTransferLength</i> bytes
+     * @param responseSize
+     *            the size of the untrimmed response data
+     * @throws InterruptedException
+     * @throws IOException
+     * @throws InternetSCSIException
+     */
+    protected final void sendResponse(final int initiatorTaskTag, final int expectedDataTransferLength,
+        final ByteBuffer trimmedBuffer, final int responseSize) throws InterruptedException, IOException,
+        InternetSCSIException {
+
         // coompute residual count and associated flags
-        final boolean residualOverflow = expectedDataTransferLength < fullBuffer.capacity();
-        final boolean residualUnderflow = expectedDataTransferLength > fullBuffer.capacity();
-        final int residualCount = Math.abs(expectedDataTransferLength - fullBuffer.capacity());
+        final boolean residualOverflow = expectedDataTransferLength < responseSize;
+        final boolean residualUnderflow = expectedDataTransferLength > responseSize;
+        final int residualCount = Math.abs(expectedDataTransferLength - responseSize);
 
         // create and send PDU
         ProtocolDataUnit pdu = TargetPduFactory.createDataInPdu(true,// finalFlag
@@ -43,7 +43,7 @@ public final class TextNegotiationStage extends TargetFullFeatureStage {
 
         final int initiatorTaskTag = bhs.getInitiatorTaskTag();
 
-        final String textRequest = new String(pdu.getDataSegment().array());
+        final String textRequest = ReadWrite.dataSegmentToString(pdu.getDataSegment());
 
         LOGGER.debug("text request: " + textRequest);
 
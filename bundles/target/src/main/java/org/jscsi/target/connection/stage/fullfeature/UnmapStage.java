@@ -0,0 +1,102 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.UnmapCdb;
+import org.jscsi.target.scsi.provisioning.UnmapParameterList;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RangeLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>UNMAP</code> SCSI commands.
+ * <p>
+ * The parameter list is received completely before any of the described ranges is deallocated with
+ * {@link IStorageModule#unmap(long, long)}, so an invalid block descriptor terminates the command without side
+ * effects. This stage is only used for storage modules which {@link IStorageModule#supportsUnmap() support unmap}.
+ */
+public final class UnmapStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnmapStage.class);
+
+    public UnmapStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final UnmapCdb cdb = new UnmapCdb(parser.getCDB());
+        if (cdb.getIllegalFieldPointers() != null) {
+            // see WriteStage, unsolicited data can not be ignored
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        // receive the parameter list
+        final int length = Math.min(cdb.getParameterListLength(), expectedDataTransferLength);
+        if (length == 0) {
+            // nothing to deallocate
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+            return;
+        }
+        final ByteBuffer data = receiveDataOut(pdu, length);
+
+        if (length < UnmapParameterList.HEADER_LENGTH) {
+            connection.sendPdu(createFixedFormatErrorPdu(new FieldPointerSenseKeySpecificData[] { createFieldPointer(true, 7) },// PARAMETER LIST LENGTH
+                    AdditionalSenseCodeAndQualifier.PARAMETER_LIST_LENGTH_ERROR, initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        // check all block descriptors
+        final UnmapParameterList parameterList = new UnmapParameterList(data);
+        final IStorageModule storageModule = session.getStorageModule();
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        for (int i = 0; i < parameterList.getBlockDescriptorCount(); ++i) {
+            final long logicalBlockAddress = parameterList.getLogicalBlockAddress(i);
+            final long numberOfLogicalBlocks = parameterList.getNumberOfLogicalBlocks(i);
+            if (logicalBlockAddress < 0 || logicalBlockAddress + numberOfLogicalBlocks > sizeInBlocks) {
+                LOGGER.error("UNMAP block descriptor " + i + " out of range: LBA = " + logicalBlockAddress + ", blocks = " + numberOfLogicalBlocks);
+                connection.sendPdu(createFixedFormatErrorPdu(new FieldPointerSenseKeySpecificData[] { createFieldPointer(false, UnmapParameterList.HEADER_LENGTH + i * UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH) },
+                        AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE, initiatorTaskTag, expectedDataTransferLength));
+                return;
+            }
+        }
+
+        // deallocate
+        final int blockSize = storageModule.getBlockSize();
+        final RangeLock rangeLock = session.getTarget().getRangeLock();
+        for (int i = 0; i < parameterList.getBlockDescriptorCount(); ++i) {
+            final long logicalBlockAddress = parameterList.getLogicalBlockAddress(i);
+            final long numberOfLogicalBlocks = parameterList.getNumberOfLogicalBlocks(i);
+            if (numberOfLogicalBlocks == 0) continue;
+            final RangeLock.Range range = rangeLock.lock(logicalBlockAddress, numberOfLogicalBlocks);
+            try {
+                storageModule.unmap(logicalBlockAddress * blockSize, numberOfLogicalBlocks * blockSize);
+            } finally {
+                rangeLock.unlock(range);
+            }
+        }
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, length));
+    }
+}
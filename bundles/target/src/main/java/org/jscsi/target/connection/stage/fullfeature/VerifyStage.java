@@ -0,0 +1,126 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.cdb.Verify10Cdb;
+import org.jscsi.target.scsi.cdb.Verify16Cdb;
+import org.jscsi.target.scsi.cdb.VerifyCdb;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>VERIFY (10)</code> and <code>VERIFY (16)</code> SCSI commands.
+ * <p>
+ * Without byte checking the storage module has no means of verifying the medium, so the command completes after
+ * checking the bounds, without accessing the storage. Otherwise the transferred data is compared with the stored
+ * logical blocks, which are read in chunks, and the offset of the first difference is reported with a MISCOMPARE
+ * error.
+ */
+public final class VerifyStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VerifyStage.class);
+
+    /**
+     * The maximum number of bytes read from the storage module for comparison at once.
+     */
+    private static final int CHUNK_LENGTH = 1 << 20;
+
+    /**
+     * The maximum number of bytes compared by a single command, see
+     * {@link org.jscsi.target.scsi.inquiry.BlockLimitsVpdPage}.
+     */
+    private static final long MAXIMUM_TRANSFER_LENGTH_IN_BYTES = 1 << 30;
+
+    public VerifyStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final VerifyCdb cdb;
+        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
+        if (scsiOpCode == ScsiOperationCode.VERIFY_10)
+            cdb = new Verify10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.VERIFY_16)
+            cdb = new Verify16Cdb(parser.getCDB());
+        else {
+            // programmer error, close connection
+            throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in VerifyStage");
+        }
+
+        final IStorageModule storageModule = session.getStorageModule();
+        final int blockSize = storageModule.getBlockSize();
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        final long verificationLength = cdb.getVerificationLength();
+        if (logicalBlockAddress < 0 || logicalBlockAddress >= sizeInBlocks)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (logicalBlockAddress + verificationLength > sizeInBlocks || (cdb.getByteCheck() == VerifyCdb.COMPARE_ALL && verificationLength * blockSize > MAXIMUM_TRANSFER_LENGTH_IN_BYTES))
+            cdb.addIllegalFieldPointerForVerificationLength();
+
+        if (cdb.getIllegalFieldPointers() != null) {
+            LOGGER.debug("illegal field in VERIFY CDB:\n" + Debug.byteBufferToString(parser.getCDB()));
+            // see WriteStage, unsolicited data can not be ignored
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        if (cdb.getByteCheck() == VerifyCdb.NO_BYTE_CHECK || verificationLength == 0) {
+            // nothing to compare
+            connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, 0));
+            return;
+        }
+
+        // receive the verify data, all logical blocks or one for each of them
+        final int length = cdb.getByteCheck() == VerifyCdb.COMPARE_ALL ? (int) (verificationLength * blockSize) : blockSize;
+        final ByteBuffer data = receiveDataOut(pdu, length);
+
+        // compare chunk by chunk
+        final long storageIndex = logicalBlockAddress * blockSize;
+        final long end = verificationLength * blockSize;
+        final int chunkLength = cdb.getByteCheck() == VerifyCdb.COMPARE_ALL ? (int) Math.min(CHUNK_LENGTH, end) : blockSize;
+        final ByteBuffer stored = ByteBuffer.allocate(chunkLength);
+        for (long offset = 0; offset < end; offset += chunkLength) {
+            stored.clear();
+            stored.limit((int) Math.min(chunkLength, end - offset));
+            storageModule.read(stored, storageIndex + offset);
+            final ByteBuffer expected;
+            if (cdb.getByteCheck() == VerifyCdb.COMPARE_ALL) {
+                data.limit((int) offset + stored.limit());
+                data.position((int) offset);
+                expected = data.slice();
+            } else {
+                expected = data;
+            }
+            final int mismatch = mismatch(expected, stored, stored.limit());
+            if (mismatch >= 0) {
+                final long miscompareOffset = offset + mismatch;
+                if (LOGGER.isDebugEnabled()) LOGGER.debug("VERIFY miscompare at offset " + miscompareOffset);
+                connection.sendPdu(createMiscompareErrorPdu((int) miscompareOffset, initiatorTaskTag, expectedDataTransferLength));
+                return;
+            }
+        }
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, length));
+    }
+}
@@ -0,0 +1,112 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.cdb.WriteSame10Cdb;
+import org.jscsi.target.scsi.cdb.WriteSame16Cdb;
+import org.jscsi.target.scsi.cdb.WriteSameCdb;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RangeLock;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A stage for processing <code>WRITE SAME (10)</code> and <code>WRITE SAME (16)</code> SCSI commands.
+ * <p>
+ * The single transferred logical block is written to the whole range with
+ * {@link IStorageModule#writeSame(byte[], long, long)}. If the UNMAP bit is set, the block consists of zeros and the
+ * {@link IStorageModule} {@link IStorageModule#supportsUnmap() supports unmap}, the range is deallocated instead,
+ * since deallocated logical blocks read as zeros.
+ */
+public final class WriteSameStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteSameStage.class);
+
+    public WriteSameStage (final TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute (ProtocolDataUnit pdu) throws IOException , InterruptedException , InternetSCSIException , DigestException , SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+        final int expectedDataTransferLength = parser.getExpectedDataTransferLength();
+
+        final WriteSameCdb cdb;
+        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
+        if (scsiOpCode == ScsiOperationCode.WRITE_SAME_10)
+            cdb = new WriteSame10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.WRITE_SAME_16)
+            cdb = new WriteSame16Cdb(parser.getCDB());
+        else {
+            // programmer error, close connection
+            throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in WriteSameStage");
+        }
+
+        // check bounds, a NUMBER OF LOGICAL BLOCKS of zero means up to the end of the medium
+        final IStorageModule storageModule = session.getStorageModule();
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        final long numberOfLogicalBlocks = cdb.getNumberOfLogicalBlocks() == 0 ? sizeInBlocks - logicalBlockAddress : cdb.getNumberOfLogicalBlocks();
+        if (logicalBlockAddress < 0 || logicalBlockAddress >= sizeInBlocks)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (logicalBlockAddress + numberOfLogicalBlocks > sizeInBlocks) cdb.addIllegalFieldPointerForNumberOfLogicalBlocks();
+
+        if (cdb.getIllegalFieldPointers() != null) {
+            LOGGER.debug("illegal field in WRITE SAME CDB:\n" + Debug.byteBufferToString(parser.getCDB()));
+            // see WriteStage, unsolicited data can not be ignored
+            connection.sendPdu(createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(), initiatorTaskTag, expectedDataTransferLength));
+            return;
+        }
+
+        // receive the logical block, unless it consists of zeros
+        final int blockSize = storageModule.getBlockSize();
+        final byte[] block = new byte[blockSize];
+        int bytesReceived = 0;
+        if (!cdb.getNoDataOutBuffer()) {
+            receiveDataOut(pdu, blockSize).get(block);
+            bytesReceived = blockSize;
+        }
+
+        final long storageIndex = logicalBlockAddress * blockSize;
+        final long length = numberOfLogicalBlocks * blockSize;
+        final RangeLock rangeLock = session.getTarget().getRangeLock();
+        final RangeLock.Range range = rangeLock.lock(logicalBlockAddress, numberOfLogicalBlocks);
+        try {
+            if (cdb.getUnmap() && storageModule.supportsUnmap() && isZero(block))
+                storageModule.unmap(storageIndex, length);
+            else
+                storageModule.writeSame(block, storageIndex, length);
+        } finally {
+            rangeLock.unlock(range);
+        }
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength, bytesReceived));
+    }
+
+    /**
+     * Returns <code>true</code> if all bytes of the passed array are zero.
+     *
+     * @param bytes the array to check
+     * @return <code>true</code> if all bytes are zero
+     */
+    private static boolean isZero (final byte[] bytes) {
+        for (byte b : bytes)
+            if (b != 0) return false;
+        return true;
+    }
+}
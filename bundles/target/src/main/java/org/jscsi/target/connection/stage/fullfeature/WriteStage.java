@@ -1,33 +1,43 @@
 package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.jfr.FlightRecording;
 import org.jscsi.parser.AbstractMessageParser;
 import org.jscsi.parser.BasicHeaderSegment;
 import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.buffer.PooledBuffer;
 import org.jscsi.parser.data.DataOutParser;
 import org.jscsi.parser.nop.NOPOutParser;
 import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.parser.scsi.SCSIResponseParser;
 import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
 import org.jscsi.target.TargetServer;
 import org.jscsi.target.connection.TargetPduFactory;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.jfr.ReadyToTransferEvent;
+import org.jscsi.target.jfr.StorageWriteEvent;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
-import org.jscsi.target.scsi.cdb.Write10Cdb;
-import org.jscsi.target.scsi.cdb.Write6Cdb;
-import org.jscsi.target.scsi.cdb.WriteCdb;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RangeLock;
 import org.jscsi.target.util.Debug;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * A stage for processing <code>WRITE (6)</code> and <code>WRITE (10)</code> SCSI commands.
+ * A stage for processing <code>WRITE (6)</code>, <code>WRITE (10)</code>, <code>WRITE (12)</code> and
+ * <code>WRITE (16)</code> SCSI commands.
  * 
  * @author Andreas Ergenzinger
  */
@@ -68,11 +78,73 @@ public final class WriteStage extends ReadOrWriteStage {
 
     }
 
+    /**
+     * Saves the data segment of the passed PDU at the specified position in storage.
+     * <p>
+     * Only the first <code>DataSegmentLength</code> bytes are written, since received data segments may include
+     * padding bytes or may be pooled buffers with a larger capacity.
+     * 
+     * @param pdu a PDU carrying write data
+     * @param storageIndex byte offset in the storage area
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting for the range lock
+     */
+    private void writeDataSegment (final ProtocolDataUnit pdu, final long storageIndex) throws IOException , InterruptedException {
+        final ByteBuffer dataSegment = pdu.getDataSegment();
+        dataSegment.position(0);
+        dataSegment.limit(pdu.getBasicHeaderSegment().getDataSegmentLength());
+        write(dataSegment, storageIndex);
+    }
+
+    /**
+     * Writes the remaining bytes of the passed buffer to storage, while holding the range lock of the target on the
+     * written logical blocks.
+     * 
+     * @param buffer the data to write
+     * @param storageIndex byte offset in the storage area
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting for the range lock
+     */
+    private void write (final ByteBuffer buffer, final long storageIndex) throws IOException , InterruptedException {
+        final IStorageModule storageModule = session.getStorageModule();
+        final int length = buffer.remaining();
+        final RangeLock rangeLock = session.getTarget().getRangeLock();
+        final RangeLock.Range range = rangeLock.lockBytes(storageIndex, length, storageModule.getBlockSize());
+        try {
+            final StorageWriteEvent event = FlightRecording.AVAILABLE ? StorageWriteEvent.start() : null;
+            storageModule.write(buffer, storageIndex);
+            if (event != null) event.finish(storageIndex, length);
+        } finally {
+            rangeLock.unlock(range);
+        }
+    }
+
+    /**
+     * Stores the data segment of the passed PDU, or adds it to an assembly buffer if there is one.
+     * 
+     * @param pdu a PDU carrying write data
+     * @param bufferOffset the offset of the data segment in the transfer
+     * @param storageIndex byte offset of the transfer in the storage area
+     * @param assembly the buffer collecting the data segment, or <code>null</code>
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting for the range lock
+     * @throws InternetSCSIException if the data segment does not fit into the assembly buffer
+     */
+    private void receiveDataSegment (final ProtocolDataUnit pdu, final int bufferOffset, final long storageIndex, final DataOutAssembly assembly) throws IOException , InterruptedException , InternetSCSIException {
+        if (assembly == null)
+            writeDataSegment(pdu, storageIndex + bufferOffset);
+        else
+            assembly.put(pdu, bufferOffset);
+    }
+
     @Override
     public void execute (ProtocolDataUnit pdu) throws IOException , DigestException , InterruptedException , InternetSCSIException , SettingsException {
 
         if (LOGGER.isDebugEnabled()) LOGGER.debug("Entering WRITE STAGE");
 
+        // the stage is reused for the following write commands of the connection
+        expectedDataSequenceNumber = 0;
+
         // get relevant values from settings
         final boolean immediateData = settings.getImmediateData();
         final boolean initialR2T = settings.getInitialR2T();
@@ -88,13 +160,8 @@ public final class WriteStage extends ReadOrWriteStage {
         BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
         SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
         final int initiatorTaskTag = bhs.getInitiatorTaskTag();
-        WriteCdb cdb;
-        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
-        if (scsiOpCode == ScsiOperationCode.WRITE_10)
-            cdb = new Write10Cdb(parser.getCDB());
-        else if (scsiOpCode == ScsiOperationCode.WRITE_6)
-            cdb = new Write6Cdb(parser.getCDB());
-        else {
+        final ScsiOperationCode scsiOpCode = cdb.wrap(parser.getCDB()).getScsiOperationCode();
+        if (scsiOpCode != ScsiOperationCode.WRITE_10 && scsiOpCode != ScsiOperationCode.WRITE_16 && scsiOpCode != ScsiOperationCode.WRITE_12 && scsiOpCode != ScsiOperationCode.WRITE_6) {
             // anything else wouldn't be good (programmer error)
             // close connection
             throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in WriteStage");
@@ -106,11 +173,9 @@ public final class WriteStage extends ReadOrWriteStage {
         final int transferLengthInBytes = transferLength * session.getStorageModule().getBlockSize();
         long storageIndex = logicalBlockAddress * session.getStorageModule().getBlockSize();
 
-        // check if requested blocks are out of bounds
-        // (might add FPSKSD to the CDB's list to be detected in the next step)
-        checkOverAndUnderflow(cdb);
-
-        if (cdb.getIllegalFieldPointers() != null) {
+        // check illegal fields and if requested blocks are out of bounds
+        final FieldPointerSenseKeySpecificData[] illegalFieldPointers = getIllegalFieldPointers();
+        if (illegalFieldPointers != null) {
             /*
              * CDB is invalid, inform initiator by closing the connection. Sending an error status SCSI Response PDU
              * will not work reliably, since the initiator may not be expecting a response so soon. Also, if the
@@ -123,82 +188,102 @@ public final class WriteStage extends ReadOrWriteStage {
             // Not necessarily close the connection
 
             // create and send error PDU and leave stage
-            final ProtocolDataUnit responsePdu = createFixedFormatErrorPdu(cdb.getIllegalFieldPointers(),// senseKeySpecificData
+            final ProtocolDataUnit responsePdu = createFixedFormatErrorPdu(illegalFieldPointers,// senseKeySpecificData
                     initiatorTaskTag, parser.getExpectedDataTransferLength());
             connection.sendPdu(responsePdu);
             return;
         }
 
-        // *** start receiving data (or process what has already been sent) ***
-        int bytesReceived = 0;
-
-        // *** receive immediate data ***
-        if (immediateData && bhs.getDataSegmentLength() > 0) {
-            final byte[] immediateDataArray = pdu.getDataSegment().array();
+        /*
+         * With burst assembly, received data segments are collected in a buffer and stored with one write, either for
+         * the whole task if it is small enough, or for each burst.
+         */
+        final Configuration config = session.getTargetServer().getConfig();
+        final DataOutAssembly taskAssembly = config.getBurstAssembly() && transferLengthInBytes > 0 && transferLengthInBytes <= config.getMaxTaskAssemblyLength() ? new DataOutAssembly(0, transferLengthInBytes, config) : null;
+        final boolean burstAssembly = config.getBurstAssembly() && taskAssembly == null;
+        DataOutAssembly firstBurstAssembly = taskAssembly;
+        final List<OutstandingR2T> outstandingR2Ts = new ArrayList<>();
+        try {
+            // *** start receiving data (or process what has already been sent) ***
+            int bytesReceived = 0;
+            if (burstAssembly && ((immediateData && bhs.getDataSegmentLength() > 0) || (!initialR2T && !bhs.isFinalFlag()))) {
+                firstBurstAssembly = new DataOutAssembly(0, Math.min(firstBurstLength, transferLengthInBytes), config);
+            }
 
-            session.getStorageModule().write(immediateDataArray, storageIndex);
-            bytesReceived = immediateDataArray.length;
+            // *** receive immediate data ***
+            if (immediateData && bhs.getDataSegmentLength() > 0) {
+                receiveDataSegment(pdu, 0, storageIndex, firstBurstAssembly);
+                bytesReceived = bhs.getDataSegmentLength();
 
-            if (LOGGER.isDebugEnabled()) LOGGER.debug("wrote " + immediateDataArray.length + "bytes as immediate data");
-        }
+                if (LOGGER.isDebugEnabled()) LOGGER.debug("wrote " + bytesReceived + "bytes as immediate data");
+            }
 
-        // *** receive unsolicited data ***
-        if (!initialR2T && !bhs.isFinalFlag()) {
+            // *** receive unsolicited data ***
+            if (!initialR2T && !bhs.isFinalFlag()) {
 
-            if (LOGGER.isDebugEnabled()) LOGGER.debug("receiving unsolicited data");
+                if (LOGGER.isDebugEnabled()) LOGGER.debug("receiving unsolicited data");
 
-            boolean firstBurstOver = false;
-            while (!firstBurstOver && bytesReceived <= firstBurstLength) {
+                boolean firstBurstOver = false;
+                while (!firstBurstOver && bytesReceived <= firstBurstLength) {
 
-                // receive and check PDU
-                pdu = connection.receivePdu();
-                bhs = pdu.getBasicHeaderSegment();
+                    // receive and check PDU
+                    pdu = connection.receivePdu();
+                    bhs = pdu.getBasicHeaderSegment();
 
-                checkDataOutParser(bhs.getParser());
+                    try {
+                        checkDataOutParser(bhs.getParser());
 
-                final DataOutParser dataOutParser = (DataOutParser) bhs.getParser();
+                        final DataOutParser dataOutParser = (DataOutParser) bhs.getParser();
 
-                session.getStorageModule().write(pdu.getDataSegment().array(), storageIndex + dataOutParser.getBufferOffset());
-                ;
-                bytesReceived += bhs.getDataSegmentLength();
+                        receiveDataSegment(pdu, dataOutParser.getBufferOffset(), storageIndex, firstBurstAssembly);
+                    } finally {
+                        pdu.release();
+                    }
+                    bytesReceived += bhs.getDataSegmentLength();
 
-                if (bhs.isFinalFlag()) firstBurstOver = true;
+                    if (bhs.isFinalFlag()) firstBurstOver = true;
+                }
+            }
+            if (firstBurstAssembly != null && firstBurstAssembly != taskAssembly) {
+                firstBurstAssembly.store(storageIndex);
+                firstBurstAssembly.release();
             }
-        }
-
-        // *** receive solicited data ***
-        if (bytesReceived < transferLengthInBytes) {
-            if (LOGGER.isDebugEnabled()) LOGGER.debug(bytesReceived + "<" + transferLengthInBytes);
-
-            int readyToTransferSequenceNumber = 0;
-            int desiredDataTransferLength;
-
-            while (bytesReceived < transferLengthInBytes) {
-
-                desiredDataTransferLength = Math.min(maxBurstLength, transferLengthInBytes - bytesReceived);
-
-                // send R2T
-                pdu = TargetPduFactory.createReadyToTransferPdu(0,// logicalUnitNumber
-                        initiatorTaskTag, TargetServer.getNextTargetTransferTag(),// targetTransferTag
-                        readyToTransferSequenceNumber++, bytesReceived,// bufferOffset
-                        desiredDataTransferLength);
-
-                connection.sendPdu(pdu);
 
-                // receive DataOut PDUs
-                expectedDataSequenceNumber = 0;// reset sequence counter//FIXME
-                                               // fix in jSCSI Initiator
-                boolean solicitedDataCycleOver = false;
-                int bytesReceivedThisCycle = 0;
-                while (!solicitedDataCycleOver) {
+            // *** receive solicited data ***
+            if (bytesReceived < transferLengthInBytes) {
+                if (LOGGER.isDebugEnabled()) LOGGER.debug(bytesReceived + "<" + transferLengthInBytes);
+
+                /*
+                 * Up to MaxOutstandingR2T R2Ts are kept in flight, so the initiator can send the next burst without
+                 * waiting for another round trip. The Data-Out sequences of different R2Ts may arrive interleaved, each
+                 * PDU is matched to its R2T by the Target Transfer Tag.
+                 */
+                final int maxOutstandingR2T = settings.getMaxOutstandingR2T();
+                int readyToTransferSequenceNumber = 0;
+                int bytesRequested = bytesReceived;
+
+                while (bytesReceived < transferLengthInBytes) {
+
+                    // send R2Ts
+                    while (outstandingR2Ts.size() < maxOutstandingR2T && bytesRequested < transferLengthInBytes) {
+                        final int desiredDataTransferLength = Math.min(maxBurstLength, transferLengthInBytes - bytesRequested);
+                        sendR2T(outstandingR2Ts, initiatorTaskTag, readyToTransferSequenceNumber++, bytesRequested, desiredDataTransferLength, burstAssembly ? new DataOutAssembly(bytesRequested, desiredDataTransferLength, config) : taskAssembly);
+                        bytesRequested += desiredDataTransferLength;
+                    }
 
                     // receive and check PDU
                     pdu = connection.receivePdu();
                     bhs = pdu.getBasicHeaderSegment();
-                    checkDataOutParser(bhs.getParser());
 
                     if (bhs.getParser() instanceof NOPOutParser) {
 
+                        // store what has been received so far
+                        if (taskAssembly != null) taskAssembly.store(storageIndex);
+                        if (burstAssembly) {
+                            for (OutstandingR2T r2t : outstandingR2Ts)
+                                r2t.assembly.store(storageIndex);
+                        }
+
                         /* send SCSI Response PDU */
                         pdu = TargetPduFactory.createSCSIResponsePdu(false,// bidirectionalReadResidualOverflow
                                 false,// bidirectionalReadResidualUnderflow
@@ -216,24 +301,57 @@ public final class WriteStage extends ReadOrWriteStage {
                         return;
                     } else if (bhs.getParser() instanceof DataOutParser) {
                         final DataOutParser dataOutParser = (DataOutParser) bhs.getParser();
+                        final OutstandingR2T r2t;
+                        try {
+                            r2t = getOutstandingR2T(outstandingR2Ts, dataOutParser.getTargetTransferTag());
+                            r2t.check(dataOutParser, bhs.getDataSegmentLength());
 
-                        session.getStorageModule().write(pdu.getDataSegment().array(), storageIndex + dataOutParser.getBufferOffset());
+                            receiveDataSegment(pdu, dataOutParser.getBufferOffset(), storageIndex, r2t.assembly);
+                        } finally {
+                            pdu.release();
+                        }
 
-                        bytesReceivedThisCycle += bhs.getDataSegmentLength();
+                        r2t.bytesReceived += bhs.getDataSegmentLength();
+                        bytesReceived += bhs.getDataSegmentLength();
 
                         /*
                          * Checking the final flag should be enough, but is not, when dealing with the jSCSI Initiator.
-                         * This is also one of the reasons, why the contents of this while loop, though very similar to
-                         * what is happening during the receiving of the unsolicited data PDU sequence, has not been put
-                         * into a dedicated method.
                          */
-                        if (bhs.isFinalFlag() || bytesReceivedThisCycle >= desiredDataTransferLength) solicitedDataCycleOver = true;
+                        if (bhs.isFinalFlag() || r2t.bytesReceived >= r2t.desiredDataTransferLength) {
+                            outstandingR2Ts.remove(r2t);
+                            if (r2t.waitEvent != null) r2t.waitEvent.finish(initiatorTaskTag, r2t.targetTransferTag, r2t.readyToTransferSequenceNumber, r2t.bufferOffset, r2t.desiredDataTransferLength);
+                            if (burstAssembly) {
+                                try {
+                                    r2t.assembly.store(storageIndex);
+                                } finally {
+                                    r2t.assembly.release();
+                                }
+                            }
+                            if (r2t.bytesReceived < r2t.desiredDataTransferLength) {
+                                // request the rest of a burst which has been ended early
+                                final int bufferOffset = r2t.bufferOffset + r2t.bytesReceived;
+                                final int desiredDataTransferLength = r2t.desiredDataTransferLength - r2t.bytesReceived;
+                                sendR2T(outstandingR2Ts, initiatorTaskTag, readyToTransferSequenceNumber++, bufferOffset, desiredDataTransferLength, burstAssembly ? new DataOutAssembly(bufferOffset, desiredDataTransferLength, config) : taskAssembly);
+                            }
+                        }
+                    } else {
+                        checkDataOutParser(bhs.getParser());
                     }
                 }
-                bytesReceived += bytesReceivedThisCycle;
             }
+
+            if (taskAssembly != null) taskAssembly.store(storageIndex);
+        } finally {
+            // return the buffers of a completed, failed or aborted command
+            if (taskAssembly != null) taskAssembly.release();
+            if (firstBurstAssembly != null) firstBurstAssembly.release();
+            for (OutstandingR2T r2t : outstandingR2Ts)
+                if (r2t.assembly != null) r2t.assembly.release();
         }
 
+        // store the written blocks on the medium before completing the command
+        if (cdb.getForceUnitAccess()) session.getStorageModule().flush();
+
         /* send SCSI Response PDU */
         pdu = TargetPduFactory.createSCSIResponsePdu(false,// bidirectionalReadResidualOverflow
                 false,// bidirectionalReadResidualUnderflow
@@ -249,4 +367,230 @@ public final class WriteStage extends ReadOrWriteStage {
 
         connection.sendPdu(pdu);
     }
+
+    /**
+     * Sends an R2T PDU and adds it to the outstanding R2Ts.
+     * <p>
+     * The R2T is added before it is sent, so that its assembly buffer is released if sending fails.
+     * 
+     * @param outstandingR2Ts the R2Ts which have been sent, but not yet been answered completely
+     * @param initiatorTaskTag the Initiator Task Tag of the WRITE command
+     * @param readyToTransferSequenceNumber the R2TSN
+     * @param bufferOffset the offset of the requested data in the transfer
+     * @param desiredDataTransferLength the number of requested bytes
+     * @param assembly the buffer collecting the requested data, or <code>null</code>
+     * @throws InterruptedException
+     * @throws IOException
+     * @throws InternetSCSIException
+     */
+    private void sendR2T (final List<OutstandingR2T> outstandingR2Ts, final int initiatorTaskTag, final int readyToTransferSequenceNumber, final int bufferOffset, final int desiredDataTransferLength, final DataOutAssembly assembly) throws InterruptedException , IOException , InternetSCSIException {
+        final OutstandingR2T r2t = new OutstandingR2T(TargetServer.getNextTargetTransferTag(), readyToTransferSequenceNumber, bufferOffset, desiredDataTransferLength, assembly);
+        outstandingR2Ts.add(r2t);
+        r2t.waitEvent = FlightRecording.AVAILABLE ? ReadyToTransferEvent.start() : null;
+        final ProtocolDataUnit pdu = TargetPduFactory.createReadyToTransferPdu(0,// logicalUnitNumber
+                initiatorTaskTag, r2t.targetTransferTag,// targetTransferTag
+                r2t.readyToTransferSequenceNumber, r2t.bufferOffset,// bufferOffset
+                r2t.desiredDataTransferLength);
+        connection.sendPdu(pdu);
+    }
+
+    /**
+     * Returns the outstanding R2T with the specified Target Transfer Tag.
+     * 
+     * @param outstandingR2Ts the R2Ts which have been sent, but not yet been answered completely
+     * @param targetTransferTag the Target Transfer Tag of a received Data-Out PDU
+     * @return the matching R2T
+     * @throws InternetSCSIException if there is no such R2T
+     */
+    private static OutstandingR2T getOutstandingR2T (final List<OutstandingR2T> outstandingR2Ts, final int targetTransferTag) throws InternetSCSIException {
+        for (OutstandingR2T r2t : outstandingR2Ts)
+            if (r2t.targetTransferTag == targetTransferTag) return r2t;
+        throw new InternetSCSIException("received Data-Out PDU with unknown Target Transfer Tag " + targetTransferTag);
+    }
+
+    /**
+     * The state of an R2T which has been sent, but whose Data-Out sequence has not been received completely.
+     */
+    private static final class OutstandingR2T {
+
+        /**
+         * The Target Transfer Tag of the R2T, which the initiator copies into each Data-Out PDU of the sequence.
+         */
+        final int targetTransferTag;
+
+        /**
+         * The R2TSN of the R2T.
+         */
+        final int readyToTransferSequenceNumber;
+
+        /**
+         * The offset of the requested data in the transfer.
+         */
+        final int bufferOffset;
+
+        /**
+         * The number of requested bytes.
+         */
+        final int desiredDataTransferLength;
+
+        /**
+         * The buffer collecting the requested data, or <code>null</code> if it is written as it is received.
+         */
+        final DataOutAssembly assembly;
+
+        /**
+         * The number of bytes received so far.
+         */
+        int bytesReceived;
+
+        /**
+         * The <code>DataSN</code> value the next Data-Out PDU of the sequence must carry.
+         */
+        int expectedDataSequenceNumber;
+
+        /**
+         * The flight recorder event measuring the time until the sequence has been received, or <code>null</code> if
+         * the event is disabled.
+         */
+        ReadyToTransferEvent waitEvent;
+
+        OutstandingR2T (final int targetTransferTag, final int readyToTransferSequenceNumber, final int bufferOffset, final int desiredDataTransferLength, final DataOutAssembly assembly) {
+            this.assembly = assembly;
+            this.targetTransferTag = targetTransferTag;
+            this.readyToTransferSequenceNumber = readyToTransferSequenceNumber;
+            this.bufferOffset = bufferOffset;
+            this.desiredDataTransferLength = desiredDataTransferLength;
+        }
+
+        /**
+         * Checks if a received Data-Out PDU is the next one of this sequence and lies within the requested range.
+         * 
+         * @param parser the parser of the Data-Out PDU
+         * @param dataSegmentLength the length of the PDU's data segment
+         * @throws InternetSCSIException if the PDU does not belong to this sequence
+         */
+        void check (final DataOutParser parser, final int dataSegmentLength) throws InternetSCSIException {
+            if (parser.getDataSequenceNumber() != expectedDataSequenceNumber++) { throw new InternetSCSIException("received erroneous PDU in data-out sequence of R2TSN " + readyToTransferSequenceNumber + ", expected DataSN " + (expectedDataSequenceNumber - 1)); }
+            if (parser.getBufferOffset() < bufferOffset || parser.getBufferOffset() + dataSegmentLength > bufferOffset + desiredDataTransferLength) { throw new InternetSCSIException("received Data-Out PDU outside of the range requested by R2TSN " + readyToTransferSequenceNumber); }
+        }
+    }
+
+    /**
+     * A buffer from the {@link Configuration#getReceiveBufferAllocator() receive buffer allocator}, in which the data
+     * segments of a burst or task are placed according to their <code>BufferOffset</code>, so that they can be passed
+     * to the storage module with a single write.
+     * <p>
+     * The buffer may be recycled and is not cleared, so only the ranges which have actually been received are written.
+     * Once a burst or task has been received completely, these ranges have been merged into one.
+     */
+    private final class DataOutAssembly {
+
+        /**
+         * The offset of the first byte of the buffer in the transfer.
+         */
+        private final int bufferOffset;
+
+        /**
+         * The number of bytes which fit into the buffer.
+         */
+        private final int capacity;
+
+        /**
+         * The buffer, or <code>null</code> once it has been released.
+         */
+        private PooledBuffer buffer;
+
+        /**
+         * The received ranges relative to {@link #bufferOffset}, sorted, disjoint and not adjacent, as pairs of start
+         * and end offsets.
+         */
+        private int[] ranges = new int[2];
+
+        /**
+         * The number of received ranges.
+         */
+        private int rangeCount;
+
+        DataOutAssembly (final int bufferOffset, final int capacity, final Configuration config) {
+            this.bufferOffset = bufferOffset;
+            this.capacity = capacity;
+            buffer = config.getReceiveBufferAllocator().allocate(capacity);
+        }
+
+        /**
+         * Copies the data segment of the passed PDU into the buffer.
+         * 
+         * @param pdu a PDU carrying write data
+         * @param pduBufferOffset the offset of the data segment in the transfer
+         * @throws InternetSCSIException if the data segment does not fit into the buffer
+         */
+        void put (final ProtocolDataUnit pdu, final int pduBufferOffset) throws InternetSCSIException {
+            final int dataSegmentLength = pdu.getBasicHeaderSegment().getDataSegmentLength();
+            final int position = pduBufferOffset - bufferOffset;
+            if (position < 0 || position + dataSegmentLength > capacity) throw new InternetSCSIException("received data segment at buffer offset " + pduBufferOffset + " outside of the expected range");
+
+            final ByteBuffer src = pdu.getDataSegment();
+            src.position(0);
+            src.limit(dataSegmentLength);
+            final ByteBuffer dst = buffer.getBuffer();
+            dst.limit(capacity);
+            dst.position(position);
+            dst.put(src);
+            addRange(position, position + dataSegmentLength);
+        }
+
+        /**
+         * Adds a received range to {@link #ranges}, merging it with the ranges it overlaps or touches.
+         * 
+         * @param start the start of the range
+         * @param end the end of the range
+         */
+        private void addRange (int start, int end) {
+            if (start == end) return;
+            // the first range which ends at or after start, and the first range which starts after end
+            int first = 0;
+            while (first < rangeCount && ranges[2 * first + 1] < start)
+                ++first;
+            int last = first;
+            while (last < rangeCount && ranges[2 * last] <= end) {
+                start = Math.min(start, ranges[2 * last]);
+                end = Math.max(end, ranges[2 * last + 1]);
+                ++last;
+            }
+            final int newCount = rangeCount - (last - first) + 1;
+            if (2 * newCount > ranges.length) ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+            System.arraycopy(ranges, 2 * last, ranges, 2 * (first + 1), 2 * (rangeCount - last));
+            ranges[2 * first] = start;
+            ranges[2 * first + 1] = end;
+            rangeCount = newCount;
+        }
+
+        /**
+         * Writes the received data to storage, with one write per received range.
+         * 
+         * @param storageIndex byte offset of the transfer in the storage area
+         * @throws IOException if an I/O error occurs
+         * @throws InterruptedException if interrupted while waiting for the range lock
+         */
+        void store (final long storageIndex) throws IOException , InterruptedException {
+            final ByteBuffer dst = buffer.getBuffer();
+            for (int i = 0; i < rangeCount; ++i) {
+                final int start = ranges[2 * i];
+                final int end = ranges[2 * i + 1];
+                dst.limit(end);
+                dst.position(start);
+                write(dst, storageIndex + bufferOffset + start);
+            }
+        }
+
+        /**
+         * Returns the buffer to its allocator.
+         */
+        void release () {
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+        }
+    }
 }
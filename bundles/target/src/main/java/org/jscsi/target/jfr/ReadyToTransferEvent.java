@@ -0,0 +1,77 @@
+package org.jscsi.target.jfr;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+
+/**
+ * Spans the time from sending an R2T PDU until the last Data-Out PDU of the solicited sequence has been received.
+ */
+@Name("org.jscsi.target.R2TWait")
+@Label("R2T Wait")
+@Category({ "jSCSI", "Target" })
+@Description("The time from sending an R2T until all data solicited by it has been received.")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class ReadyToTransferEvent extends Event {
+
+    /**
+     * Tells whether the event is enabled, without allocating an event per R2T.
+     */
+    private static final ReadyToTransferEvent PROBE = new ReadyToTransferEvent();
+
+    @Label("Initiator Task Tag")
+    int initiatorTaskTag;
+
+    @Label("Target Transfer Tag")
+    int targetTransferTag;
+
+    @Label("R2T Sequence Number")
+    int readyToTransferSequenceNumber;
+
+    @Label("Buffer Offset")
+    long bufferOffset;
+
+    @Label("Desired Data Transfer Length")
+    @DataAmount
+    long desiredDataTransferLength;
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     *
+     * @return the begun event, or <code>null</code> if the event is disabled
+     */
+    public static ReadyToTransferEvent start () {
+        if (!PROBE.isEnabled()) return null;
+        final ReadyToTransferEvent event = new ReadyToTransferEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends this event and commits it, if it passes the threshold.
+     *
+     * @param itt the Initiator Task Tag of the command
+     * @param ttt the Target Transfer Tag of the R2T
+     * @param r2tsn the R2TSN of the R2T
+     * @param offset the Buffer Offset of the R2T
+     * @param length the Desired Data Transfer Length of the R2T
+     */
+    public void finish (final int itt, final int ttt, final int r2tsn, final int offset, final int length) {
+        end();
+        if (!shouldCommit()) return;
+        initiatorTaskTag = itt;
+        targetTransferTag = ttt;
+        readyToTransferSequenceNumber = r2tsn;
+        bufferOffset = offset & 0xffffffffL;
+        desiredDataTransferLength = length & 0xffffffffL;
+        commit();
+    }
+}
@@ -0,0 +1,107 @@
+package org.jscsi.target.jfr;
+
+
+import java.nio.ByteBuffer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.scsi.cdb.ReadOrWriteCdbView;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+
+
+/**
+ * Spans the execution of a SCSI command, from the start of its stage until the stage has sent the response. The
+ * logical block address and the number of blocks are only set for <code>READ</code> and <code>WRITE</code> commands.
+ */
+@Name("org.jscsi.target.ScsiCommand")
+@Label("SCSI Command")
+@Category({ "jSCSI", "Target" })
+@Description("The execution of a SCSI command by its stage, including the transfer of its data.")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class ScsiCommandEvent extends Event {
+
+    /**
+     * Tells whether the event is enabled, without allocating an event per command.
+     */
+    private static final ScsiCommandEvent PROBE = new ScsiCommandEvent();
+
+    @Label("Operation Code")
+    String operation;
+
+    @Label("Initiator Task Tag")
+    int initiatorTaskTag;
+
+    @Label("Logical Block Address")
+    long logicalBlockAddress;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Expected Data Transfer Length")
+    @DataAmount
+    long expectedDataTransferLength;
+
+    @Label("Status")
+    String status;
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     *
+     * @return the begun event, or <code>null</code> if the event is disabled
+     */
+    public static ScsiCommandEvent start () {
+        if (!PROBE.isEnabled()) return null;
+        final ScsiCommandEvent event = new ScsiCommandEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends this event and commits it, if it passes the threshold.
+     *
+     * @param bhs the Basic Header Segment of the SCSI Command PDU
+     * @param sentStatus the status sent to the initiator, or <code>null</code> if none was sent, e.g. because the task
+     *            has been aborted
+     */
+    public void finish (final BasicHeaderSegment bhs, final SCSIStatus sentStatus) {
+        end();
+        if (!shouldCommit()) return;
+        final SCSICommandParser parser = (SCSICommandParser) bhs.getParser();
+        final ByteBuffer cdb = parser.getCDB();
+        final ScsiOperationCode operationCode = ScsiOperationCode.valueOf(cdb.get(0));
+        operation = operationCode != null ? operationCode.name() : String.format("0x%02x", cdb.get(0) & 255);
+        initiatorTaskTag = bhs.getInitiatorTaskTag();
+        if (operationCode != null) {
+            switch (operationCode) {
+                case READ_6 :
+                case READ_10 :
+                case READ_12 :
+                case READ_16 :
+                case WRITE_6 :
+                case WRITE_10 :
+                case WRITE_12 :
+                case WRITE_16 :
+                    final ReadOrWriteCdbView view = new ReadOrWriteCdbView().wrap(cdb);
+                    logicalBlockAddress = view.getLogicalBlockAddress();
+                    blocks = view.getTransferLength() & 0xffffffffL;
+                    break;
+                default :
+                    break;
+            }
+        }
+        expectedDataTransferLength = parser.getExpectedDataTransferLength() & 0xffffffffL;
+        status = sentStatus != null ? sentStatus.name() : null;
+        commit();
+    }
+}
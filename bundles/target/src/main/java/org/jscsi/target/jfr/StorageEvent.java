@@ -0,0 +1,40 @@
+package org.jscsi.target.jfr;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+
+/**
+ * The fields shared by the events of storage reads and writes.
+ */
+@Category({ "jSCSI", "Target", "Storage" })
+@Threshold("10 ms")
+@StackTrace(false)
+abstract class StorageEvent extends Event {
+
+    @Label("Storage Index")
+    long storageIndex;
+
+    @Label("Length")
+    @DataAmount
+    long length;
+
+    /**
+     * Ends this event and commits it, if it passes the threshold.
+     *
+     * @param index the byte offset of the access in the storage area
+     * @param bytes the number of bytes read or written
+     */
+    public final void finish (final long index, final long bytes) {
+        end();
+        if (!shouldCommit()) return;
+        storageIndex = index;
+        length = bytes;
+        commit();
+    }
+}
@@ -0,0 +1,33 @@
+package org.jscsi.target.jfr;
+
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Spans a read of the storage module on behalf of a SCSI command. This includes the transfers from storage directly to the socket of a connection.
+ */
+@Name("org.jscsi.target.StorageRead")
+@Label("Storage Read")
+@Description("A read of the storage module on behalf of a SCSI command.")
+public final class StorageReadEvent extends StorageEvent {
+
+    /**
+     * Tells whether the event is enabled, without allocating an event per access.
+     */
+    private static final StorageReadEvent PROBE = new StorageReadEvent();
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     *
+     * @return the begun event, or <code>null</code> if the event is disabled
+     */
+    public static StorageReadEvent start () {
+        if (!PROBE.isEnabled()) return null;
+        final StorageReadEvent event = new StorageReadEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,33 @@
+package org.jscsi.target.jfr;
+
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Spans a write of the storage module on behalf of a SCSI command.
+ */
+@Name("org.jscsi.target.StorageWrite")
+@Label("Storage Write")
+@Description("A write of the storage module on behalf of a SCSI command.")
+public final class StorageWriteEvent extends StorageEvent {
+
+    /**
+     * Tells whether the event is enabled, without allocating an event per access.
+     */
+    private static final StorageWriteEvent PROBE = new StorageWriteEvent();
+
+    /**
+     * Begins a new event, if the event is enabled in any running recording.
+     *
+     * @return the begun event, or <code>null</code> if the event is disabled
+     */
+    public static StorageWriteEvent start () {
+        if (!PROBE.isEnabled()) return null;
+        final StorageWriteEvent event = new StorageWriteEvent();
+        event.begin();
+        return event;
+    }
+}
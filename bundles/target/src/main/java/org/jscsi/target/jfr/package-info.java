@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2011, University of Konstanz, Distributed Systems Group All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met: * Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer. * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution. * Neither the name of the University of Konstanz nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * This package contains the custom events of the JDK Flight Recorder, which are emitted while executing SCSI
+ * commands: the lifecycle of each command, the storage reads and writes, and the time spent waiting for solicited
+ * data after an R2T. The events of received and sent PDUs are part of the <code>org.jscsi.jfr</code> package.
+ * <p>
+ * Each event type can be enabled and given a threshold in the settings of a recording, e.g. in a copy of the
+ * <code>default.jfc</code> of the JDK. Without settings, the command, storage and R2T events are recorded if they
+ * exceed their default threshold, so a continuous recording only captures the outliers. All emissions are guarded by
+ * <code>org.jscsi.jfr.FlightRecording.AVAILABLE</code> and allocate nothing while an event is disabled.
+ */
+package org.jscsi.target.jfr;
+
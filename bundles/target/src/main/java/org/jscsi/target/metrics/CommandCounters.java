@@ -0,0 +1,86 @@
+package org.jscsi.target.metrics;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the SCSI commands executed by a session or on a target, and the bytes they transferred.
+ * <p>
+ * The counters are updated without locking and without allocating, so that they can be updated for every command, by
+ * all connections at once.
+ */
+public class CommandCounters implements CommandCountersMXBean {
+
+    private final LongAdder commands = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder inFlightTasks = new LongAdder();
+
+    private final LongAdder throttledCommands = new LongAdder();
+
+    private final LongAdder throttledNanos = new LongAdder();
+
+    /**
+     * Counts a command whose execution has started.
+     */
+    public void commandStarted () {
+        inFlightTasks.increment();
+    }
+
+    /**
+     * Counts a command whose execution has finished, successfully or not.
+     *
+     * @param read the number of bytes transferred to the initiator
+     * @param written the number of bytes transferred from the initiator
+     */
+    public void commandFinished (final long read, final long written) {
+        inFlightTasks.decrement();
+        commands.increment();
+        if (read > 0) bytesRead.add(read);
+        if (written > 0) bytesWritten.add(written);
+    }
+
+    /**
+     * Counts a command which had to wait for the QoS limits before its execution started.
+     *
+     * @param nanos the time the command was throttled
+     */
+    public void commandThrottled (final long nanos) {
+        throttledCommands.increment();
+        throttledNanos.add(nanos);
+    }
+
+    @Override
+    public long getCommands () {
+        return commands.sum();
+    }
+
+    @Override
+    public long getBytesRead () {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten () {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getInFlightTasks () {
+        return inFlightTasks.sum();
+    }
+
+    @Override
+    public long getThrottledCommands () {
+        return throttledCommands.sum();
+    }
+
+    @Override
+    public long getThrottledNanos () {
+        return throttledNanos.sum();
+    }
+}
@@ -0,0 +1,52 @@
+package org.jscsi.target.metrics;
+
+
+/**
+ * The management interface of {@link CommandCounters}, e.g. of a session.
+ */
+public interface CommandCountersMXBean {
+
+    /**
+     * Returns the number of finished SCSI commands.
+     *
+     * @return the number of finished commands
+     */
+    long getCommands ();
+
+    /**
+     * Returns the number of bytes the successful commands transferred to the initiator, their EXPECTED DATA TRANSFER
+     * LENGTH minus any residual underflow.
+     *
+     * @return the number of bytes read by the initiator
+     */
+    long getBytesRead ();
+
+    /**
+     * Returns the number of bytes the successful commands transferred from the initiator, their EXPECTED DATA TRANSFER
+     * LENGTH minus any residual underflow.
+     *
+     * @return the number of bytes written by the initiator
+     */
+    long getBytesWritten ();
+
+    /**
+     * Returns the number of SCSI commands being executed.
+     *
+     * @return the number of commands in flight
+     */
+    long getInFlightTasks ();
+
+    /**
+     * Returns the number of SCSI commands which had to wait for the QoS limits of the target or the initiator.
+     *
+     * @return the number of throttled commands
+     */
+    long getThrottledCommands ();
+
+    /**
+     * Returns the total time the throttled commands waited for the QoS limits, which is not part of their latencies.
+     *
+     * @return the nanoseconds spent throttled
+     */
+    long getThrottledNanos ();
+}
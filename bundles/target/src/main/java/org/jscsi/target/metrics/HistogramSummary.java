@@ -0,0 +1,80 @@
+package org.jscsi.target.metrics;
+
+
+import org.jscsi.target.util.LogHistogram;
+
+
+/**
+ * A summary of a {@link LogHistogram} kept by a component of a session or target, e.g. a send queue or a lock, as
+ * returned over JMX.
+ * <p>
+ * All quantiles are upper bounds, taken from the buckets of the histogram, in the unit of the recorded values.
+ */
+public final class HistogramSummary {
+
+    private final String name;
+
+    private final long count;
+
+    private final long median;
+
+    private final long percentile99;
+
+    private final long percentile999;
+
+    private final long max;
+
+    public HistogramSummary (final String name, final long count, final long median, final long percentile99, final long percentile999, final long max) {
+        this.name = name;
+        this.count = count;
+        this.median = median;
+        this.percentile99 = percentile99;
+        this.percentile999 = percentile999;
+        this.max = max;
+    }
+
+    /**
+     * Summarizes the current values of a histogram.
+     *
+     * @param name the name of the histogram
+     * @param histogram the histogram
+     * @return the summary
+     */
+    public static HistogramSummary of (final String name, final LogHistogram histogram) {
+        return new HistogramSummary(name, histogram.getTotalCount(), histogram.getQuantile(0.5), histogram.getQuantile(0.99), histogram.getQuantile(0.999), histogram.getQuantile(1));
+    }
+
+    /**
+     * Returns the name of the histogram, which names the recorded values and their unit.
+     *
+     * @return the name of the histogram
+     */
+    public String getName () {
+        return name;
+    }
+
+    public long getCount () {
+        return count;
+    }
+
+    public long getMedian () {
+        return median;
+    }
+
+    public long getPercentile99 () {
+        return percentile99;
+    }
+
+    public long getPercentile999 () {
+        return percentile999;
+    }
+
+    public long getMax () {
+        return max;
+    }
+
+    @Override
+    public String toString () {
+        return name + ": count=" + count + ", p50<=" + median + ", p99<=" + percentile99 + ", p99.9<=" + percentile999 + ", max<=" + max;
+    }
+}
@@ -0,0 +1,115 @@
+package org.jscsi.target.metrics;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jscsi.target.Target;
+import org.jscsi.target.connection.TargetSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Registers the metrics of targets and sessions as MXBeans with the platform {@link MBeanServer}.
+ * <p>
+ * Targets are registered as <code>org.jscsi.target:type=Target,name="&lt;target name&gt;"</code> and sessions, including
+ * the histograms of their send queues, as <code>org.jscsi.target:type=Session,tsih=&lt;TSIH&gt;</code>. Failing
+ * registrations, e.g. of a second target server with the same target names in the same JVM, are logged and otherwise
+ * ignored.
+ */
+public final class JmxMetricsExporter implements MetricsExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxMetricsExporter.class);
+
+    /**
+     * The domain of the object names of all MXBeans.
+     */
+    public static final String DOMAIN = "org.jscsi.target";
+
+    /**
+     * The names registered by this exporter, so that the MXBeans of other target servers are never unregistered.
+     */
+    private final Set<ObjectName> registered = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName , Boolean>());
+
+    /**
+     * Returns the object name of the MXBean of a target.
+     *
+     * @param target the target
+     * @return the object name
+     * @throws MalformedObjectNameException will not happen
+     */
+    public static ObjectName getObjectName (final Target target) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=Target,name=" + ObjectName.quote(target.getTargetName()));
+    }
+
+    /**
+     * Returns the object name of the MXBean of a session.
+     *
+     * @param session the session
+     * @return the object name
+     * @throws MalformedObjectNameException will not happen
+     */
+    public static ObjectName getObjectName (final TargetSession session) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=Session,tsih=" + (session.getTargetSessionIdentifyingHandle() & 0xffff));
+    }
+
+    @Override
+    public void targetAdded (final Target target) {
+        try {
+            register(new StandardMBean(target.getMetrics(), TargetMetricsMXBean.class, true), getObjectName(target));
+        } catch (JMException e) {
+            LOGGER.warn("could not register the metrics of target " + target.getTargetName(), e);
+        }
+    }
+
+    @Override
+    public void targetRemoved (final Target target) {
+        try {
+            unregister(getObjectName(target));
+        } catch (JMException e) {
+            LOGGER.warn("could not unregister the metrics of target " + target.getTargetName(), e);
+        }
+    }
+
+    @Override
+    public void sessionAdded (final TargetSession session) {
+        try {
+            register(new StandardMBean(new SessionMetrics(session), SessionMetricsMXBean.class, true), getObjectName(session));
+        } catch (JMException e) {
+            LOGGER.warn("could not register the metrics of a session", e);
+        }
+    }
+
+    @Override
+    public void sessionRemoved (final TargetSession session) {
+        try {
+            unregister(getObjectName(session));
+        } catch (JMException e) {
+            LOGGER.warn("could not unregister the metrics of a session", e);
+        }
+    }
+
+    private void register (final StandardMBean mbean, final ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    private void unregister (final ObjectName name) throws JMException {
+        if (!registered.remove(name)) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // unregistered by someone else
+        }
+    }
+}
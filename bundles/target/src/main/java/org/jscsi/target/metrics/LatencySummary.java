@@ -0,0 +1,78 @@
+package org.jscsi.target.metrics;
+
+
+/**
+ * A summary of the latencies of one part of the execution of one type of SCSI command, as returned over JMX.
+ * <p>
+ * All latencies are upper bounds in nanoseconds, taken from the buckets of a
+ * {@link org.jscsi.target.util.LogHistogram}.
+ */
+public final class LatencySummary {
+
+    private final String operation;
+
+    private final String type;
+
+    private final long count;
+
+    private final long medianNanos;
+
+    private final long percentile99Nanos;
+
+    private final long percentile999Nanos;
+
+    private final long maxNanos;
+
+    public LatencySummary (final String operation, final String type, final long count, final long medianNanos, final long percentile99Nanos, final long percentile999Nanos, final long maxNanos) {
+        this.operation = operation;
+        this.type = type;
+        this.count = count;
+        this.medianNanos = medianNanos;
+        this.percentile99Nanos = percentile99Nanos;
+        this.percentile999Nanos = percentile999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns the name of the SCSI operation code, or its hexadecimal value if it is not supported.
+     *
+     * @return the SCSI operation
+     */
+    public String getOperation () {
+        return operation;
+    }
+
+    /**
+     * Returns the name of the {@link LatencyType}.
+     *
+     * @return the part of the execution time
+     */
+    public String getType () {
+        return type;
+    }
+
+    public long getCount () {
+        return count;
+    }
+
+    public long getMedianNanos () {
+        return medianNanos;
+    }
+
+    public long getPercentile99Nanos () {
+        return percentile99Nanos;
+    }
+
+    public long getPercentile999Nanos () {
+        return percentile999Nanos;
+    }
+
+    public long getMaxNanos () {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString () {
+        return operation + " " + type + ": count=" + count + ", p50<=" + medianNanos + "ns, p99<=" + percentile99Nanos + "ns, p99.9<=" + percentile999Nanos + "ns, max<=" + maxNanos + "ns";
+    }
+}
@@ -0,0 +1,23 @@
+package org.jscsi.target.metrics;
+
+
+/**
+ * The parts of the execution time of a SCSI command which are recorded separately by {@link TargetMetrics}.
+ */
+public enum LatencyType {
+
+    /**
+     * The time spent waiting for PDUs from the initiator, e.g. the Data-Out PDUs of a <code>WRITE</code> command.
+     */
+    RECEIVE,
+
+    /**
+     * The rest of the execution time, which is dominated by the accesses to the storage module.
+     */
+    STORAGE,
+
+    /**
+     * The time spent handing PDUs to the sender and waiting for them to be written to the socket.
+     */
+    SEND
+}
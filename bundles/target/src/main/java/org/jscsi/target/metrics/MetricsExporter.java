@@ -0,0 +1,46 @@
+package org.jscsi.target.metrics;
+
+
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.TargetSession;
+
+
+/**
+ * Publishes the {@link TargetMetrics} of the targets and the {@link CommandCounters} of the sessions of a
+ * {@link TargetServer}, e.g. via JMX or to a monitoring system.
+ * <p>
+ * The methods are called by the {@link TargetServer} when targets and sessions come and go, never while commands are
+ * executed. An exporter may keep the passed metrics objects and read them at any time.
+ * @see JmxMetricsExporter
+ */
+public interface MetricsExporter {
+
+    /**
+     * Starts publishing the metrics of a target.
+     *
+     * @param target the target, see {@link Target#getMetrics()}
+     */
+    void targetAdded (Target target);
+
+    /**
+     * Stops publishing the metrics of a target.
+     *
+     * @param target a target passed to {@link #targetAdded(Target)} before
+     */
+    void targetRemoved (Target target);
+
+    /**
+     * Starts publishing the counters of a session, which has not logged in yet.
+     *
+     * @param session the session, see {@link TargetSession#getCommandCounters()}
+     */
+    void sessionAdded (TargetSession session);
+
+    /**
+     * Stops publishing the counters of a session.
+     *
+     * @param session a session passed to {@link #sessionAdded(TargetSession)} before
+     */
+    void sessionRemoved (TargetSession session);
+}
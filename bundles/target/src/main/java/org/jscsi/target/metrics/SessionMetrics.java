@@ -0,0 +1,62 @@
+package org.jscsi.target.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+
+
+/**
+ * Exposes the {@link CommandCounters} of a session together with the histograms of its connection, see
+ * {@link SessionMetricsMXBean}.
+ */
+public final class SessionMetrics implements SessionMetricsMXBean {
+
+    private final TargetSession session;
+
+    public SessionMetrics (final TargetSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public long getCommands () {
+        return session.getCommandCounters().getCommands();
+    }
+
+    @Override
+    public long getBytesRead () {
+        return session.getCommandCounters().getBytesRead();
+    }
+
+    @Override
+    public long getBytesWritten () {
+        return session.getCommandCounters().getBytesWritten();
+    }
+
+    @Override
+    public long getInFlightTasks () {
+        return session.getCommandCounters().getInFlightTasks();
+    }
+
+    @Override
+    public long getThrottledCommands () {
+        return session.getCommandCounters().getThrottledCommands();
+    }
+
+    @Override
+    public long getThrottledNanos () {
+        return session.getCommandCounters().getThrottledNanos();
+    }
+
+    @Override
+    public List<HistogramSummary> getHistograms () {
+        final List<HistogramSummary> summaries = new ArrayList<HistogramSummary>(2);
+        final Connection connection = session.getConnection();
+        if (connection == null) return summaries;
+        summaries.add(HistogramSummary.of("SendQueueDepth", connection.getSendQueueDepthHistogram()));
+        summaries.add(HistogramSummary.of("SendBatchSize", connection.getSendBatchSizeHistogram()));
+        return summaries;
+    }
+}
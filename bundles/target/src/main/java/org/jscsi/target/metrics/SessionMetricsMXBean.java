@@ -0,0 +1,21 @@
+package org.jscsi.target.metrics;
+
+
+import java.util.List;
+
+
+/**
+ * The management interface of the metrics of a session: its {@link CommandCounters} and the histograms of its
+ * connection.
+ */
+public interface SessionMetricsMXBean extends CommandCountersMXBean {
+
+    /**
+     * Returns the histograms of the send queue of the session's connection: <code>SendQueueDepth</code>, the number of
+     * PDUs waiting to be written before each write, and <code>SendBatchSize</code>, the number of PDUs written with
+     * each gathering write.
+     *
+     * @return the histogram summaries, empty if the session has no connection
+     */
+    List<HistogramSummary> getHistograms ();
+}
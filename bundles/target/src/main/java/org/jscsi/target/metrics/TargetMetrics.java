@@ -0,0 +1,119 @@
+package org.jscsi.target.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.util.LogHistogram;
+
+
+/**
+ * The {@link CommandCounters} of a target, plus one latency histogram per SCSI operation code and {@link LatencyType},
+ * plus the histograms of the target's components, see {@link #addHistogram(String, LogHistogram)}.
+ * <p>
+ * The histograms of an operation code are created when the first command with that code finishes, afterwards
+ * recording a command neither locks nor allocates.
+ */
+public final class TargetMetrics extends CommandCounters implements TargetMetricsMXBean {
+
+    private static final LatencyType[] LATENCY_TYPES = LatencyType.values();
+
+    /**
+     * The latency histograms indexed by operation code, and within each array by {@link LatencyType#ordinal()}.
+     */
+    private final AtomicReferenceArray<LogHistogram[]> latencies = new AtomicReferenceArray<LogHistogram[]>(256);
+
+    /**
+     * The histograms recorded by the components of the target, by name.
+     */
+    private final Map<String , LogHistogram> histograms = new ConcurrentSkipListMap<String , LogHistogram>();
+
+    /**
+     * Adds a histogram recorded by a component of the target to the exported metrics, see {@link #getHistograms()}.
+     *
+     * @param name the name of the histogram, which names the recorded values and their unit
+     * @param histogram the histogram
+     */
+    public void addHistogram (final String name, final LogHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    /**
+     * Counts a command whose execution has finished and records its latencies.
+     *
+     * @param operationCode the SCSI operation code of the command
+     * @param read the number of bytes transferred to the initiator
+     * @param written the number of bytes transferred from the initiator
+     * @param receiveNanos the time spent waiting for PDUs from the initiator
+     * @param storageNanos the rest of the execution time
+     * @param sendNanos the time spent sending PDUs
+     */
+    public void commandFinished (final int operationCode, final long read, final long written, final long receiveNanos, final long storageNanos, final long sendNanos) {
+        commandFinished(read, written);
+        final LogHistogram[] histograms = getHistograms(operationCode & 0xff);
+        histograms[LatencyType.RECEIVE.ordinal()].record(receiveNanos);
+        histograms[LatencyType.STORAGE.ordinal()].record(storageNanos);
+        histograms[LatencyType.SEND.ordinal()].record(sendNanos);
+    }
+
+    /**
+     * Returns the histogram of the latencies of one part of the commands with the given operation code.
+     *
+     * @param operationCode the SCSI operation code
+     * @param type the part of the execution time
+     * @return the histogram, or <code>null</code> if no such command has finished yet
+     */
+    public LogHistogram getLatencyHistogram (final int operationCode, final LatencyType type) {
+        final LogHistogram[] histograms = latencies.get(operationCode & 0xff);
+        return histograms == null ? null : histograms[type.ordinal()];
+    }
+
+    @Override
+    public List<LatencySummary> getLatencies () {
+        final List<LatencySummary> summaries = new ArrayList<LatencySummary>();
+        for (int operationCode = 0; operationCode < 256; ++operationCode) {
+            final LogHistogram[] histograms = latencies.get(operationCode);
+            if (histograms == null) continue;
+            final ScsiOperationCode scsiOperationCode = ScsiOperationCode.valueOf((byte) operationCode);
+            final String operation = scsiOperationCode != null ? scsiOperationCode.name() : String.format("0x%02x", operationCode);
+            for (LatencyType type : LATENCY_TYPES) {
+                final LogHistogram histogram = histograms[type.ordinal()];
+                summaries.add(new LatencySummary(operation, type.name(), histogram.getTotalCount(), histogram.getQuantile(0.5), histogram.getQuantile(0.99), histogram.getQuantile(0.999), histogram.getQuantile(1)));
+            }
+        }
+        return summaries;
+    }
+
+    @Override
+    public List<HistogramSummary> getHistograms () {
+        final List<HistogramSummary> summaries = new ArrayList<HistogramSummary>(histograms.size());
+        for (Map.Entry<String , LogHistogram> entry : histograms.entrySet())
+            summaries.add(HistogramSummary.of(entry.getKey(), entry.getValue()));
+        return summaries;
+    }
+
+    @Override
+    public void resetLatencies () {
+        for (int operationCode = 0; operationCode < 256; ++operationCode) {
+            final LogHistogram[] histograms = latencies.get(operationCode);
+            if (histograms == null) continue;
+            for (LogHistogram histogram : histograms)
+                histogram.reset();
+        }
+    }
+
+    private LogHistogram[] getHistograms (final int operationCode) {
+        final LogHistogram[] histograms = latencies.get(operationCode);
+        if (histograms != null) return histograms;
+        final LogHistogram[] created = new LogHistogram[LATENCY_TYPES.length];
+        for (int i = 0; i < created.length; ++i)
+            created[i] = new LogHistogram();
+        // another connection may have created them in the meantime
+        if (latencies.compareAndSet(operationCode, null, created)) return created;
+        return latencies.get(operationCode);
+    }
+}
@@ -0,0 +1,34 @@
+package org.jscsi.target.metrics;
+
+
+import java.util.List;
+
+
+/**
+ * The management interface of the {@link TargetMetrics} of a target.
+ */
+public interface TargetMetricsMXBean extends CommandCountersMXBean {
+
+    /**
+     * Returns the latencies of all SCSI operations executed on the target so far, per operation and
+     * {@link LatencyType}.
+     *
+     * @return the latency summaries
+     */
+    List<LatencySummary> getLatencies ();
+
+    /**
+     * Returns the histograms of the components of the target, which all sessions share: <code>RangeLockHoldMicros</code>
+     * and <code>RangeLockWaitMicros</code>, the time each range lock was held and waited for, and, if the storage
+     * module has them, <code>ElevatorBatchSize</code>, <code>ElevatorMergeSize</code> and
+     * <code>GroupCommitBatchSize</code>.
+     *
+     * @return the histogram summaries, ordered by name
+     */
+    List<HistogramSummary> getHistograms ();
+
+    /**
+     * Discards all recorded latencies. The counters and the histograms of the components are not affected.
+     */
+    void resetLatencies ();
+}
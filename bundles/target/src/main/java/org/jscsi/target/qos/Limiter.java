@@ -0,0 +1,47 @@
+package org.jscsi.target.qos;
+
+
+/**
+ * The token buckets enforcing one set of {@link QosLimits}: one for the commands and one for the bytes per second.
+ * <p>
+ * Like the token buckets, limiters are not thread-safe.
+ */
+final class Limiter {
+
+    /**
+     * Limits the commands per second, or <code>null</code>.
+     */
+    private final TokenBucket operations;
+
+    /**
+     * Limits the bytes per second, or <code>null</code>.
+     */
+    private final TokenBucket bytes;
+
+    Limiter (final QosLimits limits, final long now) {
+        operations = limits.getIops() > 0 ? new TokenBucket(limits.getIops(), limits.getIopsBurst(), now) : null;
+        bytes = limits.getBandwidth() > 0 ? new TokenBucket(limits.getBandwidth(), limits.getBandwidthBurst(), now) : null;
+    }
+
+    /**
+     * Returns the time until a command may be executed.
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     * @return <code>0</code> if a command may be executed now, or the nanoseconds until then
+     */
+    long getDelayNanos (final long now) {
+        final long operationsDelay = operations != null ? operations.getDelayNanos(now) : 0;
+        final long bytesDelay = bytes != null ? bytes.getDelayNanos(now) : 0;
+        return Math.max(operationsDelay, bytesDelay);
+    }
+
+    /**
+     * Takes the tokens of a command, after {@link #getDelayNanos(long)} has returned <code>0</code>.
+     *
+     * @param length the number of bytes transferred by the command
+     */
+    void take (final long length) {
+        if (operations != null) operations.take(1);
+        if (bytes != null) bytes.take(length);
+    }
+}
@@ -0,0 +1,75 @@
+package org.jscsi.target.qos;
+
+
+/**
+ * The limits of the storage accesses of a target or an initiator.
+ * <p>
+ * A limit of <code>0</code> means unlimited. A burst allowance of <code>0</code> allows bursts of one second at the
+ * limited rate. The weight determines the share of an initiator's sessions, when the sessions of several initiators
+ * compete for the limits of a target; it is ignored for the limits of a target.
+ */
+public final class QosLimits {
+
+    /**
+     * No limits and the default weight.
+     */
+    public static final QosLimits UNLIMITED = new QosLimits(0, 0, 0, 0, 1);
+
+    private final long iops;
+
+    private final long iopsBurst;
+
+    private final long bandwidth;
+
+    private final long bandwidthBurst;
+
+    private final int weight;
+
+    /**
+     * Creates new limits.
+     *
+     * @param iops the maximum number of commands per second
+     * @param iopsBurst the number of commands which may be executed at once after a pause
+     * @param bandwidth the maximum number of bytes per second
+     * @param bandwidthBurst the number of bytes which may be transferred at once after a pause
+     * @param weight the share of the sessions when competing with others, at least <code>1</code>
+     * @throws IllegalArgumentException if a value is negative or the weight is less than <code>1</code>
+     */
+    public QosLimits (final long iops, final long iopsBurst, final long bandwidth, final long bandwidthBurst, final int weight) {
+        if (iops < 0 || iopsBurst < 0 || bandwidth < 0 || bandwidthBurst < 0 || weight < 1) throw new IllegalArgumentException("illegal QoS limits");
+        this.iops = iops;
+        this.iopsBurst = iopsBurst;
+        this.bandwidth = bandwidth;
+        this.bandwidthBurst = bandwidthBurst;
+        this.weight = weight;
+    }
+
+    public long getIops () {
+        return iops;
+    }
+
+    public long getIopsBurst () {
+        return iopsBurst;
+    }
+
+    public long getBandwidth () {
+        return bandwidth;
+    }
+
+    public long getBandwidthBurst () {
+        return bandwidthBurst;
+    }
+
+    public int getWeight () {
+        return weight;
+    }
+
+    /**
+     * Returns <code>true</code> if the commands or the bytes per second are limited.
+     *
+     * @return <code>true</code> if there is a limit
+     */
+    public boolean isLimited () {
+        return iops > 0 || bandwidth > 0;
+    }
+}
@@ -0,0 +1,51 @@
+package org.jscsi.target.qos;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The {@link QosLimits} of a target, and of the initiators accessing it, by initiator name.
+ * <p>
+ * The limits of the target are shared by all its sessions, the limits of an initiator by all its sessions with the
+ * target. Initiators without limits of their own use {@link QosLimits#UNLIMITED}.
+ */
+public final class QosPolicy {
+
+    /**
+     * The policy of targets without limits.
+     */
+    public static final QosPolicy UNLIMITED = new QosPolicy(QosLimits.UNLIMITED, Collections.<String , QosLimits> emptyMap());
+
+    private final QosLimits targetLimits;
+
+    private final Map<String , QosLimits> initiatorLimits;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param targetLimits the limits of all sessions with the target
+     * @param initiatorLimits the limits of the sessions of single initiators, by initiator name
+     */
+    public QosPolicy (final QosLimits targetLimits, final Map<String , QosLimits> initiatorLimits) {
+        this.targetLimits = targetLimits;
+        this.initiatorLimits = Collections.unmodifiableMap(new HashMap<String , QosLimits>(initiatorLimits));
+    }
+
+    public QosLimits getTargetLimits () {
+        return targetLimits;
+    }
+
+    /**
+     * Returns the limits of an initiator.
+     *
+     * @param initiatorName the iSCSI name of the initiator
+     * @return the limits of the initiator, or {@link QosLimits#UNLIMITED} if there are none
+     */
+    public QosLimits getInitiatorLimits (final String initiatorName) {
+        final QosLimits limits = initiatorLimits.get(initiatorName);
+        return limits != null ? limits : QosLimits.UNLIMITED;
+    }
+}
@@ -0,0 +1,265 @@
+package org.jscsi.target.qos;
+
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Enforces the {@link QosPolicy} of a target, before the commands of its sessions access the storage module.
+ * <p>
+ * A command first waits for the limits of its initiator, which only delay the sessions of that initiator. Then it
+ * waits for the limits of the target, which are shared by all sessions. Commands waiting for the target are admitted
+ * by start-time fair queuing: each command is tagged with the virtual time at which its session may start it, and the
+ * command with the smallest tag is admitted next. A command advances the virtual time of its session by its cost
+ * divided by the weight of the initiator, so sessions with a higher weight get a proportionally larger share of the
+ * target's limits, and idle sessions cannot save up a share.
+ * <p>
+ * Targets and initiators without limits cost neither a lock nor an allocation.
+ */
+public final class QosScheduler {
+
+    /**
+     * The cost of a command in addition to its length in bytes, when computing the fair share of a session, so that
+     * commands without data are not free.
+     */
+    static final long OPERATION_COST = 4096;
+
+    private final QosPolicy policy;
+
+    private final Clock clock;
+
+    /**
+     * The limiter of all sessions, or <code>null</code> if the target is unlimited. Guarded by this scheduler.
+     */
+    private final Limiter targetLimiter;
+
+    /**
+     * The limiters of the initiators with limits, created when their first session starts.
+     */
+    private final ConcurrentHashMap<String , Limiter> initiatorLimiters = new ConcurrentHashMap<String , Limiter>();
+
+    /**
+     * The commands waiting for the limits of the target, ordered by their start tags. Guarded by this scheduler.
+     */
+    private final PriorityQueue<Request> queue = new PriorityQueue<Request>();
+
+    /**
+     * The start tag of the last admitted command. Guarded by this scheduler.
+     */
+    private double virtualTime;
+
+    /**
+     * Orders commands with the same start tag by their arrival. Guarded by this scheduler.
+     */
+    private long sequence;
+
+    public QosScheduler (final QosPolicy policy) {
+        this(policy, Clock.SYSTEM);
+    }
+
+    QosScheduler (final QosPolicy policy, final Clock clock) {
+        this.policy = policy;
+        this.clock = clock;
+        this.targetLimiter = policy.getTargetLimits().isLimited() ? new Limiter(policy.getTargetLimits(), clock.nanoTime()) : null;
+    }
+
+    public QosPolicy getPolicy () {
+        return policy;
+    }
+
+    /**
+     * Creates the flow of a new session, which must be passed to each call of {@link #acquire(Flow, long)} for the
+     * commands of the session.
+     *
+     * @param initiatorName the iSCSI name of the session's initiator
+     * @return the flow of the session
+     */
+    public Flow createFlow (final String initiatorName) {
+        final QosLimits limits = policy.getInitiatorLimits(initiatorName);
+        Limiter limiter = null;
+        if (limits.isLimited()) {
+            limiter = initiatorLimiters.get(initiatorName);
+            if (limiter == null) {
+                final Limiter created = new Limiter(limits, clock.nanoTime());
+                limiter = initiatorLimiters.putIfAbsent(initiatorName, created);
+                if (limiter == null) limiter = created;
+            }
+        }
+        return new Flow(limiter, limits.getWeight());
+    }
+
+    /**
+     * Waits until a command of a session may access the storage module.
+     * <p>
+     * Each session must execute its commands one after the other.
+     *
+     * @param flow the flow of the session
+     * @param length the number of bytes the command transfers
+     * @return the nanoseconds the command was throttled, or <code>0</code> if it was admitted immediately
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire (final Flow flow, final long length) throws InterruptedException {
+        if (flow.limiter == null && targetLimiter == null) return 0;
+        final long start = clock.nanoTime();
+        boolean throttled = false;
+        if (flow.limiter != null) {
+            long delay;
+            while ((delay = reserve(flow.limiter, length)) > 0) {
+                throttled = true;
+                clock.sleep(delay);
+            }
+        }
+        if (targetLimiter != null) throttled |= enqueue(flow, length);
+        return throttled ? Math.max(1, clock.nanoTime() - start) : 0;
+    }
+
+    /**
+     * Takes the tokens of a command from an initiator's limiter, if it has enough.
+     *
+     * @return <code>0</code> if the tokens were taken, or the nanoseconds until there are enough
+     */
+    private long reserve (final Limiter limiter, final long length) {
+        synchronized (limiter) {
+            final long delay = limiter.getDelayNanos(clock.nanoTime());
+            if (delay == 0) limiter.take(length);
+            return delay;
+        }
+    }
+
+    /**
+     * Waits until the command is the first of the {@link #queue} and the target's limiter has enough tokens.
+     *
+     * @return <code>true</code> if the command had to wait
+     */
+    private synchronized boolean enqueue (final Flow flow, final long length) throws InterruptedException {
+        final Request request = new Request(Math.max(virtualTime, flow.finishTag), sequence++);
+        flow.finishTag = request.startTag + (double) (length + OPERATION_COST) / flow.weight;
+        queue.add(request);
+        boolean waited = false;
+        try {
+            while (true) {
+                if (queue.peek() == request) {
+                    final long delay = targetLimiter.getDelayNanos(clock.nanoTime());
+                    if (delay == 0) {
+                        targetLimiter.take(length);
+                        virtualTime = request.startTag;
+                        return waited;
+                    }
+                    clock.await(this, delay);
+                } else {
+                    wait();
+                }
+                waited = true;
+            }
+        } finally {
+            queue.remove(request);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting for the limits of the target.
+     *
+     * @return the length of the queue
+     */
+    synchronized int getQueueLength () {
+        return queue.size();
+    }
+
+    /**
+     * The time source of a scheduler, which tests replace to control the passing of time.
+     */
+    interface Clock {
+
+        /**
+         * Measures the time with {@link System#nanoTime()} and waits with the methods of {@link TimeUnit}.
+         */
+        Clock SYSTEM = new Clock() {
+
+            @Override
+            public long nanoTime () {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleep (final long nanos) throws InterruptedException {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+
+            @Override
+            public void await (final Object monitor, final long nanos) throws InterruptedException {
+                TimeUnit.NANOSECONDS.timedWait(monitor, nanos);
+            }
+        };
+
+        /**
+         * Returns the current time.
+         *
+         * @return the current time in nanoseconds, only meaningful as the difference to other results
+         */
+        long nanoTime ();
+
+        /**
+         * Waits for the specified time.
+         *
+         * @param nanos the nanoseconds to wait
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void sleep (long nanos) throws InterruptedException;
+
+        /**
+         * Waits on a monitor held by the caller until it is notified or the specified time has passed.
+         *
+         * @param monitor the monitor to wait on
+         * @param nanos the nanoseconds to wait at most
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void await (Object monitor, long nanos) throws InterruptedException;
+    }
+
+    /**
+     * The state of a session needed for fair queuing. Accessed only by the scheduler.
+     */
+    public static final class Flow {
+
+        /**
+         * The limiter of the session's initiator, or <code>null</code> if the initiator is unlimited.
+         */
+        final Limiter limiter;
+
+        final int weight;
+
+        /**
+         * The virtual time at which the session may start its next command.
+         */
+        double finishTag;
+
+        Flow (final Limiter limiter, final int weight) {
+            this.limiter = limiter;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A command waiting for the limits of the target.
+     */
+    private static final class Request implements Comparable<Request> {
+
+        final double startTag;
+
+        final long sequence;
+
+        Request (final double startTag, final long sequence) {
+            this.startTag = startTag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo (final Request other) {
+            final int result = Double.compare(startTag, other.startTag);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
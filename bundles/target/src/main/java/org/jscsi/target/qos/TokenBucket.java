@@ -0,0 +1,60 @@
+package org.jscsi.target.qos;
+
+
+/**
+ * A token bucket, which is refilled at a constant rate up to its capacity.
+ * <p>
+ * Tokens are taken as long as the bucket is not empty, even if more tokens are taken than it holds. The bucket then
+ * owes the missing tokens, and {@link #getDelayNanos(long)} returns the time until they have been refilled. So
+ * requests larger than the capacity are delayed instead of being refused, and the average rate is never exceeded.
+ * <p>
+ * Token buckets are not thread-safe, their owner has to synchronize the accesses.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+
+    private final double capacity;
+
+    /**
+     * The available tokens, negative while the bucket owes tokens.
+     */
+    private double tokens;
+
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param rate the number of tokens added per second
+     * @param capacity the maximum number of tokens, or <code>0</code> for the number of tokens added per second
+     * @param now the current value of {@link System#nanoTime()}
+     */
+    TokenBucket (final long rate, final long capacity, final long now) {
+        this.tokensPerNano = rate / 1e9;
+        this.capacity = capacity > 0 ? capacity : rate;
+        this.tokens = this.capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Refills the bucket and returns the time until tokens may be taken.
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     * @return <code>0</code> if tokens may be taken now, or the nanoseconds until then
+     */
+    long getDelayNanos (final long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Takes tokens, after {@link #getDelayNanos(long)} has returned <code>0</code>.
+     *
+     * @param count the number of tokens
+     */
+    void take (final long count) {
+        tokens -= count;
+    }
+}
@@ -0,0 +1,149 @@
+package org.jscsi.target.scsi;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jscsi.target.storage.IStorageModule;
+
+
+/**
+ * Caches the serialized {@link IResponseData} of the commands which return the same data every time they are sent to a
+ * logical unit, like <code>INQUIRY</code>, <code>MODE SENSE</code>, <code>READ CAPACITY</code> and
+ * <code>REPORT LUNS</code>.
+ * <p>
+ * Responses are cached under a key made of the OPERATION CODE and the page code of the command, see
+ * {@link #key(int, int)}, and always in their full length, since trimming them to the ALLOCATION LENGTH is a matter of
+ * setting the limit of the returned buffer. Responses which depend on a parameter of the requesting connection, like
+ * the <code>BLOCK LIMITS</code> VPD page, are stored together with that parameter and only returned for the same
+ * value.
+ * <p>
+ * Since several responses contain the capacity of the logical unit, all cached responses are discarded as soon as the
+ * size in blocks or the block size of the {@link IStorageModule} are found to have changed. Other changes of the
+ * configuration require a call of {@link #invalidate()}.
+ */
+public final class ResponseDataCache {
+
+    /**
+     * A serialized response and the connection parameter it was created for.
+     */
+    private static final class Entry {
+
+        private final byte[] data;
+
+        private final int parameter;
+
+        private Entry (final byte[] data, final int parameter) {
+            this.data = data;
+            this.parameter = parameter;
+        }
+    }
+
+    /**
+     * The capacity of the logical unit all cached responses were created for.
+     */
+    private static final class Capacity {
+
+        private final long sizeInBlocks;
+
+        private final int blockSize;
+
+        private Capacity (final long sizeInBlocks, final int blockSize) {
+            this.sizeInBlocks = sizeInBlocks;
+            this.blockSize = blockSize;
+        }
+    }
+
+    /**
+     * The storage of the logical unit, whose capacity is compared to the one of the cached responses.
+     */
+    private final IStorageModule storageModule;
+
+    private final ConcurrentHashMap<Integer, Entry> responses = new ConcurrentHashMap<Integer, Entry>();
+
+    private volatile Capacity capacity;
+
+    public ResponseDataCache (final IStorageModule storageModule) {
+        this.storageModule = storageModule;
+    }
+
+    /**
+     * Returns the key of the response to a command.
+     *
+     * @param operationCode the OPERATION CODE of the command
+     * @param pageCode the page code requested by the command, or a value distinguishing the variants of the response,
+     *            between 0 and 65535
+     * @return the key of the response
+     */
+    public static int key (final int operationCode, final int pageCode) {
+        return ((operationCode & 0xff) << 16) | (pageCode & 0xffff);
+    }
+
+    /**
+     * Returns the cached response for the given key, trimmed to the given length.
+     *
+     * @param key the key of the response
+     * @param parameter the connection parameter the response must have been created for, or zero
+     * @param length the maximum number of bytes to return
+     * @return a buffer with the cached response, or <code>null</code> if it is not cached
+     * @see #size(ByteBuffer)
+     */
+    public ByteBuffer get (final int key, final int parameter, final int length) {
+        if (!isCurrent()) return null;
+        final Entry entry = responses.get(key);
+        if (entry == null || entry.parameter != parameter) return null;
+        return wrap(entry.data, length);
+    }
+
+    /**
+     * Serializes and caches the given response under the given key and returns it like {@link #get(int, int, int)}.
+     *
+     * @param key the key of the response
+     * @param parameter the connection parameter the response depends on, or zero
+     * @param responseData the response to cache
+     * @param length the maximum number of bytes to return
+     * @return a buffer with the serialized response
+     */
+    public ByteBuffer put (final int key, final int parameter, final IResponseData responseData, final int length) {
+        final byte[] data = new byte[responseData.size()];
+        responseData.serialize(ByteBuffer.wrap(data), 0);
+        if (capacity == null || !isCurrent()) {
+            invalidate();
+            capacity = new Capacity(storageModule.getSizeInBlocks(), storageModule.getBlockSize());
+        }
+        responses.put(key, new Entry(data, parameter));
+        return wrap(data, length);
+    }
+
+    /**
+     * Discards all cached responses, e.g. after a change of the configuration.
+     */
+    public void invalidate () {
+        responses.clear();
+    }
+
+    /**
+     * Returns the full size of a response returned by this cache, which may be larger than the number of bytes in the
+     * buffer.
+     *
+     * @param response a response returned by {@link #get(int, int, int)} or
+     *            {@link #put(int, int, IResponseData, int)}
+     * @return the size of the untrimmed response
+     */
+    public static int size (final ByteBuffer response) {
+        return response.array().length;
+    }
+
+    private boolean isCurrent () {
+        final Capacity current = capacity;
+        if (current == null) return false;
+        if (current.sizeInBlocks == storageModule.getSizeInBlocks() && current.blockSize == storageModule.getBlockSize()) return true;
+        invalidate();
+        return false;
+    }
+
+    private static ByteBuffer wrap (final byte[] data, final int length) {
+        // the slice has its own position and limit, so the cached array is never modified
+        return ByteBuffer.wrap(data, 0, Math.min(data.length, length)).slice();
+    }
+}
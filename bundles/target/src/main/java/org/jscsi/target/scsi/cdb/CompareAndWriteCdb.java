@@ -0,0 +1,121 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>COMPARE AND WRITE</code> SCSI command.
+ * <p>
+ * The Data-Out buffer of a <code>COMPARE AND WRITE</code> command contains twice the number of logical blocks
+ * specified by the NUMBER OF LOGICAL BLOCKS field. The first half, the verify data, is compared with the stored logical
+ * blocks. Only if they are identical, the second half, the write data, is written to the same logical blocks. The
+ * comparison and the write are performed as an uninterrupted sequence of operations.
+ */
+public final class CompareAndWriteCdb extends CommandDescriptorBlock {
+
+    /**
+     * The value of the WRPROTECT field.
+     */
+    private final int writeProtect;
+
+    /**
+     * The value of the DPO bit.
+     */
+    private final boolean disablePageOut;
+
+    /**
+     * The value of the FUA bit.
+     */
+    private final boolean forceUnitAccess;
+
+    /**
+     * The value of the FUA_NV bit.
+     */
+    private final boolean forceUnitAccessNonVolatileCache;
+
+    /**
+     * The logical block address of the first logical block to be compared and written.
+     */
+    private final long logicalBlockAddress;
+
+    /**
+     * The NUMBER OF LOGICAL BLOCKS field specifies the number of contiguous logical blocks to be compared and written.
+     */
+    private final int numberOfLogicalBlocks;
+
+    /**
+     * The value of the GROUP NUMBER field.
+     */
+    private final int groupNumber;
+
+    public CompareAndWriteCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // WRPROTECT
+        final byte b = buffer.get(1);
+        writeProtect = (b >> 5) & 7;
+
+        // DPO
+        disablePageOut = BitManip.getBit(b, 4);
+
+        // FUA
+        forceUnitAccess = BitManip.getBit(b, 3);
+
+        // FUA_NV
+        forceUnitAccessNonVolatileCache = BitManip.getBit(b, 1);
+
+        // LOGICAL BLOCK ADDRESS
+        logicalBlockAddress = buffer.getLong(2);
+
+        // NUMBER OF LOGICAL BLOCKS
+        numberOfLogicalBlocks = buffer.get(13) & 255;
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(14) & 31;
+    }
+
+    public int getWriteProtect () {
+        return writeProtect;
+    }
+
+    public boolean disablePageOut () {
+        return disablePageOut;
+    }
+
+    public boolean getForceUnitAccess () {
+        return forceUnitAccess;
+    }
+
+    public boolean getForceUnitAccessNonVolatile () {
+        return forceUnitAccessNonVolatileCache;
+    }
+
+    public long getLogicalBlockAddress () {
+        return logicalBlockAddress;
+    }
+
+    public int getNumberOfLogicalBlocks () {
+        return numberOfLogicalBlocks;
+    }
+
+    public int getGroupNumber () {
+        return groupNumber;
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #logicalBlockAddress} variable.
+     */
+    public void addIllegalFieldPointerForLogicalBlockAddress () {
+        addIllegalFieldPointer(2);
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #numberOfLogicalBlocks} variable.
+     */
+    public void addIllegalFieldPointerForNumberOfLogicalBlocks () {
+        addIllegalFieldPointer(13);
+    }
+}
@@ -0,0 +1,44 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>EXTENDED COPY (LID1)</code> SCSI command.
+ * <p>
+ * The copy sources and destinations and the ranges of logical blocks to be copied are not part of the CDB, they are
+ * described by the parameter list sent as write data, see
+ * {@link org.jscsi.target.scsi.copy.ExtendedCopyParameterList}.
+ */
+public final class ExtendedCopyCdb extends CommandDescriptorBlock {
+
+    /**
+     * The SERVICE ACTION of <code>EXTENDED COPY (LID1)</code>, the only supported variant with a one-byte LIST
+     * IDENTIFIER.
+     */
+    public static final byte SERVICE_ACTION = 0x00;
+
+    /**
+     * The PARAMETER LIST LENGTH field specifies the length in bytes of the parameter list that shall be transferred
+     * from the application client to the copy manager. A PARAMETER LIST LENGTH set to zero specifies that no data
+     * shall be transferred.
+     */
+    private final int parameterListLength;
+
+    public ExtendedCopyCdb (final ByteBuffer buffer) {
+        super(buffer);
+
+        // SERVICE ACTION
+        if ((buffer.get(1) & 31) != SERVICE_ACTION) addIllegalFieldPointer(1, 4);
+
+        // PARAMETER LIST LENGTH
+        parameterListLength = ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getParameterListLength () {
+        return parameterListLength;
+    }
+}
@@ -0,0 +1,52 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>GET LBA STATUS</code> SCSI command.
+ * <p>
+ * <code>GET LBA STATUS</code> shares its OPERATION CODE with <code>READ CAPACITY (16)</code> (
+ * {@link ScsiOperationCode#READ_CAPACITY_16}), the two commands are told apart by the SERVICE ACTION field.
+ */
+public final class GetLbaStatusCdb extends CommandDescriptorBlock {
+
+    /**
+     * The mandatory value of the SERVICE ACTION field.
+     */
+    public static final byte SERVICE_ACTION = 0x12;
+
+    /**
+     * The STARTING LOGICAL BLOCK ADDRESS field specifies the LBA of the first logical block addressed by this command.
+     */
+    private final long startingLogicalBlockAddress;
+
+    /**
+     * The maximum number of bytes that the initiator has allocated for the returned parameter data.
+     */
+    private final int allocationLength;
+
+    public GetLbaStatusCdb (final ByteBuffer buffer) {
+        super(buffer);
+
+        // SERVICE ACTION
+        if ((buffer.get(1) & 31) != SERVICE_ACTION) addIllegalFieldPointer(1, 4);
+
+        // STARTING LOGICAL BLOCK ADDRESS
+        startingLogicalBlockAddress = buffer.getLong(2);
+
+        // ALLOCATION LENGTH
+        allocationLength = ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public long getStartingLogicalBlockAddress () {
+        return startingLogicalBlockAddress;
+    }
+
+    public int getAllocationLength () {
+        return allocationLength;
+    }
+}
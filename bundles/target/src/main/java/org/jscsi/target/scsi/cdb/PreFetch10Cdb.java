@@ -0,0 +1,37 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>PRE-FETCH (10)</code> SCSI command.
+ */
+public final class PreFetch10Cdb extends PreFetchCdb {
+
+    public PreFetch10Cdb (final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 2);
+    }
+
+    @Override
+    protected long deserializePrefetchLength (ByteBuffer buffer) {
+        return ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getPrefetchLengthFieldIndex () {
+        return 7;
+    }
+}
@@ -0,0 +1,37 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>PRE-FETCH (16)</code> SCSI command.
+ */
+public final class PreFetch16Cdb extends PreFetchCdb {
+
+    public PreFetch16Cdb (final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected long deserializePrefetchLength (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 10);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getPrefetchLengthFieldIndex () {
+        return 10;
+    }
+}
@@ -0,0 +1,103 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+
+
+/**
+ * This abstract class represents Command Descriptor Blocks for the <code>PRE-FETCH</code> SCSI commands.
+ * <p>
+ * A <code>PRE-FETCH</code> command requests that the specified logical blocks are transferred to the cache, so that
+ * later reads do not have to wait for the medium. The jSCSI Target passes the request on to the storage module as a
+ * hint and does not wait for the transfer.
+ *
+ * @see PreFetch10Cdb
+ * @see PreFetch16Cdb
+ */
+public abstract class PreFetchCdb extends CommandDescriptorBlock {
+
+    /**
+     * If the IMMED bit is set to one, the device server shall return status as soon as the CDB has been validated.
+     */
+    private final boolean immediate;
+
+    /**
+     * The logical block address of the first logical block to be transferred to the cache.
+     */
+    private final long logicalBlockAddress;
+
+    /**
+     * The PREFETCH LENGTH field specifies the number of contiguous logical blocks to be transferred to the cache. A
+     * value of zero requests all logical blocks from {@link #logicalBlockAddress} to the last one of the medium to be
+     * transferred.
+     */
+    private final long prefetchLength;
+
+    public PreFetchCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // IMMED
+        immediate = BitManip.getBit(buffer.get(1), 1);
+
+        logicalBlockAddress = deserializeLogicalBlockAddress(buffer);
+        prefetchLength = deserializePrefetchLength(buffer);
+    }
+
+    /**
+     * Deserializes the value of the {@link #logicalBlockAddress} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #logicalBlockAddress} field
+     */
+    protected abstract long deserializeLogicalBlockAddress (final ByteBuffer buffer);
+
+    /**
+     * Deserializes the value of the {@link #prefetchLength} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #prefetchLength} field
+     */
+    protected abstract long deserializePrefetchLength (final ByteBuffer buffer);
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #logicalBlockAddress} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #logicalBlockAddress} field
+     */
+    protected abstract int getLogicalBlockAddressFieldIndex ();
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #prefetchLength} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #prefetchLength} field
+     */
+    protected abstract int getPrefetchLengthFieldIndex ();
+
+    public final boolean getImmediate () {
+        return immediate;
+    }
+
+    public final long getLogicalBlockAddress () {
+        return logicalBlockAddress;
+    }
+
+    public final long getPrefetchLength () {
+        return prefetchLength;
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #logicalBlockAddress} variable.
+     */
+    public final void addIllegalFieldPointerForLogicalBlockAddress () {
+        addIllegalFieldPointer(getLogicalBlockAddressFieldIndex());
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #prefetchLength} variable.
+     */
+    public final void addIllegalFieldPointerForPrefetchLength () {
+        addIllegalFieldPointer(getPrefetchLengthFieldIndex());
+    }
+}
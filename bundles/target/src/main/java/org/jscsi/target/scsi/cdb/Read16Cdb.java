@@ -0,0 +1,103 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>READ (16)</code> SCSI command.
+ * <p>
+ * Apart from the eight-byte LOGICAL BLOCK ADDRESS field and the four-byte TRANSFER LENGTH field, the fields of the <code>READ (16)</code> CDB are the same as the ones of the
+ * <code>READ (10)</code> CDB, see {@link Read10Cdb} for their description.
+ */
+public final class Read16Cdb extends ReadCdb {
+
+    /**
+     * The value of the RDPROTECT field.
+     */
+    private final int readProtect;
+
+    /**
+     * The value of the DPO bit.
+     */
+    private final boolean disablePageOut;
+
+    /**
+     * The value of the FUA bit.
+     */
+    private final boolean forceUnitAccess;
+
+    /**
+     * The value of the FUA_NV bit.
+     */
+    private final boolean forceUnitAccessNonVolatileCache;
+
+    /**
+     * The value of the GROUP NUMBER field.
+     */
+    private final int groupNumber;
+
+    public Read16Cdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // RDPROTECT
+        byte b = buffer.get(1);
+        readProtect = (b >> 5) & 7;
+
+        // DPO
+        disablePageOut = BitManip.getBit(b, 4);
+
+        // FUA
+        forceUnitAccess = BitManip.getBit(b, 3);
+
+        // FUA_NV
+        forceUnitAccessNonVolatileCache = BitManip.getBit(b, 1);
+
+        // GROUP NUMBER
+        b = buffer.get(14);
+        groupNumber = b & 31;
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected int deserializeTransferLength (ByteBuffer buffer) {
+        return ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getReadProtect () {
+        return readProtect;
+    }
+
+    public boolean disablePageOut () {
+        return disablePageOut;
+    }
+
+    public boolean getForceUnitAccess () {
+        return forceUnitAccess;
+    }
+
+    public boolean getForceUnitAccessNonVolatile () {
+        return forceUnitAccessNonVolatileCache;
+    }
+
+    public int getGroupNumber () {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex () {
+        return 10;
+    }
+}
@@ -9,6 +9,8 @@ import java.nio.ByteBuffer;
  * 
  * @see Read6Cdb
  * @see Read10Cdb
+ * @see Read12Cdb
+ * @see Read16Cdb
  * @author Andreas Ergenzinger
  */
 public abstract class ReadCdb extends ReadOrWriteCdb {
@@ -0,0 +1,160 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * A reusable view of the Command Descriptor Block of a <code>READ</code> or <code>WRITE</code> command of any size.
+ * <p>
+ * Unlike the {@link ReadOrWriteCdb} subclasses, which copy all fields out of the CDB buffer when they are created, a
+ * view decodes the fields needed to execute a command from the buffer when they are accessed, so that a stage can
+ * {@link #wrap(ByteBuffer)} the CDB of each command with the same instance. Fields which are ignored by the jSCSI
+ * Target are not decoded at all. If {@link #hasIllegalFields()} returns <code>true</code>, or the addressed blocks turn
+ * out to be out of bounds, the complete CDB returned by {@link #toCdb()} determines the sense data.
+ */
+public final class ReadOrWriteCdbView {
+
+    /**
+     * The group code of six-byte commands.
+     */
+    private static final int GROUP_SIX_BYTE = 0;
+
+    /**
+     * The group code of twelve-byte commands.
+     */
+    private static final int GROUP_TWELVE_BYTE = 5;
+
+    /**
+     * The group code of sixteen-byte commands.
+     */
+    private static final int GROUP_SIXTEEN_BYTE = 4;
+
+    /**
+     * The serialized CDB, starting at index position zero.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The group code of the OPERATION CODE, which determines the size of the CDB.
+     */
+    private int groupCode;
+
+    /**
+     * Makes this view represent the given CDB.
+     *
+     * @param cdb contains the serialized CDB of a <code>READ</code> or <code>WRITE</code> command starting at index
+     *            position zero
+     * @return this view
+     */
+    public ReadOrWriteCdbView wrap (final ByteBuffer cdb) {
+        buffer = cdb;
+        groupCode = (cdb.get(0) >>> 5) & 7;
+        return this;
+    }
+
+    public ScsiOperationCode getScsiOperationCode () {
+        return ScsiOperationCode.valueOf(buffer.get(0));
+    }
+
+    /**
+     * Returns the value of the LOGICAL BLOCK ADDRESS field.
+     *
+     * @return the logical block address of the first block to read or write
+     */
+    public long getLogicalBlockAddress () {
+        switch (groupCode) {
+            case GROUP_SIX_BYTE :
+                return ((buffer.get(1) & 31) << 16) | ReadWrite.readTwoByteInt(buffer, 2);
+            case GROUP_SIXTEEN_BYTE :
+                return buffer.getLong(2);
+            default :// ten and twelve bytes
+                return ReadWrite.readUnsignedInt(buffer, 2);
+        }
+    }
+
+    /**
+     * Returns the value of the TRANSFER LENGTH field.
+     *
+     * @return the number of blocks to read or write
+     */
+    public int getTransferLength () {
+        switch (groupCode) {
+            case GROUP_SIX_BYTE :
+                // zero means 256 blocks
+                final int value = ReadWrite.readOneByteInt(buffer, 4);
+                return value == 0 ? 256 : value;
+            case GROUP_TWELVE_BYTE :
+                return ReadWrite.readFourByteInt(buffer, 6);
+            case GROUP_SIXTEEN_BYTE :
+                return ReadWrite.readFourByteInt(buffer, 10);
+            default :// ten bytes
+                return ReadWrite.readTwoByteInt(buffer, 7);
+        }
+    }
+
+    /**
+     * Returns the value of the FUA bit. Six-byte commands have no FUA bit.
+     *
+     * @return the value of the FUA bit
+     */
+    public boolean getForceUnitAccess () {
+        return groupCode != GROUP_SIX_BYTE && BitManip.getBit(buffer.get(1), 3);
+    }
+
+    /**
+     * Returns <code>true</code> if the CDB contains a field which the complete CDB would report as illegal, i.e. a set
+     * NACA bit or, in six-byte commands, a set reserved bit in front of the LOGICAL BLOCK ADDRESS.
+     *
+     * @return <code>true</code> if {@link #toCdb()} has to determine the illegal fields
+     */
+    public boolean hasIllegalFields () {
+        final int controlByteIndex;
+        switch (groupCode) {
+            case GROUP_SIX_BYTE :
+                if (((buffer.get(1) >> 5) & 7) != 0) return true;
+                controlByteIndex = 5;
+                break;
+            case GROUP_TWELVE_BYTE :
+                controlByteIndex = 11;
+                break;
+            case GROUP_SIXTEEN_BYTE :
+                controlByteIndex = 15;
+                break;
+            default :// ten bytes
+                controlByteIndex = 9;
+        }
+        return BitManip.getBit(buffer.get(controlByteIndex), 2);
+    }
+
+    /**
+     * Creates the complete CDB, e.g. for collecting the illegal fields to report.
+     *
+     * @return the complete CDB
+     */
+    public ReadOrWriteCdb toCdb () {
+        switch (getScsiOperationCode()) {
+            case READ_6 :
+                return new Read6Cdb(buffer);
+            case READ_10 :
+                return new Read10Cdb(buffer);
+            case READ_12 :
+                return new Read12Cdb(buffer);
+            case READ_16 :
+                return new Read16Cdb(buffer);
+            case WRITE_6 :
+                return new Write6Cdb(buffer);
+            case WRITE_10 :
+                return new Write10Cdb(buffer);
+            case WRITE_12 :
+                return new Write12Cdb(buffer);
+            case WRITE_16 :
+                return new Write16Cdb(buffer);
+            default :
+                throw new IllegalStateException("not a READ or WRITE CDB: " + getScsiOperationCode());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>RECEIVE COPY RESULTS</code> SCSI command.
+ * <p>
+ * The supported service actions return the status of an <code>EXTENDED COPY (LID1)</code> command (
+ * {@link #COPY_STATUS}) or the limits of the copy manager ({@link #OPERATING_PARAMETERS}).
+ */
+public final class ReceiveCopyResultsCdb extends CommandDescriptorBlock {
+
+    /**
+     * The SERVICE ACTION requesting the status of the <code>EXTENDED COPY</code> command with the specified LIST
+     * IDENTIFIER.
+     */
+    public static final int COPY_STATUS = 0x00;
+
+    /**
+     * The SERVICE ACTION requesting the operating parameters of the copy manager.
+     */
+    public static final int OPERATING_PARAMETERS = 0x03;
+
+    private final int serviceAction;
+
+    /**
+     * The LIST IDENTIFIER of the <code>EXTENDED COPY</code> command whose status is requested.
+     */
+    private final int listIdentifier;
+
+    /**
+     * The maximum number of bytes that the initiator has allocated for the returned parameter data.
+     */
+    private final int allocationLength;
+
+    public ReceiveCopyResultsCdb (final ByteBuffer buffer) {
+        super(buffer);
+
+        // SERVICE ACTION
+        serviceAction = buffer.get(1) & 31;
+        if (serviceAction != COPY_STATUS && serviceAction != OPERATING_PARAMETERS) addIllegalFieldPointer(1, 4);
+
+        // LIST IDENTIFIER
+        listIdentifier = buffer.get(2) & 255;
+
+        // ALLOCATION LENGTH
+        allocationLength = ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getServiceAction () {
+        return serviceAction;
+    }
+
+    public int getListIdentifier () {
+        return listIdentifier;
+    }
+
+    public int getAllocationLength () {
+        return allocationLength;
+    }
+}
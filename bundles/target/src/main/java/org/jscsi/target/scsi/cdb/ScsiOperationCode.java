@@ -14,7 +14,7 @@ package org.jscsi.target.scsi.cdb;
  * @author Andreas Ergenzinger
  */
 public enum ScsiOperationCode {
-    TEST_UNIT_READY((byte) 0x00), REQUEST_SENSE((byte) 0x03), FORMAT_UNIT((byte) 0x04), READ_6((byte) 0x08), WRITE_6((byte) 0x0a), INQUIRY((byte) 0x12), MODE_SELECT_6((byte) 0x15), MODE_SENSE_6((byte) 0x1a), SEND_DIAGNOSTIC((byte) 0x1d), READ_CAPACITY_10((byte) 0x25), READ_10((byte) 0x28), WRITE_10((byte) 0x2a), READ_CAPACITY_16((byte) 0x9e), REPORT_LUNS((byte) 0xa0);
+    TEST_UNIT_READY((byte) 0x00), REQUEST_SENSE((byte) 0x03), FORMAT_UNIT((byte) 0x04), READ_6((byte) 0x08), WRITE_6((byte) 0x0a), INQUIRY((byte) 0x12), MODE_SELECT_6((byte) 0x15), MODE_SENSE_6((byte) 0x1a), SEND_DIAGNOSTIC((byte) 0x1d), READ_CAPACITY_10((byte) 0x25), READ_10((byte) 0x28), WRITE_10((byte) 0x2a), VERIFY_10((byte) 0x2f), PRE_FETCH_10((byte) 0x34), SYNCHRONIZE_CACHE_10((byte) 0x35), WRITE_SAME_10((byte) 0x41), UNMAP((byte) 0x42), EXTENDED_COPY((byte) 0x83), RECEIVE_COPY_RESULTS((byte) 0x84), READ_16((byte) 0x88), COMPARE_AND_WRITE((byte) 0x89), WRITE_16((byte) 0x8a), VERIFY_16((byte) 0x8f), PRE_FETCH_16((byte) 0x90), SYNCHRONIZE_CACHE_16((byte) 0x91), WRITE_SAME_16((byte) 0x93), READ_CAPACITY_16((byte) 0x9e), REPORT_LUNS((byte) 0xa0), READ_12((byte) 0xa8), WRITE_12((byte) 0xaa);
 
     /**
      * The serialized value of the operation code.
@@ -0,0 +1,37 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>SYNCHRONIZE CACHE (16)</code> SCSI command.
+ */
+public final class SynchronizeCache16Cdb extends SynchronizeCacheCdb {
+
+    public SynchronizeCache16Cdb (final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected long deserializeNumberOfLogicalBlocks (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 10);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getNumberOfLogicalBlocksFieldIndex () {
+        return 10;
+    }
+}
@@ -0,0 +1,102 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+
+
+/**
+ * This abstract class represents Command Descriptor Blocks for the <code>SYNCHRONIZE CACHE</code> SCSI commands.
+ * <p>
+ * A <code>SYNCHRONIZE CACHE</code> command requests that the specified logical blocks are written from the volatile
+ * cache to the medium. The jSCSI Target always synchronizes all logical blocks, which is permitted.
+ *
+ * @see SynchronizeCache10Cdb
+ * @see SynchronizeCache16Cdb
+ */
+public abstract class SynchronizeCacheCdb extends CommandDescriptorBlock {
+
+    /**
+     * If the IMMED bit is set to one, the device server shall return status as soon as the CDB has been validated.
+     */
+    private final boolean immediate;
+
+    /**
+     * The logical block address of the first logical block to be synchronized.
+     */
+    private final long logicalBlockAddress;
+
+    /**
+     * The NUMBER OF LOGICAL BLOCKS field specifies the number of contiguous logical blocks to be synchronized. A value
+     * of zero requests all logical blocks from {@link #logicalBlockAddress} to the last one of the medium to be
+     * synchronized.
+     */
+    private final long numberOfLogicalBlocks;
+
+    public SynchronizeCacheCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // IMMED
+        immediate = BitManip.getBit(buffer.get(1), 1);
+
+        logicalBlockAddress = deserializeLogicalBlockAddress(buffer);
+        numberOfLogicalBlocks = deserializeNumberOfLogicalBlocks(buffer);
+    }
+
+    /**
+     * Deserializes the value of the {@link #logicalBlockAddress} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #logicalBlockAddress} field
+     */
+    protected abstract long deserializeLogicalBlockAddress (final ByteBuffer buffer);
+
+    /**
+     * Deserializes the value of the {@link #numberOfLogicalBlocks} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #numberOfLogicalBlocks} field
+     */
+    protected abstract long deserializeNumberOfLogicalBlocks (final ByteBuffer buffer);
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #logicalBlockAddress} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #logicalBlockAddress} field
+     */
+    protected abstract int getLogicalBlockAddressFieldIndex ();
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #numberOfLogicalBlocks} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #numberOfLogicalBlocks} field
+     */
+    protected abstract int getNumberOfLogicalBlocksFieldIndex ();
+
+    public final boolean getImmediate () {
+        return immediate;
+    }
+
+    public final long getLogicalBlockAddress () {
+        return logicalBlockAddress;
+    }
+
+    public final long getNumberOfLogicalBlocks () {
+        return numberOfLogicalBlocks;
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #logicalBlockAddress} variable.
+     */
+    public final void addIllegalFieldPointerForLogicalBlockAddress () {
+        addIllegalFieldPointer(getLogicalBlockAddressFieldIndex());
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #numberOfLogicalBlocks} variable.
+     */
+    public final void addIllegalFieldPointerForNumberOfLogicalBlocks () {
+        addIllegalFieldPointer(getNumberOfLogicalBlocksFieldIndex());
+    }
+}
@@ -0,0 +1,61 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>UNMAP</code> SCSI command.
+ * <p>
+ * The logical blocks to be deallocated are not part of the CDB, they are described by the block descriptors of the
+ * parameter list sent as write data, see {@link org.jscsi.target.scsi.provisioning.UnmapParameterList}.
+ */
+public final class UnmapCdb extends CommandDescriptorBlock {
+
+    /**
+     * If the ANCHOR bit is set to one, the logical blocks shall be anchored instead of deallocated. Anchored logical
+     * blocks are not supported by the jSCSI Target.
+     */
+    private final boolean anchor;
+
+    /**
+     * The value of the GROUP NUMBER field.
+     */
+    private final int groupNumber;
+
+    /**
+     * The PARAMETER LIST LENGTH field specifies the length in bytes of the parameter list that shall be transferred
+     * from the application client to the device server. A PARAMETER LIST LENGTH set to zero specifies that no data
+     * shall be transferred.
+     */
+    private final int parameterListLength;
+
+    public UnmapCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // ANCHOR
+        anchor = BitManip.getBit(buffer.get(1), 0);
+        if (anchor) addIllegalFieldPointer(1, 0);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(6) & 31;
+
+        // PARAMETER LIST LENGTH
+        parameterListLength = ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    public boolean getAnchor () {
+        return anchor;
+    }
+
+    public int getGroupNumber () {
+        return groupNumber;
+    }
+
+    public int getParameterListLength () {
+        return parameterListLength;
+    }
+}
@@ -0,0 +1,37 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>VERIFY (10)</code> SCSI command.
+ */
+public final class Verify10Cdb extends VerifyCdb {
+
+    public Verify10Cdb (final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 2);
+    }
+
+    @Override
+    protected long deserializeVerificationLength (ByteBuffer buffer) {
+        return ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getVerificationLengthFieldIndex () {
+        return 7;
+    }
+}
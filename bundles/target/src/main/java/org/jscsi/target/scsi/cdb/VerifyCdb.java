@@ -0,0 +1,131 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * This abstract class represents Command Descriptor Blocks for the <code>VERIFY</code> SCSI commands.
+ * <p>
+ * The BYTCHK field determines whether data is transferred: with {@link #NO_BYTE_CHECK} the logical blocks are only
+ * verified on the medium, with {@link #COMPARE_ALL} the transferred logical blocks are compared with the stored ones,
+ * and with {@link #COMPARE_EACH} a single transferred logical block is compared with each stored one.
+ *
+ * @see Verify10Cdb
+ * @see Verify16Cdb
+ */
+public abstract class VerifyCdb extends CommandDescriptorBlock {
+
+    /**
+     * The value of the BYTCHK field requesting a medium verification without data transfer.
+     */
+    public static final int NO_BYTE_CHECK = 0;
+
+    /**
+     * The value of the BYTCHK field requesting the comparison of all transferred logical blocks.
+     */
+    public static final int COMPARE_ALL = 1;
+
+    /**
+     * The value of the BYTCHK field requesting the comparison of a single transferred logical block with each
+     * addressed logical block.
+     */
+    public static final int COMPARE_EACH = 3;
+
+    /**
+     * The value of the VRPROTECT field.
+     */
+    private final int verifyProtect;
+
+    /**
+     * The value of the BYTCHK field.
+     */
+    private final int byteCheck;
+
+    /**
+     * The logical block address of the first logical block to be verified.
+     */
+    private final long logicalBlockAddress;
+
+    /**
+     * The VERIFICATION LENGTH field specifies the number of contiguous logical blocks to be verified.
+     */
+    private final long verificationLength;
+
+    public VerifyCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        final byte b = buffer.get(1);
+
+        // VRPROTECT, protection information is not supported
+        verifyProtect = (b >> 5) & 7;
+        if (verifyProtect != 0) addIllegalFieldPointer(1, 7);
+
+        // BYTCHK, the value 10b is reserved
+        byteCheck = (b >> 1) & 3;
+        if (byteCheck == 2) addIllegalFieldPointer(1, 2);
+
+        logicalBlockAddress = deserializeLogicalBlockAddress(buffer);
+        verificationLength = deserializeVerificationLength(buffer);
+    }
+
+    /**
+     * Deserializes the value of the {@link #logicalBlockAddress} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #logicalBlockAddress} field
+     */
+    protected abstract long deserializeLogicalBlockAddress (final ByteBuffer buffer);
+
+    /**
+     * Deserializes the value of the {@link #verificationLength} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #verificationLength} field
+     */
+    protected abstract long deserializeVerificationLength (final ByteBuffer buffer);
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #logicalBlockAddress} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #logicalBlockAddress} field
+     */
+    protected abstract int getLogicalBlockAddressFieldIndex ();
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #verificationLength} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #verificationLength} field
+     */
+    protected abstract int getVerificationLengthFieldIndex ();
+
+    public final int getVerifyProtect () {
+        return verifyProtect;
+    }
+
+    public final int getByteCheck () {
+        return byteCheck;
+    }
+
+    public final long getLogicalBlockAddress () {
+        return logicalBlockAddress;
+    }
+
+    public final long getVerificationLength () {
+        return verificationLength;
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #logicalBlockAddress} variable.
+     */
+    public final void addIllegalFieldPointerForLogicalBlockAddress () {
+        addIllegalFieldPointer(getLogicalBlockAddressFieldIndex());
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #verificationLength} variable.
+     */
+    public final void addIllegalFieldPointerForVerificationLength () {
+        addIllegalFieldPointer(getVerificationLengthFieldIndex());
+    }
+}
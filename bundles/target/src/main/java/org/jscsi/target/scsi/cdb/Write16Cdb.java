@@ -0,0 +1,104 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>WRITE (16)</code> SCSI command.
+ * <p>
+ * Apart from the eight-byte LOGICAL BLOCK ADDRESS field and the four-byte TRANSFER LENGTH field, the fields of the <code>WRITE (16)</code> CDB are the same as the ones of the
+ * <code>WRITE (10)</code> CDB, see {@link Write10Cdb} for their description.
+ */
+public final class Write16Cdb extends WriteCdb {
+
+    /**
+     * The value of the WRPROTECT field.
+     */
+    private final int writeProtect;
+
+    /**
+     * The value of the DPO bit.
+     */
+    private final boolean disablePageOut;
+
+    /**
+     * The value of the FUA bit.
+     */
+    private final boolean forceUnitAccess;
+
+    /**
+     * The value of the FUA_NV bit.
+     */
+    private final boolean forceUnitAccessNonVolatileCache;
+
+    /**
+     * The value of the GROUP NUMBER field.
+     */
+    private final int groupNumber;
+
+    public Write16Cdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // WRPROTECT
+        byte b = buffer.get(1);
+        writeProtect = (b >> 5) & 7;
+
+        // DPO
+        disablePageOut = BitManip.getBit(b, 4);
+
+        // FUA
+        forceUnitAccess = BitManip.getBit(b, 3);
+
+        // FUA_NV
+        forceUnitAccessNonVolatileCache = BitManip.getBit(b, 1);
+
+        // GROUP NUMBER
+        b = buffer.get(14);
+        groupNumber = b & 31;
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected int deserializeTransferLength (ByteBuffer buffer) {
+        return ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getWriteProtect () {
+        return writeProtect;
+    }
+
+    public boolean disablePageOut () {
+        return disablePageOut;
+    }
+
+    @Override
+    public boolean getForceUnitAccess () {
+        return forceUnitAccess;
+    }
+
+    public boolean getForceUnitAccessNonVolatile () {
+        return forceUnitAccessNonVolatileCache;
+    }
+
+    public int getGroupNumber () {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex () {
+        return 10;
+    }
+}
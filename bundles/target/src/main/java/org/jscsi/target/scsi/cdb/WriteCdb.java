@@ -9,6 +9,8 @@ import java.nio.ByteBuffer;
  * 
  * @see Write6Cdb
  * @see Write10Cdb
+ * @see Write12Cdb
+ * @see Write16Cdb
  * @author Andreas Ergenzinger
  */
 public abstract class WriteCdb extends ReadOrWriteCdb {
@@ -17,4 +19,13 @@ public abstract class WriteCdb extends ReadOrWriteCdb {
         super(buffer);
     }
 
+    /**
+     * Returns the value of the FUA bit. If it is set, the written logical blocks must be stored on the medium before
+     * the command completes. <code>WRITE (6)</code> has no FUA bit.
+     *
+     * @return the value of the FUA bit
+     */
+    public boolean getForceUnitAccess () {
+        return false;
+    }
 }
@@ -0,0 +1,42 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>WRITE SAME (10)</code> SCSI command.
+ */
+public final class WriteSame10Cdb extends WriteSameCdb {
+
+    public WriteSame10Cdb (final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 2);
+    }
+
+    @Override
+    protected long deserializeNumberOfLogicalBlocks (ByteBuffer buffer) {
+        return ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getNumberOfLogicalBlocksFieldIndex () {
+        return 7;
+    }
+
+    @Override
+    protected int getGroupNumberFieldIndex () {
+        return 6;
+    }
+}
@@ -0,0 +1,60 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>WRITE SAME (16)</code> SCSI command.
+ * <p>
+ * Apart from the eight-byte LOGICAL BLOCK ADDRESS field, the four-byte NUMBER OF LOGICAL BLOCKS field and the NDOB
+ * bit, the fields are the same as the ones of the <code>WRITE SAME (10)</code> CDB.
+ */
+public final class WriteSame16Cdb extends WriteSameCdb {
+
+    /**
+     * If the NDOB (no Data-Out buffer) bit is set to one, no data is transferred and the logical blocks are filled with
+     * zeros.
+     */
+    private final boolean noDataOutBuffer;
+
+    public WriteSame16Cdb (final ByteBuffer buffer) {
+        super(buffer);
+
+        // NDOB
+        noDataOutBuffer = BitManip.getBit(buffer.get(1), 0);
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress (ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected long deserializeNumberOfLogicalBlocks (ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 10);
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex () {
+        return 2;
+    }
+
+    @Override
+    protected int getNumberOfLogicalBlocksFieldIndex () {
+        return 10;
+    }
+
+    @Override
+    protected int getGroupNumberFieldIndex () {
+        return 14;
+    }
+
+    @Override
+    public boolean getNoDataOutBuffer () {
+        return noDataOutBuffer;
+    }
+}
@@ -0,0 +1,156 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+
+
+/**
+ * This abstract class represents Command Descriptor Blocks for the <code>WRITE SAME</code> SCSI commands.
+ * <p>
+ * A <code>WRITE SAME</code> command transfers a single logical block, which is written to each logical block of the
+ * specified range. If the UNMAP bit is set, the device server may deallocate the range instead, provided that reading
+ * it afterwards returns the transferred block.
+ *
+ * @see WriteSame10Cdb
+ * @see WriteSame16Cdb
+ */
+public abstract class WriteSameCdb extends CommandDescriptorBlock {
+
+    /**
+     * The value of the WRPROTECT field.
+     */
+    private final int writeProtect;
+
+    /**
+     * If the ANCHOR bit is set to one, the logical blocks shall be anchored instead of deallocated. Anchored logical
+     * blocks are not supported by the jSCSI Target.
+     */
+    private final boolean anchor;
+
+    /**
+     * If the UNMAP bit is set to one, the device server is requested to deallocate the logical blocks, if possible.
+     */
+    private final boolean unmap;
+
+    /**
+     * The logical block address of the first logical block to be written.
+     */
+    private final long logicalBlockAddress;
+
+    /**
+     * The NUMBER OF LOGICAL BLOCKS field specifies the number of contiguous logical blocks to be written. A value of
+     * zero requests all logical blocks from {@link #logicalBlockAddress} to the last one of the medium to be written.
+     */
+    private final long numberOfLogicalBlocks;
+
+    /**
+     * The value of the GROUP NUMBER field.
+     */
+    private final int groupNumber;
+
+    public WriteSameCdb (final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        final byte b = buffer.get(1);
+
+        // WRPROTECT
+        writeProtect = (b >> 5) & 7;
+
+        // ANCHOR
+        anchor = BitManip.getBit(b, 4);
+        if (anchor) addIllegalFieldPointer(1, 4);
+
+        // UNMAP
+        unmap = BitManip.getBit(b, 3);
+
+        logicalBlockAddress = deserializeLogicalBlockAddress(buffer);
+        numberOfLogicalBlocks = deserializeNumberOfLogicalBlocks(buffer);
+        groupNumber = buffer.get(getGroupNumberFieldIndex()) & 31;
+    }
+
+    /**
+     * Deserializes the value of the {@link #logicalBlockAddress} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #logicalBlockAddress} field
+     */
+    protected abstract long deserializeLogicalBlockAddress (final ByteBuffer buffer);
+
+    /**
+     * Deserializes the value of the {@link #numberOfLogicalBlocks} field.
+     *
+     * @param buffer the {@link ByteBuffer} containing the CDB
+     * @return value of the {@link #numberOfLogicalBlocks} field
+     */
+    protected abstract long deserializeNumberOfLogicalBlocks (final ByteBuffer buffer);
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #logicalBlockAddress} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #logicalBlockAddress} field
+     */
+    protected abstract int getLogicalBlockAddressFieldIndex ();
+
+    /**
+     * Returns the index position of the first byte used for encoding the {@link #numberOfLogicalBlocks} field.
+     *
+     * @return the index position of the first byte used for encoding the {@link #numberOfLogicalBlocks} field
+     */
+    protected abstract int getNumberOfLogicalBlocksFieldIndex ();
+
+    /**
+     * Returns the index position of the GROUP NUMBER field.
+     *
+     * @return the index position of the GROUP NUMBER field
+     */
+    protected abstract int getGroupNumberFieldIndex ();
+
+    /**
+     * Returns <code>true</code> if no data is transferred and the logical blocks shall be filled with zeros.
+     *
+     * @return the value of the NDOB bit
+     */
+    public boolean getNoDataOutBuffer () {
+        return false;
+    }
+
+    public int getWriteProtect () {
+        return writeProtect;
+    }
+
+    public boolean getAnchor () {
+        return anchor;
+    }
+
+    public boolean getUnmap () {
+        return unmap;
+    }
+
+    public final long getLogicalBlockAddress () {
+        return logicalBlockAddress;
+    }
+
+    public final long getNumberOfLogicalBlocks () {
+        return numberOfLogicalBlocks;
+    }
+
+    public int getGroupNumber () {
+        return groupNumber;
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #logicalBlockAddress} variable.
+     */
+    public final void addIllegalFieldPointerForLogicalBlockAddress () {
+        addIllegalFieldPointer(getLogicalBlockAddressFieldIndex());
+    }
+
+    /**
+     * This method is used for signaling an illegal value of the {@link #numberOfLogicalBlocks} variable.
+     */
+    public final void addIllegalFieldPointerForNumberOfLogicalBlocks () {
+        addIllegalFieldPointer(getNumberOfLogicalBlocksFieldIndex());
+    }
+}
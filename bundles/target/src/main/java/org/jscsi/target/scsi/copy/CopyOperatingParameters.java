@@ -0,0 +1,93 @@
+package org.jscsi.target.scsi.copy;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * The parameter data sent in response to a <code>RECEIVE COPY RESULTS</code> command with the OPERATING PARAMETERS
+ * service action. It reports the limits of the copy manager and the supported descriptor types, which are identification
+ * CSCD descriptors and block device to block device segment descriptors.
+ * <p>
+ * This class uses the singleton pattern since the content of the operating parameters will never change.
+ */
+public final class CopyOperatingParameters implements IResponseData {
+
+    /**
+     * The maximum number of CSCD descriptors in a parameter list.
+     */
+    public static final int MAX_CSCD_DESCRIPTORS = 16;
+
+    /**
+     * The maximum number of segment descriptors in a parameter list.
+     */
+    public static final int MAX_SEGMENT_DESCRIPTORS = 128;
+
+    /**
+     * The maximum combined length of all descriptors in a parameter list.
+     */
+    public static final int MAX_DESCRIPTOR_LIST_LENGTH = MAX_CSCD_DESCRIPTORS * ExtendedCopyParameterList.CSCD_DESCRIPTOR_LENGTH + MAX_SEGMENT_DESCRIPTORS * ExtendedCopyParameterList.BLOCK_TO_BLOCK_DESCRIPTOR_LENGTH;
+
+    /**
+     * The maximum number of bytes copied by a single segment descriptor, 65535 blocks of 512 bytes.
+     */
+    private static final int MAX_SEGMENT_LENGTH = 0xffff * 512;
+
+    /**
+     * The maximum number of copy operations whose status is held per I_T nexus.
+     */
+    private static final int MAX_CONCURRENT_COPIES = 255;
+
+    /**
+     * The DESCRIPTOR TYPE CODEs of all supported descriptors.
+     */
+    private static final byte[] IMPLEMENTED_DESCRIPTORS = { (byte) ExtendedCopyParameterList.BLOCK_TO_BLOCK_DESCRIPTOR, (byte) ExtendedCopyParameterList.IDENTIFICATION_DESCRIPTOR };
+
+    private static final int HEADER_LENGTH = 44;
+
+    private static CopyOperatingParameters instance;
+
+    private CopyOperatingParameters () {
+    }
+
+    public static CopyOperatingParameters getInstance () {
+        if (instance == null) instance = new CopyOperatingParameters();
+        return instance;
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // AVAILABLE DATA (n - 3)
+        ReadWrite.writeInt(size() - 4, byteBuffer, index);
+
+        // SNLID (byte 4) is zero, EXTENDED COPY (LID4) is not supported
+
+        // MAXIMUM CSCD DESCRIPTOR COUNT, MAXIMUM SEGMENT DESCRIPTOR COUNT and MAXIMUM DESCRIPTOR LIST LENGTH
+        ReadWrite.writeTwoByteInt(byteBuffer, MAX_CSCD_DESCRIPTORS, index + 8);
+        ReadWrite.writeTwoByteInt(byteBuffer, MAX_SEGMENT_DESCRIPTORS, index + 10);
+        ReadWrite.writeInt(MAX_DESCRIPTOR_LIST_LENGTH, byteBuffer, index + 12);
+
+        // MAXIMUM SEGMENT LENGTH
+        ReadWrite.writeInt(MAX_SEGMENT_LENGTH, byteBuffer, index + 16);
+
+        // MAXIMUM INLINE DATA LENGTH, HELD DATA LIMIT, MAXIMUM STREAM DEVICE TRANSFER SIZE (bytes 20 - 31) are zero
+
+        // TOTAL CONCURRENT COPIES and MAXIMUM CONCURRENT COPIES, the copy status of each list identifier is held
+        ReadWrite.writeTwoByteInt(byteBuffer, MAX_CONCURRENT_COPIES, index + 34);
+        byteBuffer.put(index + 36, (byte) MAX_CONCURRENT_COPIES);
+
+        // DATA SEGMENT GRANULARITY, INLINE DATA GRANULARITY and HELD DATA GRANULARITY (bytes 37 - 39) are zero
+
+        // IMPLEMENTED DESCRIPTOR LIST LENGTH and list
+        byteBuffer.put(index + 43, (byte) IMPLEMENTED_DESCRIPTORS.length);
+        for (int i = 0; i < IMPLEMENTED_DESCRIPTORS.length; ++i)
+            byteBuffer.put(index + HEADER_LENGTH + i, IMPLEMENTED_DESCRIPTORS[i]);
+    }
+
+    public int size () {
+        return HEADER_LENGTH + IMPLEMENTED_DESCRIPTORS.length;
+    }
+}
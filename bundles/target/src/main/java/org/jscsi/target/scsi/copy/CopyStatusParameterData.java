@@ -0,0 +1,85 @@
+package org.jscsi.target.scsi.copy;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.storage.CopyManager.CopyOperation;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * The parameter data sent in response to a <code>RECEIVE COPY RESULTS</code> command with the COPY STATUS service
+ * action. It reports the progress of the <code>EXTENDED COPY (LID1)</code> command with the requested LIST IDENTIFIER.
+ */
+public final class CopyStatusParameterData implements IResponseData {
+
+    private static final int SIZE = 12;
+
+    /**
+     * The value of the COPY MANAGER STATUS field for copy operations in progress.
+     */
+    public static final int IN_PROGRESS = 0;
+
+    /**
+     * The value of the COPY MANAGER STATUS field for copy operations completed without errors.
+     */
+    public static final int COMPLETED = 1;
+
+    /**
+     * The value of the COPY MANAGER STATUS field for copy operations completed with errors.
+     */
+    public static final int FAILED = 2;
+
+    private final int copyManagerStatus;
+
+    private final int segmentsProcessed;
+
+    /**
+     * The TRANSFER COUNT UNITS field, the transfer count is given in units of 2<sup>10 * transferCountUnits</sup>
+     * bytes.
+     */
+    private final int transferCountUnits;
+
+    private final long transferCount;
+
+    public CopyStatusParameterData (final CopyOperation copyOperation) {
+        if (!copyOperation.isDone())
+            copyManagerStatus = IN_PROGRESS;
+        else if (copyOperation.isFailed())
+            copyManagerStatus = FAILED;
+        else
+            copyManagerStatus = COMPLETED;
+        segmentsProcessed = copyOperation.getSegmentsProcessed();
+
+        // use the smallest unit in which the number of bytes fits into four bytes
+        long count = copyOperation.getBytesTransferred();
+        int units = 0;
+        while (count > 0xffffffffL) {
+            count >>>= 10;
+            ++units;
+        }
+        transferCountUnits = units;
+        transferCount = count;
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // AVAILABLE DATA (n - 3)
+        ReadWrite.writeInt(SIZE - 4, byteBuffer, index);
+
+        // HDD (zero) and COPY MANAGER STATUS
+        byteBuffer.put(index + 4, (byte) copyManagerStatus);
+
+        // SEGMENTS PROCESSED
+        ReadWrite.writeTwoByteInt(byteBuffer, segmentsProcessed, index + 5);
+
+        // TRANSFER COUNT UNITS and TRANSFER COUNT
+        byteBuffer.put(index + 7, (byte) transferCountUnits);
+        ReadWrite.writeInt((int) transferCount, byteBuffer, index + 8);
+    }
+
+    public int size () {
+        return SIZE;
+    }
+}
@@ -0,0 +1,289 @@
+package org.jscsi.target.scsi.copy;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * The parameter list sent with an <code>EXTENDED COPY (LID1)</code> command. It consists of a sixteen-byte header, a
+ * list of copy source and copy destination (CSCD) descriptors, a list of segment descriptors, and inline data, which
+ * is ignored since no segment descriptor type referencing it is supported.
+ * <p>
+ * The CSCD descriptors identify the logical units taking part in the copy operation, the segment descriptors specify
+ * the ranges of logical blocks to be copied between them. Each segment descriptor references its source and its
+ * destination by their index in the list of CSCD descriptors.
+ * <p>
+ * This class only splits the parameter list into its descriptors, checking whether the descriptor types and their
+ * contents are supported is up to the caller. The offsets of all descriptors within the parameter list are kept, so
+ * that unsupported fields can be reported with field pointers.
+ */
+public final class ExtendedCopyParameterList {
+
+    /**
+     * The length in bytes of the parameter list header.
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    /**
+     * The length in bytes of each CSCD descriptor.
+     */
+    public static final int CSCD_DESCRIPTOR_LENGTH = 32;
+
+    /**
+     * The DESCRIPTOR TYPE CODE of an identification descriptor, the only supported type of CSCD descriptor.
+     */
+    public static final int IDENTIFICATION_DESCRIPTOR = 0xe4;
+
+    /**
+     * The DESCRIPTOR TYPE CODE of a block device to block device segment descriptor, the only supported type of
+     * segment descriptor.
+     */
+    public static final int BLOCK_TO_BLOCK_DESCRIPTOR = 0x02;
+
+    /**
+     * The length in bytes of a block device to block device segment descriptor.
+     */
+    public static final int BLOCK_TO_BLOCK_DESCRIPTOR_LENGTH = 28;
+
+    /**
+     * The value of the LIST ID USAGE field specifying that the LIST IDENTIFIER shall be ignored and no copy status is
+     * held for RECEIVE COPY RESULTS.
+     */
+    public static final int NO_LIST_IDENTIFIER = 3;
+
+    private final ByteBuffer buffer;
+
+    private final int listIdentifier;
+
+    private final int listIdUsage;
+
+    /**
+     * The offsets of the CSCD descriptors in the parameter list.
+     */
+    private final int[] cscdDescriptorIndices;
+
+    /**
+     * The offsets of the segment descriptors in the parameter list.
+     */
+    private final int[] segmentDescriptorIndices;
+
+    /**
+     * <code>true</code> if the lengths in the header or in a segment descriptor exceed the parameter list.
+     */
+    private final boolean truncated;
+
+    /**
+     * Deserializes a parameter list.
+     *
+     * @param buffer contains the serialized parameter list starting at index position zero, its limit is the
+     *            PARAMETER LIST LENGTH of the CDB, which must be at least {@link #HEADER_LENGTH}
+     */
+    public ExtendedCopyParameterList (final ByteBuffer buffer) {
+        this.buffer = buffer;
+        listIdentifier = buffer.get(0) & 255;
+        listIdUsage = (buffer.get(1) >>> 3) & 3;
+        final int cscdDescriptorListLength = ReadWrite.readTwoByteInt(buffer, 2);
+        final int segmentDescriptorListLength = ReadWrite.readFourByteInt(buffer, 8);
+        boolean truncated = cscdDescriptorListLength < 0 || segmentDescriptorListLength < 0 || (long) HEADER_LENGTH + cscdDescriptorListLength + segmentDescriptorListLength > buffer.limit();
+
+        // CSCD descriptors
+        final int cscdDescriptors = truncated ? 0 : cscdDescriptorListLength / CSCD_DESCRIPTOR_LENGTH;
+        cscdDescriptorIndices = new int[cscdDescriptors];
+        for (int i = 0; i < cscdDescriptors; ++i)
+            cscdDescriptorIndices[i] = HEADER_LENGTH + i * CSCD_DESCRIPTOR_LENGTH;
+
+        // segment descriptors, each starting with its type and length
+        final int segmentsIndex = HEADER_LENGTH + cscdDescriptorListLength;
+        final int segmentsEnd = truncated ? segmentsIndex : segmentsIndex + segmentDescriptorListLength;
+        int segmentDescriptors = 0;
+        for (int index = segmentsIndex; index + 4 <= segmentsEnd; index += 4 + ReadWrite.readTwoByteInt(buffer, index + 2))
+            ++segmentDescriptors;
+        segmentDescriptorIndices = new int[segmentDescriptors];
+        int index = segmentsIndex;
+        for (int i = 0; i < segmentDescriptors; ++i) {
+            segmentDescriptorIndices[i] = index;
+            index += 4 + ReadWrite.readTwoByteInt(buffer, index + 2);
+        }
+        if (index > segmentsEnd) truncated = true;
+        this.truncated = truncated;
+    }
+
+    public int getListIdentifier () {
+        return listIdentifier;
+    }
+
+    public int getListIdUsage () {
+        return listIdUsage;
+    }
+
+    /**
+     * Returns <code>true</code> if the descriptor list lengths in the header, or the length of the last segment
+     * descriptor, exceed the parameter list.
+     *
+     * @return <code>true</code> if the parameter list is truncated
+     */
+    public boolean isTruncated () {
+        return truncated;
+    }
+
+    public int getCscdDescriptorCount () {
+        return cscdDescriptorIndices.length;
+    }
+
+    /**
+     * Returns the offset of a CSCD descriptor in the parameter list.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the offset of the CSCD descriptor
+     */
+    public int getCscdDescriptorIndex (final int descriptor) {
+        return cscdDescriptorIndices[descriptor];
+    }
+
+    public int getCscdDescriptorType (final int descriptor) {
+        return buffer.get(cscdDescriptorIndices[descriptor]) & 255;
+    }
+
+    /**
+     * Returns the PERIPHERAL DEVICE TYPE of the logical unit identified by a CSCD descriptor, which is zero for block
+     * devices, or <code>-1</code> if the NUL bit is set.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the peripheral device type
+     */
+    public int getPeripheralDeviceType (final int descriptor) {
+        final int b = buffer.get(cscdDescriptorIndices[descriptor] + 1);
+        if ((b & 32) != 0) return -1;// NUL
+        return b & 31;
+    }
+
+    /**
+     * Returns the DESIGNATOR TYPE of an identification descriptor.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the designator type
+     */
+    public int getDesignatorType (final int descriptor) {
+        return buffer.get(cscdDescriptorIndices[descriptor] + 5) & 15;
+    }
+
+    /**
+     * Returns the offset of the DESIGNATOR field of an identification descriptor in the parameter list.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the offset of the designator
+     */
+    public int getDesignatorIndex (final int descriptor) {
+        return cscdDescriptorIndices[descriptor] + 8;
+    }
+
+    /**
+     * Returns the DESIGNATOR LENGTH of an identification descriptor.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the length of the designator
+     */
+    public int getDesignatorLength (final int descriptor) {
+        return Math.min(buffer.get(cscdDescriptorIndices[descriptor] + 7) & 255, 16);
+    }
+
+    /**
+     * Returns the DISK BLOCK LENGTH of a CSCD descriptor identifying a block device.
+     *
+     * @param descriptor the index of the CSCD descriptor
+     * @return the block length of the logical unit expected by the initiator
+     */
+    public int getDiskBlockLength (final int descriptor) {
+        return ReadWrite.readThreeByteInt(buffer, cscdDescriptorIndices[descriptor] + 29);
+    }
+
+    /**
+     * Returns the parameter list containing the descriptors.
+     *
+     * @return the parameter list
+     */
+    public ByteBuffer getBuffer () {
+        return buffer;
+    }
+
+    public int getSegmentDescriptorCount () {
+        return segmentDescriptorIndices.length;
+    }
+
+    /**
+     * Returns the offset of a segment descriptor in the parameter list.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the offset of the segment descriptor
+     */
+    public int getSegmentDescriptorIndex (final int descriptor) {
+        return segmentDescriptorIndices[descriptor];
+    }
+
+    public int getSegmentDescriptorType (final int descriptor) {
+        return buffer.get(segmentDescriptorIndices[descriptor]) & 255;
+    }
+
+    /**
+     * Returns the length of a segment descriptor, including its four-byte header.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the length of the segment descriptor
+     */
+    public int getSegmentDescriptorLength (final int descriptor) {
+        return 4 + ReadWrite.readTwoByteInt(buffer, segmentDescriptorIndices[descriptor] + 2);
+    }
+
+    /**
+     * Returns the index of the source's CSCD descriptor of a block device to block device segment descriptor.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the SOURCE CSCD DESCRIPTOR ID field
+     */
+    public int getSourceDescriptorId (final int descriptor) {
+        return ReadWrite.readTwoByteInt(buffer, segmentDescriptorIndices[descriptor] + 4);
+    }
+
+    /**
+     * Returns the index of the destination's CSCD descriptor of a block device to block device segment descriptor.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the DESTINATION CSCD DESCRIPTOR ID field
+     */
+    public int getDestinationDescriptorId (final int descriptor) {
+        return ReadWrite.readTwoByteInt(buffer, segmentDescriptorIndices[descriptor] + 6);
+    }
+
+    /**
+     * Returns the number of logical blocks to be copied by a block device to block device segment descriptor.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the BLOCK DEVICE NUMBER OF BLOCKS field
+     */
+    public int getNumberOfBlocks (final int descriptor) {
+        return ReadWrite.readTwoByteInt(buffer, segmentDescriptorIndices[descriptor] + 10);
+    }
+
+    /**
+     * Returns the address of the first logical block to be read by a block device to block device segment descriptor.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the SOURCE BLOCK DEVICE LOGICAL BLOCK ADDRESS field
+     */
+    public long getSourceLogicalBlockAddress (final int descriptor) {
+        return buffer.getLong(segmentDescriptorIndices[descriptor] + 12);
+    }
+
+    /**
+     * Returns the address of the first logical block to be written by a block device to block device segment
+     * descriptor.
+     *
+     * @param descriptor the index of the segment descriptor
+     * @return the DESTINATION BLOCK DEVICE LOGICAL BLOCK ADDRESS field
+     */
+    public long getDestinationLogicalBlockAddress (final int descriptor) {
+        return buffer.getLong(segmentDescriptorIndices[descriptor] + 20);
+    }
+}
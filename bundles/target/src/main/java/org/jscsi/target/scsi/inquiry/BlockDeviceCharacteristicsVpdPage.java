@@ -0,0 +1,66 @@
+package org.jscsi.target.scsi.inquiry;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.storage.IStorageModule;
+
+
+/**
+ * The Block Device Characteristics VPD page tells the initiator whether the medium of the logical unit is rotating,
+ * which initiators use to choose their I/O scheduling, e.g. to turn off the merging and reordering of requests for
+ * non-rotating media. The MEDIUM ROTATION RATE is taken from the {@link IStorageModule}.
+ */
+public final class BlockDeviceCharacteristicsVpdPage implements IResponseData {
+
+    /**
+     * The value of the PAGE CODE field.
+     */
+    public static final byte PAGE_CODE = (byte) 0xb1;
+
+    /**
+     * The length in bytes of the serialized page.
+     */
+    private static final int SIZE = 64;
+
+    /**
+     * The value of the MEDIUM ROTATION RATE field.
+     */
+    private final int mediumRotationRate;
+
+    /**
+     * Creates a new {@link BlockDeviceCharacteristicsVpdPage}.
+     *
+     * @param storageModule the storage of the logical unit
+     */
+    public BlockDeviceCharacteristicsVpdPage (final IStorageModule storageModule) {
+        mediumRotationRate = storageModule.getMediumRotationRate();
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // *** byte 0 ***
+        // PERIPHERAL QUALIFIER and PERIPHERAL DEVICE TYPE: direct access block device
+        byteBuffer.put(index, (byte) 0);
+
+        // *** byte 1 ***
+        // PAGE CODE
+        byteBuffer.put(index + 1, PAGE_CODE);
+
+        // *** bytes 2 and 3 ***
+        // PAGE LENGTH
+        byteBuffer.putShort(index + 2, (short) (SIZE - 4));
+
+        // *** bytes 4 and 5 ***
+        // MEDIUM ROTATION RATE
+        byteBuffer.putShort(index + 4, (short) mediumRotationRate);
+
+        // *** bytes 6 to 63 ***
+        // PRODUCT TYPE, WABEREQ, WACEREQ, NOMINAL FORM FACTOR, FUAB and VBULS are not reported, RESERVED
+    }
+
+    public int size () {
+        return SIZE;
+    }
+}
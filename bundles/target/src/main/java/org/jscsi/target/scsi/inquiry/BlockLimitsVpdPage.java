@@ -0,0 +1,135 @@
+package org.jscsi.target.scsi.inquiry;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.storage.IStorageModule;
+
+
+/**
+ * The Block Limits VPD page tells the initiator the limits and the preferred sizes of transfers to and from the logical
+ * unit, so that it can size and align its requests without tuning on the host.
+ * <p>
+ * The OPTIMAL TRANSFER LENGTH GRANULARITY is taken from the {@link IStorageModule}, the OPTIMAL TRANSFER LENGTH either
+ * from the storage module or, if it does not report one, from the negotiated MaxBurstLength, so that an optimal
+ * transfer is completed with a single burst. If the storage module
+ * {@link IStorageModule#supportsUnmap() supports unmap}, the limits of the <code>UNMAP</code> command are reported.
+ */
+public final class BlockLimitsVpdPage implements IResponseData {
+
+    /**
+     * The value of the PAGE CODE field.
+     */
+    public static final byte PAGE_CODE = (byte) 0xb0;
+
+    /**
+     * The length in bytes of the serialized page.
+     */
+    private static final int SIZE = 64;
+
+    /**
+     * The maximum number of bytes that can be transferred by a single command. Transfer lengths in bytes are handled
+     * as <code>int</code>s, the largest power of two below their limit is used.
+     */
+    private static final long MAXIMUM_TRANSFER_LENGTH_IN_BYTES = 1 << 30;
+
+    /**
+     * The maximum number of block descriptors in the parameter list of an <code>UNMAP</code> command, which is limited
+     * by its two-byte PARAMETER LIST LENGTH field.
+     */
+    private static final int MAXIMUM_UNMAP_BLOCK_DESCRIPTOR_COUNT = (0xffff - 8) / 16;
+
+    /**
+     * The value of four-byte fields indicating that there is no limit.
+     */
+    private static final int UNLIMITED = 0xffffffff;
+
+    private final int optimalTransferLengthGranularity;
+
+    private final int maximumTransferLength;
+
+    private final int optimalTransferLength;
+
+    private final boolean unmapSupported;
+
+    /**
+     * Creates a new {@link BlockLimitsVpdPage}.
+     *
+     * @param storageModule the storage of the logical unit
+     * @param maxBurstLength the negotiated MaxBurstLength in bytes
+     */
+    public BlockLimitsVpdPage (final IStorageModule storageModule, final int maxBurstLength) {
+        final int blockSize = storageModule.getBlockSize();
+        optimalTransferLengthGranularity = Math.max(1, storageModule.getTransferGranularity() / blockSize);
+        maximumTransferLength = (int) (MAXIMUM_TRANSFER_LENGTH_IN_BYTES / blockSize);
+        int optimal = storageModule.getOptimalTransferLength() > 0 ? storageModule.getOptimalTransferLength() / blockSize : maxBurstLength / blockSize;
+        // a multiple of the granularity
+        optimal -= optimal % optimalTransferLengthGranularity;
+        optimalTransferLength = Math.min(maximumTransferLength, Math.max(optimal, optimalTransferLengthGranularity));
+        unmapSupported = storageModule.supportsUnmap();
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // *** byte 0 ***
+        // PERIPHERAL QUALIFIER and PERIPHERAL DEVICE TYPE: direct access block device
+        byteBuffer.put(index, (byte) 0);
+
+        // *** byte 1 ***
+        // PAGE CODE
+        byteBuffer.put(index + 1, PAGE_CODE);
+
+        // *** bytes 2 and 3 ***
+        // PAGE LENGTH
+        byteBuffer.putShort(index + 2, (short) (SIZE - 4));
+
+        // *** byte 4 ***
+        // WSNZ, a NUMBER OF LOGICAL BLOCKS of zero in WRITE SAME is supported
+        byteBuffer.put(index + 4, (byte) 0);
+
+        // *** byte 5 ***
+        // MAXIMUM COMPARE AND WRITE LENGTH
+        byteBuffer.put(index + 5, (byte) 0xff);
+
+        // *** bytes 6 and 7 ***
+        // OPTIMAL TRANSFER LENGTH GRANULARITY
+        byteBuffer.putShort(index + 6, (short) Math.min(optimalTransferLengthGranularity, 0xffff));
+
+        // *** bytes 8 to 11 ***
+        // MAXIMUM TRANSFER LENGTH
+        byteBuffer.putInt(index + 8, maximumTransferLength);
+
+        // *** bytes 12 to 15 ***
+        // OPTIMAL TRANSFER LENGTH
+        byteBuffer.putInt(index + 12, optimalTransferLength);
+
+        // *** bytes 16 to 19 ***
+        // MAXIMUM PREFETCH LENGTH, no limit
+        byteBuffer.putInt(index + 16, 0);
+
+        if (unmapSupported) {
+            // *** bytes 20 to 23 ***
+            // MAXIMUM UNMAP LBA COUNT
+            byteBuffer.putInt(index + 20, UNLIMITED);
+
+            // *** bytes 24 to 27 ***
+            // MAXIMUM UNMAP BLOCK DESCRIPTOR COUNT
+            byteBuffer.putInt(index + 24, MAXIMUM_UNMAP_BLOCK_DESCRIPTOR_COUNT);
+        }
+
+        // *** bytes 28 to 35 ***
+        // OPTIMAL UNMAP GRANULARITY, UGAVALID and UNMAP GRANULARITY ALIGNMENT are not reported
+
+        // *** bytes 36 to 43 ***
+        // MAXIMUM WRITE SAME LENGTH, no limit
+        byteBuffer.putLong(index + 36, 0);
+
+        // *** bytes 44 to 63 ***
+        // RESERVED
+    }
+
+    public int size () {
+        return SIZE;
+    }
+}
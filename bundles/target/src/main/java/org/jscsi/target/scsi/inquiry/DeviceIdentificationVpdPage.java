@@ -3,6 +3,7 @@ package org.jscsi.target.scsi.inquiry;
 
 import java.nio.ByteBuffer;
 
+import org.jscsi.target.Target;
 import org.jscsi.target.TargetServer;
 import org.jscsi.target.scsi.IResponseData;
 import org.jscsi.target.util.ReadWrite;
@@ -88,6 +89,21 @@ public class DeviceIdentificationVpdPage implements IResponseData {
 
     }
 
+    /**
+     * Creates the Device Identification VPD page of the logical unit of a single target.
+     * <p>
+     * Besides the target's name, it contains the logical unit's {@link NaaIdentifier}, by which copy managers identify
+     * the logical unit.
+     * 
+     * @param target the target whose logical unit is identified
+     */
+    public DeviceIdentificationVpdPage (final Target target) {
+        identificationDescriptors = new IdentificationDescriptor[] {
+                // the PROTOCOL IDENTIFIER is reserved since PIV is zero
+                new IdentificationDescriptor(ProtocolIdentifier.FIBRE_CHANNEL, CodeSet.BINARY_VALUES, false, Association.LOGICAL_UNIT, IdentifierType.NAA, target.getLogicalUnitIdentifier()),
+                new IdentificationDescriptor(ProtocolIdentifier.INTERNET_SCSI, CodeSet.UTF8_CODES, true, Association.SCSI_TARGET_DEVICE, IdentifierType.SCSI_NAME_STRING, new ScsiNameStringIdentifier(target.getTargetName())) };
+    }
+
     /**
      * Returns the combined length of all contained IDENTIFICATION DESCRIPTORs.
      * 
@@ -109,6 +125,13 @@ public class DeviceIdentificationVpdPage implements IResponseData {
 
         ReadWrite.writeTwoByteInt(byteBuffer,// buffer
                 getPageLength(), index + PAGE_LENGTH_FIELD_INDEX);// index
+
+        // serialize identification descriptors
+        int descriptorIndex = index + HEADER_LENGTH;
+        for (int i = 0; i < identificationDescriptors.length; ++i) {
+            identificationDescriptors[i].serialize(byteBuffer, descriptorIndex);
+            descriptorIndex += identificationDescriptors[i].size();
+        }
     }
 
     public int size () {
@@ -0,0 +1,85 @@
+package org.jscsi.target.scsi.inquiry;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.storage.IStorageModule;
+
+
+/**
+ * The Logical Block Provisioning VPD page tells the initiator which logical block provisioning commands the logical
+ * unit supports.
+ * <p>
+ * If the {@link IStorageModule} can deallocate stored data (see {@link IStorageModule#supportsUnmap()}), the page
+ * reports a thin provisioned logical unit which supports the <code>UNMAP</code> command and the UNMAP bit of both
+ * <code>WRITE SAME</code> commands, and whose deallocated logical blocks read as zeros. Otherwise the logical unit is
+ * reported as fully provisioned.
+ */
+public final class LogicalBlockProvisioningVpdPage implements IResponseData {
+
+    /**
+     * The value of the PAGE CODE field.
+     */
+    public static final byte PAGE_CODE = (byte) 0xb2;
+
+    /**
+     * The length in bytes of the serialized page.
+     */
+    private static final int SIZE = 8;
+
+    /**
+     * The value of the PROVISIONING TYPE field of a thin provisioned logical unit.
+     */
+    private static final int THIN_PROVISIONED = 2;
+
+    /**
+     * Determines if logical block provisioning commands are reported as supported.
+     */
+    private final boolean unmapSupported;
+
+    /**
+     * Creates a new {@link LogicalBlockProvisioningVpdPage}.
+     *
+     * @param storageModule the storage of the logical unit
+     */
+    public LogicalBlockProvisioningVpdPage (final IStorageModule storageModule) {
+        unmapSupported = storageModule.supportsUnmap();
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // *** byte 0 ***
+        // PERIPHERAL QUALIFIER and PERIPHERAL DEVICE TYPE: direct access block device
+        byteBuffer.position(index);
+        byteBuffer.put((byte) 0);
+
+        // *** byte 1 ***
+        // PAGE CODE
+        byteBuffer.put(PAGE_CODE);
+
+        // *** bytes 2 and 3 ***
+        // PAGE LENGTH
+        byteBuffer.putShort((short) (SIZE - 4));
+
+        // *** byte 4 ***
+        // THRESHOLD EXPONENT, thresholds are not supported
+        byteBuffer.put((byte) 0);
+
+        // *** byte 5 ***
+        // LBPU (bit 7), LBPWS (bit 6), LBPWS10 (bit 5), LBPRZ (bit 2), ANC_SUP (bit 1), DP (bit 0)
+        byteBuffer.put(unmapSupported ? (byte) 0xe4 : 0);
+
+        // *** byte 6 ***
+        // PROVISIONING TYPE
+        byteBuffer.put(unmapSupported ? (byte) THIN_PROVISIONED : 0);
+
+        // *** byte 7 ***
+        // RESERVED
+        byteBuffer.put((byte) 0);
+    }
+
+    public int size () {
+        return SIZE;
+    }
+}
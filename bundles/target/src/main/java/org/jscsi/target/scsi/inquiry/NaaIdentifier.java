@@ -0,0 +1,57 @@
+package org.jscsi.target.scsi.inquiry;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+
+/**
+ * An eight-byte, locally assigned NAA IDENTIFIER (NAA field <code>3h</code>). The remaining 60 bits are derived from
+ * the name of the target, so each logical unit of the jSCSI Target keeps its identifier across restarts.
+ * <p>
+ * Unlike a {@link ScsiNameStringIdentifier}, this identifier fits into the identification descriptors used by copy
+ * managers to address logical units (see <code>EXTENDED COPY</code>).
+ */
+public final class NaaIdentifier extends Identifier {
+
+    /**
+     * The length of the serialized identifier in bytes.
+     */
+    public static final int SIZE = 8;
+
+    /**
+     * The value of the NAA field, which indicates a locally assigned identifier.
+     */
+    private static final long LOCALLY_ASSIGNED = 3;
+
+    /**
+     * The identifier, including the NAA field in the four most significant bits.
+     */
+    private final long value;
+
+    public NaaIdentifier (final String targetName) {
+        final long hash = UUID.nameUUIDFromBytes(targetName.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+        value = LOCALLY_ASSIGNED << 60 | hash >>> 4;
+    }
+
+    /**
+     * Returns <code>true</code> if the passed bytes are the serialized form of this identifier.
+     * 
+     * @param buffer contains the identifier to be compared
+     * @param index the position of the identifier in <i>buffer</i>
+     * @param length the length of the identifier
+     * @return <code>true</code> if the identifiers are equal
+     */
+    public boolean matches (final ByteBuffer buffer, final int index, final int length) {
+        return length == SIZE && buffer.getLong(index) == value;
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+        byteBuffer.putLong(index, value);
+    }
+
+    public int size () {
+        return SIZE;
+    }
+}
@@ -107,11 +107,11 @@ public final class StandardInquiryData implements IResponseData {
          * of the target port group support (TPGS) indicate the support for asymmetric logical unit access. The SCSI
          * target device does not support asymmetric logical unit access or supports a form of asymmetric access that is
          * vendor specific. Neither the REPORT TARGET GROUPS nor the SET TARGET GROUPS commands is supported. 3PC (bit
-         * 3): 0 A Third-Party Copy (3PC) bit set to zero indicates that the SCSI target device does not support
-         * third-party copy commands such as the EXTENDED COPY command. (bits 2 and 1 are RESERVED) PROTECT (bit 0): 0 A
-         * PROTECT bit set to zero indicates that the logical unit does not support protection information.
+         * 3): 1 A Third-Party Copy (3PC) bit set to one indicates that the SCSI target device supports third-party copy
+         * commands such as the EXTENDED COPY command. (bits 2 and 1 are RESERVED) PROTECT (bit 0): 0 A PROTECT bit set
+         * to zero indicates that the logical unit does not support protection information.
          */
-        byteBuffer.put((byte) 0);
+        byteBuffer.put((byte) 8);// 0000 1000b
 
         // *** byte 6 ***
         /*
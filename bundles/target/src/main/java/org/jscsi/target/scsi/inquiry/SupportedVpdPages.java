@@ -32,6 +32,9 @@ public final class SupportedVpdPages implements IResponseData {
     public static final byte[] SUPPORTED_VPD_PAGES = new byte[] { (byte) 0x00,// SUPPORTED_VPD_PAGES,
             // mandatory
     (byte) 0x83,// DECIVE_IDENTIFICATION, mandatory
+    (byte) 0xb0,// BLOCK_LIMITS
+    (byte) 0xb1,// BLOCK_DEVICE_CHARACTERISTICS
+    (byte) 0xb2,// LOGICAL_BLOCK_PROVISIONING
     };
 
     /**
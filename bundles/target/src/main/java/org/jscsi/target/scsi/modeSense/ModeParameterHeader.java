@@ -56,9 +56,10 @@ public abstract class ModeParameterHeader implements ISerializable {
      * DPOFUA bit set to zero indicates that the device server does not support the DPO and FUA bits. When used with the
      * MODE SENSE command, a DPOFUA bit set to one indicates that the device server supports the DPO and FUA bits.
      * <p>
-     * So, the simulated logical unit of the jSCSI Target must always use a value of 0x00.
+     * So, the simulated logical unit of the jSCSI Target, which is not write-protected and honors the FUA bit (DPO is
+     * a mere hint), must always use a value of 0x10.
      */
-    protected final byte deviceSpecificParameter = (byte) 0x00;
+    protected final byte deviceSpecificParameter = (byte) 0x10;
 
     /**
      * The BLOCK DESCRIPTOR LENGTH field contains the length in bytes of all the block descriptors. It is equal to the
@@ -0,0 +1,116 @@
+package org.jscsi.target.scsi.provisioning;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * <code>GET LBA STATUS</code> parameter data is sent in response to a successful <code>GET LBA STATUS</code> SCSI
+ * command. It consists of an eight-byte header and a list of sixteen-byte LBA status descriptors, each specifying an
+ * extent of logical blocks which are either all mapped or all deallocated.
+ * <p>
+ * The extents are retrieved from the {@link IStorageModule} with {@link IStorageModule#isMapped(long)} and
+ * {@link IStorageModule#getExtentLength(long, long)}. The first descriptor starts at the requested logical block
+ * address, the following ones are consecutive until either the end of the medium is reached or the initiator's
+ * allocation length is exhausted.
+ */
+public final class LbaStatusParameterData implements IResponseData {
+
+    /**
+     * The length in bytes of the parameter data header.
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * The length in bytes of an LBA status descriptor.
+     */
+    private static final int DESCRIPTOR_LENGTH = 16;
+
+    /**
+     * The value of the PROVISIONING STATUS field for mapped logical blocks.
+     */
+    public static final int MAPPED = 0;
+
+    /**
+     * The value of the PROVISIONING STATUS field for deallocated logical blocks.
+     */
+    public static final int DEALLOCATED = 1;
+
+    /**
+     * The largest number of logical blocks a single descriptor can specify.
+     */
+    private static final long MAX_EXTENT_LENGTH = 0xffffffffL;
+
+    /**
+     * The LBA STATUS LOGICAL BLOCK ADDRESS fields of the descriptors.
+     */
+    private final long[] logicalBlockAddresses;
+
+    /**
+     * The NUMBER OF LOGICAL BLOCKS fields of the descriptors.
+     */
+    private final long[] numbersOfLogicalBlocks;
+
+    /**
+     * The PROVISIONING STATUS fields of the descriptors.
+     */
+    private final int[] provisioningStates;
+
+    /**
+     * Creates new {@link LbaStatusParameterData}.
+     *
+     * @param storageModule the storage to be described
+     * @param startingLogicalBlockAddress the address of the first logical block to be described
+     * @param allocationLength the number of bytes allocated by the initiator, which limits the number of descriptors
+     */
+    public LbaStatusParameterData (final IStorageModule storageModule, final long startingLogicalBlockAddress, final int allocationLength) {
+        final long sizeInBlocks = storageModule.getSizeInBlocks();
+        final int blockSize = storageModule.getBlockSize();
+        final int maxDescriptors = Math.max(1, (allocationLength - HEADER_LENGTH) / DESCRIPTOR_LENGTH);
+
+        final long[] addresses = new long[maxDescriptors];
+        final long[] lengths = new long[maxDescriptors];
+        final int[] states = new int[maxDescriptors];
+        int descriptors = 0;
+        long logicalBlockAddress = startingLogicalBlockAddress;
+        while (descriptors < maxDescriptors && logicalBlockAddress < sizeInBlocks) {
+            final long storageIndex = logicalBlockAddress * blockSize;
+            final long maxLength = Math.min(sizeInBlocks - logicalBlockAddress, MAX_EXTENT_LENGTH) * blockSize;
+            final long extentLength = Math.max(1, storageModule.getExtentLength(storageIndex, maxLength) / blockSize);
+            addresses[descriptors] = logicalBlockAddress;
+            lengths[descriptors] = extentLength;
+            states[descriptors] = storageModule.isMapped(storageIndex) ? MAPPED : DEALLOCATED;
+            ++descriptors;
+            logicalBlockAddress += extentLength;
+        }
+
+        logicalBlockAddresses = new long[descriptors];
+        numbersOfLogicalBlocks = new long[descriptors];
+        provisioningStates = new int[descriptors];
+        System.arraycopy(addresses, 0, logicalBlockAddresses, 0, descriptors);
+        System.arraycopy(lengths, 0, numbersOfLogicalBlocks, 0, descriptors);
+        System.arraycopy(states, 0, provisioningStates, 0, descriptors);
+    }
+
+    public void serialize (ByteBuffer byteBuffer, int index) {
+
+        // PARAMETER DATA LENGTH (n - 3)
+        ReadWrite.writeInt(size() - 4, byteBuffer, index);
+
+        // LBA status descriptors
+        for (int i = 0; i < logicalBlockAddresses.length; ++i) {
+            final int descriptorIndex = index + HEADER_LENGTH + i * DESCRIPTOR_LENGTH;
+            ReadWrite.writeLong(byteBuffer, logicalBlockAddresses[i], descriptorIndex);
+            ReadWrite.writeInt((int) numbersOfLogicalBlocks[i], byteBuffer, descriptorIndex + 8);
+            byteBuffer.put(descriptorIndex + 12, (byte) provisioningStates[i]);
+        }
+    }
+
+    public int size () {
+        return HEADER_LENGTH + logicalBlockAddresses.length * DESCRIPTOR_LENGTH;
+    }
+}
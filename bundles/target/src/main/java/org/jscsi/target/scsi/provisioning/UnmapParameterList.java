@@ -0,0 +1,85 @@
+package org.jscsi.target.scsi.provisioning;
+
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+
+/**
+ * The parameter list sent with an <code>UNMAP</code> command. It consists of an eight-byte header and a list of
+ * sixteen-byte UNMAP block descriptors, each specifying a range of logical blocks to be deallocated.
+ * <p>
+ * If the UNMAP BLOCK DESCRIPTOR DATA LENGTH is not a multiple of sixteen, the last, incomplete block descriptor is
+ * ignored. So are block descriptors specifying zero logical blocks.
+ */
+public final class UnmapParameterList {
+
+    /**
+     * The length in bytes of the parameter list header.
+     */
+    public static final int HEADER_LENGTH = 8;
+
+    /**
+     * The length in bytes of an UNMAP block descriptor.
+     */
+    public static final int BLOCK_DESCRIPTOR_LENGTH = 16;
+
+    /**
+     * The UNMAP LOGICAL BLOCK ADDRESS fields of the block descriptors.
+     */
+    private final long[] logicalBlockAddresses;
+
+    /**
+     * The NUMBER OF LOGICAL BLOCKS fields of the block descriptors.
+     */
+    private final long[] numbersOfLogicalBlocks;
+
+    /**
+     * Deserializes a parameter list.
+     *
+     * @param buffer contains the serialized parameter list starting at index position zero, its limit is the
+     *            PARAMETER LIST LENGTH of the CDB
+     */
+    public UnmapParameterList (final ByteBuffer buffer) {
+        int blockDescriptorDataLength = 0;
+        if (buffer.limit() >= HEADER_LENGTH) blockDescriptorDataLength = Math.min(ReadWrite.readTwoByteInt(buffer, 2), buffer.limit() - HEADER_LENGTH);
+        final int descriptors = blockDescriptorDataLength / BLOCK_DESCRIPTOR_LENGTH;
+        logicalBlockAddresses = new long[descriptors];
+        numbersOfLogicalBlocks = new long[descriptors];
+        for (int i = 0; i < descriptors; ++i) {
+            final int index = HEADER_LENGTH + i * BLOCK_DESCRIPTOR_LENGTH;
+            logicalBlockAddresses[i] = buffer.getLong(index);
+            numbersOfLogicalBlocks[i] = ReadWrite.readUnsignedInt(buffer, index + 8);
+        }
+    }
+
+    /**
+     * Returns the number of block descriptors.
+     *
+     * @return the number of block descriptors
+     */
+    public int getBlockDescriptorCount () {
+        return logicalBlockAddresses.length;
+    }
+
+    /**
+     * Returns the address of the first logical block to be deallocated by the specified block descriptor.
+     *
+     * @param descriptor the index of the block descriptor
+     * @return the UNMAP LOGICAL BLOCK ADDRESS field
+     */
+    public long getLogicalBlockAddress (final int descriptor) {
+        return logicalBlockAddresses[descriptor];
+    }
+
+    /**
+     * Returns the number of logical blocks to be deallocated by the specified block descriptor.
+     *
+     * @param descriptor the index of the block descriptor
+     * @return the NUMBER OF LOGICAL BLOCKS field
+     */
+    public long getNumberOfLogicalBlocks (final int descriptor) {
+        return numbersOfLogicalBlocks[descriptor];
+    }
+}
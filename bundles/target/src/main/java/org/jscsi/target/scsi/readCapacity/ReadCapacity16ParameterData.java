@@ -13,7 +13,7 @@ import org.jscsi.target.util.ReadWrite;
  * Only the fields common to all {@link ReadCapacityParameterData} can be set in the constructor. All other fields and
  * flags are <code>zero</code>. This means that the initiator is told that the device does not support protection
  * information (protection type 0), maps each logical block directly to one physical block, beginning with the first
- * one.
+ * one. Only if logical block provisioning is enabled, the LBPME and LBPRZ bits are set.
  * 
  * @author Andreas Ergenzinger
  */
@@ -24,8 +24,19 @@ public final class ReadCapacity16ParameterData extends ReadCapacityParameterData
      */
     private static final int SIZE = 32;
 
+    /**
+     * If <code>true</code>, the LBPME and LBPRZ bits are set, i.e. the logical unit is thin provisioned and deallocated
+     * logical blocks read as zeros.
+     */
+    private final boolean logicalBlockProvisioning;
+
     public ReadCapacity16ParameterData (final long returnedLogicalBlockAddress, int logicalBlockLengthInBytes) {
+        this(returnedLogicalBlockAddress, logicalBlockLengthInBytes, false);
+    }
+
+    public ReadCapacity16ParameterData (final long returnedLogicalBlockAddress, int logicalBlockLengthInBytes, final boolean logicalBlockProvisioning) {
         super(returnedLogicalBlockAddress, logicalBlockLengthInBytes);
+        this.logicalBlockProvisioning = logicalBlockProvisioning;
     }
 
     public void serialize (ByteBuffer byteBuffer, int index) {
@@ -34,6 +45,9 @@ public final class ReadCapacity16ParameterData extends ReadCapacityParameterData
 
         // logical block length in bytes
         ReadWrite.writeInt(logicalBlockLengthInBytes, byteBuffer, index + 8);
+
+        // LBPME (bit 7) and LBPRZ (bit 6)
+        if (logicalBlockProvisioning) byteBuffer.put(index + 14, (byte) 0xc0);
     }
 
     public int size () {
@@ -200,7 +200,7 @@ public class FixedFormatSenseData extends SenseData {
         ReadWrite.writeTwoByteInt(byteBuffer, additionalSenseCodeAndQualifier.getValue(), index + ADDITIONAL_SENSE_CODE_INDEX);
 
         // field replaceable unit code
-        byteBuffer.put(FIELD_REPLACEABLE_UNIT_CODE_INDEX, fieldReplaceableUnitCode);
+        byteBuffer.put(index + FIELD_REPLACEABLE_UNIT_CODE_INDEX, fieldReplaceableUnitCode);
 
         // sense key specific data
         if (senseKeySpecificData != null) senseKeySpecificData.serialize(byteBuffer, index + SENSE_KEY_SPECIFIC_DATA_INDEX);
@@ -13,8 +13,30 @@ public class FourByteInformation extends Information {
 
     private static final int SIZE = 4;
 
+    /**
+     * The value of the INFORMATION field, e.g. the offset of the first miscompared byte after a
+     * <code>COMPARE AND WRITE</code> command.
+     */
+    private final int value;
+
+    /**
+     * Creates an INFORMATION field of zero.
+     */
+    public FourByteInformation () {
+        this(0);
+    }
+
+    /**
+     * Creates an INFORMATION field with the specified value.
+     * 
+     * @param value the value of the field
+     */
+    public FourByteInformation (final int value) {
+        this.value = value;
+    }
+
     public void serialize (ByteBuffer byteBuffer, int index) {
-        // do nothing
+        byteBuffer.putInt(index, value);
     }
 
     public int size () {
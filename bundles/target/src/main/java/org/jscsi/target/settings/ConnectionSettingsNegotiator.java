@@ -56,6 +56,11 @@ public final class ConnectionSettingsNegotiator extends SettingsNegotiator {
      */
     private Settings settings;
 
+    /**
+     * The parameters read by the stages, resolved from {@link #settings}.
+     */
+    private volatile StageSettings stageSettings;
+
     /**
      * The {@link ConnectionSettingsNegotiator} constructor.
      * 
@@ -239,6 +244,22 @@ public final class ConnectionSettingsNegotiator extends SettingsNegotiator {
      */
     private synchronized void updateSettings () {
         settings = new Settings(connectionSettingBuilderComponent, sessionSettingsNegotiator.getSessionSettingsBuilderComponent());
+        try {
+            stageSettings = new StageSettings(settings);
+        } catch (SettingsException e) {
+            // all parameters read by stages have default values
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the parameters read by the stages, as resolved when the last negotiation sequence of this connection
+     * finished. Since <code>MaxConnections=1</code>, session-wide parameters can only be changed by this connection.
+     * 
+     * @return the current {@link StageSettings}
+     */
+    public StageSettings getStageSettings () {
+        return stageSettings;
     }
 
     @Override
@@ -98,7 +98,7 @@ public final class SessionSettingsNegotiator extends SettingsNegotiator {
         entries.add(new BooleanEntry(new KeySet(TextKeyword.DATA_PDU_IN_ORDER),// keySet
         Use.LEADING_LOPNS,// use
         NegotiationStatus.DEFAULT,// negotiationStatus
-        true,// negotiationValue
+        false,// negotiationValue, allows sending Data-In PDUs out of order
         BooleanResultFunction.OR,// resultFunction
         true));// defaultValue
 
@@ -109,7 +109,7 @@ public final class SessionSettingsNegotiator extends SettingsNegotiator {
         entries.add(new BooleanEntry(new KeySet(TextKeyword.DATA_SEQUENCE_IN_ORDER),// keySet
         Use.LEADING_LOPNS,// use
         NegotiationStatus.DEFAULT,// negotiationStatus
-        true,// negotiationValue
+        false,// negotiationValue, allows sending Data-In PDUs out of order
         BooleanResultFunction.OR,// resultFunction
         true));// defaultValue
 
@@ -240,13 +240,14 @@ public final class SessionSettingsNegotiator extends SettingsNegotiator {
         false));// zeroMeansDontCare
 
         /*
-         * The maximum number of outstanding R2Ts.
+         * The maximum number of outstanding R2Ts per task. The target accepts interleaved Data-Out sequences, so
+         * several R2Ts can be kept in flight to hide the round trip time between bursts.
          */
         entries.add(new NumericalEntry(new KeySet(TextKeyword.MAX_OUTSTANDING_R_2_T),// keySet
         NegotiationType.NEGOTIATED,// negotiationType
         Use.LEADING_LOPNS,// use
         NegotiationStatus.DEFAULT,// negotiationStatus
-        1,// negotiationValue (default value)
+        16,// negotiationValue
         NumericalValueRange.create(1, 65535),// protocolValueRange
         NumericalResultFunction.MIN,// resultFunction
         1,// defaultValue
@@ -0,0 +1,193 @@
+package org.jscsi.target.settings;
+
+
+import org.jscsi.parser.digest.DigestType;
+
+
+/**
+ * The parameters read by the stages of a connection while processing PDUs, resolved from a {@link Settings} object
+ * into primitive fields whenever a negotiation has finished.
+ * <p>
+ * Unlike the getters of {@link Settings}, which unbox their values and check them for <code>null</code>, the getters
+ * of this class neither throw a {@link SettingsException} nor do anything but return a field, and the digest types no
+ * longer have to be looked up by name for each received PDU. Like {@link Settings}, instances are immutable, so that
+ * a stage sees the same parameters from the first to the last PDU of a command.
+ *
+ * @see ConnectionSettingsNegotiator#getStageSettings()
+ */
+public final class StageSettings {
+
+    private final DigestType headerDigest;
+
+    private final DigestType dataDigest;
+
+    private final int maxRecvDataSegmentLength;
+
+    private final boolean dataPduInOrder;
+
+    private final boolean dataSequenceInOrder;
+
+    private final int defaultTime2Retain;
+
+    private final int defaultTime2Wait;
+
+    private final int errorRecoveryLevel;
+
+    private final int firstBurstLength;
+
+    private final boolean immediateData;
+
+    private final boolean initialR2T;
+
+    private final int maxBurstLength;
+
+    private final int maxOutstandingR2T;
+
+    /**
+     * Resolves the parameters of a {@link Settings} object.
+     *
+     * @param settings the current parameters
+     * @throws SettingsException if a parameter has neither been negotiated nor has a default value
+     */
+    StageSettings (final Settings settings) throws SettingsException {
+        headerDigest = DigestType.valueOfName(settings.getHeaderDigest());
+        dataDigest = DigestType.valueOfName(settings.getDataDigest());
+        maxRecvDataSegmentLength = settings.getMaxRecvDataSegmentLength();
+        dataPduInOrder = settings.getDataPduInOrder();
+        dataSequenceInOrder = settings.getDataSequenceInOrder();
+        defaultTime2Retain = settings.getDefaultTime2Retain();
+        defaultTime2Wait = settings.getDefaultTime2Wait();
+        errorRecoveryLevel = settings.getErrorRecoveryLevel();
+        firstBurstLength = settings.getFirstBurstLength();
+        immediateData = settings.getImmediateData();
+        initialR2T = settings.getInitialR2T();
+        maxBurstLength = settings.getMaxBurstLength();
+        maxOutstandingR2T = settings.getMaxOutstandingR2T();
+    }
+
+    /**
+     * Returns the type of the <code>HeaderDigest</code>.
+     *
+     * @return the type of the <code>HeaderDigest</code>
+     */
+    public DigestType getHeaderDigest () {
+        return headerDigest;
+    }
+
+    /**
+     * Returns the type of the <code>DataDigest</code>.
+     *
+     * @return the type of the <code>DataDigest</code>
+     */
+    public DigestType getDataDigest () {
+        return dataDigest;
+    }
+
+    /**
+     * Returns <code>true</code> if neither header nor data digests are used.
+     *
+     * @return <code>true</code> if PDUs are sent without digests
+     */
+    public boolean hasNoDigests () {
+        return headerDigest == DigestType.NONE && dataDigest == DigestType.NONE;
+    }
+
+    /**
+     * Returns the value of the <code>MaxRecvDataSegmentLength</code> parameter.
+     *
+     * @return the value of the <code>MaxRecvDataSegmentLength</code> parameter
+     */
+    public int getMaxRecvDataSegmentLength () {
+        return maxRecvDataSegmentLength;
+    }
+
+    /**
+     * Returns the value of the <code>DataPDUInOrder</code> parameter.
+     *
+     * @return the value of the <code>DataPDUInOrder</code> parameter
+     */
+    public boolean getDataPduInOrder () {
+        return dataPduInOrder;
+    }
+
+    /**
+     * Returns the value of the <code>DataSequenceInOrder</code> parameter.
+     *
+     * @return the value of the <code>DataSequenceInOrder</code> parameter
+     */
+    public boolean getDataSequenceInOrder () {
+        return dataSequenceInOrder;
+    }
+
+    /**
+     * Returns the value of the <code>DefaultTime2Retain</code> parameter.
+     *
+     * @return the value of the <code>DefaultTime2Retain</code> parameter
+     */
+    public int getDefaultTime2Retain () {
+        return defaultTime2Retain;
+    }
+
+    /**
+     * Returns the value of the <code>DefaultTime2Wait</code> parameter.
+     *
+     * @return the value of the <code>DefaultTime2Wait</code> parameter
+     */
+    public int getDefaultTime2Wait () {
+        return defaultTime2Wait;
+    }
+
+    /**
+     * Returns the value of the <code>ErrorRecoveryLevel</code> parameter.
+     *
+     * @return the value of the <code>ErrorRecoveryLevel</code> parameter
+     */
+    public int getErrorRecoveryLevel () {
+        return errorRecoveryLevel;
+    }
+
+    /**
+     * Returns the value of the <code>FirstBurstLength</code> parameter.
+     *
+     * @return the value of the <code>FirstBurstLength</code> parameter
+     */
+    public int getFirstBurstLength () {
+        return firstBurstLength;
+    }
+
+    /**
+     * Returns the value of the <code>ImmediateData</code> parameter.
+     *
+     * @return the value of the <code>ImmediateData</code> parameter
+     */
+    public boolean getImmediateData () {
+        return immediateData;
+    }
+
+    /**
+     * Returns the value of the <code>InitialR2T</code> parameter.
+     *
+     * @return the value of the <code>InitialR2T</code> parameter
+     */
+    public boolean getInitialR2T () {
+        return initialR2T;
+    }
+
+    /**
+     * Returns the value of the <code>MaxBurstLength</code> parameter.
+     *
+     * @return the value of the <code>MaxBurstLength</code> parameter
+     */
+    public int getMaxBurstLength () {
+        return maxBurstLength;
+    }
+
+    /**
+     * Returns the value of the <code>MaxOutstandingR2T</code> parameter.
+     *
+     * @return the value of the <code>MaxOutstandingR2T</code> parameter
+     */
+    public int getMaxOutstandingR2T () {
+        return maxOutstandingR2T;
+    }
+}
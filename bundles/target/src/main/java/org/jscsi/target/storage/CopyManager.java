@@ -0,0 +1,349 @@
+package org.jscsi.target.storage;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Copies data between the {@link IStorageModule}s of one target server in the background, e.g. for the
+ * <code>EXTENDED COPY</code> SCSI command.
+ * <p>
+ * Each copy operation consists of a list of segments, which are copied one after the other in chunks. If the destination
+ * {@link IStorageModule#supportsTransferFrom(IStorageModule) supports transfers} from the source, each chunk is copied
+ * with a single call to {@link IStorageModule#transferFrom(IStorageModule, long, int, long)}, which does not copy the
+ * data into the Java heap. Otherwise the chunks are read into two alternating buffers, so that the next chunk is read
+ * while the previous one is written. Each chunk is written while holding the {@link RangeLock} of the destination on
+ * the written logical blocks.
+ * <p>
+ * The throughput of all copy operations together is limited to a configurable number of bytes per second, so that
+ * background copies leave bandwidth to the commands of the initiators.
+ */
+public final class CopyManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CopyManager.class);
+
+    /**
+     * The maximum number of bytes copied with a single read and write or transfer.
+     */
+    private final int chunkLength;
+
+    /**
+     * The maximum number of bytes copied per second by all copy operations together, or <code>0</code> if copy
+     * operations are not throttled.
+     */
+    private final long bandwidth;
+
+    /**
+     * The value of {@link System#nanoTime()} at which the next chunk may be copied without exceeding the
+     * {@link #bandwidth}, guarded by <code>this</code>.
+     */
+    private long nextChunkTime;
+
+    /**
+     * The threads executing copy operations.
+     */
+    private final ExecutorService copyPool;
+
+    /**
+     * The threads writing chunks while the copy threads read the following chunks.
+     */
+    private final ExecutorService writePool;
+
+    /**
+     * Creates a new {@link CopyManager}.
+     *
+     * @param chunkLength the maximum number of bytes copied with a single read and write or transfer
+     * @param bandwidth the maximum number of bytes copied per second, or <code>0</code> for no limit
+     * @param concurrentCopies the maximum number of copy operations executed concurrently, further operations are
+     *            queued
+     */
+    public CopyManager (final int chunkLength, final long bandwidth, final int concurrentCopies) {
+        this.chunkLength = chunkLength;
+        this.bandwidth = bandwidth;
+        copyPool = Executors.newFixedThreadPool(concurrentCopies, new CopyThreadFactory("jSCSI Target Copier "));
+        writePool = Executors.newFixedThreadPool(concurrentCopies, new CopyThreadFactory("jSCSI Target Copy Writer "));
+    }
+
+    /**
+     * Starts copying the passed segments in the background.
+     *
+     * @param segments the segments to copy, in order
+     * @return the copy operation, which reports the progress
+     */
+    public CopyOperation copy (final List<Segment> segments) {
+        final CopyOperation operation = new CopyOperation(segments.size());
+        operation.future = copyPool.submit(new Callable<Void>() {
+
+            @Override
+            public Void call () throws IOException , InterruptedException {
+                for (Segment segment : segments) {
+                    copy(segment, operation);
+                    operation.segmentsProcessed.incrementAndGet();
+                }
+                return null;
+            }
+        });
+        return operation;
+    }
+
+    private void copy (final Segment segment, final CopyOperation operation) throws IOException , InterruptedException {
+        // copy backwards if the destination overlaps the end of the source
+        final boolean backwards = segment.source == segment.destination && segment.destinationIndex > segment.sourceIndex && segment.destinationIndex < segment.sourceIndex + segment.length;
+        final int chunks = (int) ((segment.length + chunkLength - 1) / chunkLength);
+
+        if (segment.destination.supportsTransferFrom(segment.source)) {
+            for (int i = 0; i < chunks; ++i) {
+                final long offset = chunkOffset(i, chunks, backwards);
+                final int length = (int) Math.min(chunkLength, segment.length - offset);
+                checkCancelled(operation);
+                throttle(length);
+                final RangeLock.Range range = segment.destinationLock.lockBytes(segment.destinationIndex + offset, length, segment.destination.getBlockSize());
+                try {
+                    segment.destination.transferFrom(segment.source, segment.sourceIndex + offset, length, segment.destinationIndex + offset);
+                } finally {
+                    segment.destinationLock.unlock(range);
+                }
+                operation.bytesTransferred.addAndGet(length);
+            }
+            return;
+        }
+
+        // read the next chunk while the previous one is written
+        final ByteBuffer[] buffers = { ByteBuffer.allocate((int) Math.min(chunkLength, segment.length)), ByteBuffer.allocate((int) Math.min(chunkLength, segment.length)) };
+        Future< ? > write = null;
+        for (int i = 0; i < chunks; ++i) {
+            final long offset = chunkOffset(i, chunks, backwards);
+            final int length = (int) Math.min(chunkLength, segment.length - offset);
+            final ByteBuffer buffer = buffers[i & 1];
+            buffer.clear();
+            buffer.limit(length);
+            checkCancelled(operation);
+            throttle(length);
+            segment.source.read(buffer, segment.sourceIndex + offset);
+            buffer.flip();
+            if (write != null) awaitWrite(write);
+            write = writePool.submit(new Callable<Void>() {
+
+                @Override
+                public Void call () throws IOException , InterruptedException {
+                    final RangeLock.Range range = segment.destinationLock.lockBytes(segment.destinationIndex + offset, length, segment.destination.getBlockSize());
+                    try {
+                        segment.destination.write(buffer, segment.destinationIndex + offset);
+                    } finally {
+                        segment.destinationLock.unlock(range);
+                    }
+                    operation.bytesTransferred.addAndGet(length);
+                    return null;
+                }
+            });
+        }
+        if (write != null) awaitWrite(write);
+    }
+
+    private static void awaitWrite (final Future< ? > write) throws IOException , InterruptedException {
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void checkCancelled (final CopyOperation operation) throws InterruptedIOException {
+        final Future<Void> future = operation.future;
+        if (operation.cancelled || future != null && future.isCancelled()) throw new InterruptedIOException("copy operation cancelled");
+    }
+
+    /**
+     * Returns the offset of a chunk within its segment.
+     */
+    private long chunkOffset (final int chunk, final int chunks, final boolean backwards) {
+        return (long) (backwards ? chunks - 1 - chunk : chunk) * chunkLength;
+    }
+
+    /**
+     * Waits until <i>length</i> more bytes can be copied without exceeding the {@link #bandwidth}.
+     */
+    private void throttle (final int length) throws InterruptedException {
+        if (bandwidth <= 0) return;
+        final long waitTime;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            // unused bandwidth does not accumulate
+            if (nextChunkTime - now < 0) nextChunkTime = now;
+            waitTime = nextChunkTime - now;
+            nextChunkTime += length * 1000000000L / bandwidth;
+        }
+        if (waitTime > 0) TimeUnit.NANOSECONDS.sleep(waitTime);
+    }
+
+    /**
+     * A range of bytes to be copied from one storage module to another one, or within one storage module.
+     */
+    public static final class Segment {
+
+        final IStorageModule source;
+
+        final long sourceIndex;
+
+        final IStorageModule destination;
+
+        final long destinationIndex;
+
+        final long length;
+
+        final RangeLock destinationLock;
+
+        /**
+         * Creates a new {@link Segment}.
+         *
+         * @param source the storage module to copy from
+         * @param sourceIndex the position of the first byte to be copied in <i>source</i>
+         * @param destination the storage module to copy to
+         * @param destinationIndex the position the first byte is copied to in <i>destination</i>
+         * @param length the number of bytes to be copied
+         * @param destinationLock the range lock of the destination, which is held while writing to it
+         */
+        public Segment (final IStorageModule source, final long sourceIndex, final IStorageModule destination, final long destinationIndex, final long length, final RangeLock destinationLock) {
+            this.source = source;
+            this.sourceIndex = sourceIndex;
+            this.destination = destination;
+            this.destinationIndex = destinationIndex;
+            this.length = length;
+            this.destinationLock = destinationLock;
+        }
+    }
+
+    /**
+     * The progress and result of a copy operation started with {@link CopyManager#copy(List)}.
+     */
+    public static final class CopyOperation {
+
+        private final int segments;
+
+        private final AtomicInteger segmentsProcessed = new AtomicInteger();
+
+        private final AtomicLong bytesTransferred = new AtomicLong();
+
+        private volatile Future<Void> future;
+
+        /**
+         * Set to stop the copy operation before its next chunk. The copy thread is not interrupted instead, since
+         * interrupting a thread blocked in an I/O operation on a {@link java.nio.channels.FileChannel} closes the
+         * channel, and with it the storage module.
+         */
+        private volatile boolean cancelled;
+
+        CopyOperation (final int segments) {
+            this.segments = segments;
+        }
+
+        /**
+         * Waits until the copy operation has finished.
+         *
+         * @throws IOException if the copy operation failed
+         * @throws InterruptedException if interrupted while waiting, the copy operation is cancelled in this case
+         */
+        public void await () throws IOException , InterruptedException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            } catch (ExecutionException e) {
+                LOGGER.error("copy operation failed after " + segmentsProcessed + " of " + segments + " segments", e.getCause());
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Stops the copy operation before its next chunk. Segments are not rolled back.
+         */
+        public void cancel () {
+            cancelled = true;
+        }
+
+        /**
+         * Returns the result of the copy operation. Cancelling it stops the copy operation like {@link #cancel()},
+         * but makes waiting for it end immediately.
+         *
+         * @return the result of the copy operation
+         */
+        public Future<Void> getFuture () {
+            return future;
+        }
+
+        /**
+         * Returns <code>true</code> if the copy operation has finished, successfully or not.
+         *
+         * @return <code>true</code> if the copy operation has finished
+         */
+        public boolean isDone () {
+            return future.isDone();
+        }
+
+        /**
+         * Returns <code>true</code> if the copy operation has finished, but not all segments have been copied.
+         *
+         * @return <code>true</code> if the copy operation has failed
+         */
+        public boolean isFailed () {
+            return future.isDone() && segmentsProcessed.get() < segments;
+        }
+
+        /**
+         * Returns the number of segments copied completely.
+         *
+         * @return the number of copied segments
+         */
+        public int getSegmentsProcessed () {
+            return segmentsProcessed.get();
+        }
+
+        /**
+         * Returns the number of bytes written to the destinations so far.
+         *
+         * @return the number of copied bytes
+         */
+        public long getBytesTransferred () {
+            return bytesTransferred.get();
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the {@link CopyManager}.
+     */
+    private static final class CopyThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        CopyThreadFactory (final String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread (final Runnable runnable) {
+            final Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
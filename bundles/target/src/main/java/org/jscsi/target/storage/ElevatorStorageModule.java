@@ -0,0 +1,514 @@
+package org.jscsi.target.storage;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jscsi.target.util.LogHistogram;
+
+
+/**
+ * An I/O scheduler in front of an {@link IStorageModule}, which is shared by all sessions accessing it. Reads and
+ * writes of all sessions are collected for a short time window, contiguous or overlapping requests in the same
+ * direction are merged into one access of the storage module, and the accesses are dispatched in ascending order of
+ * their storage index, continuing where the previous batch ended and wrapping around at the end (C-SCAN). This turns
+ * small or interleaved requests, e.g. a sequential stream split across sessions, into few large and ordered accesses,
+ * which pays off for rotating media.
+ * <p>
+ * Like {@link GroupCommit}, the scheduler needs no thread of its own: the first waiting request dispatches a batch for
+ * all of them, and the requests collected meanwhile are dispatched by one of them as soon as the batch has finished.
+ * A batch holds at most {@link #getMaxBatchSize()} requests. Requests older than the deadline are dispatched first, in
+ * the order of their arrival, so that no request starves behind requests closer to the current position.
+ * <p>
+ * Requests which are pending at the same time are concurrent, so their order is not defined by the SCSI standard.
+ * Overlapping writes merged into one access are still applied in the order of their arrival. All other methods,
+ * including {@link #transferTo(long, int, WritableByteChannel) zero-copy reads}, bypass the scheduler.
+ */
+public final class ElevatorStorageModule implements IStorageModule {
+
+    /**
+     * The default time in nanoseconds the oldest request waits for others to be merged or sorted with.
+     */
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * The default age in nanoseconds after which a request is dispatched before all others.
+     */
+    public static final long DEFAULT_DEADLINE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The default maximum length in bytes of an access merged from several requests.
+     */
+    public static final int DEFAULT_MAX_MERGE_LENGTH = 1 << 20;
+
+    /**
+     * The default maximum number of requests per batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    /**
+     * Orders requests by storage index, and overlapping requests with the same index by arrival.
+     */
+    private static final Comparator<Request> BY_STORAGE_INDEX = new Comparator<Request>() {
+
+        @Override
+        public int compare (final Request a, final Request b) {
+            final int result = Long.compare(a.storageIndex, b.storageIndex);
+            return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    /**
+     * Orders requests by arrival.
+     */
+    private static final Comparator<Request> BY_ARRIVAL = new Comparator<Request>() {
+
+        @Override
+        public int compare (final Request a, final Request b) {
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final IStorageModule storage;
+
+    private final long windowNanos;
+
+    private final long deadlineNanos;
+
+    private final int maxMergeLength;
+
+    private final int maxBatchSize;
+
+    /**
+     * The requests which have not been dispatched yet, in the order of their arrival. Guarded by <code>this</code>.
+     */
+    private final List<Request> pending = new ArrayList<Request>();
+
+    /**
+     * <code>true</code> while a request collects or dispatches a batch. Guarded by <code>this</code>.
+     */
+    private boolean dispatching;
+
+    /**
+     * Numbers the requests in the order of their arrival. Guarded by <code>this</code>.
+     */
+    private long sequence;
+
+    /**
+     * The storage index following the last access, where the next batch continues. Guarded by <code>this</code>.
+     */
+    private long headPosition;
+
+    /**
+     * The buffer of merged accesses, created on first use and only accessed by the dispatching request.
+     */
+    private ByteBuffer mergeBuffer;
+
+    /**
+     * The number of requests per batch.
+     */
+    private final LogHistogram batchSizeHistogram = new LogHistogram();
+
+    /**
+     * The number of requests per access of the storage module.
+     */
+    private final LogHistogram mergeSizeHistogram = new LogHistogram();
+
+    /**
+     * Creates a new scheduler with the default parameters.
+     *
+     * @param storage the scheduled storage module
+     */
+    public ElevatorStorageModule (final IStorageModule storage) {
+        this(storage, DEFAULT_WINDOW_NANOS, DEFAULT_DEADLINE_NANOS, DEFAULT_MAX_MERGE_LENGTH, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param storage the scheduled storage module
+     * @param windowNanos the time the oldest request waits for others, <code>0</code> only merges and sorts the
+     *            requests arriving while the previous batch is dispatched
+     * @param deadlineNanos the age after which a request is dispatched before all others
+     * @param maxMergeLength the maximum length in bytes of an access merged from several requests
+     * @param maxBatchSize the maximum number of requests per batch
+     */
+    public ElevatorStorageModule (final IStorageModule storage, final long windowNanos, final long deadlineNanos, final int maxMergeLength, final int maxBatchSize) {
+        if (windowNanos < 0 || deadlineNanos < 0 || maxMergeLength < 0 || maxBatchSize < 1) throw new IllegalArgumentException("illegal I/O scheduler parameters");
+        this.storage = storage;
+        this.windowNanos = windowNanos;
+        this.deadlineNanos = deadlineNanos;
+        this.maxMergeLength = maxMergeLength;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the scheduled storage module.
+     *
+     * @return the storage module accessed by this scheduler
+     */
+    public IStorageModule getStorageModule () {
+        return storage;
+    }
+
+    public long getWindowNanos () {
+        return windowNanos;
+    }
+
+    public long getDeadlineNanos () {
+        return deadlineNanos;
+    }
+
+    public int getMaxMergeLength () {
+        return maxMergeLength;
+    }
+
+    public int getMaxBatchSize () {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns a histogram of the number of requests dispatched in each batch.
+     *
+     * @return the batch size histogram
+     */
+    public LogHistogram getBatchSizeHistogram () {
+        return batchSizeHistogram;
+    }
+
+    /**
+     * Returns a histogram of the number of requests merged into each access of the storage module.
+     *
+     * @return the merge size histogram
+     */
+    public LogHistogram getMergeSizeHistogram () {
+        return mergeSizeHistogram;
+    }
+
+    /**
+     * Returns the number of requests which have not been dispatched yet.
+     *
+     * @return the number of pending requests
+     */
+    synchronized int getPendingCount () {
+        return pending.size();
+    }
+
+    @Override
+    public void read (final byte[] bytes, final long storageIndex) throws IOException {
+        submit(new Request(false, ByteBuffer.wrap(bytes), storageIndex));
+    }
+
+    @Override
+    public void read (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        submit(new Request(false, buffer, storageIndex));
+    }
+
+    @Override
+    public void write (final byte[] bytes, final long storageIndex) throws IOException {
+        submit(new Request(true, ByteBuffer.wrap(bytes), storageIndex));
+    }
+
+    @Override
+    public void write (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        submit(new Request(true, buffer, storageIndex));
+    }
+
+    /**
+     * Waits until a request has been dispatched, by this thread or by another one.
+     */
+    private void submit (final Request request) throws IOException {
+        if (request.length == 0) return;
+        boolean interrupted = false;
+        synchronized (this) {
+            request.arrival = System.nanoTime();
+            request.sequence = sequence++;
+            pending.add(request);
+            // a batch waiting for its window may be complete now
+            notifyAll();
+        }
+        try {
+            while (true) {
+                final List<Request> batch;
+                synchronized (this) {
+                    while (dispatching && !request.done) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (request.done) break;
+                    dispatching = true;
+                    try {
+                        // wait for more requests, unless the oldest one has waited long enough
+                        long remaining;
+                        while (pending.size() < maxBatchSize && (remaining = pending.get(0).arrival + windowNanos - System.nanoTime()) > 0) {
+                            try {
+                                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                            } catch (InterruptedException e) {
+                                interrupted = true;
+                            }
+                        }
+                        batch = selectBatch();
+                    } catch (RuntimeException | Error e) {
+                        dispatching = false;
+                        notifyAll();
+                        throw e;
+                    }
+                }
+                try {
+                    dispatch(batch);
+                } finally {
+                    synchronized (this) {
+                        for (Request dispatched : batch)
+                            dispatched.done = true;
+                        dispatching = false;
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        if (request.failure != null) throw new IOException("scheduled " + (request.write ? "write" : "read") + " failed", request.failure);
+    }
+
+    /**
+     * Removes the next batch from the {@link #pending} requests: the expired requests in the order of their arrival,
+     * then the others in C-SCAN order, starting at the {@link #headPosition}.
+     */
+    private List<Request> selectBatch () {
+        final List<Request> batch = new ArrayList<Request>(Math.min(pending.size(), maxBatchSize));
+        final long now = System.nanoTime();
+        for (Request request : pending) {
+            if (batch.size() == maxBatchSize) break;
+            if (now - request.arrival >= deadlineNanos) batch.add(request);
+        }
+        final int expired = batch.size();
+        if (expired < maxBatchSize && pending.size() > expired) {
+            final List<Request> others = new ArrayList<Request>(pending.size() - expired);
+            for (Request request : pending)
+                if (now - request.arrival < deadlineNanos) others.add(request);
+            Collections.sort(others, BY_STORAGE_INDEX);
+            int first = 0;
+            while (first < others.size() && others.get(first).storageIndex < headPosition)
+                ++first;
+            for (int i = 0; i < others.size() && batch.size() < maxBatchSize; ++i)
+                batch.add(others.get((first + i) % others.size()));
+        }
+        pending.removeAll(batch);
+        if (!batch.isEmpty()) {
+            final Request last = batch.get(batch.size() - 1);
+            headPosition = last.storageIndex + last.length;
+        }
+        batchSizeHistogram.record(batch.size());
+        return batch;
+    }
+
+    /**
+     * Accesses the storage module for the requests of a batch, merging neighboring requests in the same direction.
+     */
+    private void dispatch (final List<Request> batch) {
+        int i = 0;
+        while (i < batch.size()) {
+            final Request first = batch.get(i);
+            final long start = first.storageIndex;
+            long end = start + first.length;
+            int j = i + 1;
+            while (j < batch.size()) {
+                final Request next = batch.get(j);
+                final long mergedEnd = Math.max(end, next.storageIndex + next.length);
+                if (next.write != first.write || next.storageIndex < start || next.storageIndex > end || mergedEnd - start > maxMergeLength) break;
+                end = mergedEnd;
+                ++j;
+            }
+            final List<Request> group = batch.subList(i, j);
+            try {
+                if (group.size() == 1) {
+                    if (first.write) {
+                        storage.write(first.buffer, start);
+                    } else {
+                        storage.read(first.buffer, start);
+                    }
+                } else {
+                    dispatchMerged(group, start, (int) (end - start));
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Request request : group)
+                    request.failure = e;
+            }
+            mergeSizeHistogram.record(group.size());
+            i = j;
+        }
+    }
+
+    /**
+     * Accesses the storage module once for several contiguous or overlapping requests in the same direction.
+     */
+    private void dispatchMerged (final List<Request> group, final long start, final int length) throws IOException {
+        if (mergeBuffer == null) mergeBuffer = ByteBuffer.allocateDirect(maxMergeLength);
+        final ByteBuffer merged = mergeBuffer;
+        merged.clear();
+        merged.limit(length);
+        if (group.get(0).write) {
+            // overlapping writes are applied in the order of their arrival
+            final List<Request> byArrival = new ArrayList<Request>(group);
+            Collections.sort(byArrival, BY_ARRIVAL);
+            for (Request request : byArrival) {
+                merged.position((int) (request.storageIndex - start));
+                merged.put(request.buffer);
+            }
+            merged.position(0);
+            storage.write(merged, start);
+        } else {
+            storage.read(merged, start);
+            for (Request request : group) {
+                final ByteBuffer part = merged.duplicate();
+                part.position((int) (request.storageIndex - start));
+                part.limit(part.position() + request.length);
+                request.buffer.put(part);
+            }
+        }
+    }
+
+    @Override
+    public int checkBounds (final long logicalBlockAddress, final int transferLengthInBlocks) {
+        return storage.checkBounds(logicalBlockAddress, transferLengthInBlocks);
+    }
+
+    @Override
+    public long getSizeInBlocks () {
+        return storage.getSizeInBlocks();
+    }
+
+    @Override
+    public boolean supportsTransferTo () {
+        return storage.supportsTransferTo();
+    }
+
+    @Override
+    public void transferTo (final long storageIndex, final int length, final WritableByteChannel target) throws IOException {
+        storage.transferTo(storageIndex, length, target);
+    }
+
+    @Override
+    public boolean supportsTransferFrom (final IStorageModule source) {
+        return source != this && storage.supportsTransferFrom(source);
+    }
+
+    @Override
+    public void transferFrom (final IStorageModule source, final long sourceIndex, final int length, final long storageIndex) throws IOException {
+        storage.transferFrom(source, sourceIndex, length, storageIndex);
+    }
+
+    @Override
+    public boolean supportsUnmap () {
+        return storage.supportsUnmap();
+    }
+
+    @Override
+    public void unmap (final long storageIndex, final long length) throws IOException {
+        storage.unmap(storageIndex, length);
+    }
+
+    @Override
+    public void writeSame (final byte[] pattern, final long storageIndex, final long length) throws IOException {
+        storage.writeSame(pattern, storageIndex, length);
+    }
+
+    @Override
+    public boolean isMapped (final long storageIndex) {
+        return storage.isMapped(storageIndex);
+    }
+
+    @Override
+    public long getExtentLength (final long storageIndex, final long maxLength) {
+        return storage.getExtentLength(storageIndex, maxLength);
+    }
+
+    @Override
+    public void prefetch (final long storageIndex, final long length) throws IOException {
+        storage.prefetch(storageIndex, length);
+    }
+
+    @Override
+    public int getOptimalTransferLength () {
+        return storage.getOptimalTransferLength();
+    }
+
+    @Override
+    public int getTransferGranularity () {
+        return storage.getTransferGranularity();
+    }
+
+    @Override
+    public int getMediumRotationRate () {
+        return storage.getMediumRotationRate();
+    }
+
+    @Override
+    public void flush () throws IOException , InterruptedException {
+        storage.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+        storage.close();
+    }
+
+    @Override
+    public int getBlockSize () {
+        return storage.getBlockSize();
+    }
+
+    /**
+     * A read or write waiting to be dispatched.
+     */
+    private static final class Request {
+
+        final boolean write;
+
+        /**
+         * The bytes to write, or the buffer to read into, between its position and its limit.
+         */
+        final ByteBuffer buffer;
+
+        final long storageIndex;
+
+        final int length;
+
+        /**
+         * The value of {@link System#nanoTime()} when the request arrived. Guarded by the scheduler.
+         */
+        long arrival;
+
+        /**
+         * The number of the request in the order of arrival. Guarded by the scheduler.
+         */
+        long sequence;
+
+        /**
+         * <code>true</code> when the request has been dispatched. Guarded by the scheduler.
+         */
+        boolean done;
+
+        /**
+         * The reason why the request failed, or <code>null</code>. Written before {@link #done} is set.
+         */
+        Throwable failure;
+
+        Request (final boolean write, final ByteBuffer buffer, final long storageIndex) {
+            this.write = write;
+            this.buffer = buffer;
+            this.storageIndex = storageIndex;
+            this.length = buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.jscsi.target.storage;
+
+
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.jscsi.target.util.LogHistogram;
+
+
+/**
+ * Batches the flush requests of all sessions accessing one {@link IStorageModule}, so that concurrent requests share a
+ * single, expensive flush of the storage medium, e.g. a {@link java.nio.channels.FileChannel#force(boolean)}.
+ * <p>
+ * Requests arriving while no flush is in progress start one immediately. Requests arriving while a flush is in
+ * progress can not be satisfied by it, since it may have started before their writes completed. They are collected
+ * in the next batch, which is flushed by one of them as soon as the current flush has finished, and all of them are
+ * released together. If nothing has been written since the last flush, see {@link #markDirty()}, requests complete
+ * without flushing. The number of requests per flush is recorded, see {@link #getBatchSizeHistogram()}.
+ */
+public final class GroupCommit {
+
+    /**
+     * Flushes the storage medium.
+     */
+    private final Flushable medium;
+
+    /**
+     * <code>true</code> if data has been written since the start of the last flush.
+     */
+    private volatile boolean dirty;
+
+    /**
+     * The batch collecting new requests, guarded by <code>this</code>.
+     */
+    private Batch openBatch = new Batch();
+
+    /**
+     * <code>true</code> while a batch is being flushed, guarded by <code>this</code>.
+     */
+    private boolean flushing;
+
+    /**
+     * The number of requests satisfied by each flush.
+     */
+    private final LogHistogram batchSizeHistogram = new LogHistogram();
+
+    /**
+     * Creates a new {@link GroupCommit}.
+     *
+     * @param medium flushes the storage medium
+     */
+    public GroupCommit (final Flushable medium) {
+        this.medium = medium;
+    }
+
+    /**
+     * Signals that data has been written, which must be flushed by the next request. Must be called after each write
+     * has completed.
+     */
+    public void markDirty () {
+        dirty = true;
+    }
+
+    /**
+     * Waits until all data written before this call has been flushed to the storage medium.
+     *
+     * @throws IOException if the flush failed
+     * @throws InterruptedException if interrupted while waiting for another flush
+     */
+    public void flush () throws IOException , InterruptedException {
+        final Batch batch;
+        synchronized (this) {
+            batch = openBatch;
+            ++batch.size;
+            while (flushing && !batch.done) {
+                wait();
+            }
+            if (batch.done) {
+                if (batch.failure != null) throw new IOException("flush failed", batch.failure);
+                return;
+            }
+            // flush the batch for all of its requests
+            flushing = true;
+            openBatch = new Batch();
+        }
+
+        try {
+            if (dirty) {
+                // writes completing from now on are flushed by the next batch
+                dirty = false;
+                medium.flush();
+            }
+        } catch (IOException e) {
+            dirty = true;
+            batch.failure = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                batch.done = true;
+                flushing = false;
+                notifyAll();
+            }
+            batchSizeHistogram.record(batch.size);
+        }
+    }
+
+    /**
+     * Returns a histogram of the number of requests satisfied by each flush.
+     *
+     * @return the batch size histogram
+     */
+    public LogHistogram getBatchSizeHistogram () {
+        return batchSizeHistogram;
+    }
+
+    /**
+     * The flush requests satisfied by one flush.
+     */
+    private static final class Batch {
+
+        /**
+         * The number of requests, guarded by the {@link GroupCommit}.
+         */
+        int size;
+
+        /**
+         * <code>true</code> when the flush has finished, guarded by the {@link GroupCommit}.
+         */
+        boolean done;
+
+        /**
+         * The reason why the flush failed, or <code>null</code>.
+         */
+        IOException failure;
+    }
+}
@@ -5,6 +5,8 @@ package org.jscsi.target.storage;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import org.jscsi.target.scsi.cdb.CommandDescriptorBlock;
 
@@ -74,6 +76,23 @@ public interface IStorageModule {
      */
     void read (byte[] bytes, long storageIndex) throws IOException;
 
+    /**
+     * Fills the remaining bytes of the passed buffer, i.e. the bytes between its position and its limit, with data
+     * from storage. The position of the buffer is advanced to its limit.
+     * <p>
+     * This allows a whole READ transfer, or a large window of it, to be fetched with a single call. The default
+     * implementation falls back to {@link #read(byte[], long)} and copies the data into the buffer.
+     * 
+     * @param buffer the buffer which will be filled with data from storage
+     * @param storageIndex the position of the first byte to be copied
+     * @throws IOException
+     */
+    default void read (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        final byte[] bytes = new byte[buffer.remaining()];
+        read(bytes, storageIndex);
+        buffer.put(bytes);
+    }
+
     /**
      * Saves part of the passed byte array's content.
      * 
@@ -83,6 +102,224 @@ public interface IStorageModule {
      */
     void write (byte[] bytes, long storageIndex) throws IOException;
 
+    /**
+     * Saves the remaining bytes of the passed buffer, i.e. the bytes between its position and its limit. The position
+     * of the buffer is advanced to its limit.
+     * <p>
+     * This allows received data segments to be written without copying them into an array of matching length first.
+     * The default implementation falls back to {@link #write(byte[], long)} and only copies if the buffer is not backed
+     * by an array of exactly the remaining length.
+     * 
+     * @param buffer the source of the data to be stored
+     * @param storageIndex byte offset in the storage area
+     * @throws IOException
+     */
+    default void write (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        final byte[] bytes;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            bytes = buffer.array();
+            buffer.position(buffer.limit());
+        } else {
+            bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+        }
+        write(bytes, storageIndex);
+    }
+
+    /**
+     * Returns <code>true</code> if this storage module can send stored bytes directly to a channel with
+     * {@link #transferTo(long, int, WritableByteChannel)}, without copying them into the Java heap.
+     * 
+     * @return <code>true</code> if {@link #transferTo(long, int, WritableByteChannel)} is supported
+     */
+    default boolean supportsTransferTo () {
+        return false;
+    }
+
+    /**
+     * Writes <i>length</i> stored bytes, starting at <i>storageIndex</i>, to the given channel.
+     * <p>
+     * File-based storage modules implement this with {@link java.nio.channels.FileChannel#transferTo(long, long,
+     * WritableByteChannel)}, which lets the operating system copy the data from the page cache to a socket. This method
+     * may be called from a different thread than the one executing the SCSI command.
+     * 
+     * @param storageIndex the position of the first byte to be sent
+     * @param length the number of bytes to be sent
+     * @param target the channel the bytes are written to
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if {@link #supportsTransferTo()} returns <code>false</code>
+     */
+    default void transferTo (final long storageIndex, final int length, final WritableByteChannel target) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns <code>true</code> if this storage module can copy bytes from the passed storage module with
+     * {@link #transferFrom(IStorageModule, long, int, long)}, without copying them into the Java heap.
+     *
+     * @param source the storage module the bytes would be copied from
+     * @return <code>true</code> if {@link #transferFrom(IStorageModule, long, int, long)} is supported for
+     *         <i>source</i>
+     */
+    default boolean supportsTransferFrom (final IStorageModule source) {
+        return false;
+    }
+
+    /**
+     * Copies <i>length</i> bytes, starting at <i>sourceIndex</i> of the passed storage module, to this storage module,
+     * starting at <i>storageIndex</i>.
+     * <p>
+     * This is used for server-side copies (<code>EXTENDED COPY</code>) between logical units. File-based storage
+     * modules implement this with a {@link java.nio.channels.FileChannel} to {@link java.nio.channels.FileChannel}
+     * transfer, so the data never leaves the operating system.
+     *
+     * @param source the storage module the bytes are copied from
+     * @param sourceIndex the position of the first byte to be copied in <i>source</i>
+     * @param length the number of bytes to be copied
+     * @param storageIndex the position the first byte is copied to
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if {@link #supportsTransferFrom(IStorageModule)} returns
+     *             <code>false</code>
+     */
+    default void transferFrom (final IStorageModule source, final long sourceIndex, final int length, final long storageIndex) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns <code>true</code> if this storage module can deallocate stored bytes with {@link #unmap(long, long)}.
+     * <p>
+     * The jSCSI Target only advertises logical block provisioning (<code>UNMAP</code> and the UNMAP bit of
+     * <code>WRITE SAME</code>) for storage modules returning <code>true</code>.
+     *
+     * @return <code>true</code> if {@link #unmap(long, long)} is supported
+     */
+    default boolean supportsUnmap () {
+        return false;
+    }
+
+    /**
+     * Deallocates <i>length</i> stored bytes, starting at <i>storageIndex</i>. Reading deallocated bytes returns
+     * zeros.
+     *
+     * @param storageIndex the position of the first byte to be deallocated
+     * @param length the number of bytes to be deallocated
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if {@link #supportsUnmap()} returns <code>false</code>
+     */
+    default void unmap (final long storageIndex, final long length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes the passed pattern repeatedly, until <i>length</i> bytes, starting at <i>storageIndex</i>, have been
+     * written.
+     * <p>
+     * The default implementation fills a buffer of up to one MiB with the pattern and writes it with
+     * {@link #write(ByteBuffer, long)} as often as necessary, so a large range is written with few calls.
+     *
+     * @param pattern the bytes to be written, usually one logical block
+     * @param storageIndex the position of the first byte to be written
+     * @param length the number of bytes to be written, a multiple of the pattern length
+     * @throws IOException if an I/O error occurs
+     */
+    default void writeSame (final byte[] pattern, final long storageIndex, final long length) throws IOException {
+        final int repetitions = (int) Math.max(1, Math.min(length, 1 << 20) / pattern.length);
+        final ByteBuffer buffer = ByteBuffer.allocate(repetitions * pattern.length);
+        for (int i = 0; i < repetitions; ++i)
+            buffer.put(pattern);
+        long position = storageIndex;
+        final long end = storageIndex + length;
+        while (position < end) {
+            buffer.position(0);
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            write(buffer, position);
+            position += buffer.limit();
+        }
+    }
+
+    /**
+     * Returns <code>false</code> if the byte at <i>storageIndex</i> has been deallocated, see
+     * {@link #unmap(long, long)}.
+     *
+     * @param storageIndex the position of a stored byte
+     * @return <code>true</code> if the byte is mapped to storage
+     */
+    default boolean isMapped (final long storageIndex) {
+        return true;
+    }
+
+    /**
+     * Returns the number of consecutive bytes, starting at <i>storageIndex</i>, which are all either mapped or
+     * deallocated, see {@link #isMapped(long)}.
+     *
+     * @param storageIndex the position of the first byte of the extent
+     * @param maxLength the maximum length to be returned
+     * @return the length of the extent, at most <i>maxLength</i>
+     */
+    default long getExtentLength (final long storageIndex, final long maxLength) {
+        return maxLength;
+    }
+
+    /**
+     * Hints that <i>length</i> bytes, starting at <i>storageIndex</i>, will be read soon, e.g. for the
+     * <code>PRE-FETCH</code> SCSI command. Storage modules may start transferring the bytes to a faster cache, but must
+     * return without waiting for the transfer.
+     * <p>
+     * The default implementation ignores the hint.
+     *
+     * @param storageIndex the position of the first byte to be read
+     * @param length the number of bytes to be read
+     * @throws IOException if an I/O error occurs
+     */
+    default void prefetch (final long storageIndex, final long length) throws IOException {
+    }
+
+    /**
+     * Returns the preferred length in bytes of a single read or write, e.g. the stripe width of a RAID, or
+     * <code>0</code> if there is none.
+     * <p>
+     * It is reported to the initiator in the Block Limits VPD page, together with the negotiated session limits.
+     *
+     * @return the optimal transfer length in bytes, or <code>0</code>
+     */
+    default int getOptimalTransferLength () {
+        return 0;
+    }
+
+    /**
+     * Returns the length in bytes of which reads and writes should be multiples, and to which they should be aligned,
+     * e.g. the stripe unit of a RAID, or <code>0</code> if there is none.
+     *
+     * @return the optimal transfer length granularity in bytes, or <code>0</code>
+     */
+    default int getTransferGranularity () {
+        return 0;
+    }
+
+    /**
+     * Returns the MEDIUM ROTATION RATE reported in the Block Device Characteristics VPD page, which is <code>0</code>
+     * if it is not reported, <code>1</code> for non-rotating media like solid state disks and main memory, and the
+     * nominal rotation rate in revolutions per minute otherwise.
+     *
+     * @return the medium rotation rate
+     */
+    default int getMediumRotationRate () {
+        return 0;
+    }
+
+    /**
+     * Waits until all bytes written before this call are stored on the non-volatile medium, e.g. for the
+     * <code>SYNCHRONIZE CACHE</code> SCSI command and for writes with the FUA bit set.
+     * <p>
+     * The default implementation does nothing, which is correct for storage modules completing each write on the
+     * non-volatile medium.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default void flush () throws IOException , InterruptedException {
+    }
+
     /**
      * Closing the storage.
      * 
@@ -81,6 +81,15 @@ public class JCloudsStorageModule implements IStorageModule {
 
     private static final int BUCKETS_TO_PREFETCH = 3;
 
+    /** Number of buckets held in {@link #mByteCache}. */
+    private static final int CACHED_BUCKETS = 100;
+
+    /**
+     * The maximum number of buckets downloaded for a single {@link #prefetch(long, long)} request, half of the cache, so
+     * that a prefetch of the whole medium does not evict the buckets in use.
+     */
+    private static final int MAX_PREFETCH_BUCKETS = CACHED_BUCKETS / 2;
+
     private static final boolean ENCRYPT = false;
     private static final String ALGO = "AES";
     private static byte[] keyValue = new byte[] { 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k', 'k' };
@@ -164,7 +173,7 @@ public class JCloudsStorageModule implements IStorageModule {
         writeHashmapCleaner.setDaemon(true);
         writeHashmapCleaner.start();
 
-        mByteCache = CacheBuilder.newBuilder().maximumSize(100).build();
+        mByteCache = CacheBuilder.newBuilder().maximumSize(CACHED_BUCKETS).build();
         lastIndexWritten = -1;
     }
 
@@ -271,6 +280,108 @@ public class JCloudsStorageModule implements IStorageModule {
         lastBlobWritten = pData;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Downloads the buckets containing the range, at most {@link #MAX_PREFETCH_BUCKETS} of them, in the background,
+     * unless they are cached or already being downloaded.
+     */
+    @Override
+    public synchronized void prefetch (final long storageIndex, final long length) {
+        final int firstBucketIndex = (int) (storageIndex / SIZE_PER_BUCKET);
+        final int lastBucketIndex = (int) Math.min((storageIndex + Math.max(length, 1) - 1) / SIZE_PER_BUCKET, firstBucketIndex + MAX_PREFETCH_BUCKETS - 1);
+        for (int i = firstBucketIndex; i <= lastBucketIndex; i++) {
+            if (mByteCache.getIfPresent(i) == null && !mRunningReadTasks.containsKey(i)) {
+                mRunningReadTasks.put(i, mReaderService.submit(new ReadTask(i)));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Buckets are deallocated by deleting their blobs.
+     */
+    @Override
+    public boolean supportsUnmap () {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The blobs of buckets within the range are deleted, after pending uploads of them have finished. Parts of buckets
+     * at the ends of the range are overwritten with zeros instead.
+     */
+    @Override
+    public synchronized void unmap (final long storageIndex, final long length) throws IOException {
+        final long end = storageIndex + length;
+        long position = storageIndex;
+        while (position < end) {
+            final int bucketIndex = (int) (position / SIZE_PER_BUCKET);
+            final long bucketStart = (long) bucketIndex * SIZE_PER_BUCKET;
+            final int bucketLength = (int) (Math.min(end, bucketStart + SIZE_PER_BUCKET) - position);
+            if (bucketLength == SIZE_PER_BUCKET) {
+                deleteBucket(bucketIndex);
+            } else {
+                write(new byte[bucketLength], position);
+            }
+            position += bucketLength;
+        }
+    }
+
+    /**
+     * Deletes the blob of a bucket, so that it reads as zeros.
+     * 
+     * @param pBucketId the bucket to delete
+     * @throws IOException if waiting for a pending upload or download of the bucket fails
+     */
+    private void deleteBucket (final int pBucketId) throws IOException {
+        if (lastIndexWritten == pBucketId) {
+            // the bucket has not been uploaded yet
+            lastIndexWritten = -1;
+            lastBlobWritten = null;
+        }
+        try {
+            final Future<Integer> writeTask = mRunningWriteTasks.remove(pBucketId);
+            if (writeTask != null && !writeTask.isCancelled()) writeTask.get();
+            final Future<Map.Entry<Integer , byte[]>> readTask = mRunningReadTasks.remove(pBucketId);
+            if (readTask != null && !readTask.isCancelled()) readTask.get();
+        } catch (ExecutionException | InterruptedException exc) {
+            throw new IOException(exc);
+        }
+        mByteCache.invalidate(pBucketId);
+        mStore.removeBlob(mContainerName, Integer.toString(pBucketId));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A bucket is mapped if its blob exists or is about to be uploaded.
+     */
+    @Override
+    public synchronized boolean isMapped (final long storageIndex) {
+        return isBucketMapped((int) (storageIndex / SIZE_PER_BUCKET));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getExtentLength (final long storageIndex, final long maxLength) {
+        final int firstBucketIndex = (int) (storageIndex / SIZE_PER_BUCKET);
+        final boolean mapped = isBucketMapped(firstBucketIndex);
+        long length = (long) (firstBucketIndex + 1) * SIZE_PER_BUCKET - storageIndex;
+        for (int i = firstBucketIndex + 1; length < maxLength && i < mNumberOfCluster && isBucketMapped(i) == mapped; i++) {
+            length += SIZE_PER_BUCKET;
+        }
+        return Math.min(length, maxLength);
+    }
+
+    private boolean isBucketMapped (final int pBucketId) {
+        return (lastIndexWritten == pBucketId && lastBlobWritten != null) || mRunningWriteTasks.containsKey(pBucketId) || mStore.blobExists(mContainerName, Integer.toString(pBucketId));
+    }
+
     /**
      * {@inheritDoc}
      * 
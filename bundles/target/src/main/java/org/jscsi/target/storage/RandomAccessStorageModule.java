@@ -1,24 +1,37 @@
 package org.jscsi.target.storage;
 
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Instances of this class can be used for persistent storage of data. They are backed by a {@link RandomAccessFile},
- * which will immediately write all changes in the data to hard-disk.
+ * Instances of this class can be used for persistent storage of data. They are backed by a {@link RandomAccessFile}.
  * <p>
- * This class is <b>not</b> thread-safe.
+ * Written data may remain in the operating system's page cache until it is {@link #flush() flushed}. Concurrent flush
+ * requests of all sessions are batched by a {@link GroupCommit}, so that they share a single
+ * {@link FileChannel#force(boolean)}.
+ * <p>
+ * All reads and writes use absolute positions on the file's channel and never its position, so concurrent accesses of
+ * different sessions do not interfere with each other.
  * 
  * @see java.io.RandomAccessFile
  * @author Andreas Ergenzinger
@@ -29,13 +42,48 @@ public class RandomAccessStorageModule implements IStorageModule {
 
     private static final int VIRTUAL_BLOCK_SIZE = 512;
 
+    /**
+     * The size in bytes of the pages of the operating system's page cache.
+     */
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * The maximum number of bytes read ahead for a single {@link #prefetch(long, long)} request.
+     */
+    private static final long MAX_PREFETCH_LENGTH = 64 << 20;
+
+    /**
+     * The number of bytes read ahead with each read.
+     */
+    private static final int PREFETCH_CHUNK_LENGTH = 1 << 20;
+
+    /**
+     * The buffer receiving the bytes read ahead, which are discarded. It is only used by the {@link #PREFETCHER}
+     * thread.
+     */
+    private static final ByteBuffer PREFETCH_BUFFER = ByteBuffer.allocateDirect(PREFETCH_CHUNK_LENGTH);
+
+    /**
+     * The thread reading ahead the ranges of all instances. Requests exceeding its queue are dropped, since they are
+     * mere hints.
+     */
+    private static final ExecutorService PREFETCHER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(64), new ThreadFactory() {
+
+        @Override
+        public Thread newThread (final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "jSCSI Target Prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
     /**
      * The mode {@link String} parameter used during the instantiation of {@link #randomAccessFile}.
      * <p>
-     * This will create a {@link RandomAccessFile} with both read and write privileges that will immediately save all
-     * written data in the file.
+     * This will create a {@link RandomAccessFile} with both read and write privileges. Written data is not synchronized
+     * with each write, but with {@link #flush()}.
      */
-    private static final String MODE = "rwd";
+    private static final String MODE = "rw";
 
     /**
      * The size of the medium in blocks.
@@ -51,6 +99,11 @@ public class RandomAccessStorageModule implements IStorageModule {
      */
     private final RandomAccessFile randomAccessFile;
 
+    /**
+     * Batches the flush requests of all sessions.
+     */
+    private final GroupCommit groupCommit;
+
     /**
      * Creates a new {@link RandomAccessStorageModule} backed by the specified file. If no such file exists, a
      * {@link FileNotFoundException} will be thrown.
@@ -63,24 +116,191 @@ public class RandomAccessStorageModule implements IStorageModule {
     public RandomAccessStorageModule (final long sizeInBlocks, final File file) throws FileNotFoundException {
         this.sizeInBlocks = sizeInBlocks;
         this.randomAccessFile = new RandomAccessFile(file, MODE);
+        final FileChannel channel = randomAccessFile.getChannel();
+        this.groupCommit = new GroupCommit(new Flushable() {
+
+            @Override
+            public void flush () throws IOException {
+                // the file length is fixed, so only the data needs to be forced
+                channel.force(false);
+            }
+        });
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Like {@link #read(ByteBuffer, long)}, this method uses positional reads.
      */
     @Override
     public void read (byte[] bytes, long storageIndex) throws IOException {
-        randomAccessFile.seek(storageIndex);
-        randomAccessFile.read(bytes, 0, bytes.length);
+        read(ByteBuffer.wrap(bytes), storageIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The buffer is filled with positional reads on the file's channel, which do not interfere with concurrent reads
+     * and writes.
+     */
+    @Override
+    public void read (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        final FileChannel channel = randomAccessFile.getChannel();
+        long position = storageIndex;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Like {@link #write(ByteBuffer, long)}, this method uses positional writes.
      */
     @Override
     public void write (byte[] bytes, long storageIndex) throws IOException {
-        randomAccessFile.seek(storageIndex);
-        randomAccessFile.write(bytes, 0, bytes.length);
+        write(ByteBuffer.wrap(bytes), storageIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The buffer is written with a positional write on the file's channel, so received data segments are stored
+     * without an intermediate copy, no matter whether they are heap or direct buffers.
+     */
+    @Override
+    public void write (final ByteBuffer buffer, final long storageIndex) throws IOException {
+        final FileChannel channel = randomAccessFile.getChannel();
+        long position = storageIndex;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        groupCommit.markDirty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportsTransferTo () {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The transfer uses absolute positions and therefore does not interfere with concurrent reads and writes.
+     */
+    @Override
+    public void transferTo (final long storageIndex, final int length, final WritableByteChannel target) throws IOException {
+        final FileChannel channel = randomAccessFile.getChannel();
+        long position = storageIndex;
+        final long end = storageIndex + length;
+        while (position < end) {
+            final long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0 && position >= channel.size()) throw new EOFException();
+            position += transferred;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Bytes can be copied from any other storage module supporting {@link #transferTo(long, int, WritableByteChannel)}.
+     */
+    @Override
+    public boolean supportsTransferFrom (final IStorageModule source) {
+        return source != this && source.supportsTransferTo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are written to this module's file channel at absolute positions. If the source is a
+     * {@link RandomAccessStorageModule} as well, they are copied with {@link FileChannel#transferFrom}, which reads
+     * from the source channel's position. No other access uses that position, so only transfers from the same source
+     * are serialized. Other sources transfer the bytes into a channel writing them positionally.
+     */
+    @Override
+    public void transferFrom (final IStorageModule source, final long sourceIndex, final int length, final long storageIndex) throws IOException {
+        final FileChannel channel = randomAccessFile.getChannel();
+        if (source instanceof RandomAccessStorageModule) {
+            final FileChannel sourceChannel = ((RandomAccessStorageModule) source).randomAccessFile.getChannel();
+            synchronized (sourceChannel) {
+                sourceChannel.position(sourceIndex);
+                long transferred = 0;
+                while (transferred < length) {
+                    final long count = channel.transferFrom(sourceChannel, storageIndex + transferred, length - transferred);
+                    if (count <= 0) throw new EOFException();
+                    transferred += count;
+                }
+            }
+        } else {
+            source.transferTo(sourceIndex, length, new PositionalWriteChannel(channel, storageIndex));
+        }
+        groupCommit.markDirty();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Concurrent requests share one {@link FileChannel#force(boolean)}, see {@link GroupCommit}.
+     */
+    @Override
+    public void flush () throws IOException , InterruptedException {
+        groupCommit.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The range, at most {@link #MAX_PREFETCH_LENGTH} bytes of it, is read into the operating system's page cache by a
+     * background thread, the read bytes are discarded.
+     */
+    @Override
+    public void prefetch (final long storageIndex, final long length) {
+        final FileChannel channel = randomAccessFile.getChannel();
+        final long end = storageIndex + Math.min(length, MAX_PREFETCH_LENGTH);
+        PREFETCHER.execute(new Runnable() {
+
+            @Override
+            public void run () {
+                try {
+                    long position = storageIndex;
+                    while (position < end && channel.isOpen()) {
+                        PREFETCH_BUFFER.clear();
+                        PREFETCH_BUFFER.limit((int) Math.min(PREFETCH_CHUNK_LENGTH, end - position));
+                        final int read = channel.read(PREFETCH_BUFFER, position);
+                        if (read <= 0) break;
+                        position += read;
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("prefetch failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Writes of partial pages make the operating system read the rest of the page from the file first, so reads and
+     * writes should be multiples of the page size.
+     */
+    @Override
+    public int getTransferGranularity () {
+        return PAGE_SIZE;
+    }
+
+    /**
+     * Returns the {@link GroupCommit} batching the flush requests.
+     *
+     * @return the group commit of this storage module
+     */
+    public final GroupCommit getGroupCommit () {
+        return groupCommit;
     }
 
     /**
@@ -102,11 +322,12 @@ public class RandomAccessStorageModule implements IStorageModule {
     }
 
     /**
-     * Closes the backing {@link RandomAccessFile}.
+     * Flushes and closes the backing {@link RandomAccessFile}.
      * 
      * @throws IOException if an I/O Error occurs
      */
     public final void close () throws IOException {
+        if (randomAccessFile.getChannel().isOpen()) randomAccessFile.getChannel().force(false);
         randomAccessFile.close();
     }
 
@@ -204,4 +425,37 @@ public class RandomAccessStorageModule implements IStorageModule {
         return pFile.delete();
     }
 
+    /**
+     * A channel writing the bytes passed to it to a {@link FileChannel} at consecutive absolute positions, without
+     * using or changing the position of the file channel.
+     */
+    private static final class PositionalWriteChannel implements WritableByteChannel {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        PositionalWriteChannel (final FileChannel channel, final long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int write (final ByteBuffer src) throws IOException {
+            final int written = channel.write(src, position);
+            position += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen () {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close () {
+            // the file channel belongs to the storage module
+        }
+    }
+
 }
@@ -0,0 +1,137 @@
+package org.jscsi.target.storage;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jscsi.target.util.LogHistogram;
+
+
+/**
+ * Exclusive locks on ranges of logical blocks of one {@link IStorageModule}, which are shared by all sessions accessing
+ * it.
+ * <p>
+ * Commands which must read and write stored data atomically, like <code>COMPARE AND WRITE</code>, lock only the
+ * logical blocks they access, so commands on disjoint ranges never wait for each other. All other commands modifying
+ * stored data lock the blocks they write for the duration of each storage access, so that they cannot change blocks
+ * between the read and the write of an atomic command. A lock should only be held
+ * while accessing the storage, not while transferring data from or to the initiator, which keeps hold times in the
+ * microsecond range. The hold times are recorded in microseconds, see {@link #getHoldTimeHistogram()}, and exported
+ * with the metrics of the target.
+ */
+public final class RangeLock {
+
+    /**
+     * The ranges which are currently locked, guarded by <code>this</code>.
+     */
+    private final List<Range> lockedRanges = new ArrayList<>();
+
+    /**
+     * The time in microseconds between acquiring and releasing each lock.
+     */
+    private final LogHistogram holdTimeHistogram = new LogHistogram();
+
+    /**
+     * The time in microseconds each lock request waited for overlapping locks to be released.
+     */
+    private final LogHistogram waitTimeHistogram = new LogHistogram();
+
+    /**
+     * Locks the specified logical blocks, waiting until no other lock overlaps them.
+     *
+     * @param logicalBlockAddress the address of the first logical block to lock
+     * @param numberOfLogicalBlocks the number of logical blocks to lock
+     * @return the locked range, which must be passed to {@link #unlock(Range)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Range lock (final long logicalBlockAddress, final long numberOfLogicalBlocks) throws InterruptedException {
+        final Range range = new Range(logicalBlockAddress, logicalBlockAddress + numberOfLogicalBlocks);
+        final long requestTime = System.nanoTime();
+        synchronized (this) {
+            while (overlaps(range)) {
+                wait();
+            }
+            lockedRanges.add(range);
+        }
+        range.lockTime = System.nanoTime();
+        waitTimeHistogram.record((range.lockTime - requestTime) / 1000);
+        return range;
+    }
+
+    /**
+     * Locks the logical blocks containing the specified bytes, see {@link #lock(long, long)}.
+     *
+     * @param storageIndex the position of the first byte in the storage module
+     * @param length the number of bytes
+     * @param blockSize the block size of the storage module in bytes
+     * @return the locked range, which must be passed to {@link #unlock(Range)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Range lockBytes (final long storageIndex, final long length, final int blockSize) throws InterruptedException {
+        final long logicalBlockAddress = storageIndex / blockSize;
+        return lock(logicalBlockAddress, (storageIndex + length + blockSize - 1) / blockSize - logicalBlockAddress);
+    }
+
+    /**
+     * Releases a lock acquired with {@link #lock(long, long)}.
+     *
+     * @param range the locked range
+     */
+    public void unlock (final Range range) {
+        holdTimeHistogram.record((System.nanoTime() - range.lockTime) / 1000);
+        synchronized (this) {
+            lockedRanges.remove(range);
+            notifyAll();
+        }
+    }
+
+    private boolean overlaps (final Range range) {
+        for (Range locked : lockedRanges)
+            if (locked.start < range.end && range.start < locked.end) return true;
+        return false;
+    }
+
+    /**
+     * Returns a histogram of the time in microseconds between acquiring and releasing each lock.
+     *
+     * @return the hold time histogram
+     */
+    public LogHistogram getHoldTimeHistogram () {
+        return holdTimeHistogram;
+    }
+
+    /**
+     * Returns a histogram of the time in microseconds each lock request waited for overlapping locks.
+     *
+     * @return the wait time histogram
+     */
+    public LogHistogram getWaitTimeHistogram () {
+        return waitTimeHistogram;
+    }
+
+    /**
+     * A locked range of logical blocks.
+     */
+    public static final class Range {
+
+        /**
+         * The address of the first locked logical block.
+         */
+        final long start;
+
+        /**
+         * The address of the first logical block after the range.
+         */
+        final long end;
+
+        /**
+         * The value of {@link System#nanoTime()} when the lock was acquired.
+         */
+        long lockTime;
+
+        Range (final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
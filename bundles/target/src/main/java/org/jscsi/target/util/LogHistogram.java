@@ -0,0 +1,149 @@
+package org.jscsi.target.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative <code>long</code> values with logarithmic buckets, which are divided into
+ * linear sub-buckets like those of an HDR histogram.
+ * <p>
+ * Values below <code>2 * {@link #SUB_BUCKETS}</code> have a bucket each. Above, every interval
+ * [2<sup><i>e</i></sup>, 2<sup><i>e</i>+1</sup>-1] is divided into {@link #SUB_BUCKETS} buckets of equal width. Recording a
+ * value is lock-free and does not allocate, so instances can be updated on every PDU or command. Quantiles derived
+ * from the buckets are upper bounds, which are off by less than <code>1 / {@link #SUB_BUCKETS}</code> of the value.
+ */
+public final class LogHistogram {
+
+    /**
+     * The binary logarithm of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of linear sub-buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, enough for all non-negative <code>long</code> values.
+     */
+    public static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The number of recorded values per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Returns the index of the bucket counting the specified value.
+     *
+     * @param value a non-negative value, negative values are counted as <code>0</code>
+     * @return the bucket index
+     */
+    public static int bucketOf (final long value) {
+        if (value <= 0) return 0;
+        if (value < SUB_BUCKETS) return (int) value;
+        // the sub-bucket is selected by the SUB_BUCKET_BITS bits following the highest set bit
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the largest value counted by the specified bucket.
+     *
+     * @param bucket the bucket index
+     * @return the upper bound of the bucket
+     */
+    public static long upperBoundOf (final int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        if (bucket >= BUCKETS - 1) return Long.MAX_VALUE;
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * Counts the specified value.
+     *
+     * @param value the value to record
+     */
+    public void record (final long value) {
+        counts.incrementAndGet(bucketOf(value));
+    }
+
+    /**
+     * Returns the number of values counted by the specified bucket.
+     *
+     * @param bucket the bucket index
+     * @return the number of values in the bucket
+     */
+    public long getCount (final int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Returns the total number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public long getTotalCount () {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Returns an upper bound of the specified quantile of all recorded values.
+     *
+     * @param quantile a value in the interval [0, 1]
+     * @return the upper bound of the bucket containing the quantile, or <code>0</code> if no values have been recorded
+     */
+    public long getQuantile (final double quantile) {
+        final long[] snapshot = getCounts();
+        long total = 0;
+        for (long count : snapshot)
+            total += count;
+        if (total == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     *
+     * @return the number of values per bucket
+     */
+    public long[] getCounts () {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i)
+            snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    /**
+     * Sets all bucket counts to zero.
+     */
+    public void reset () {
+        for (int i = 0; i < BUCKETS; ++i)
+            counts.set(i, 0);
+    }
+
+    @Override
+    public String toString () {
+        final StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; ++i) {
+            final long count = counts.get(i);
+            if (count == 0) continue;
+            if (!first) sb.append(", ");
+            sb.append("<=").append(upperBoundOf(i)).append(": ").append(count);
+            first = false;
+        }
+        return sb.append("]").toString();
+    }
+}
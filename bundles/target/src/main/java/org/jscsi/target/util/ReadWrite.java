@@ -167,8 +167,25 @@ public final class ReadWrite {
      * @param stringBuilder the {@link StringBuilder} that will be extended
      */
     public static final void appendTextDataSegmentToStringBuffer (final ByteBuffer byteBuffer, final StringBuilder stringBuilder) {
-        final String s = new String(byteBuffer.array());
-        stringBuilder.append(s);
+        stringBuilder.append(dataSegmentToString(byteBuffer));
+    }
+
+    /**
+     * Returns the bytes between index <code>0</code> and the limit of a <code>ProtocolDataUnit</code> (text) data
+     * segment as a {@link String}.
+     * <p>
+     * Received data segments may be pooled buffers, which are larger than the data segment or which do not offer a
+     * backing array, so {@link ByteBuffer#array()} must not be used.
+     * 
+     * @param byteBuffer the PDU's data segment
+     * @return a String representation of the data segment
+     */
+    public static final String dataSegmentToString (final ByteBuffer byteBuffer) {
+        if (byteBuffer.hasArray()) return new String(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.limit());
+        final byte[] bytes = new byte[byteBuffer.limit()];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = byteBuffer.get(i);
+        return new String(bytes);
     }
 
     /**
@@ -1,11 +1,16 @@
 package org.jscsi.target.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A class for serial number arithmetics, as defined in <code>[RFC 1982]</code>, with <code>SERIAL_BITS = 32</code>.
  * <p>
  * Unlike the original algorithm, this implementation is based on unsigned subtraction, resolving the issue of undefined
  * comparisons, however introducing one additional oddity - each member of a pair of serial numbers with a wrapped
  * distance of <code>2^(SERIAL_BITS - 1)</code> will be considered less than (and greater than) the other one.
+ * <p>
+ * Serial numbers may be incremented and read by different threads, e.g. the ExpCmdSN of a session is incremented by the
+ * threads receiving commands and read by the threads sending responses.
  * 
  * @author Andreas Ergenzinger
  */
@@ -14,7 +19,7 @@ public final class SerialArithmeticNumber {
     /**
      * The signed integer representation of the serial arithmetic number.
      */
-    private int value;
+    private final AtomicInteger value;
 
     /**
      * Creates a new {@link SerialArithmeticNumber} with a starting {@link #value} of zero.
@@ -29,14 +34,14 @@ public final class SerialArithmeticNumber {
      * @param value the initial {@link #value}
      */
     public SerialArithmeticNumber (final int value) {
-        this.value = value;
+        this.value = new AtomicInteger(value);
     }
 
     /**
      * Increments the {@link SerialArithmeticNumber}'s {@link #value} by one.
      */
     public void increment () {
-        ++value;
+        value.incrementAndGet();
     }
 
     /**
@@ -46,7 +51,7 @@ public final class SerialArithmeticNumber {
      * @return <code>true</code> if the parameter matches the {@link #value} and <code>false</code> if it does not
      */
     public boolean equals (final int serialArithmeticNumber) {
-        return value == serialArithmeticNumber;
+        return value.get() == serialArithmeticNumber;
     }
 
     /**
@@ -58,7 +63,7 @@ public final class SerialArithmeticNumber {
      *         <code>false</code> if it is not
      */
     public boolean lessThan (final int serialArithmeticNumber) {
-        if (value - serialArithmeticNumber < 0) return true;
+        if (value.get() - serialArithmeticNumber < 0) return true;
         return false;
     }
 
@@ -71,7 +76,7 @@ public final class SerialArithmeticNumber {
      *         <code>false</code> if it is not
      */
     public boolean greaterThan (final int serialArithmeticNumber) {
-        if (serialArithmeticNumber - value < 0) return true;
+        if (serialArithmeticNumber - value.get() < 0) return true;
         return false;
     }
 
@@ -81,6 +86,6 @@ public final class SerialArithmeticNumber {
      * @return the {@link #value}
      */
     public int getValue () {
-        return value;
+        return value.get();
     }
 }
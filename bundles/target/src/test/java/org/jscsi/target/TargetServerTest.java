@@ -0,0 +1,208 @@
+package org.jscsi.target;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.login.ISID;
+import org.jscsi.parser.login.LoginRequestParser;
+import org.jscsi.parser.login.LoginResponseParser;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.login.LoginStatus;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.metrics.MetricsExporter;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+
+public class TargetServerTest {
+
+    private final ProtocolDataUnitFactory factory = new ProtocolDataUnitFactory();
+
+    private ExecutorService executor;
+
+    private int port;
+
+    @AfterMethod
+    public void tearDown () {
+        // interrupts the accept loop, which closes the server socket
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Logs in while another connection has not sent its first Login PDU, which must not keep the target server from
+     * accepting and logging in further connections.
+     */
+    @Test(timeOut = 10000)
+    public void testSilentConnectionDoesNotBlockLogin () throws Exception {
+        start(0, null);
+        try (SocketChannel silent = connect(); SocketChannel loggedIn = connect()) {
+            login(loggedIn, 1);
+        }
+    }
+
+    /**
+     * Closes a connection whose login timeout expires before it has logged in, but not a connection which has logged
+     * in before. The timeouts are expired by the test instead of a timer.
+     */
+    @Test(timeOut = 10000)
+    public void testLoginTimeout () throws Exception {
+        final BlockingQueue<TargetServer.LoginTimeout> timeouts = new LinkedBlockingQueue<TargetServer.LoginTimeout>();
+        final ScheduledExecutorService loginTimer = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<ScheduledFuture< ? >>() {
+
+            @Override
+            public ScheduledFuture< ? > answer (final InvocationOnMock invocation) {
+                timeouts.add((TargetServer.LoginTimeout) invocation.getArguments()[0]);
+                return mock(ScheduledFuture.class);
+            }
+        }).when(loginTimer).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        start(200, null, loginTimer);
+
+        try (SocketChannel loggedIn = connect()) {
+            final TargetServer.LoginTimeout loggedInTimeout = timeouts.take();
+            login(loggedIn, 1);
+            // answered in the full feature phase only, after the login has been finished
+            ping(loggedIn, 2);
+            try (SocketChannel silent = connect()) {
+                final TargetServer.LoginTimeout silentTimeout = timeouts.take();
+
+                assertFalse(loggedInTimeout.expire());
+                assertTrue(silentTimeout.expire());
+                assertEquals(silent.read(ByteBuffer.allocate(1)), -1);
+                ping(loggedIn, 3);
+            }
+        }
+        verify(loginTimer, times(2)).schedule(any(Runnable.class), eq(200L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Closes a connection whose session cannot be created because of a runtime exception.
+     */
+    @Test(timeOut = 10000)
+    public void testFailedSessionCreationClosesConnection () throws Exception {
+        final MetricsExporter metricsExporter = mock(MetricsExporter.class);
+        doThrow(new IllegalStateException("exporter failed")).when(metricsExporter).sessionAdded(any(TargetSession.class));
+        start(0, metricsExporter);
+        try (SocketChannel channel = connect()) {
+            createLoginRequest(1).write(channel);
+            assertEquals(channel.read(ByteBuffer.allocate(1)), -1);
+        }
+    }
+
+    /**
+     * Starts a target server without targets on a free port.
+     *
+     * @param loginTimeout the login timeout in milliseconds, or <code>0</code> for none
+     * @param metricsExporter the metrics exporter, or <code>null</code> for none
+     */
+    private void start (final int loginTimeout, final MetricsExporter metricsExporter) throws IOException {
+        start(loginTimeout, metricsExporter, null);
+    }
+
+    /**
+     * Starts a target server without targets on a free port.
+     *
+     * @param loginTimeout the login timeout in milliseconds, or <code>0</code> for none
+     * @param metricsExporter the metrics exporter, or <code>null</code> for none
+     * @param loginTimer the executor scheduling the login timeouts, or <code>null</code> for the default one
+     */
+    private void start (final int loginTimeout, final MetricsExporter metricsExporter, final ScheduledExecutorService loginTimer) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final int freePort = port;
+        final Configuration config = new Configuration("127.0.0.1") {
+
+            {
+                port = freePort;
+                externalPort = freePort;
+            }
+        };
+        config.setLoginTimeout(loginTimeout);
+        config.setMetricsExporter(metricsExporter);
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(loginTimer == null ? new TargetServer(config) : new TargetServer(config, loginTimer));
+    }
+
+    private SocketChannel connect () throws IOException , InterruptedException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                return SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+            } catch (IOException e) {
+                // the target server may not be listening yet
+                if (attempt == 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Logs in to a discovery session with a single Login PDU, which transits to the full feature phase.
+     */
+    private void login (final SocketChannel channel, final int number) throws Exception {
+        createLoginRequest(number).write(channel);
+        final ProtocolDataUnit response = factory.create("None", "None");
+        response.read(channel);
+        final LoginResponseParser parser = (LoginResponseParser) response.getBasicHeaderSegment().getParser();
+        assertEquals(parser.getStatus(), LoginStatus.SUCCESS);
+        assertEquals(parser.getNextStageNumber(), LoginStage.FULL_FEATURE_PHASE);
+    }
+
+    /**
+     * Sends a NOP-Out PDU and waits for the NOP-In PDU echoing it.
+     */
+    private void ping (final SocketChannel channel, final int number) throws Exception {
+        final ProtocolDataUnit request = factory.create(true, true, OperationCode.NOP_OUT, "None", "None");
+        request.getBasicHeaderSegment().setInitiatorTaskTag(number);
+        final ByteBuffer bytes = request.serialize();
+        // the Target Transfer Tag of a ping is reserved, the parser cannot set it
+        bytes.putInt(20, -1);
+        bytes.rewind();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        final ProtocolDataUnit response = factory.create("None", "None");
+        response.read(channel);
+        assertEquals(response.getBasicHeaderSegment().getOpCode(), OperationCode.NOP_IN);
+        assertEquals(response.getBasicHeaderSegment().getInitiatorTaskTag(), number);
+    }
+
+    private ProtocolDataUnit createLoginRequest (final int number) throws Exception {
+        final ProtocolDataUnit request = factory.create(true, true, OperationCode.LOGIN_REQUEST, "None", "None");
+        final LoginRequestParser parser = (LoginRequestParser) request.getBasicHeaderSegment().getParser();
+        parser.setCurrentStageNumber(LoginStage.LOGIN_OPERATIONAL_NEGOTIATION);
+        parser.setNextStageNumber(LoginStage.FULL_FEATURE_PHASE);
+        parser.setInitiatorSessionID(ISID.createRandom(number));
+        request.getBasicHeaderSegment().setInitiatorTaskTag(number);
+        request.setDataSegment(ByteBuffer.wrap(("InitiatorName=iqn.2015-01.org.jscsi:test-" + number + "\0SessionType=Discovery\0").getBytes(StandardCharsets.US_ASCII)));
+        return request;
+    }
+}
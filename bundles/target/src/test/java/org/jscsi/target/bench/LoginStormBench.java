@@ -0,0 +1,168 @@
+package org.jscsi.target.bench;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.login.ISID;
+import org.jscsi.parser.login.LoginRequestParser;
+import org.jscsi.parser.login.LoginResponseParser;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.login.LoginStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.TargetServer;
+import org.perfidix.Benchmark;
+import org.perfidix.annotation.AfterBenchClass;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.ouput.TabularSummaryOutput;
+import org.perfidix.result.BenchmarkResult;
+
+
+/**
+ * Measures the time until a number of initiators, which connect to a {@link TargetServer} at the same moment, have all
+ * reached the full feature phase of a discovery session. A few connections which never send their first Login PDU are
+ * kept open during the runs, like initiators stuck in their login after a target restart.
+ */
+public class LoginStormBench {
+
+    static final int PORT = 3262;
+
+    static final int SILENT_CONNECTIONS = 4;
+
+    static final ProtocolDataUnitFactory factory = new ProtocolDataUnitFactory();
+
+    TargetServer targetServer;
+
+    ExecutorService targetExecutor;
+
+    ExecutorService initiators;
+
+    final List<SocketChannel> silentConnections = new ArrayList<>();
+
+    @BeforeBenchClass
+    public void setUp () throws Exception {
+        final Configuration config = new Configuration("127.0.0.1") {
+
+            {
+                port = PORT;
+                externalPort = PORT;
+            }
+        };
+        // the silent connections must outlive the benchmark
+        config.setLoginTimeout(0);
+        targetServer = new TargetServer(config);
+        targetExecutor = Executors.newSingleThreadExecutor();
+        targetExecutor.submit(targetServer);
+        initiators = Executors.newCachedThreadPool();
+
+        for (int i = 0; i < SILENT_CONNECTIONS; i++) {
+            silentConnections.add(connect());
+        }
+    }
+
+    @AfterBenchClass
+    public void tearDown () throws IOException {
+        for (SocketChannel channel : silentConnections) {
+            channel.close();
+        }
+        initiators.shutdown();
+        targetExecutor.shutdownNow();
+    }
+
+    static SocketChannel connect () throws IOException, InterruptedException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                return SocketChannel.open(new InetSocketAddress("127.0.0.1", PORT));
+            } catch (IOException e) {
+                // the target server may not be listening yet
+                if (attempt == 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Logs in with a single Login PDU, which transits from the operational parameter negotiation to the full feature
+     * phase.
+     */
+    static SocketChannel login (final int number) throws Exception {
+        final SocketChannel channel = connect();
+        channel.socket().setTcpNoDelay(true);
+
+        final ProtocolDataUnit request = factory.create(true, true, OperationCode.LOGIN_REQUEST, "None", "None");
+        final LoginRequestParser parser = (LoginRequestParser) request.getBasicHeaderSegment().getParser();
+        parser.setCurrentStageNumber(LoginStage.LOGIN_OPERATIONAL_NEGOTIATION);
+        parser.setNextStageNumber(LoginStage.FULL_FEATURE_PHASE);
+        parser.setInitiatorSessionID(ISID.createRandom(number));
+        request.getBasicHeaderSegment().setInitiatorTaskTag(number);
+        request.setDataSegment(ByteBuffer.wrap(("InitiatorName=iqn.2015-01.org.jscsi:bench-" + number + "\0SessionType=Discovery\0").getBytes(StandardCharsets.US_ASCII)));
+        request.write(channel);
+
+        final ProtocolDataUnit response = factory.create("None", "None");
+        response.read(channel);
+        final LoginResponseParser responseParser = (LoginResponseParser) response.getBasicHeaderSegment().getParser();
+        if (responseParser.getStatus() != LoginStatus.SUCCESS || responseParser.getNextStageNumber() != LoginStage.FULL_FEATURE_PHASE) {
+            channel.close();
+            throw new InternetSCSIException("login " + number + " failed: " + responseParser.getStatus());
+        }
+        return channel;
+    }
+
+    /**
+     * Logs in the given number of initiators at once and returns when all of them have reached the full feature phase.
+     */
+    void loginStorm (final int sessions) throws Exception {
+        final List<Future<SocketChannel>> logins = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            final int number = i;
+            logins.add(initiators.submit(new Callable<SocketChannel>() {
+
+                @Override
+                public SocketChannel call () throws Exception {
+                    return login(number);
+                }
+            }));
+        }
+        final List<SocketChannel> channels = new ArrayList<>(sessions);
+        for (Future<SocketChannel> login : logins) {
+            channels.add(login.get());
+        }
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    @Bench
+    public void benchLoginStorm16 () throws Exception {
+        loginStorm(16);
+    }
+
+    @Bench
+    public void benchLoginStorm128 () throws Exception {
+        loginStorm(128);
+    }
+
+    public static void main (String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark();
+        benchmark.add(LoginStormBench.class);
+        BenchmarkResult res = benchmark.run();
+        TabularSummaryOutput tab = new TabularSummaryOutput();
+        tab.visitBenchmark(res);
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.jscsi.target.bench;
+
+
+import java.lang.management.ManagementFactory;
+
+import org.jscsi.target.metrics.CommandCounters;
+import org.jscsi.target.metrics.TargetMetrics;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.perfidix.Benchmark;
+import org.perfidix.annotation.Bench;
+import org.perfidix.ouput.TabularSummaryOutput;
+import org.perfidix.result.BenchmarkResult;
+
+
+/**
+ * Measures the overhead the {@link TargetMetrics} add to each SCSI command: the clock reads around the stage and the
+ * I/O calls, and the updates of the session and target counters and histograms. Besides the perfidix timings,
+ * {@link #main(String[])} prints the time and the number of bytes allocated per command, with several threads
+ * recording into the same target metrics like the connections of different sessions.
+ */
+public class MetricsBench {
+
+    static final int COMMANDS_PER_RUN = 1000000;
+
+    static final byte[] OPERATION_CODES = { ScsiOperationCode.READ_10.value(), ScsiOperationCode.WRITE_10.value(), ScsiOperationCode.READ_16.value(), ScsiOperationCode.WRITE_16.value() };
+
+    final TargetMetrics targetMetrics = new TargetMetrics();
+
+    /**
+     * Keeps the results alive.
+     */
+    long sink;
+
+    /**
+     * Executes empty commands, only reading the clock like the full feature phase does without metrics.
+     */
+    void runWithoutMetrics () {
+        for (int i = 0; i < COMMANDS_PER_RUN; i++) {
+            sink += System.nanoTime() & i;
+        }
+    }
+
+    /**
+     * Executes empty commands, recording them like the full feature phase does.
+     */
+    void runWithMetrics (final CommandCounters session) {
+        for (int i = 0; i < COMMANDS_PER_RUN; i++) {
+            session.commandStarted();
+            targetMetrics.commandStarted();
+            final long start = System.nanoTime();
+            // one received and one sent PDU
+            final long receive = System.nanoTime() - System.nanoTime();
+            final long send = System.nanoTime() - System.nanoTime();
+            final long total = System.nanoTime() - start;
+            session.commandFinished(4096, 0);
+            targetMetrics.commandFinished(OPERATION_CODES[i & 3], 4096, 0, receive, total - receive - send, send);
+        }
+    }
+
+    @Bench
+    public void benchWithoutMetrics () {
+        runWithoutMetrics();
+    }
+
+    @Bench
+    public void benchWithMetrics () {
+        runWithMetrics(new CommandCounters());
+    }
+
+    static long nanosPerCommand (final MetricsBench bench, final int threads) throws Exception {
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+
+                @Override
+                public void run () {
+                    bench.runWithMetrics(new CommandCounters());
+                }
+            };
+        }
+        final long start = System.nanoTime();
+        for (Thread worker : workers)
+            worker.start();
+        for (Thread worker : workers)
+            worker.join();
+        // wall clock time per command, which includes the contention on the target metrics
+        return (System.nanoTime() - start) * Math.min(threads, Runtime.getRuntime().availableProcessors()) / ((long) threads * COMMANDS_PER_RUN);
+    }
+
+    public static void main (String[] args) throws Exception {
+        final MetricsBench bench = new MetricsBench();
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        // warm up
+        bench.runWithMetrics(new CommandCounters());
+        final CommandCounters session = new CommandCounters();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        bench.runWithMetrics(session);
+        System.out.println("bytes allocated per command: " + (threads.getThreadAllocatedBytes(threadId) - before) / COMMANDS_PER_RUN);
+        for (int n : new int[] { 1, 4, 16 }) {
+            System.out.println("ns per command and processor with " + n + " recording threads: " + nanosPerCommand(bench, n));
+        }
+
+        Benchmark benchmark = new Benchmark();
+        benchmark.add(MetricsBench.class);
+        BenchmarkResult res = benchmark.run();
+        TabularSummaryOutput tab = new TabularSummaryOutput();
+        tab.visitBenchmark(res);
+    }
+
+}
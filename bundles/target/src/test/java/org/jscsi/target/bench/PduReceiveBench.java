@@ -0,0 +1,182 @@
+package org.jscsi.target.bench;
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.SizeClassedBufferAllocator;
+import org.perfidix.Benchmark;
+import org.perfidix.annotation.AfterBenchClass;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.ouput.TabularSummaryOutput;
+import org.perfidix.result.BenchmarkResult;
+
+
+/**
+ * Receives Data-Out PDUs over loopback connections, once with a new data segment per PDU and once with pooled data
+ * segments, each with exactly sized socket reads or through a shared read buffer. Besides the perfidix timings,
+ * {@link #main(String[])} prints the number of bytes allocated per received PDU.
+ */
+public class PduReceiveBench {
+
+    static final int PDUS_PER_RUN = 1000;
+
+    static final IBufferAllocator pooled = new SizeClassedBufferAllocator(false);
+
+    static final IBufferAllocator direct = new SizeClassedBufferAllocator(true);
+
+    /**
+     * A loopback connection, over which the same PDU is sent over and over again.
+     */
+    static class Stream {
+
+        final ServerSocketChannel server;
+
+        final SocketChannel sender;
+
+        final SocketChannel receiver;
+
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        Stream (final int dataSegmentLength) throws Exception {
+            server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            sender = SocketChannel.open(server.socket().getLocalSocketAddress());
+            receiver = server.accept();
+            readBuffer.limit(0);
+
+            final ProtocolDataUnit pdu = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_DATA_OUT, "None", "None");
+            pdu.setDataSegment(ByteBuffer.allocate(dataSegmentLength));
+            final ByteBuffer serialized = pdu.serialize();
+
+            final Thread writer = new Thread() {
+
+                @Override
+                public void run () {
+                    try {
+                        while (true) {
+                            serialized.rewind();
+                            while (serialized.hasRemaining()) {
+                                sender.write(serialized);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // receiver closed, stop writing
+                    }
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void receive (final IBufferAllocator allocator, final boolean buffered) throws Exception {
+            final ProtocolDataUnitFactory factory = new ProtocolDataUnitFactory(allocator);
+            for (int i = 0; i < PDUS_PER_RUN; i++) {
+                final ProtocolDataUnit pdu = factory.create("None", "None");
+                if (buffered) {
+                    pdu.read(receiver, readBuffer);
+                } else {
+                    pdu.read(receiver);
+                }
+                pdu.release();
+            }
+        }
+
+        void close () throws IOException {
+            receiver.close();
+            sender.close();
+            server.close();
+        }
+    }
+
+    Stream large;
+
+    Stream largeBuffered;
+
+    Stream small;
+
+    Stream smallBuffered;
+
+    @BeforeBenchClass
+    public void setUp () throws Exception {
+        large = new Stream(8192);
+        largeBuffered = new Stream(8192);
+        small = new Stream(512);
+        smallBuffered = new Stream(512);
+    }
+
+    @AfterBenchClass
+    public void tearDown () throws IOException {
+        large.close();
+        largeBuffered.close();
+        small.close();
+        smallBuffered.close();
+    }
+
+    @Bench
+    public void benchReceiveUnpooled () throws Exception {
+        large.receive(HeapBufferAllocator.getInstance(), false);
+    }
+
+    @Bench
+    public void benchReceivePooled () throws Exception {
+        large.receive(pooled, false);
+    }
+
+    @Bench
+    public void benchReceivePooledDirect () throws Exception {
+        large.receive(direct, false);
+    }
+
+    @Bench
+    public void benchReceivePooledBuffered () throws Exception {
+        largeBuffered.receive(pooled, true);
+    }
+
+    @Bench
+    public void benchReceiveSmallPooled () throws Exception {
+        small.receive(pooled, false);
+    }
+
+    @Bench
+    public void benchReceiveSmallPooledBuffered () throws Exception {
+        smallBuffered.receive(pooled, true);
+    }
+
+    static long allocatedBytesPerPdu (final Stream stream, final IBufferAllocator allocator, final boolean buffered) throws Exception {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        // warm up
+        stream.receive(allocator, buffered);
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        stream.receive(allocator, buffered);
+        return (threads.getThreadAllocatedBytes(threadId) - before) / PDUS_PER_RUN;
+    }
+
+    public static void main (String[] args) throws Exception {
+        final PduReceiveBench bench = new PduReceiveBench();
+        bench.setUp();
+        System.out.println("bytes allocated per 8 KiB Data-Out PDU, unpooled:        " + allocatedBytesPerPdu(bench.large, HeapBufferAllocator.getInstance(), false));
+        System.out.println("bytes allocated per 8 KiB Data-Out PDU, pooled:          " + allocatedBytesPerPdu(bench.large, pooled, false));
+        System.out.println("bytes allocated per 8 KiB Data-Out PDU, pooled direct:   " + allocatedBytesPerPdu(bench.large, direct, false));
+        System.out.println("bytes allocated per 8 KiB Data-Out PDU, pooled buffered: " + allocatedBytesPerPdu(bench.largeBuffered, pooled, true));
+        bench.tearDown();
+
+        Benchmark benchmark = new Benchmark();
+        benchmark.add(PduReceiveBench.class);
+        BenchmarkResult res = benchmark.run();
+        TabularSummaryOutput tab = new TabularSummaryOutput();
+        tab.visitBenchmark(res);
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.jscsi.target.bench;
+
+
+import java.lang.management.ManagementFactory;
+
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.digest.DigestType;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.settings.Settings;
+import org.jscsi.target.settings.StageSettings;
+import org.perfidix.Benchmark;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.ouput.TabularSummaryOutput;
+import org.perfidix.result.BenchmarkResult;
+
+
+/**
+ * Reads the parameters a stage needs for each command and creates the PDU for the next received command, once through
+ * the {@link Settings} object and the digest names, and once through the {@link StageSettings} snapshot and the
+ * resolved digest types. Besides the perfidix timings, {@link #main(String[])} prints the number of bytes allocated per
+ * command.
+ */
+public class SettingsBench {
+
+    static final int COMMANDS_PER_RUN = 100000;
+
+    static final ProtocolDataUnitFactory factory = new ProtocolDataUnitFactory();
+
+    ConnectionSettingsNegotiator negotiator;
+
+    /**
+     * Keeps the results alive.
+     */
+    long sink;
+
+    @BeforeBenchClass
+    public void setUp () {
+        negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+    }
+
+    void runSettings () throws Exception {
+        for (int i = 0; i < COMMANDS_PER_RUN; i++) {
+            final Settings settings = negotiator.getSettings();
+            final ProtocolDataUnit pdu = factory.create(settings.getHeaderDigest(), settings.getDataDigest());
+            sink += settings.getMaxBurstLength() + settings.getMaxRecvDataSegmentLength() + settings.getFirstBurstLength();
+            if (settings.getImmediateData() && !settings.getInitialR2T()) sink++;
+            if ("None".equals(settings.getHeaderDigest()) && "None".equals(settings.getDataDigest())) sink++;
+            pdu.release();
+        }
+    }
+
+    void runStageSettings () {
+        for (int i = 0; i < COMMANDS_PER_RUN; i++) {
+            final StageSettings settings = negotiator.getStageSettings();
+            final ProtocolDataUnit pdu = factory.create(settings.getHeaderDigest(), settings.getDataDigest());
+            sink += settings.getMaxBurstLength() + settings.getMaxRecvDataSegmentLength() + settings.getFirstBurstLength();
+            if (settings.getImmediateData() && !settings.getInitialR2T()) sink++;
+            if (settings.hasNoDigests()) sink++;
+            pdu.release();
+        }
+    }
+
+    @Bench
+    public void benchSettings () throws Exception {
+        runSettings();
+    }
+
+    @Bench
+    public void benchStageSettings () {
+        runStageSettings();
+    }
+
+    static long allocatedBytesPerCommand (final SettingsBench bench, final boolean snapshot) throws Exception {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        // warm up
+        run(bench, snapshot);
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        run(bench, snapshot);
+        return (threads.getThreadAllocatedBytes(threadId) - before) / COMMANDS_PER_RUN;
+    }
+
+    private static void run (final SettingsBench bench, final boolean snapshot) throws Exception {
+        if (snapshot) {
+            bench.runStageSettings();
+        } else {
+            bench.runSettings();
+        }
+    }
+
+    public static void main (String[] args) throws Exception {
+        final SettingsBench bench = new SettingsBench();
+        bench.setUp();
+        System.out.println("bytes allocated per command, settings:       " + allocatedBytesPerCommand(bench, false));
+        System.out.println("bytes allocated per command, stage settings: " + allocatedBytesPerCommand(bench, true));
+
+        Benchmark benchmark = new Benchmark();
+        benchmark.add(SettingsBench.class);
+        BenchmarkResult res = benchmark.run();
+        TabularSummaryOutput tab = new TabularSummaryOutput();
+        tab.visitBenchmark(res);
+    }
+
+}
@@ -25,6 +25,7 @@ import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.parser.scsi.SCSIResponseParser;
 import org.jscsi.parser.scsi.SCSIResponseParser.ServiceResponse;
 import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Target;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.connection.stage.TargetStage;
 import org.jscsi.target.connection.stage.fullfeature.FormatUnitStage;
@@ -59,6 +60,7 @@ import org.jscsi.target.settings.SessionSettingsNegotiator;
 import org.jscsi.target.settings.SettingsException;
 import org.jscsi.target.settings.TextKeyword;
 import org.jscsi.target.settings.TextParameter;
+import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.ReadWrite;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.DataProvider;
@@ -149,6 +151,10 @@ public class ConnectionTest {
         final TargetSession session = mock(TargetSession.class);
 
         when(connection.getSettings()).thenReturn(connectionSettingsNegotiator.getSettings());
+        when(connection.getStageSettings()).thenReturn(connectionSettingsNegotiator.getStageSettings());
+        // responses are cached by the target
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getTarget()).thenReturn(new Target("iqn.test:target", "target", mock(IStorageModule.class)));
 
         // setting up the phases
         TargetFullFeaturePhase phase = new TargetFullFeaturePhase(connection);
@@ -0,0 +1,187 @@
+package org.jscsi.target.connection;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jscsi.parser.buffer.HeapBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+
+import org.testng.annotations.Test;
+
+
+public class SendQueueTest {
+
+    private static final int PDUS = 5000;
+
+    /**
+     * Enqueues many small buffers and checks that they arrive complete and in order.
+     */
+    @Test
+    public void testOrderAndCompleteness () throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress()); SocketChannel accepted = server.accept()) {
+
+                final SendQueue queue = new SendQueue(accepted);
+                final Thread producer = new Thread() {
+
+                    @Override
+                    public void run () {
+                        try {
+                            for (int i = 0; i < PDUS; ++i) {
+                                final ByteBuffer buffer = ByteBuffer.allocate(4 + (i % 7));
+                                buffer.putInt(0, i);
+                                queue.enqueue(buffer);
+                            }
+                            queue.close();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                producer.start();
+
+                final DataInputStream in = new DataInputStream(client.socket().getInputStream());
+                for (int i = 0; i < PDUS; ++i) {
+                    assertEquals(in.readInt(), i);
+                    in.readFully(new byte[i % 7]);
+                }
+                producer.join();
+
+                accepted.close();
+                assertEquals(in.read(), -1);
+                assertTrue(queue.getBatchSizeHistogram().getTotalCount() > 0);
+                assertTrue(queue.getBatchSizeHistogram().getTotalCount() <= PDUS);
+            }
+        }
+    }
+
+    /**
+     * Interleaves buffers with transfers from a file-based storage module.
+     */
+    @Test
+    public void testStorageTransfer () throws Exception {
+        final File file = File.createTempFile("jscsi-send-queue", ".dat");
+        file.deleteOnExit();
+        final IStorageModule storage = RandomAccessStorageModule.open(file, 64 * 1024, true, RandomAccessStorageModule.class);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            final byte[] stored = new byte[64 * 1024];
+            new Random(7).nextBytes(stored);
+            storage.write(stored, 0);
+
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress()); SocketChannel accepted = server.accept()) {
+                final SendQueue queue = new SendQueue(accepted);
+                for (int i = 0; i < 16; ++i) {
+                    final ByteBuffer header = ByteBuffer.allocate(4);
+                    header.putInt(0, i);
+                    queue.enqueue(header, storage, i * 4096, 4096);
+                }
+                queue.flush();
+
+                final DataInputStream in = new DataInputStream(client.socket().getInputStream());
+                final byte[] segment = new byte[4096];
+                for (int i = 0; i < 16; ++i) {
+                    assertEquals(in.readInt(), i);
+                    in.readFully(segment);
+                    assertEquals(segment, Arrays.copyOfRange(stored, i * 4096, (i + 1) * 4096));
+                }
+                queue.close();
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Sends padded slices of a pooled buffer and checks that the buffer is released after they have been written.
+     */
+    @Test
+    public void testPooledSegments () throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress()); SocketChannel accepted = server.accept()) {
+                final SendQueue queue = new SendQueue(accepted);
+                final byte[] data = new byte[1000];
+                new Random(11).nextBytes(data);
+                final PooledBuffer window = HeapBufferAllocator.getInstance().allocate(data.length);
+                window.getBuffer().put(data);
+
+                // segments of 250, 250, 250 and 250 bytes, each padded with two bytes
+                for (int i = 0; i < 4; ++i) {
+                    final ByteBuffer buffer = window.getBuffer();
+                    buffer.limit((i + 1) * 250);
+                    buffer.position(i * 250);
+                    final ByteBuffer header = ByteBuffer.allocate(4);
+                    header.putInt(0, i);
+                    window.retain();
+                    queue.enqueue(header, buffer.slice(), window);
+                }
+                window.release();
+                queue.flush();
+                assertEquals(window.getReferenceCount(), 0);
+
+                final DataInputStream in = new DataInputStream(client.socket().getInputStream());
+                final byte[] segment = new byte[250];
+                for (int i = 0; i < 4; ++i) {
+                    assertEquals(in.readInt(), i);
+                    in.readFully(segment);
+                    assertEquals(segment, Arrays.copyOfRange(data, i * 250, (i + 1) * 250));
+                    assertEquals(in.readShort(), 0);
+                }
+                queue.close();
+            }
+        }
+    }
+
+    /**
+     * Enqueues slices of a pooled buffer for a socket which has been closed and checks that the buffer is released
+     * although none of them could be written.
+     */
+    @Test
+    public void testPooledSegmentsReleasedOnFailure () throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress()); SocketChannel accepted = server.accept()) {
+                final SendQueue queue = new SendQueue(accepted);
+                accepted.close();
+                final PooledBuffer window = HeapBufferAllocator.getInstance().allocate(1024);
+                int failures = 0;
+                for (int i = 0; i < SendQueue.CAPACITY * 2; ++i) {
+                    final ByteBuffer buffer = window.getBuffer();
+                    buffer.limit(1024);
+                    buffer.position(0);
+                    window.retain();
+                    try {
+                        queue.enqueue(ByteBuffer.allocate(48), buffer.slice(), window);
+                    } catch (IOException e) {
+                        ++failures;
+                    }
+                }
+                window.release();
+                assertTrue(failures > 0);
+                try {
+                    queue.close();
+                    fail();
+                } catch (IOException e) {
+                    // the writes failed
+                }
+                assertEquals(window.getReferenceCount(), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.jscsi.target.connection.phase;
+
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Target;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.Connection.TargetConnection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.stage.fullfeature.ReadStage;
+import org.jscsi.target.connection.stage.fullfeature.TargetFullFeatureStage;
+import org.jscsi.target.connection.stage.fullfeature.UnsupportedOpCodeStage;
+import org.jscsi.target.metrics.CommandCounters;
+import org.jscsi.target.scsi.cdb.ReadOrWriteCdbView;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests that SCSI commands are dispatched to reused stages without allocating, and how they are counted.
+ */
+public class TargetFullFeaturePhaseTest {
+
+    private static final int COMMANDS = 100000;
+
+    private TargetFullFeaturePhase phase;
+
+    @BeforeMethod
+    public void setUp () {
+        final TargetConnection connection = new TargetConnection(null, true);
+        connection.initializeConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        phase = new TargetFullFeaturePhase(connection);
+    }
+
+    @Test
+    public void testStagesAreReused () {
+        final TargetFullFeatureStage read = phase.getScsiStage(createCommand((byte) 0x28));// READ (10)
+        assertTrue(read instanceof ReadStage);
+        assertSame(phase.getScsiStage(createCommand((byte) 0x28)), read);
+        final TargetFullFeatureStage read16 = phase.getScsiStage(createCommand((byte) 0x88));// READ (16)
+        assertTrue(read16 instanceof ReadStage);
+        assertSame(phase.getScsiStage(createCommand((byte) 0x88)), read16);
+
+        final TargetFullFeatureStage unsupported = phase.getScsiStage(createCommand((byte) 0x15));// MODE SELECT (6)
+        assertTrue(unsupported instanceof UnsupportedOpCodeStage);
+        assertSame(phase.getScsiStage(createCommand((byte) 0xff)), unsupported);
+    }
+
+    @Test
+    public void testDispatchDoesNotAllocate () {
+        final ProtocolDataUnit read = createCommand((byte) 0x28);
+        final ProtocolDataUnit write = createCommand((byte) 0x2a);
+        final ReadOrWriteCdbView cdb = new ReadOrWriteCdbView();
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        long sink = 0;
+        for (int round = 0; round < 2; ++round) {
+            // the first round creates the stages and warms up
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < COMMANDS; ++i) {
+                final ProtocolDataUnit pdu = (i & 1) == 0 ? read : write;
+                phase.getScsiStage(pdu);
+                cdb.wrap(((SCSICommandParser) pdu.getBasicHeaderSegment().getParser()).getCDB());
+                sink += cdb.getLogicalBlockAddress() + cdb.getTransferLength();
+                if (cdb.hasIllegalFields() || cdb.getForceUnitAccess()) sink++;
+            }
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            // a single allocation per command would add up to megabytes
+            if (round == 1) assertTrue(allocated < COMMANDS, allocated + " bytes allocated for " + COMMANDS + " commands");
+        }
+        assertTrue(sink > 0);
+    }
+
+    /**
+     * Counts only the bytes actually transferred by finished commands, which are none for failed commands and less
+     * than the expected data transfer length for short ones.
+     */
+    @Test
+    public void testTransferredBytes () {
+        final Connection connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final CommandCounters counters = new CommandCounters();
+        final Target target = new Target("iqn.test", "test", null);
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getCommandCounters()).thenReturn(counters);
+        when(session.getTarget()).thenReturn(target);
+        final TargetFullFeaturePhase phase = new TargetFullFeaturePhase(connection);
+        final ProtocolDataUnit read = createCommand((byte) 0x28);
+        ((SCSICommandParser) read.getBasicHeaderSegment().getParser()).setExpectedDataTransferLength(8192);
+        ((SCSICommandParser) read.getBasicHeaderSegment().getParser()).setReadExpectedFlag(true);
+
+        when(connection.getSentStatus()).thenReturn(SCSIStatus.GOOD);
+        phase.finishCommand(read, System.nanoTime());
+        when(connection.getSentResidualUnderflow()).thenReturn(2048L);
+        phase.finishCommand(read, System.nanoTime());
+        when(connection.getSentStatus()).thenReturn(SCSIStatus.CHECK_CONDITION);
+        phase.finishCommand(read, System.nanoTime());
+
+        assertEquals(counters.getCommands(), 3);
+        assertEquals(counters.getBytesRead(), 8192 + 6144);
+        assertEquals(counters.getBytesWritten(), 0);
+        assertEquals(target.getMetrics().getBytesRead(), 8192 + 6144);
+    }
+
+    private static ProtocolDataUnit createCommand (final byte operationCode) {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, operationCode);
+        cdb.putInt(2, 8);
+        cdb.putShort(7, (short) 16);
+        parser.setCommandDescriptorBlock(cdb);
+        return command;
+    }
+}
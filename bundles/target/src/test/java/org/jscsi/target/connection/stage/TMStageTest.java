@@ -0,0 +1,157 @@
+package org.jscsi.target.connection.stage;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.FutureTask;
+
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.tmf.TaskManagementFunctionResponseParser;
+import org.jscsi.parser.tmf.TaskManagementFunctionResponseParser.ResponseCode;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.Task;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.TaskSet;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class TMStageTest {
+
+    private static final byte ABORT_TASK = 1;
+
+    private static final byte LUN_RESET = 5;
+
+    private Connection connection;
+
+    private TaskSet taskSet;
+
+    private TaskSet otherTaskSet;
+
+    private final List<ProtocolDataUnit> sent = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp () throws Exception {
+        sent.clear();
+        taskSet = new TaskSet();
+        otherTaskSet = new TaskSet();
+
+        connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetSession otherSession = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        final Target target = new Target("iqn.test:target", "target", null);
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getTaskSet()).thenReturn(taskSet);
+        when(session.getTarget()).thenReturn(target);
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(otherSession.getTaskSet()).thenReturn(otherTaskSet);
+        when(targetServer.getTargetSessions(target)).thenReturn(Arrays.asList(session, otherSession));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer (InvocationOnMock invocation) {
+                synchronized (sent) {
+                    sent.add((ProtocolDataUnit) invocation.getArguments()[0]);
+                }
+                return null;
+            }
+        }).when(connection).sendPdu(any(ProtocolDataUnit.class));
+    }
+
+    /**
+     * Aborting a running task cancels the storage operation it waits for, and the response is sent once the task has
+     * terminated.
+     */
+    @Test
+    public void testAbortRunningTask () throws Exception {
+        final Task task = new Task(0x11, 0, null);
+        taskSet.add(task);
+        assertTrue(task.start());
+        final FutureTask<Void> read = new FutureTask<>(new Runnable() {
+
+            @Override
+            public void run () {}
+        }, null);
+        task.register(read);
+
+        execute(ABORT_TASK, 0x11);
+
+        assertTrue(task.isAborted());
+        assertTrue(read.isCancelled());
+        try {
+            read.get();
+            assertTrue(false);
+        } catch (CancellationException e) {
+            // the waiting stage is released
+        }
+        assertTrue(sent.isEmpty());
+
+        task.terminate();
+        assertEquals(getResponse(), ResponseCode.FUNCTION_COMPLETE);
+    }
+
+    /**
+     * Aborting a task which is not known to the session is answered immediately.
+     */
+    @Test
+    public void testAbortUnknownTask () throws Exception {
+        execute(ABORT_TASK, 0x12);
+
+        assertEquals(getResponse(), ResponseCode.TASK_DOES_NOT_EXIST);
+    }
+
+    /**
+     * A logical unit reset drops queued tasks of all sessions accessing the logical unit.
+     */
+    @Test
+    public void testLogicalUnitReset () throws Exception {
+        final Task task = new Task(0x13, 0, null);
+        final Task otherTask = new Task(0x13, 0, null);
+        taskSet.add(task);
+        otherTaskSet.add(otherTask);
+
+        execute(LUN_RESET, 0);
+
+        assertEquals(getResponse(), ResponseCode.FUNCTION_COMPLETE);
+        assertFalse(task.start());
+        assertFalse(otherTask.start());
+    }
+
+    /**
+     * Sends a Task Management Function Request PDU to a new {@link TMStage}.
+     */
+    private void execute (final byte function, final int referencedTaskTag) throws Exception {
+        final ByteBuffer bhs = ByteBuffer.allocate(48);
+        bhs.put(0, (byte) 0x42);// immediate, SCSI Task Management Function Request
+        bhs.put(1, (byte) (0x80 | function));
+        bhs.putInt(16, 0x77);// Initiator Task Tag
+        bhs.putInt(20, referencedTaskTag);
+        final ProtocolDataUnit pdu = new ProtocolDataUnitFactory().create("None", "None");
+        pdu.deserialize(bhs);
+
+        new TMStage(new TargetFullFeaturePhase(connection)).execute(pdu);
+    }
+
+    private ResponseCode getResponse () {
+        assertEquals(sent.size(), 1);
+        return ((TaskManagementFunctionResponseParser) sent.get(0).getBasicHeaderSegment().getParser()).getResponse();
+    }
+}
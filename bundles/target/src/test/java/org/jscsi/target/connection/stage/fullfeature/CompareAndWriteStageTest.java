@@ -0,0 +1,215 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.jscsi.target.storage.RangeLock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class CompareAndWriteStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int LBA = 16;
+
+    private static final int BLOCKS = 2;
+
+    private IStorageModule storage;
+
+    private Target target;
+
+    private Connection connection;
+
+    private final List<ProtocolDataUnit> sent = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp () throws Exception {
+        final File file = File.createTempFile("jscsi-compare-and-write", ".dat");
+        file.deleteOnExit();
+        storage = RandomAccessStorageModule.open(file, 64 * BLOCK_SIZE, true, RandomAccessStorageModule.class);
+        target = new Target("iqn.test", "test", storage);
+        sent.clear();
+
+        final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        negotiator.beginNegotiation();
+        assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("ImmediateData=Yes"), new ArrayList<String>()));
+        negotiator.finishNegotiation(true);
+
+        connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getStorageModule()).thenReturn(storage);
+        when(session.getTarget()).thenReturn(target);
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(targetServer.getConfig()).thenReturn(new Configuration("127.0.0.1"));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer (InvocationOnMock invocation) {
+                sent.add((ProtocolDataUnit) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(connection).sendPdu(any(ProtocolDataUnit.class));
+    }
+
+    @AfterMethod
+    public void tearDown () throws Exception {
+        storage.close();
+    }
+
+    /**
+     * Replaces the stored blocks if they match the verify data.
+     */
+    @Test
+    public void testCompareAndWrite () throws Exception {
+        final byte[] stored = block((byte) 1);
+        storage.write(stored, LBA * BLOCK_SIZE);
+        final byte[] written = block((byte) 2);
+
+        execute(stored, written);
+
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        storage.read(bytes, LBA * BLOCK_SIZE);
+        assertEquals(bytes, written);
+        assertEquals(target.getRangeLock().getHoldTimeHistogram().getTotalCount(), 1);
+    }
+
+    /**
+     * Leaves the stored blocks unchanged and reports the offset of the first miscompared byte.
+     */
+    @Test
+    public void testMiscompare () throws Exception {
+        final byte[] stored = block((byte) 1);
+        storage.write(stored, LBA * BLOCK_SIZE);
+        final byte[] verify = stored.clone();
+        verify[700] = 0;
+
+        execute(verify, block((byte) 2));
+
+        assertEquals(getStatus(), SCSIStatus.CHECK_CONDITION);
+        final ByteBuffer senseData = sent.get(0).getDataSegment();
+        assertEquals(senseData.get(2) & 0x80, 0x80);// VALID
+        assertEquals(senseData.get(4) & 15, 0x0e);// MISCOMPARE
+        assertEquals(senseData.getInt(5), 700);// INFORMATION
+        assertEquals(senseData.getShort(14), 0x1d00);// MISCOMPARE DURING VERIFY OPERATION
+
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        storage.read(bytes, LBA * BLOCK_SIZE);
+        assertEquals(bytes, stored);
+    }
+
+    /**
+     * A <code>WRITE</code> of blocks locked by another command waits until they are unlocked.
+     */
+    @Test
+    public void testWriteWaitsForLockedRange () throws Exception {
+        final RangeLock.Range range = target.getRangeLock().lock(LBA + 1, 1);
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x2a);
+        cdb.putInt(2, LBA);
+        cdb.putShort(7, (short) BLOCKS);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(BLOCKS * BLOCK_SIZE);
+        parser.setWriteExpectedFlag(true);
+        command.setDataSegment(ByteBuffer.wrap(block((byte) 3)));
+        final Exception[] failure = new Exception[1];
+        final Thread writer = new Thread() {
+
+            @Override
+            public void run () {
+                try {
+                    new WriteStage(new TargetFullFeaturePhase(connection)).execute(command);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        writer.start();
+
+        // wait until the writer waits for the range lock
+        while (writer.getState() != Thread.State.WAITING) {
+            assertTrue(writer.isAlive());
+            Thread.yield();
+        }
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        storage.read(bytes, LBA * BLOCK_SIZE);
+        assertEquals(bytes, new byte[BLOCKS * BLOCK_SIZE]);
+
+        target.getRangeLock().unlock(range);
+        writer.join(5000);
+        assertEquals(failure[0], null);
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+        storage.read(bytes, LBA * BLOCK_SIZE);
+        assertEquals(bytes, block((byte) 3));
+    }
+
+    private static byte[] block (final byte value) {
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+    /**
+     * Sends the verify and the write data as immediate data.
+     */
+    private void execute (final byte[] verify, final byte[] write) throws Exception {
+        final ByteBuffer data = ByteBuffer.allocate(verify.length + write.length);
+        data.put(verify).put(write).flip();
+
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x89);
+        cdb.putLong(2, LBA);
+        cdb.put(13, (byte) BLOCKS);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(data.remaining());
+        parser.setWriteExpectedFlag(true);
+        command.setDataSegment(data);
+
+        new CompareAndWriteStage(new TargetFullFeaturePhase(connection)).execute(command);
+    }
+
+    private SCSIStatus getStatus () {
+        assertEquals(sent.size(), 1);
+        return ((SCSIResponseParser) sent.get(0).getBasicHeaderSegment().getParser()).getStatus();
+    }
+}
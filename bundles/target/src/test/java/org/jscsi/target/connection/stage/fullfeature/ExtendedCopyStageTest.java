@@ -0,0 +1,244 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.CopyManager;
+import org.jscsi.target.storage.CopyManager.CopyOperation;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class ExtendedCopyStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int BLOCKS = 8;
+
+    private static final int LIST_ID = 7;
+
+    private IStorageModule sourceStorage;
+
+    private IStorageModule destinationStorage;
+
+    private Target source;
+
+    private Target destination;
+
+    private Connection connection;
+
+    private final List<ProtocolDataUnit> sent = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp () throws Exception {
+        sourceStorage = open("jscsi-copy-source");
+        destinationStorage = open("jscsi-copy-destination");
+        source = new Target("iqn.test:source", "source", sourceStorage);
+        destination = new Target("iqn.test:destination", "destination", destinationStorage);
+        sent.clear();
+
+        final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        negotiator.beginNegotiation();
+        assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("ImmediateData=Yes"), new ArrayList<String>()));
+        negotiator.finishNegotiation(true);
+
+        connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getStorageModule()).thenReturn(sourceStorage);
+        when(session.getTarget()).thenReturn(source);
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(session.getCopyOperations()).thenReturn(new ConcurrentHashMap<Integer, CopyOperation>());
+        when(targetServer.getConfig()).thenReturn(new Configuration("127.0.0.1"));
+        when(targetServer.getTargetNames()).thenReturn(new String[] { source.getTargetName(), destination.getTargetName() });
+        when(targetServer.getTarget(source.getTargetName())).thenReturn(source);
+        when(targetServer.getTarget(destination.getTargetName())).thenReturn(destination);
+        // small chunks, so that each segment is copied in several steps
+        when(targetServer.getCopyManager()).thenReturn(new CopyManager(2 * BLOCK_SIZE, 0, 1));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer (InvocationOnMock invocation) {
+                sent.add((ProtocolDataUnit) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(connection).sendPdu(any(ProtocolDataUnit.class));
+    }
+
+    private static IStorageModule open (final String prefix) throws Exception {
+        final File file = File.createTempFile(prefix, ".dat");
+        file.deleteOnExit();
+        return RandomAccessStorageModule.open(file, 64 * BLOCK_SIZE, true, RandomAccessStorageModule.class);
+    }
+
+    @AfterMethod
+    public void tearDown () throws Exception {
+        sourceStorage.close();
+        destinationStorage.close();
+    }
+
+    /**
+     * Copies blocks from one target to another one and reports the result for the list identifier.
+     */
+    @Test
+    public void testCopyBetweenTargets () throws Exception {
+        final byte[] data = pattern();
+        sourceStorage.write(data, 4 * BLOCK_SIZE);
+
+        extendedCopy(parameterList(0, 4, 1, 20));
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        destinationStorage.read(bytes, 20 * BLOCK_SIZE);
+        assertEquals(bytes, data);
+
+        // RECEIVE COPY RESULTS (COPY STATUS)
+        sent.clear();
+        receiveCopyResults(LIST_ID);
+        assertEquals(sent.size(), 1);
+        final ByteBuffer status = sent.get(0).getDataSegment();
+        assertEquals(status.getInt(0), 8);// AVAILABLE DATA
+        assertEquals(status.get(4), 1);// COMPLETED
+        assertEquals(status.getShort(5), 1);// SEGMENTS PROCESSED
+        assertEquals(status.get(7), 0);// bytes
+        assertEquals(status.getInt(8), BLOCKS * BLOCK_SIZE);
+    }
+
+    /**
+     * Copies blocks within one target to an overlapping range, which must not overwrite blocks before they are read.
+     */
+    @Test
+    public void testOverlappingCopy () throws Exception {
+        final byte[] data = pattern();
+        sourceStorage.write(data, 4 * BLOCK_SIZE);
+
+        extendedCopy(parameterList(0, 4, 0, 7));
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        sourceStorage.read(bytes, 7 * BLOCK_SIZE);
+        assertEquals(bytes, data);
+    }
+
+    /**
+     * Rejects CSCD descriptors which do not identify a logical unit of the target server.
+     */
+    @Test
+    public void testUnknownTarget () throws Exception {
+        final ByteBuffer parameterList = parameterList(0, 4, 1, 20);
+        parameterList.put(16 + 32 + 8, (byte) 0);// corrupt the destination's NAA designator
+
+        extendedCopy(parameterList);
+
+        assertEquals(getStatus(), SCSIStatus.CHECK_CONDITION);
+        final ByteBuffer senseData = sent.get(0).getDataSegment();
+        assertEquals(senseData.get(4) & 15, 0x0a);// COPY ABORTED
+        assertEquals(senseData.getShort(14), 0x0d02);// COPY TARGET DEVICE NOT REACHABLE
+    }
+
+    private static byte[] pattern () {
+        final byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) (i / 7);
+        return bytes;
+    }
+
+    /**
+     * Creates a parameter list with CSCD descriptors for the source and the destination target and one block device
+     * to block device segment descriptor.
+     */
+    private ByteBuffer parameterList (final int sourceId, final long sourceLba, final int destinationId, final long destinationLba) {
+        final ByteBuffer buffer = ByteBuffer.allocate(16 + 2 * 32 + 28);
+        buffer.put(0, (byte) LIST_ID);
+        buffer.putShort(2, (short) 64);// CSCD DESCRIPTOR LIST LENGTH
+        buffer.putInt(8, 28);// SEGMENT DESCRIPTOR LIST LENGTH
+        int index = 16;
+        for (Target target : new Target[] { source, destination }) {
+            buffer.put(index, (byte) 0xe4);// identification descriptor
+            buffer.put(index + 4, (byte) 1);// binary
+            buffer.put(index + 5, (byte) 3);// NAA
+            buffer.put(index + 7, (byte) 8);
+            target.getLogicalUnitIdentifier().serialize(buffer, index + 8);
+            buffer.putInt(index + 28, BLOCK_SIZE);// DISK BLOCK LENGTH in bytes 29 to 31
+            index += 32;
+        }
+        buffer.put(index, (byte) 0x02);// block device to block device
+        buffer.putShort(index + 2, (short) 24);
+        buffer.putShort(index + 4, (short) sourceId);
+        buffer.putShort(index + 6, (short) destinationId);
+        buffer.putShort(index + 10, (short) BLOCKS);
+        buffer.putLong(index + 12, sourceLba);
+        buffer.putLong(index + 20, destinationLba);
+        return buffer;
+    }
+
+    /**
+     * Sends the parameter list as immediate data.
+     */
+    private void extendedCopy (final ByteBuffer parameterList) throws Exception {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x83);
+        cdb.putInt(10, parameterList.remaining());
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(parameterList.remaining());
+        parser.setWriteExpectedFlag(true);
+        command.setDataSegment(parameterList);
+
+        new ExtendedCopyStage(new TargetFullFeaturePhase(connection)).execute(command);
+    }
+
+    private void receiveCopyResults (final int listIdentifier) throws Exception {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x84);
+        cdb.put(2, (byte) listIdentifier);
+        cdb.putInt(10, 12);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(12);
+        parser.setReadExpectedFlag(true);
+
+        new ReceiveCopyResultsStage(new TargetFullFeaturePhase(connection)).execute(command);
+    }
+
+    private SCSIStatus getStatus () {
+        assertEquals(sent.size(), 1);
+        return ((SCSIResponseParser) sent.get(0).getBasicHeaderSegment().getParser()).getStatus();
+    }
+}
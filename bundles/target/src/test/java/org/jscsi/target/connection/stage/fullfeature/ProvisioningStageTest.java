@@ -0,0 +1,292 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.data.DataInParser;
+import org.jscsi.parser.data.DataOutParser;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.r2t.Ready2TransferParser;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.IStorageModule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the logical block provisioning stages <code>UNMAP</code>, <code>WRITE SAME</code> and
+ * <code>GET LBA STATUS</code>.
+ */
+public class ProvisioningStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int BLOCKS = 1024;
+
+    private ThinStorageModule storage;
+
+    private Connection connection;
+
+    /**
+     * The PDUs sent by the stage.
+     */
+    private final Deque<ProtocolDataUnit> sent = new ArrayDeque<>();
+
+    /**
+     * The write data of the current command, answering R2Ts.
+     */
+    private byte[] writeData;
+
+    @BeforeMethod
+    public void setUp () throws Exception {
+        storage = new ThinStorageModule();
+        sent.clear();
+
+        final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        negotiator.beginNegotiation();
+        assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("ImmediateData=Yes", "InitialR2T=Yes"), new ArrayList<String>()));
+        negotiator.finishNegotiation(true);
+
+        connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getStorageModule()).thenReturn(storage);
+        when(session.getTarget()).thenReturn(new Target("iqn.test", "test", storage));
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(targetServer.getConfig()).thenReturn(new Configuration("127.0.0.1"));
+
+        final Deque<ProtocolDataUnit> dataOut = new ArrayDeque<>();
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer (InvocationOnMock invocation) {
+                final ProtocolDataUnit pdu = (ProtocolDataUnit) invocation.getArguments()[0];
+                if (pdu.getBasicHeaderSegment().getParser() instanceof Ready2TransferParser) {
+                    // answer with a single Data-Out PDU
+                    final Ready2TransferParser r2t = (Ready2TransferParser) pdu.getBasicHeaderSegment().getParser();
+                    final ProtocolDataUnit data = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_DATA_OUT, "None", "None");
+                    final DataOutParser parser = (DataOutParser) data.getBasicHeaderSegment().getParser();
+                    parser.setTargetTransferTag(r2t.getTargetTransferTag());
+                    parser.setBufferOffset(r2t.getBufferOffset());
+                    data.setDataSegment(ByteBuffer.wrap(Arrays.copyOfRange(writeData, r2t.getBufferOffset(), r2t.getBufferOffset() + r2t.getDesiredDataTransferLength())));
+                    dataOut.add(data);
+                }
+                sent.add(pdu);
+                return null;
+            }
+        }).when(connection).sendPdu(any(ProtocolDataUnit.class));
+        when(connection.receivePdu()).thenAnswer(new Answer<ProtocolDataUnit>() {
+
+            @Override
+            public ProtocolDataUnit answer (InvocationOnMock invocation) {
+                return dataOut.remove();
+            }
+        });
+    }
+
+    /**
+     * Deallocates two ranges with an <code>UNMAP</code> command, whose parameter list is partly sent as immediate data
+     * and partly requested with an R2T, and checks the extents reported by <code>GET LBA STATUS</code>.
+     */
+    @Test
+    public void testUnmapAndGetLbaStatus () throws Exception {
+        final ByteBuffer parameterList = ByteBuffer.allocate(40);
+        parameterList.putShort(0, (short) 38);// UNMAP DATA LENGTH
+        parameterList.putShort(2, (short) 32);// UNMAP BLOCK DESCRIPTOR DATA LENGTH
+        parameterList.putLong(8, 4);
+        parameterList.putInt(16, 8);
+        parameterList.putLong(24, 100);
+        parameterList.putInt(32, 1);
+        writeData = parameterList.array();
+
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x42);
+        cdb.putShort(7, (short) 40);// PARAMETER LIST LENGTH
+        final ProtocolDataUnit command = createCommand(cdb, 40, true);
+        command.setDataSegment(ByteBuffer.wrap(Arrays.copyOf(writeData, 24)));
+
+        new UnmapStage(new TargetFullFeaturePhase(connection)).execute(command);
+
+        assertTrue(sent.removeFirst().getBasicHeaderSegment().getParser() instanceof Ready2TransferParser);
+        assertStatus(SCSIStatus.GOOD);
+        for (int block = 0; block < BLOCKS; ++block)
+            assertEquals(storage.mapped[block], block < 4 || (block >= 12 && block != 100), "block " + block);
+
+        // GET LBA STATUS, LBA 0, room for four descriptors
+        cdb.clear();
+        cdb.put(0, (byte) 0x9e);
+        cdb.put(1, (byte) 0x12);
+        cdb.putLong(2, 0);
+        cdb.putInt(10, 72);
+        new GetLbaStatusStage(new TargetFullFeaturePhase(connection)).execute(createCommand(cdb, 72, false));
+
+        final ProtocolDataUnit dataIn = sent.removeFirst();
+        assertTrue(((DataInParser) dataIn.getBasicHeaderSegment().getParser()).isStatusFlag());
+        final ByteBuffer parameterData = dataIn.getDataSegment();
+        assertEquals(parameterData.getInt(0), 68);// PARAMETER DATA LENGTH
+        assertDescriptor(parameterData, 0, 0, 4, 0);
+        assertDescriptor(parameterData, 1, 4, 8, 1);
+        assertDescriptor(parameterData, 2, 12, 88, 0);
+        assertDescriptor(parameterData, 3, 100, 1, 1);
+    }
+
+    /**
+     * Deallocates a range with the UNMAP bit of <code>WRITE SAME (16)</code> and fills another one with
+     * <code>WRITE SAME (10)</code>.
+     */
+    @Test
+    public void testWriteSame () throws Exception {
+        // WRITE SAME (16) with UNMAP and NDOB
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x93);
+        cdb.put(1, (byte) 0x09);
+        cdb.putLong(2, 200);
+        cdb.putInt(10, 10);
+        new WriteSameStage(new TargetFullFeaturePhase(connection)).execute(createCommand(cdb, 0, true));
+        assertStatus(SCSIStatus.GOOD);
+        for (int block = 199; block <= 210; ++block)
+            assertEquals(storage.mapped[block], block < 200 || block >= 210, "block " + block);
+
+        // WRITE SAME (10), the block is requested with an R2T
+        writeData = new byte[BLOCK_SIZE];
+        Arrays.fill(writeData, (byte) 0x5a);
+        cdb.clear();
+        cdb.put(0, (byte) 0x41);
+        cdb.putInt(2, 300);
+        cdb.putShort(7, (short) 3);
+        new WriteSameStage(new TargetFullFeaturePhase(connection)).execute(createCommand(cdb, BLOCK_SIZE, true));
+        assertTrue(sent.removeFirst().getBasicHeaderSegment().getParser() instanceof Ready2TransferParser);
+        assertStatus(SCSIStatus.GOOD);
+        final byte[] expected = new byte[3 * BLOCK_SIZE];
+        Arrays.fill(expected, (byte) 0x5a);
+        assertEquals(Arrays.copyOfRange(storage.data, 300 * BLOCK_SIZE, 303 * BLOCK_SIZE), expected);
+        assertFalse(storage.data[303 * BLOCK_SIZE] == 0x5a);
+    }
+
+    private static ProtocolDataUnit createCommand (final ByteBuffer cdb, final int expectedDataTransferLength, final boolean write) {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(expectedDataTransferLength);
+        if (write)
+            parser.setWriteExpectedFlag(true);
+        else
+            parser.setReadExpectedFlag(true);
+        return command;
+    }
+
+    private void assertStatus (final SCSIStatus status) {
+        final ProtocolDataUnit response = sent.removeFirst();
+        assertEquals(((SCSIResponseParser) response.getBasicHeaderSegment().getParser()).getStatus(), status);
+        assertTrue(sent.isEmpty());
+    }
+
+    private static void assertDescriptor (final ByteBuffer parameterData, final int descriptor, final long logicalBlockAddress, final int numberOfLogicalBlocks, final int provisioningStatus) {
+        final int index = 8 + 16 * descriptor;
+        assertEquals(parameterData.getLong(index), logicalBlockAddress);
+        assertEquals(parameterData.getInt(index + 8), numberOfLogicalBlocks);
+        assertEquals(parameterData.get(index + 12) & 15, provisioningStatus);
+    }
+
+    /**
+     * An in-memory storage module which keeps track of deallocated blocks.
+     */
+    private static final class ThinStorageModule implements IStorageModule {
+
+        final byte[] data = new byte[BLOCKS * BLOCK_SIZE];
+
+        final boolean[] mapped = new boolean[BLOCKS];
+
+        ThinStorageModule () {
+            Arrays.fill(data, (byte) 1);
+            Arrays.fill(mapped, true);
+        }
+
+        @Override
+        public int checkBounds (long logicalBlockAddress, int transferLengthInBlocks) {
+            if (logicalBlockAddress < 0 || logicalBlockAddress >= BLOCKS) return 1;
+            if (transferLengthInBlocks < 0 || logicalBlockAddress + transferLengthInBlocks > BLOCKS) return 2;
+            return 0;
+        }
+
+        @Override
+        public long getSizeInBlocks () {
+            return BLOCKS;
+        }
+
+        @Override
+        public void read (byte[] bytes, long storageIndex) throws IOException {
+            System.arraycopy(data, (int) storageIndex, bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write (byte[] bytes, long storageIndex) throws IOException {
+            System.arraycopy(bytes, 0, data, (int) storageIndex, bytes.length);
+            Arrays.fill(mapped, (int) storageIndex / BLOCK_SIZE, (int) (storageIndex + bytes.length) / BLOCK_SIZE, true);
+        }
+
+        @Override
+        public boolean supportsUnmap () {
+            return true;
+        }
+
+        @Override
+        public void unmap (long storageIndex, long length) throws IOException {
+            Arrays.fill(data, (int) storageIndex, (int) (storageIndex + length), (byte) 0);
+            Arrays.fill(mapped, (int) storageIndex / BLOCK_SIZE, (int) (storageIndex + length) / BLOCK_SIZE, false);
+        }
+
+        @Override
+        public boolean isMapped (long storageIndex) {
+            return mapped[(int) storageIndex / BLOCK_SIZE];
+        }
+
+        @Override
+        public long getExtentLength (long storageIndex, long maxLength) {
+            final int first = (int) storageIndex / BLOCK_SIZE;
+            int block = first;
+            while (block < BLOCKS && mapped[block] == mapped[first] && (long) (block - first) * BLOCK_SIZE < maxLength)
+                ++block;
+            return (long) (block - first) * BLOCK_SIZE;
+        }
+
+        @Override
+        public void close () throws IOException {
+        }
+
+        @Override
+        public int getBlockSize () {
+            return BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.parser.data.DataInParser;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.IStorageModule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+
+public class ReadStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int TRANSFER_LENGTH = 2048;// blocks, 1 MiB
+
+    private static final int MAX_BURST_LENGTH = 65536;
+
+    private static final int CHUNK_LENGTH = 65536;
+
+    private static final int PARALLEL_READS = 4;
+
+    /**
+     * Reads 1 MiB in 64K chunks, four at a time, from a storage module which completes later chunks first, and checks
+     * that the Data-In PDUs are sent in offset order, with the F bit at each MaxBurstLength boundary.
+     */
+    @Test
+    public void testParallelChunkedRead () throws Exception {
+        final ReadResult result = read("DataPDUInOrder=Yes", "DataSequenceInOrder=Yes");
+        assertTrue(result.storage.maxConcurrentReads > 1);
+        assertTrue(result.storage.maxConcurrentReads <= 4);
+
+        int bufferOffset = 0;
+        for (int i = 0; i < result.pdus.size(); ++i) {
+            final BasicHeaderSegment bhs = result.pdus.get(i).getBasicHeaderSegment();
+            final int length = bhs.getDataSegmentLength();
+            assertEquals(((DataInParser) bhs.getParser()).getBufferOffset(), bufferOffset);
+            assertEquals(bhs.isFinalFlag(), (bufferOffset + length) % MAX_BURST_LENGTH == 0);
+            bufferOffset += length;
+        }
+    }
+
+    /**
+     * Reads with DataPDUInOrder=No and DataSequenceInOrder=No and checks that the chunks are sent as they complete,
+     * i.e. in reverse order, each as whole Data-In sequences.
+     */
+    @Test
+    public void testOutOfOrderRead () throws Exception {
+        final ReadResult result = read("DataPDUInOrder=No", "DataSequenceInOrder=No");
+
+        final DataInParser first = (DataInParser) result.pdus.get(0).getBasicHeaderSegment().getParser();
+        assertTrue(first.getBufferOffset() > 0);
+
+        int sequenceEnd = -1;
+        for (ProtocolDataUnit pdu : result.pdus) {
+            final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+            final int bufferOffset = ((DataInParser) bhs.getParser()).getBufferOffset();
+            // sequences are not interleaved
+            if (sequenceEnd >= 0) assertEquals(bufferOffset, sequenceEnd);
+            sequenceEnd = bhs.isFinalFlag() ? -1 : bufferOffset + bhs.getDataSegmentLength();
+            if (bhs.isFinalFlag()) assertEquals((bufferOffset + bhs.getDataSegmentLength()) % MAX_BURST_LENGTH, 0);
+        }
+    }
+
+    /**
+     * Executes a READ (10) of 1 MiB at LBA 8 with the specified ordering keys and checks the properties common to all
+     * orders: DataSN, data segment length, data and the status in the last PDU.
+     */
+    private ReadResult read (final String dataPduInOrder, final String dataSequenceInOrder) throws Exception {
+        final byte[] data = new byte[2 * TRANSFER_LENGTH * BLOCK_SIZE];
+        new Random(42).nextBytes(data);
+        final SlowStorageModule storage = new SlowStorageModule(data);
+
+        final Configuration config = new Configuration("127.0.0.1");
+        config.setReadChunkLength(CHUNK_LENGTH);
+        config.setParallelReads(PARALLEL_READS);
+        final ExecutorService readPool = Executors.newFixedThreadPool(PARALLEL_READS);
+
+        try {
+            final Connection connection = mockConnection(config, storage, readPool, dataPduInOrder, dataSequenceInOrder);
+            final int maxRecvDataSegmentLength = connection.getStageSettings().getMaxRecvDataSegmentLength();
+
+            final List<ProtocolDataUnit> sent = new ArrayList<>();
+            final List<byte[]> dataSegments = new ArrayList<>();
+            final Answer<Void> initiator = new Answer<Void>() {
+
+                @Override
+                public Void answer (InvocationOnMock invocation) {
+                    final ProtocolDataUnit pdu = (ProtocolDataUnit) invocation.getArguments()[0];
+                    final byte[] dataSegment = new byte[pdu.getBasicHeaderSegment().getDataSegmentLength()];
+                    final ByteBuffer buffer = pdu.getDataSegment().duplicate();
+                    buffer.rewind();
+                    buffer.get(dataSegment);
+                    sent.add(pdu);
+                    dataSegments.add(dataSegment);
+                    if (invocation.getArguments().length > 1) ((PooledBuffer) invocation.getArguments()[1]).release();
+                    return null;
+                }
+            };
+            doAnswer(initiator).when(connection).sendPdu(any(ProtocolDataUnit.class));
+            doAnswer(initiator).when(connection).sendPdu(any(ProtocolDataUnit.class), any(PooledBuffer.class));
+
+            new ReadStage(new TargetFullFeaturePhase(connection)).execute(createReadCommand());
+
+            assertEquals(storage.reads.get(), TRANSFER_LENGTH * BLOCK_SIZE / CHUNK_LENGTH);
+
+            final byte[] received = new byte[TRANSFER_LENGTH * BLOCK_SIZE];
+            int bytesReceived = 0;
+            for (int i = 0; i < sent.size(); ++i) {
+                final BasicHeaderSegment bhs = sent.get(i).getBasicHeaderSegment();
+                final DataInParser dataIn = (DataInParser) bhs.getParser();
+                final int length = bhs.getDataSegmentLength();
+                final boolean last = i == sent.size() - 1;
+                assertEquals(dataIn.getDataSequenceNumber(), i);
+                assertTrue(length <= maxRecvDataSegmentLength);
+                assertEquals(dataIn.isStatusFlag(), last);
+                if (last) assertTrue(bhs.isFinalFlag());
+                System.arraycopy(dataSegments.get(i), 0, received, dataIn.getBufferOffset(), length);
+                bytesReceived += length;
+            }
+            assertEquals(bytesReceived, received.length);
+            assertEquals(received, Arrays.copyOfRange(data, 8 * BLOCK_SIZE, 8 * BLOCK_SIZE + received.length));
+            return new ReadResult(storage, sent);
+        } finally {
+            readPool.shutdown();
+        }
+    }
+
+    /**
+     * Fails sending the first chunk while the following chunks are still being read, and checks that the chunks of the
+     * cancelled reads are returned to their allocator once the reads complete. Waiting for the reads instead of
+     * cancelling them would block forever.
+     */
+    @Test(timeOut = 10000)
+    public void testFailedSendReleasesChunks () throws Exception {
+        final byte[] data = new byte[2 * TRANSFER_LENGTH * BLOCK_SIZE];
+        final CountDownLatch followingReadsStarted = new CountDownLatch(PARALLEL_READS - 1);
+        final CountDownLatch releaseFollowingReads = new CountDownLatch(1);
+        final IStorageModule storage = new SlowStorageModule(data) {
+
+            @Override
+            public void read (byte[] bytes, long storageIndex) throws IOException {
+                try {
+                    if (storageIndex == 8 * BLOCK_SIZE) {
+                        assertTrue(followingReadsStarted.await(10, TimeUnit.SECONDS));
+                    } else {
+                        followingReadsStarted.countDown();
+                        releaseFollowingReads.await();
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        final CountingBufferAllocator allocator = new CountingBufferAllocator();
+        final Configuration config = new Configuration("127.0.0.1");
+        config.setReadChunkLength(CHUNK_LENGTH);
+        config.setParallelReads(PARALLEL_READS);
+        config.setReceiveBufferAllocator(allocator);
+        final ExecutorService readPool = Executors.newFixedThreadPool(PARALLEL_READS);
+
+        try {
+            final Connection connection = mockConnection(config, storage, readPool, "DataPDUInOrder=Yes", "DataSequenceInOrder=Yes");
+            doAnswer(new Answer<Void>() {
+
+                @Override
+                public Void answer (InvocationOnMock invocation) throws IOException {
+                    // like the send queue, which releases the passed buffer if it cannot enqueue a PDU
+                    ((PooledBuffer) invocation.getArguments()[1]).release();
+                    throw new IOException("connection closed");
+                }
+            }).when(connection).sendPdu(any(ProtocolDataUnit.class), any(PooledBuffer.class));
+
+            try {
+                new ReadStage(new TargetFullFeaturePhase(connection)).execute(createReadCommand());
+                fail();
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "connection closed");
+            }
+        } finally {
+            releaseFollowingReads.countDown();
+            readPool.shutdown();
+        }
+        assertTrue(readPool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(allocator.allocated.get(), PARALLEL_READS);
+        assertEquals(allocator.recycled.get(), PARALLEL_READS);
+    }
+
+    /**
+     * Negotiates the passed keys and returns a connection to a session of a target server with the passed
+     * configuration, storage module and read pool.
+     */
+    private static Connection mockConnection (final Configuration config, final IStorageModule storage, final ExecutorService readPool, final String dataPduInOrder, final String dataSequenceInOrder) throws Exception {
+        final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        negotiator.beginNegotiation();
+        assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("MaxBurstLength=" + MAX_BURST_LENGTH, "ImmediateData=Yes", dataPduInOrder, dataSequenceInOrder), new ArrayList<String>()));
+        negotiator.finishNegotiation(true);
+
+        final Connection connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getStorageModule()).thenReturn(storage);
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(targetServer.getConfig()).thenReturn(config);
+        when(targetServer.getReadPool()).thenReturn(readPool);
+        return connection;
+    }
+
+    /**
+     * Returns a READ (10) of {@link #TRANSFER_LENGTH} blocks at LBA 8.
+     */
+    private static ProtocolDataUnit createReadCommand () throws Exception {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x28);
+        cdb.putInt(2, 8);
+        cdb.putShort(7, (short) TRANSFER_LENGTH);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(TRANSFER_LENGTH * BLOCK_SIZE);
+        parser.setReadExpectedFlag(true);
+        return command;
+    }
+
+    /**
+     * The PDUs sent by a READ command and the storage module it was read from.
+     */
+    private static final class ReadResult {
+
+        final SlowStorageModule storage;
+
+        final List<ProtocolDataUnit> pdus;
+
+        ReadResult (final SlowStorageModule storage, final List<ProtocolDataUnit> pdus) {
+            this.storage = storage;
+            this.pdus = pdus;
+        }
+    }
+
+    /**
+     * Allocates heap buffers and counts the buffers allocated and recycled.
+     */
+    private static final class CountingBufferAllocator implements IBufferAllocator {
+
+        final AtomicInteger allocated = new AtomicInteger();
+
+        final AtomicInteger recycled = new AtomicInteger();
+
+        @Override
+        public PooledBuffer allocate (final int capacity) {
+            allocated.incrementAndGet();
+            return new PooledBuffer(this, ByteBuffer.allocate(capacity), 0).acquire(capacity);
+        }
+
+        @Override
+        public void recycle (final PooledBuffer buffer) {
+            recycled.incrementAndGet();
+        }
+    }
+
+    /**
+     * An in-memory storage module which completes the reads of the chunks in groups of {@link #PARALLEL_READS}: the
+     * last read of each group waits until all reads of the group have started, and every other read waits until the
+     * read of the following chunk has completed. So the chunks read concurrently complete in reverse order, without
+     * depending on the timing of the threads.
+     */
+    private static class SlowStorageModule implements IStorageModule {
+
+        private final byte[] data;
+
+        final AtomicInteger reads = new AtomicInteger();
+
+        private final AtomicInteger concurrentReads = new AtomicInteger();
+
+        volatile int maxConcurrentReads;
+
+        /**
+         * Counted down when the read of the chunk with the same index has started.
+         */
+        private final CountDownLatch[] startedChunks = new CountDownLatch[TRANSFER_LENGTH * BLOCK_SIZE / CHUNK_LENGTH];
+
+        /**
+         * Counted down when the read of the chunk with the same index has completed.
+         */
+        private final CountDownLatch[] completedChunks = new CountDownLatch[TRANSFER_LENGTH * BLOCK_SIZE / CHUNK_LENGTH];
+
+        SlowStorageModule (final byte[] data) {
+            this.data = data;
+            for (int i = 0; i < completedChunks.length; ++i) {
+                startedChunks[i] = new CountDownLatch(1);
+                completedChunks[i] = new CountDownLatch(1);
+            }
+        }
+
+        @Override
+        public int checkBounds (long logicalBlockAddress, int transferLengthInBlocks) {
+            if (logicalBlockAddress < 0 || logicalBlockAddress >= getSizeInBlocks()) return 1;
+            if (transferLengthInBlocks < 0 || logicalBlockAddress + transferLengthInBlocks > getSizeInBlocks()) return 2;
+            return 0;
+        }
+
+        @Override
+        public long getSizeInBlocks () {
+            return data.length / BLOCK_SIZE;
+        }
+
+        @Override
+        public void read (byte[] bytes, long storageIndex) throws IOException {
+            reads.incrementAndGet();
+            final int concurrent = concurrentReads.incrementAndGet();
+            synchronized (this) {
+                maxConcurrentReads = Math.max(maxConcurrentReads, concurrent);
+            }
+            final int chunk = (int) (storageIndex - 8 * BLOCK_SIZE) / CHUNK_LENGTH;
+            startedChunks[chunk].countDown();
+            try {
+                if (chunk % PARALLEL_READS == PARALLEL_READS - 1) {
+                    for (int i = chunk - PARALLEL_READS + 1; i < chunk; ++i)
+                        await(startedChunks[i]);
+                } else {
+                    await(completedChunks[chunk + 1]);
+                }
+                System.arraycopy(data, (int) storageIndex, bytes, 0, bytes.length);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                concurrentReads.decrementAndGet();
+                completedChunks[chunk].countDown();
+            }
+        }
+
+        private static void await (final CountDownLatch latch) throws IOException , InterruptedException {
+            if (!latch.await(10, TimeUnit.SECONDS)) throw new IOException("timed out waiting for another chunk");
+        }
+
+        @Override
+        public void write (byte[] bytes, long storageIndex) throws IOException {
+            System.arraycopy(bytes, 0, data, (int) storageIndex, bytes.length);
+        }
+
+        @Override
+        public void close () throws IOException {
+        }
+
+        @Override
+        public int getBlockSize () {
+            return BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class VerifyStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int LBA = 16;
+
+    private static final int BLOCKS = 4;
+
+    private IStorageModule storage;
+
+    private Connection connection;
+
+    private final List<ProtocolDataUnit> sent = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp () throws Exception {
+        final File file = File.createTempFile("jscsi-verify", ".dat");
+        file.deleteOnExit();
+        storage = RandomAccessStorageModule.open(file, 64 * BLOCK_SIZE, true, RandomAccessStorageModule.class);
+        sent.clear();
+
+        final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+        negotiator.beginNegotiation();
+        assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("ImmediateData=Yes"), new ArrayList<String>()));
+        negotiator.finishNegotiation(true);
+
+        connection = mock(Connection.class);
+        final TargetSession session = mock(TargetSession.class);
+        final TargetServer targetServer = mock(TargetServer.class);
+        when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+        when(connection.getTargetSession()).thenReturn(session);
+        when(session.getStorageModule()).thenReturn(storage);
+        when(session.getTarget()).thenReturn(new Target("iqn.test", "test", storage));
+        when(session.getTargetServer()).thenReturn(targetServer);
+        when(targetServer.getConfig()).thenReturn(new Configuration("127.0.0.1"));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer (InvocationOnMock invocation) {
+                sent.add((ProtocolDataUnit) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(connection).sendPdu(any(ProtocolDataUnit.class));
+    }
+
+    @AfterMethod
+    public void tearDown () throws Exception {
+        storage.close();
+    }
+
+    /**
+     * Compares all transferred logical blocks and reports the offset of the first difference.
+     */
+    @Test
+    public void testCompareAll () throws Exception {
+        final byte[] stored = new byte[BLOCKS * BLOCK_SIZE];
+        for (int i = 0; i < stored.length; ++i)
+            stored[i] = (byte) i;
+        storage.write(stored, LBA * BLOCK_SIZE);
+
+        verify(1, stored);
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+
+        sent.clear();
+        final byte[] data = stored.clone();
+        data[1500] ^= 1;
+        verify(1, data);
+        assertEquals(getStatus(), SCSIStatus.CHECK_CONDITION);
+        final ByteBuffer senseData = sent.get(0).getDataSegment();
+        assertEquals(senseData.get(4) & 15, 0x0e);// MISCOMPARE
+        assertEquals(senseData.getInt(5), 1500);// INFORMATION
+    }
+
+    /**
+     * Compares one transferred logical block with each addressed logical block.
+     */
+    @Test
+    public void testCompareEach () throws Exception {
+        final byte[] block = new byte[BLOCK_SIZE];
+        Arrays.fill(block, (byte) 7);
+        for (int i = 0; i < BLOCKS; ++i)
+            storage.write(block, (LBA + i) * BLOCK_SIZE);
+
+        verify(3, block);
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+
+        sent.clear();
+        storage.write(new byte[1], (LBA + 2) * BLOCK_SIZE + 10);
+        verify(3, block);
+        assertEquals(getStatus(), SCSIStatus.CHECK_CONDITION);
+        assertEquals(sent.get(0).getDataSegment().getInt(5), 2 * BLOCK_SIZE + 10);// INFORMATION
+    }
+
+    /**
+     * Completes without data transfer if BYTCHK is zero.
+     */
+    @Test
+    public void testNoByteCheck () throws Exception {
+        verify(0, new byte[0]);
+        assertEquals(getStatus(), SCSIStatus.GOOD);
+    }
+
+    /**
+     * Sends a VERIFY (10) command with the data as immediate data.
+     */
+    private void verify (final int byteCheck, final byte[] data) throws Exception {
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(10);
+        cdb.put(0, (byte) 0x2f);
+        cdb.put(1, (byte) (byteCheck << 1));
+        cdb.putInt(2, LBA);
+        cdb.putShort(7, (short) BLOCKS);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(data.length);
+        parser.setWriteExpectedFlag(data.length > 0);
+        if (data.length > 0) command.setDataSegment(ByteBuffer.wrap(data));
+
+        new VerifyStage(new TargetFullFeaturePhase(connection)).execute(command);
+    }
+
+    private SCSIStatus getStatus () {
+        assertEquals(sent.size(), 1);
+        return ((SCSIResponseParser) sent.get(0).getBasicHeaderSegment().getParser()).getStatus();
+    }
+}
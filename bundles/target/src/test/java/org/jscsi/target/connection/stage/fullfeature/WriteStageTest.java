@@ -0,0 +1,321 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.buffer.IBufferAllocator;
+import org.jscsi.parser.buffer.PooledBuffer;
+import org.jscsi.parser.data.DataOutParser;
+import org.jscsi.parser.login.LoginStage;
+import org.jscsi.parser.r2t.Ready2TransferParser;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIResponseParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.Connection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.settings.ConnectionSettingsNegotiator;
+import org.jscsi.target.settings.SessionSettingsNegotiator;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+
+public class WriteStageTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int TRANSFER_LENGTH = 2048;// blocks, 1 MiB
+
+    private static final int DATA_OUT_LENGTH = 8192;
+
+    /**
+     * Writes 1 MiB with MaxOutstandingR2T=4 and MaxBurstLength=64K, answering the outstanding R2Ts with interleaved
+     * Data-Out sequences, and storing each data segment as it is received.
+     */
+    @Test
+    public void testInterleavedDataOutSequences () throws Exception {
+        final Configuration config = new Configuration("127.0.0.1");
+        config.setBurstAssembly(false);
+        assertEquals(countStorageWrites(config), TRANSFER_LENGTH * BLOCK_SIZE / DATA_OUT_LENGTH);
+    }
+
+    /**
+     * Assembles each 64K burst before storing it.
+     */
+    @Test
+    public void testBurstAssembly () throws Exception {
+        final Configuration config = new Configuration("127.0.0.1");
+        config.setMaxTaskAssemblyLength(0);
+        assertEquals(countStorageWrites(config), 16);
+    }
+
+    /**
+     * Assembles the whole task before storing it.
+     */
+    @Test
+    public void testTaskAssembly () throws Exception {
+        assertEquals(countStorageWrites(new Configuration("127.0.0.1")), 1);
+    }
+
+    /**
+     * Ends interleaved Data-Out sequences early with a NOP-Out, once with task and once with burst assembly, and checks
+     * that only the received ranges are stored, although the assembly buffers hold stale data, and that all assembly
+     * buffers are returned.
+     */
+    @Test
+    public void testEarlyEndStoresOnlyReceivedData () throws Exception {
+        for (int maxTaskAssemblyLength : new int[] { Integer.MAX_VALUE, 0 }) {
+            final StaleBufferAllocator allocator = new StaleBufferAllocator();
+            final Configuration config = new Configuration("127.0.0.1");
+            config.setMaxTaskAssemblyLength(maxTaskAssemblyLength);
+            config.setReceiveBufferAllocator(allocator);
+            countStorageWrites(config, 6);
+            assertTrue(allocator.allocated > 0);
+            assertEquals(allocator.recycled, allocator.allocated);
+        }
+    }
+
+    private int countStorageWrites (final Configuration config) throws Exception {
+        return countStorageWrites(config, -1);
+    }
+
+    /**
+     * Executes the WRITE command, checks the written data and returns the number of writes seen by the storage module.
+     * 
+     * @param nopOutAfter the number of Data-Out PDUs after which the initiator sends a NOP-Out instead, or -1
+     */
+    private int countStorageWrites (final Configuration config, final int nopOutAfter) throws Exception {
+        final File file = File.createTempFile("jscsi-write-stage", ".dat");
+        file.deleteOnExit();
+        final CountingStorageModule storage = new CountingStorageModule(RandomAccessStorageModule.open(file, 2 * TRANSFER_LENGTH * BLOCK_SIZE, true, RandomAccessStorageModule.class));
+
+        try {
+            // negotiate
+            final ConnectionSettingsNegotiator negotiator = new ConnectionSettingsNegotiator(new SessionSettingsNegotiator());
+            negotiator.beginNegotiation();
+            assertTrue(negotiator.negotiate(null, LoginStage.LOGIN_OPERATIONAL_NEGOTIATION, true, false, Arrays.asList("MaxOutstandingR2T=4", "MaxBurstLength=65536", "FirstBurstLength=65536", "InitialR2T=Yes", "ImmediateData=No"), new ArrayList<String>()));
+            negotiator.finishNegotiation(true);
+            assertEquals(negotiator.getSettings().getMaxOutstandingR2T(), 4);
+
+            final Connection connection = mock(Connection.class);
+            final TargetSession session = mock(TargetSession.class);
+            final TargetServer targetServer = mock(TargetServer.class);
+            when(connection.getStageSettings()).thenReturn(negotiator.getStageSettings());
+            when(connection.getTargetSession()).thenReturn(session);
+            final Target target = new Target("iqn.test", "test", storage);
+            when(session.getStorageModule()).thenReturn(storage);
+            when(session.getTarget()).thenReturn(target);
+            when(session.getTargetServer()).thenReturn(targetServer);
+            when(targetServer.getConfig()).thenReturn(config);
+
+            final byte[] data = new byte[TRANSFER_LENGTH * BLOCK_SIZE];
+            new Random(42).nextBytes(data);
+            final Initiator initiator = new Initiator(data, nopOutAfter);
+            doAnswer(initiator).when(connection).sendPdu(any(ProtocolDataUnit.class));
+            when(connection.receivePdu()).thenAnswer(new Answer<ProtocolDataUnit>() {
+
+                @Override
+                public ProtocolDataUnit answer (InvocationOnMock invocation) {
+                    return initiator.nextDataOut();
+                }
+            });
+
+            // WRITE (10), LBA 8
+            final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+            final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+            final ByteBuffer cdb = ByteBuffer.allocate(16);
+            cdb.put(0, (byte) 0x2a);
+            cdb.putInt(2, 8);
+            cdb.putShort(7, (short) TRANSFER_LENGTH);
+            parser.setCommandDescriptorBlock(cdb);
+            parser.setExpectedDataTransferLength(data.length);
+            parser.setWriteExpectedFlag(true);
+
+            new WriteStage(new TargetFullFeaturePhase(connection)).execute(command);
+
+            if (nopOutAfter < 0) assertEquals(initiator.r2ts, 16);
+            assertEquals(initiator.maxOutstanding, 4);
+            assertTrue(initiator.response != null);
+            assertEquals(((SCSIResponseParser) initiator.response.getBasicHeaderSegment().getParser()).getStatus(), SCSIStatus.GOOD);
+
+            final byte[] stored = new byte[data.length];
+            storage.read(stored, 8 * BLOCK_SIZE);
+            for (int i = 0; i < data.length; ++i) {
+                // the storage has been zero before
+                if (stored[i] != (initiator.received[i] ? data[i] : 0)) throw new AssertionError("wrong byte stored at buffer offset " + i);
+            }
+            // each write locks the written blocks
+            assertEquals(target.getRangeLock().getHoldTimeHistogram().getTotalCount(), storage.writes);
+            return storage.writes;
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Answers the R2Ts sent by the stage round-robin, one Data-Out PDU at a time.
+     */
+    private static final class Initiator implements Answer<Void> {
+
+        private final byte[] data;
+
+        private final int nopOutAfter;
+
+        private int dataOuts;
+
+        /**
+         * The bytes which have been sent in Data-Out PDUs.
+         */
+        final boolean[] received;
+
+        private final List<int[]> outstanding = new ArrayList<>();// {ttt, offset, remaining, dataSN}
+
+        private int next;
+
+        int r2ts;
+
+        int maxOutstanding;
+
+        ProtocolDataUnit response;
+
+        Initiator (final byte[] data, final int nopOutAfter) {
+            this.data = data;
+            this.nopOutAfter = nopOutAfter;
+            received = new boolean[data.length];
+        }
+
+        @Override
+        public Void answer (InvocationOnMock invocation) {
+            final ProtocolDataUnit pdu = (ProtocolDataUnit) invocation.getArguments()[0];
+            if (pdu.getBasicHeaderSegment().getParser() instanceof Ready2TransferParser) {
+                final Ready2TransferParser parser = (Ready2TransferParser) pdu.getBasicHeaderSegment().getParser();
+                assertEquals(parser.getReady2TransferSequenceNumber(), r2ts++);
+                outstanding.add(new int[] { parser.getTargetTransferTag(), parser.getBufferOffset(), parser.getDesiredDataTransferLength(), 0 });
+                maxOutstanding = Math.max(maxOutstanding, outstanding.size());
+            } else {
+                response = pdu;
+            }
+            return null;
+        }
+
+        ProtocolDataUnit nextDataOut () {
+            if (dataOuts++ == nopOutAfter) return new ProtocolDataUnitFactory().create(true, true, OperationCode.NOP_OUT, "None", "None");
+            next %= outstanding.size();
+            final int[] r2t = outstanding.get(next);
+            final int length = Math.min(DATA_OUT_LENGTH, r2t[2]);
+            final boolean finalFlag = length == r2t[2];
+
+            final ProtocolDataUnit pdu = new ProtocolDataUnitFactory().create(false, finalFlag, OperationCode.SCSI_DATA_OUT, "None", "None");
+            final DataOutParser parser = (DataOutParser) pdu.getBasicHeaderSegment().getParser();
+            parser.setTargetTransferTag(r2t[0]);
+            parser.setBufferOffset(r2t[1]);
+            parser.setDataSequenceNumber(r2t[3]++);
+            pdu.setDataSegment(ByteBuffer.wrap(Arrays.copyOfRange(data, r2t[1], r2t[1] + length)));
+            Arrays.fill(received, r2t[1], r2t[1] + length, true);
+
+            r2t[1] += length;
+            r2t[2] -= length;
+            if (finalFlag)
+                outstanding.remove(next);
+            else
+                ++next;
+            return pdu;
+        }
+    }
+
+    /**
+     * Counts the calls of {@link #write(ByteBuffer, long)}.
+     */
+    private static final class CountingStorageModule implements IStorageModule {
+
+        private final IStorageModule storage;
+
+        int writes;
+
+        CountingStorageModule (final IStorageModule storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public int checkBounds (long logicalBlockAddress, int transferLengthInBlocks) {
+            return storage.checkBounds(logicalBlockAddress, transferLengthInBlocks);
+        }
+
+        @Override
+        public long getSizeInBlocks () {
+            return storage.getSizeInBlocks();
+        }
+
+        @Override
+        public void read (byte[] bytes, long storageIndex) throws IOException {
+            storage.read(bytes, storageIndex);
+        }
+
+        @Override
+        public void write (byte[] bytes, long storageIndex) throws IOException {
+            ++writes;
+            storage.write(bytes, storageIndex);
+        }
+
+        @Override
+        public void write (ByteBuffer buffer, long storageIndex) throws IOException {
+            ++writes;
+            storage.write(buffer, storageIndex);
+        }
+
+        @Override
+        public void close () throws IOException {
+            storage.close();
+        }
+
+        @Override
+        public int getBlockSize () {
+            return storage.getBlockSize();
+        }
+    }
+
+    /**
+     * Hands out heap buffers filled with stale data, like recycled buffers, and counts how many are returned.
+     */
+    private static final class StaleBufferAllocator implements IBufferAllocator {
+
+        int allocated;
+
+        int recycled;
+
+        @Override
+        public PooledBuffer allocate (final int capacity) {
+            ++allocated;
+            final byte[] stale = new byte[capacity];
+            Arrays.fill(stale, (byte) 0x77);
+            return new PooledBuffer(this, ByteBuffer.wrap(stale), 0).acquire(capacity);
+        }
+
+        @Override
+        public void recycle (final PooledBuffer buffer) {
+            ++recycled;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.jscsi.target.jfr;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.jscsi.jfr.FlightRecording;
+import org.jscsi.jfr.PduSentEvent;
+import org.jscsi.parser.OperationCode;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.ProtocolDataUnitFactory;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests that the flight recorder events are only emitted while enabled, carry the expected fields and honor the
+ * thresholds of the recording settings.
+ */
+public class FlightRecordingTest {
+
+    @Test
+    public void testDisabledWithoutRecording () {
+        assertTrue(FlightRecording.AVAILABLE);
+        assertNull(ScsiCommandEvent.start());
+        assertNull(StorageReadEvent.start());
+        assertNull(PduSentEvent.start());
+    }
+
+    @Test
+    public void testEventsAreRecorded () throws Exception {
+        // READ (10) of 16 blocks at LBA 8
+        final ProtocolDataUnit command = new ProtocolDataUnitFactory().create(false, true, OperationCode.SCSI_COMMAND, "None", "None");
+        command.getBasicHeaderSegment().setInitiatorTaskTag(7);
+        final SCSICommandParser parser = (SCSICommandParser) command.getBasicHeaderSegment().getParser();
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, (byte) 0x28);
+        cdb.putInt(2, 8);
+        cdb.putShort(7, (short) 16);
+        parser.setCommandDescriptorBlock(cdb);
+        parser.setExpectedDataTransferLength(16 * 512);
+
+        final Map<String , RecordedEvent> events = new HashMap<String , RecordedEvent>();
+        final File file = File.createTempFile("jscsi", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.jscsi.target.ScsiCommand").withThreshold(Duration.ZERO);
+            recording.enable("org.jscsi.target.StorageRead").withThreshold(Duration.ZERO);
+            recording.enable("org.jscsi.target.StorageWrite").withThreshold(Duration.ofHours(1));
+            recording.enable("org.jscsi.target.R2TWait").withThreshold(Duration.ZERO);
+            recording.enable("org.jscsi.PduSent").withThreshold(Duration.ZERO);
+            recording.start();
+
+            ScsiCommandEvent.start().finish(command.getBasicHeaderSegment(), SCSIStatus.GOOD);
+            StorageReadEvent.start().finish(4096, 8192);
+            StorageWriteEvent.start().finish(4096, 8192);
+            ReadyToTransferEvent.start().finish(7, 3, 1, 65536, 262144);
+            PduSentEvent.start().finish(command, 48);
+
+            recording.stop();
+            recording.dump(file.toPath());
+            final List<RecordedEvent> recorded = RecordingFile.readAllEvents(file.toPath());
+            for (RecordedEvent event : recorded)
+                events.put(event.getEventType().getName(), event);
+        } finally {
+            file.delete();
+        }
+
+        final RecordedEvent scsiCommand = events.get("org.jscsi.target.ScsiCommand");
+        assertEquals(scsiCommand.getString("operation"), "READ_10");
+        assertEquals(scsiCommand.getInt("initiatorTaskTag"), 7);
+        assertEquals(scsiCommand.getLong("logicalBlockAddress"), 8);
+        assertEquals(scsiCommand.getLong("blocks"), 16);
+        assertEquals(scsiCommand.getLong("expectedDataTransferLength"), 16 * 512);
+        assertEquals(scsiCommand.getString("status"), "GOOD");
+
+        final RecordedEvent storageRead = events.get("org.jscsi.target.StorageRead");
+        assertEquals(storageRead.getLong("storageIndex"), 4096);
+        assertEquals(storageRead.getLong("length"), 8192);
+
+        // below the threshold
+        assertNull(events.get("org.jscsi.target.StorageWrite"));
+
+        final RecordedEvent r2tWait = events.get("org.jscsi.target.R2TWait");
+        assertEquals(r2tWait.getInt("targetTransferTag"), 3);
+        assertEquals(r2tWait.getLong("desiredDataTransferLength"), 262144);
+
+        final RecordedEvent pduSent = events.get("org.jscsi.PduSent");
+        assertEquals(pduSent.getString("opcode"), "SCSI_COMMAND");
+        assertEquals(pduSent.getLong("length"), 48);
+    }
+}
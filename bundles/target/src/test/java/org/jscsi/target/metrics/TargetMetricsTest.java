@@ -0,0 +1,182 @@
+package org.jscsi.target.metrics;
+
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.jscsi.target.Target;
+import org.jscsi.target.connection.Connection.TargetConnection;
+import org.jscsi.target.connection.TargetSession;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.storage.ElevatorStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the recording of command counters and latencies, and their export via JMX.
+ */
+public class TargetMetricsTest {
+
+    private static final int COMMANDS = 100000;
+
+    @Test
+    public void testCounters () {
+        final TargetMetrics metrics = new TargetMetrics();
+        metrics.commandStarted();
+        metrics.commandStarted();
+        assertEquals(metrics.getInFlightTasks(), 2);
+
+        metrics.commandFinished(ScsiOperationCode.READ_10.value(), 4096, 0, 0, 1000, 100);
+        metrics.commandFinished(ScsiOperationCode.WRITE_10.value(), 0, 512, 3000, 1000, 100);
+        assertEquals(metrics.getInFlightTasks(), 0);
+        assertEquals(metrics.getCommands(), 2);
+        assertEquals(metrics.getBytesRead(), 4096);
+        assertEquals(metrics.getBytesWritten(), 512);
+    }
+
+    @Test
+    public void testLatencies () {
+        final TargetMetrics metrics = new TargetMetrics();
+        assertNull(metrics.getLatencyHistogram(ScsiOperationCode.READ_16.value(), LatencyType.STORAGE));
+        for (int i = 0; i < 100; ++i) {
+            metrics.commandStarted();
+            metrics.commandFinished(ScsiOperationCode.READ_16.value(), 512, 0, 0, 1000, i == 99 ? 1000000 : 100);
+        }
+        assertEquals(metrics.getLatencyHistogram(ScsiOperationCode.READ_16.value(), LatencyType.STORAGE).getTotalCount(), 100);
+        assertEquals(metrics.getLatencyHistogram(ScsiOperationCode.READ_16.value(), LatencyType.SEND).getQuantile(0.5), 103);
+
+        final List<LatencySummary> summaries = metrics.getLatencies();
+        assertEquals(summaries.size(), LatencyType.values().length);
+        for (LatencySummary summary : summaries) {
+            assertEquals(summary.getOperation(), "READ_16");
+            assertEquals(summary.getCount(), 100);
+            if (summary.getType().equals("SEND")) {
+                assertEquals(summary.getMedianNanos(), 103);
+                assertTrue(summary.getMaxNanos() >= 1000000);
+            }
+        }
+
+        metrics.resetLatencies();
+        assertEquals(metrics.getLatencyHistogram(ScsiOperationCode.READ_16.value(), LatencyType.STORAGE).getTotalCount(), 0);
+        assertEquals(metrics.getCommands(), 100);
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate () {
+        final TargetMetrics metrics = new TargetMetrics();
+        final CommandCounters session = new CommandCounters();
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 2; ++round) {
+            // the first round creates the histograms and warms up
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < COMMANDS; ++i) {
+                session.commandStarted();
+                metrics.commandStarted();
+                session.commandFinished(512, 0);
+                metrics.commandFinished(ScsiOperationCode.READ_10.value() + (i & 1) * 2, 512, 0, i, i * 3, i * 2);
+            }
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            if (round == 1) assertTrue(allocated < COMMANDS, allocated + " bytes allocated for " + COMMANDS + " commands");
+        }
+    }
+
+    @Test
+    public void testJmxExport () throws Exception {
+        final Target target = new Target("iqn.test:metrics", "metrics", null);
+        target.getMetrics().commandStarted();
+        target.getMetrics().commandFinished(ScsiOperationCode.INQUIRY.value(), 36, 0, 0, 5000, 800);
+
+        final JmxMetricsExporter exporter = new JmxMetricsExporter();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxMetricsExporter.getObjectName(target);
+        exporter.targetAdded(target);
+        try {
+            assertEquals(server.getAttribute(name, "Commands"), 1L);
+            assertEquals(server.getAttribute(name, "BytesRead"), 36L);
+            final CompositeData[] latencies = (CompositeData[]) server.getAttribute(name, "Latencies");
+            assertEquals(latencies.length, LatencyType.values().length);
+            assertEquals(latencies[0].get("operation"), "INQUIRY");
+        } finally {
+            exporter.targetRemoved(target);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Exports the histograms of the range locks and of the storage modules of a target.
+     */
+    @Test
+    public void testJmxHistogramExport () throws Exception {
+        final File file = File.createTempFile("jscsi-metrics", ".dat");
+        final RandomAccessStorageModule storage = new RandomAccessStorageModule(1, file);
+        final Target target = new Target("iqn.test:histograms", "histograms", new ElevatorStorageModule(storage));
+        target.getRangeLock().unlock(target.getRangeLock().lock(0, 1));
+        storage.getGroupCommit().markDirty();
+        storage.getGroupCommit().flush();
+
+        final JmxMetricsExporter exporter = new JmxMetricsExporter();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxMetricsExporter.getObjectName(target);
+        exporter.targetAdded(target);
+        try {
+            final CompositeData[] histograms = (CompositeData[]) server.getAttribute(name, "Histograms");
+            final List<String> names = new ArrayList<String>();
+            for (CompositeData histogram : histograms)
+                names.add((String) histogram.get("name"));
+            assertEquals(names, Arrays.asList("ElevatorBatchSize", "ElevatorMergeSize", "GroupCommitBatchSize", "RangeLockHoldMicros", "RangeLockWaitMicros"));
+            assertEquals(histograms[2].get("count"), 1L);
+            assertEquals(histograms[3].get("count"), 1L);
+        } finally {
+            exporter.targetRemoved(target);
+            storage.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Exports the counters of a session together with the send queue histograms of its connection.
+     */
+    @Test
+    public void testJmxSessionExport () throws Exception {
+        final CommandCounters counters = new CommandCounters();
+        counters.commandStarted();
+        counters.commandFinished(512, 0);
+        final TargetSession session = mock(TargetSession.class);
+        when(session.getCommandCounters()).thenReturn(counters);
+        when(session.getConnection()).thenReturn(new TargetConnection(null, true));
+        when(session.getTargetSessionIdentifyingHandle()).thenReturn((short) 0x7ffe);
+
+        final JmxMetricsExporter exporter = new JmxMetricsExporter();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxMetricsExporter.getObjectName(session);
+        exporter.sessionAdded(session);
+        try {
+            assertEquals(server.getAttribute(name, "Commands"), 1L);
+            assertEquals(server.getAttribute(name, "BytesRead"), 512L);
+            final CompositeData[] histograms = (CompositeData[]) server.getAttribute(name, "Histograms");
+            assertEquals(histograms.length, 2);
+            assertEquals(histograms[0].get("name"), "SendQueueDepth");
+            assertEquals(histograms[1].get("name"), "SendBatchSize");
+            assertEquals(histograms[1].get("count"), 0L);
+        } finally {
+            exporter.sessionRemoved(session);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
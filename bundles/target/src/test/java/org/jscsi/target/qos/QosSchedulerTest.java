@@ -0,0 +1,201 @@
+package org.jscsi.target.qos;
+
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.jscsi.target.Configuration;
+import org.jscsi.target.Target;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the token buckets, the limits of targets and initiators, the weighted fair queuing of sessions competing for
+ * the limits of a target, and the parsing of the QoS configuration.
+ */
+public class QosSchedulerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The length of the commands competing for the target, whose cost divided by the weight of the database is exact.
+     */
+    private static final long LENGTH = 2048;
+
+    @Test
+    public void testTokenBucket () {
+        final TokenBucket bucket = new TokenBucket(1000, 10, 0);
+        assertEquals(bucket.getDelayNanos(0), 0);
+        bucket.take(10);
+        // empty, but not in debt
+        assertEquals(bucket.getDelayNanos(0), 0);
+        bucket.take(5);
+        assertEquals(bucket.getDelayNanos(0), 5 * MILLIS);
+        assertEquals(bucket.getDelayNanos(2 * MILLIS), 3 * MILLIS);
+        assertEquals(bucket.getDelayNanos(5 * MILLIS), 0);
+        // refilled up to the capacity only
+        bucket.getDelayNanos(1000 * MILLIS);
+        bucket.take(11);
+        assertEquals(bucket.getDelayNanos(1000 * MILLIS), MILLIS);
+    }
+
+    @Test
+    public void testUnlimited () throws Exception {
+        final QosScheduler scheduler = new QosScheduler(QosPolicy.UNLIMITED);
+        final QosScheduler.Flow flow = scheduler.createFlow("iqn.2010-04.local-test:initiator");
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(scheduler.acquire(flow, 1 << 20), 0);
+    }
+
+    @Test
+    public void testInitiatorLimits () throws Exception {
+        final QosPolicy policy = new QosPolicy(QosLimits.UNLIMITED, Collections.singletonMap("iqn.2010-04.local-test:backup", new QosLimits(100, 1, 0, 0, 1)));
+        final ManualClock clock = new ManualClock();
+        final QosScheduler scheduler = new QosScheduler(policy, clock);
+        final QosScheduler.Flow backup = scheduler.createFlow("iqn.2010-04.local-test:backup");
+        final QosScheduler.Flow database = scheduler.createFlow("iqn.2010-04.local-test:database");
+
+        long throttled = 0;
+        for (int i = 0; i < 11; ++i)
+            throttled += scheduler.acquire(backup, 4096);
+        // the burst and the command going into debt are admitted immediately, the other nine at 100 per second
+        assertEquals(clock.now, 90 * MILLIS);
+        assertEquals(throttled, 90 * MILLIS);
+        // the sessions of other initiators are not affected
+        for (int i = 0; i < 100; ++i)
+            assertEquals(scheduler.acquire(database, 4096), 0);
+    }
+
+    /**
+     * Lets a backup session with weight 1 and a database session with weight 3 compete for a target limit, whose
+     * tokens are handed out one at a time, and checks that the database gets three of every four commands.
+     */
+    @Test(timeOut = 10000)
+    public void testWeightedFairQueuing () throws Exception {
+        final QosPolicy policy = new QosPolicy(new QosLimits(1, 1, 0, 0, 1), Collections.singletonMap("iqn.2010-04.local-test:database", new QosLimits(0, 0, 0, 0, 3)));
+        final ManualClock clock = new ManualClock();
+        final QosScheduler scheduler = new QosScheduler(policy, clock);
+        // take the burst and go into debt, so that every further command waits for the clock
+        final QosScheduler.Flow other = scheduler.createFlow("iqn.2010-04.local-test:other");
+        assertEquals(scheduler.acquire(other, LENGTH), 0);
+        assertEquals(scheduler.acquire(other, LENGTH), 0);
+
+        final StringBuffer order = new StringBuffer();
+        final String[] initiators = { "iqn.2010-04.local-test:backup", "iqn.2010-04.local-test:database" };
+        final Thread[] sessions = new Thread[2];
+        for (int i = 0; i < 2; ++i) {
+            final char name = "bd".charAt(i);
+            final QosScheduler.Flow flow = scheduler.createFlow(initiators[i]);
+            sessions[i] = new Thread() {
+
+                @Override
+                public void run () {
+                    try {
+                        while (true) {
+                            scheduler.acquire(flow, LENGTH);
+                            order.append(name);
+                        }
+                    } catch (InterruptedException e) {
+                        // stopped
+                    }
+                }
+            };
+            sessions[i].start();
+            // the backup session queues its first command before the database session
+            awaitQueue(scheduler, clock, i + 1, order, 0);
+        }
+        for (int i = 0; i < 12; ++i) {
+            awaitQueue(scheduler, clock, 2, order, i);
+            synchronized (scheduler) {
+                // refill exactly the token the first command waits for
+                clock.now += clock.awaited;
+                clock.waiting = false;
+                scheduler.notifyAll();
+            }
+        }
+        awaitQueue(scheduler, clock, 2, order, 12);
+        for (Thread session : sessions) {
+            session.interrupt();
+            session.join();
+        }
+
+        assertEquals(order.toString(), "bdddbdddbddd");
+        assertEquals(scheduler.getQueueLength(), 0);
+    }
+
+    @Test
+    public void testConfiguration () throws Exception {
+        final File storage = File.createTempFile("jscsi-qos", ".dat");
+        try {
+            final String xml = "<configuration xmlns=\"http://www.jscsi.org/2010-04\"><TargetList><Target>" + "<TargetName>iqn.2010-04.local-test:qos</TargetName>" + "<SyncFileStorage><Path>" + storage.getAbsolutePath() + "</Path><Create size=\"0.001\" /></SyncFileStorage>" + "<QoS iops=\"5000\" bandwidth=\"209715200\">" + "<Initiator name=\"iqn.2010-04.local-test:backup\" bandwidth=\"52428800\" bandwidthBurst=\"1048576\" />" + "<Initiator name=\"iqn.2010-04.local-test:database\" weight=\"4\" />" + "</QoS></Target></TargetList><GlobalConfig><Port>3260</Port></GlobalConfig></configuration>";
+            final Configuration config = Configuration.create(new FileInputStream(Configuration.CONFIGURATION_SCHEMA_FILE), new ByteArrayInputStream(xml.getBytes("UTF-8")), "127.0.0.1");
+            final Target target = config.getTargets().get(0);
+            try {
+                final QosPolicy policy = target.getQosScheduler().getPolicy();
+                assertEquals(policy.getTargetLimits().getIops(), 5000);
+                assertEquals(policy.getTargetLimits().getBandwidth(), 209715200);
+                assertEquals(policy.getInitiatorLimits("iqn.2010-04.local-test:backup").getBandwidth(), 52428800);
+                assertEquals(policy.getInitiatorLimits("iqn.2010-04.local-test:backup").getBandwidthBurst(), 1048576);
+                assertEquals(policy.getInitiatorLimits("iqn.2010-04.local-test:database").getWeight(), 4);
+                assertEquals(policy.getInitiatorLimits("iqn.2010-04.local-test:other"), QosLimits.UNLIMITED);
+            } finally {
+                target.getStorageModule().close();
+            }
+        } finally {
+            storage.delete();
+        }
+    }
+
+    /**
+     * Waits until the specified number of commands has been admitted and the specified number of commands is waiting
+     * for the target, the first of them for the clock.
+     */
+    private static void awaitQueue (final QosScheduler scheduler, final ManualClock clock, final int queueLength, final StringBuffer admitted, final int admittedLength) throws InterruptedException {
+        while (true) {
+            synchronized (scheduler) {
+                if (admitted.length() == admittedLength && scheduler.getQueueLength() == queueLength && clock.waiting) return;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * A clock whose time passes only when a command sleeps or when a test advances it.
+     */
+    private static final class ManualClock implements QosScheduler.Clock {
+
+        volatile long now;
+
+        /**
+         * The delay passed by the last command waiting for the target. Guarded by the scheduler, like {@link #waiting}.
+         */
+        long awaited;
+
+        /**
+         * Whether the first command in the queue of the scheduler waits for the clock.
+         */
+        boolean waiting;
+
+        @Override
+        public long nanoTime () {
+            return now;
+        }
+
+        @Override
+        public void sleep (final long nanos) {
+            now += nanos;
+        }
+
+        @Override
+        public void await (final Object monitor, final long nanos) throws InterruptedException {
+            awaited = nanos;
+            waiting = true;
+            monitor.wait();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jscsi.target.scsi;
+
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.readCapacity.ReadCapacity16ParameterData;
+import org.jscsi.target.storage.IStorageModule;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests that the {@link ResponseDataCache} returns the serialized responses until the capacity or configuration of the
+ * logical unit changes.
+ */
+public class ResponseDataCacheTest {
+
+    private static final int KEY = ResponseDataCache.key(ScsiOperationCode.READ_CAPACITY_16.value(), 0);
+
+    private IStorageModule storage;
+
+    private ResponseDataCache cache;
+
+    @BeforeMethod
+    public void setUp () {
+        storage = mock(IStorageModule.class);
+        when(storage.getSizeInBlocks()).thenReturn(1024L);
+        when(storage.getBlockSize()).thenReturn(512);
+        cache = new ResponseDataCache(storage);
+    }
+
+    @Test
+    public void testGetReturnsSerializedResponse () {
+        final ReadCapacity16ParameterData parameterData = new ReadCapacity16ParameterData(1024L, 512, true);
+        final ByteBuffer expected = ByteBuffer.allocate(parameterData.size());
+        parameterData.serialize(expected, 0);
+        expected.rewind();
+
+        assertNull(cache.get(KEY, 0, 512));
+        final ByteBuffer put = cache.put(KEY, 0, parameterData, 512);
+        assertEquals(put, expected);
+        final ByteBuffer cached = cache.get(KEY, 0, 512);
+        assertEquals(cached, expected);
+        assertEquals(ResponseDataCache.size(cached), parameterData.size());
+
+        // consuming a returned buffer leaves the cached response intact
+        cached.position(cached.limit());
+        assertEquals(cache.get(KEY, 0, 512), expected);
+    }
+
+    @Test
+    public void testResponsesAreTrimmed () {
+        final ReadCapacity16ParameterData parameterData = new ReadCapacity16ParameterData(1024L, 512, true);
+        cache.put(KEY, 0, parameterData, 512);
+        final ByteBuffer trimmed = cache.get(KEY, 0, 8);
+        assertEquals(trimmed.remaining(), 8);
+        assertEquals(trimmed.capacity(), 8);
+        assertEquals(ResponseDataCache.size(trimmed), parameterData.size());
+    }
+
+    @Test
+    public void testParameterMustMatch () {
+        cache.put(KEY, 65536, new ReadCapacity16ParameterData(1024L, 512, true), 512);
+        assertNotNull(cache.get(KEY, 65536, 512));
+        assertNull(cache.get(KEY, 262144, 512));
+        assertNull(cache.get(ResponseDataCache.key(ScsiOperationCode.READ_CAPACITY_10.value(), 0), 65536, 512));
+    }
+
+    @Test
+    public void testInvalidation () {
+        cache.put(KEY, 0, new ReadCapacity16ParameterData(1024L, 512, true), 512);
+        cache.invalidate();
+        assertNull(cache.get(KEY, 0, 512));
+
+        // a changed capacity discards all responses
+        cache.put(KEY, 0, new ReadCapacity16ParameterData(1024L, 512, true), 512);
+        when(storage.getSizeInBlocks()).thenReturn(2048L);
+        assertNull(cache.get(KEY, 0, 512));
+        cache.put(KEY, 0, new ReadCapacity16ParameterData(2048L, 512, true), 512);
+        assertNotNull(cache.get(KEY, 0, 512));
+        when(storage.getBlockSize()).thenReturn(4096);
+        assertNull(cache.get(KEY, 0, 512));
+    }
+}
@@ -0,0 +1,49 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the deserialization of the 12 and 16 byte READ and WRITE command descriptor blocks.
+ */
+public class ReadOrWriteCdbTest {
+
+    @Test
+    public void testRead16 () {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(0, ScsiOperationCode.READ_16.value());
+        buffer.put(1, (byte) 0x08);// FUA
+        buffer.putLong(2, 0x123456789aL);// beyond 2 TiB with 512 byte blocks
+        buffer.putInt(10, 0x20000);
+        buffer.put(14, (byte) 0x05);// GROUP NUMBER
+
+        final Read16Cdb cdb = new Read16Cdb(buffer);
+        assertNull(cdb.getIllegalFieldPointers());
+        assertEquals(cdb.getLogicalBlockAddress(), 0x123456789aL);
+        assertEquals(cdb.getTransferLength(), 0x20000);
+        assertTrue(cdb.getForceUnitAccess());
+        assertEquals(cdb.getGroupNumber(), 5);
+    }
+
+    @Test
+    public void testWrite12 () {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(0, ScsiOperationCode.WRITE_12.value());
+        buffer.putInt(2, 0xfffffff0);
+        buffer.putInt(6, 0x10000);
+        buffer.put(10, (byte) 0x03);// GROUP NUMBER
+
+        final Write12Cdb cdb = new Write12Cdb(buffer);
+        assertNull(cdb.getIllegalFieldPointers());
+        assertEquals(cdb.getLogicalBlockAddress(), 0xfffffff0L);
+        assertEquals(cdb.getTransferLength(), 0x10000);
+        assertEquals(cdb.getGroupNumber(), 3);
+    }
+}
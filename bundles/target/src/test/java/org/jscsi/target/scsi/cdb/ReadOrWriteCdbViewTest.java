@@ -0,0 +1,93 @@
+package org.jscsi.target.scsi.cdb;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests that {@link ReadOrWriteCdbView} decodes the same values as the complete command descriptor blocks.
+ */
+public class ReadOrWriteCdbViewTest {
+
+    private final ReadOrWriteCdbView view = new ReadOrWriteCdbView();
+
+    @Test
+    public void testSixByteCommands () {
+        for (ScsiOperationCode opCode : new ScsiOperationCode[] { ScsiOperationCode.READ_6, ScsiOperationCode.WRITE_6 }) {
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.put(0, opCode.value());
+            buffer.put(1, (byte) 0x1f);
+            buffer.putShort(2, (short) 0xfffe);
+            buffer.put(4, (byte) 0);// 256 blocks
+            assertSameFields(buffer);
+            assertEquals(view.getTransferLength(), 256);
+            assertFalse(view.getForceUnitAccess());
+        }
+    }
+
+    @Test
+    public void testTenByteCommands () {
+        for (ScsiOperationCode opCode : new ScsiOperationCode[] { ScsiOperationCode.READ_10, ScsiOperationCode.WRITE_10 }) {
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.put(0, opCode.value());
+            buffer.put(1, (byte) 0x08);// FUA
+            buffer.putInt(2, 0xfffffff0);
+            buffer.putShort(7, (short) 0xffff);
+            assertSameFields(buffer);
+            assertTrue(view.getForceUnitAccess());
+        }
+    }
+
+    @Test
+    public void testTwelveAndSixteenByteCommands () {
+        for (ScsiOperationCode opCode : new ScsiOperationCode[] { ScsiOperationCode.READ_12, ScsiOperationCode.WRITE_12 }) {
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.put(0, opCode.value());
+            buffer.putInt(2, 0x12345678);
+            buffer.putInt(6, 0x10000);
+            assertSameFields(buffer);
+        }
+        for (ScsiOperationCode opCode : new ScsiOperationCode[] { ScsiOperationCode.READ_16, ScsiOperationCode.WRITE_16 }) {
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.put(0, opCode.value());
+            buffer.put(1, (byte) 0x08);// FUA
+            buffer.putLong(2, 0x123456789aL);
+            buffer.putInt(10, 0x20000);
+            assertSameFields(buffer);
+            assertTrue(view.getForceUnitAccess());
+        }
+    }
+
+    @Test
+    public void testIllegalFields () {
+        // reserved bits of READ (6)
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(0, ScsiOperationCode.READ_6.value());
+        buffer.put(1, (byte) 0x20);
+        assertTrue(view.wrap(buffer).hasIllegalFields());
+        assertNotNull(view.toCdb().getIllegalFieldPointers());
+
+        // NACA bit of WRITE (16)
+        buffer = ByteBuffer.allocate(16);
+        buffer.put(0, ScsiOperationCode.WRITE_16.value());
+        buffer.put(15, (byte) 0x04);
+        assertTrue(view.wrap(buffer).hasIllegalFields());
+        assertNotNull(view.toCdb().getIllegalFieldPointers());
+    }
+
+    private void assertSameFields (final ByteBuffer buffer) {
+        final ReadOrWriteCdb cdb = view.wrap(buffer).toCdb();
+        assertEquals(view.getScsiOperationCode(), cdb.getScsiOperationCode());
+        assertEquals(view.getLogicalBlockAddress(), cdb.getLogicalBlockAddress());
+        assertEquals(view.getTransferLength(), cdb.getTransferLength());
+        if (cdb instanceof WriteCdb) assertEquals(view.getForceUnitAccess(), ((WriteCdb) cdb).getForceUnitAccess());
+        assertEquals(view.hasIllegalFields(), cdb.getIllegalFieldPointers() != null);
+    }
+}
@@ -0,0 +1,39 @@
+package org.jscsi.target.scsi.inquiry;
+
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.storage.RandomAccessStorageModule;
+import org.testng.annotations.Test;
+
+
+public class BlockLimitsVpdPageTest {
+
+    /**
+     * The optimal transfer length is the MaxBurstLength, rounded down to the storage module's granularity.
+     */
+    @Test
+    public void testTransferLengths () throws Exception {
+        final File file = File.createTempFile("jscsi-block-limits", ".dat");
+        file.deleteOnExit();
+        final IStorageModule storageModule = RandomAccessStorageModule.open(file, 1 << 20, true, RandomAccessStorageModule.class);
+        try {
+            final BlockLimitsVpdPage page = new BlockLimitsVpdPage(storageModule, 262144 + 1000);
+            final ByteBuffer buffer = ByteBuffer.allocate(page.size());
+            page.serialize(buffer, 0);
+
+            assertEquals(buffer.get(1), (byte) 0xb0);// PAGE CODE
+            assertEquals(buffer.getShort(2), 0x3c);// PAGE LENGTH
+            assertEquals(buffer.getShort(6), 8);// OPTIMAL TRANSFER LENGTH GRANULARITY, one page
+            assertEquals(buffer.getInt(8), (1 << 30) / 512);// MAXIMUM TRANSFER LENGTH
+            assertEquals(buffer.getInt(12), 512);// OPTIMAL TRANSFER LENGTH
+            assertEquals(buffer.getInt(24), 0);// MAXIMUM UNMAP BLOCK DESCRIPTOR COUNT, unmap is not supported
+        } finally {
+            storageModule.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.jscsi.target.storage;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+
+public class ElevatorStorageModuleTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Contiguous requests waiting behind a dispatched batch are merged into one access.
+     */
+    @Test(timeOut = 10000)
+    public void testMerging () throws Exception {
+        final MemoryStorageModule storage = new MemoryStorageModule(64 * BLOCK_SIZE);
+        final ElevatorStorageModule scheduler = new ElevatorStorageModule(storage, 0, TimeUnit.SECONDS.toNanos(10), 1 << 20, 64);
+
+        // blocks 16 to 23, behind the blocked access, written by different sessions in random order
+        final List<Integer> blocks = new ArrayList<Integer>();
+        for (int i = 16; i < 24; ++i)
+            blocks.add(i);
+        Collections.shuffle(blocks);
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int block : blocks)
+            writers.add(write(scheduler, block, (byte) block));
+        runBehindBlockedAccess(storage, scheduler, writers);
+
+        assertEquals(storage.accesses.size(), 2);
+        assertEquals(storage.accesses.get(1), "write " + 16 * BLOCK_SIZE + " " + 8 * BLOCK_SIZE);
+        for (int i = 16; i < 24; ++i)
+            assertEquals(storage.data[i * BLOCK_SIZE + 17], (byte) i);
+
+        // read them back the same way
+        storage.accesses.clear();
+        final byte[][] read = new byte[24][];
+        final List<Thread> readers = new ArrayList<Thread>();
+        for (int block : blocks)
+            readers.add(read(scheduler, block, read));
+        runBehindBlockedAccess(storage, scheduler, readers);
+
+        assertEquals(storage.accesses.get(1), "read " + 16 * BLOCK_SIZE + " " + 8 * BLOCK_SIZE);
+        for (int i = 16; i < 24; ++i) {
+            final byte[] expected = new byte[BLOCK_SIZE];
+            Arrays.fill(expected, (byte) i);
+            assertEquals(read[i], expected);
+        }
+        // the histogram reports the upper bound of the bucket
+        assertTrue(scheduler.getMergeSizeHistogram().getQuantile(1) >= 8);
+    }
+
+    /**
+     * Requests which cannot be merged are dispatched in ascending order of their storage index, continuing after the
+     * last access and wrapping around.
+     */
+    @Test(timeOut = 10000)
+    public void testElevatorOrder () throws Exception {
+        final MemoryStorageModule storage = new MemoryStorageModule(64 * BLOCK_SIZE);
+        final ElevatorStorageModule scheduler = new ElevatorStorageModule(storage, 0, TimeUnit.SECONDS.toNanos(10), 0, 64);
+
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int block : new int[] { 40, 2, 12, 50, 6 })
+            writers.add(write(scheduler, block, (byte) 1));
+        // the blocked access ends at block 11
+        runBehindBlockedAccess(storage, scheduler, writers);
+
+        assertEquals(storage.accesses.subList(1, 6), Arrays.asList("write " + 12 * BLOCK_SIZE + " " + BLOCK_SIZE, "write " + 40 * BLOCK_SIZE + " " + BLOCK_SIZE, "write " + 50 * BLOCK_SIZE + " " + BLOCK_SIZE, "write " + 2 * BLOCK_SIZE + " " + BLOCK_SIZE, "write " + 6 * BLOCK_SIZE + " " + BLOCK_SIZE));
+    }
+
+    /**
+     * Requests older than the deadline are dispatched in the order of their arrival, and overlapping writes are
+     * applied in that order.
+     */
+    @Test(timeOut = 10000)
+    public void testDeadline () throws Exception {
+        final MemoryStorageModule storage = new MemoryStorageModule(64 * BLOCK_SIZE);
+        final ElevatorStorageModule scheduler = new ElevatorStorageModule(storage, 0, 0, 1 << 20, 64);
+
+        final List<Thread> writers = new ArrayList<Thread>();
+        writers.add(write(scheduler, 30, (byte) 1));
+        writers.add(write(scheduler, 20, (byte) 2));
+        writers.add(write(scheduler, 20, (byte) 3));
+        runBehindBlockedAccess(storage, scheduler, writers);
+
+        assertEquals(storage.accesses.get(1), "write " + 30 * BLOCK_SIZE + " " + BLOCK_SIZE);
+        assertEquals(storage.data[20 * BLOCK_SIZE], 3);
+    }
+
+    /**
+     * Failed accesses are reported to all merged requests.
+     */
+    @Test
+    public void testFailure () throws Exception {
+        final MemoryStorageModule storage = new MemoryStorageModule(BLOCK_SIZE);
+        final ElevatorStorageModule scheduler = new ElevatorStorageModule(storage);
+        try {
+            scheduler.read(ByteBuffer.allocate(BLOCK_SIZE), BLOCK_SIZE);
+            fail();
+        } catch (IOException e) {
+            // out of bounds
+        }
+        final byte[] bytes = new byte[BLOCK_SIZE];
+        scheduler.read(bytes, 0);
+        assertEquals(scheduler.getBatchSizeHistogram().getTotalCount(), 2);
+    }
+
+    /**
+     * Starts a write of block 10 and 11, which blocks in the storage module, then starts the given requests one after
+     * the other once the previous one is pending behind it, and finally releases the blocked write and waits for all
+     * requests.
+     */
+    private static void runBehindBlockedAccess (final MemoryStorageModule storage, final ElevatorStorageModule scheduler, final List<Thread> requests) throws Exception {
+        final CountDownLatch blockedLatch = new CountDownLatch(1);
+        storage.release = new CountDownLatch(1);
+        storage.blocked = blockedLatch;
+        final Thread blocked = new Thread() {
+
+            @Override
+            public void run () {
+                try {
+                    scheduler.write(new byte[2 * BLOCK_SIZE], 10 * BLOCK_SIZE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        blocked.start();
+        assertTrue(blockedLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < requests.size(); ++i) {
+            requests.get(i).start();
+            // in the order of the list
+            while (scheduler.getPendingCount() < i + 1)
+                Thread.sleep(1);
+        }
+        storage.release.countDown();
+        blocked.join(5000);
+        for (Thread request : requests)
+            request.join(5000);
+    }
+
+    private static Thread write (final ElevatorStorageModule scheduler, final int block, final byte value) {
+        return new Thread() {
+
+            @Override
+            public void run () {
+                final byte[] bytes = new byte[BLOCK_SIZE];
+                Arrays.fill(bytes, value);
+                try {
+                    scheduler.write(ByteBuffer.wrap(bytes), (long) block * BLOCK_SIZE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static Thread read (final ElevatorStorageModule scheduler, final int block, final byte[][] result) {
+        return new Thread() {
+
+            @Override
+            public void run () {
+                final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+                try {
+                    scheduler.read(buffer, (long) block * BLOCK_SIZE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                result[block] = buffer.array();
+            }
+        };
+    }
+
+    /**
+     * An in-memory storage module, which logs its accesses and can block the next one.
+     */
+    private static final class MemoryStorageModule implements IStorageModule {
+
+        final byte[] data;
+
+        final List<String> accesses = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile CountDownLatch blocked;
+
+        volatile CountDownLatch release;
+
+        MemoryStorageModule (final int size) {
+            data = new byte[size];
+        }
+
+        private void access (final String type, final long storageIndex, final int length) throws IOException {
+            if (storageIndex + length > data.length) throw new IOException("out of bounds");
+            accesses.add(type + " " + storageIndex + " " + length);
+            final CountDownLatch latch = blocked;
+            if (latch != null) {
+                blocked = null;
+                latch.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        @Override
+        public void read (final byte[] bytes, final long storageIndex) throws IOException {
+            access("read", storageIndex, bytes.length);
+            System.arraycopy(data, (int) storageIndex, bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void read (final ByteBuffer buffer, final long storageIndex) throws IOException {
+            access("read", storageIndex, buffer.remaining());
+            buffer.put(data, (int) storageIndex, buffer.remaining());
+        }
+
+        @Override
+        public void write (final byte[] bytes, final long storageIndex) throws IOException {
+            access("write", storageIndex, bytes.length);
+            System.arraycopy(bytes, 0, data, (int) storageIndex, bytes.length);
+        }
+
+        @Override
+        public void write (final ByteBuffer buffer, final long storageIndex) throws IOException {
+            access("write", storageIndex, buffer.remaining());
+            buffer.get(data, (int) storageIndex, buffer.remaining());
+        }
+
+        @Override
+        public int checkBounds (final long logicalBlockAddress, final int transferLengthInBlocks) {
+            return 0;
+        }
+
+        @Override
+        public long getSizeInBlocks () {
+            return data.length / BLOCK_SIZE;
+        }
+
+        @Override
+        public void close () {
+        }
+
+        @Override
+        public int getBlockSize () {
+            return BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.jscsi.target.storage;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+
+public class GroupCommitTest {
+
+    /**
+     * Requests arriving during a flush are satisfied together by one following flush.
+     */
+    @Test
+    public void testBatching () throws Exception {
+        final int requests = 8;
+        final AtomicInteger flushes = new AtomicInteger();
+        final CountDownLatch firstFlushStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstFlush = new CountDownLatch(1);
+        final GroupCommit groupCommit = new GroupCommit(new Flushable() {
+
+            @Override
+            public void flush () throws IOException {
+                if (flushes.incrementAndGet() == 1) {
+                    firstFlushStarted.countDown();
+                    try {
+                        releaseFirstFlush.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        });
+
+        groupCommit.markDirty();
+        final CountDownLatch done = new CountDownLatch(1 + requests);
+        start(groupCommit, done);
+        assertTrue(firstFlushStarted.await(5, TimeUnit.SECONDS));
+
+        // these writes are not covered by the flush in progress
+        groupCommit.markDirty();
+        for (int i = 0; i < requests; ++i)
+            start(groupCommit, done);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        releaseFirstFlush.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(flushes.get(), 2);
+        assertEquals(groupCommit.getBatchSizeHistogram().getTotalCount(), 2);
+    }
+
+    /**
+     * Requests complete without flushing if nothing has been written since the last flush.
+     */
+    @Test
+    public void testClean () throws Exception {
+        final AtomicInteger flushes = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(new Flushable() {
+
+            @Override
+            public void flush () {
+                flushes.incrementAndGet();
+            }
+        });
+
+        groupCommit.flush();
+        assertEquals(flushes.get(), 0);
+        groupCommit.markDirty();
+        groupCommit.flush();
+        groupCommit.flush();
+        assertEquals(flushes.get(), 1);
+    }
+
+    private static void start (final GroupCommit groupCommit, final CountDownLatch done) {
+        new Thread() {
+
+            @Override
+            public void run () {
+                try {
+                    groupCommit.flush();
+                    done.countDown();
+                } catch (IOException | InterruptedException e) {
+                    // test fails
+                }
+            }
+        }.start();
+    }
+}
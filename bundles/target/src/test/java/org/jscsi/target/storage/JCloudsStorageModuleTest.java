@@ -0,0 +1,73 @@
+package org.jscsi.target.storage;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+
+public class JCloudsStorageModuleTest {
+
+    private static final int BUCKET = JCloudsStorageModule.SIZE_PER_BUCKET;
+
+    /**
+     * The jclouds version in use needs JAXB, which is no longer part of the JRE since Java 11.
+     */
+    @BeforeClass
+    public void checkJaxb () {
+        try {
+            Class.forName("javax.xml.bind.JAXBException");
+        } catch (ClassNotFoundException e) {
+            throw new SkipException("jclouds needs JAXB, which this JRE does not provide");
+        }
+    }
+
+    /**
+     * Unmaps a whole bucket and the end of another one, and checks that they read as zeros and that the whole bucket
+     * is reported as deallocated.
+     */
+    @Test
+    public void testUnmap () throws Exception {
+        final File directory = Files.createTempDirectory("jscsi-jclouds").toFile();
+        final JCloudsStorageModule storage = new JCloudsStorageModule(0, directory);
+        try {
+            assertTrue(storage.supportsUnmap());
+            final byte[] data = new byte[3 * BUCKET];
+            new Random(5).nextBytes(data);
+            // the module reads and writes at most two buckets at a time
+            for (int i = 0; i < 3; i++)
+                storage.write(Arrays.copyOfRange(data, i * BUCKET, (i + 1) * BUCKET), i * BUCKET);
+            // upload the last written bucket
+            storage.read(new byte[1], 0);
+            assertTrue(storage.isMapped(BUCKET));
+            assertEquals(storage.getExtentLength(0, 3 * BUCKET), 3 * BUCKET);
+
+            storage.unmap(BUCKET - 512, BUCKET + 512);
+
+            assertTrue(storage.isMapped(0));
+            assertFalse(storage.isMapped(BUCKET));
+            assertTrue(storage.isMapped(2 * BUCKET));
+            assertEquals(storage.getExtentLength(0, 3 * BUCKET), BUCKET);
+            assertEquals(storage.getExtentLength(BUCKET, 3 * BUCKET), BUCKET);
+            assertEquals(storage.getExtentLength(BUCKET + 1000, 100), 100);
+
+            Arrays.fill(data, BUCKET - 512, 2 * BUCKET, (byte) 0);
+            final byte[] read = new byte[BUCKET];
+            for (int i = 0; i < 3; i++) {
+                storage.read(read, i * BUCKET);
+                assertEquals(read, Arrays.copyOfRange(data, i * BUCKET, (i + 1) * BUCKET));
+            }
+        } finally {
+            storage.close();
+        }
+    }
+}
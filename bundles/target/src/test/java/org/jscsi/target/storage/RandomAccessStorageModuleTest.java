@@ -7,6 +7,14 @@ import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -60,6 +68,59 @@ public class RandomAccessStorageModuleTest {
 
     }
 
+    /**
+     * Transfers from another module, directly and through a module without a file channel, while other threads read
+     * and write other parts of the destination, and checks that every access ends up at its own position.
+     */
+    @Test
+    public void testConcurrentTransfersAndAccesses () throws Exception {
+        final int chunk = 4096;
+        final File sourceFile = File.createTempFile("jscsi-transfer-source", ".dat");
+        sourceFile.deleteOnExit();
+        final File destinationFile = File.createTempFile("jscsi-transfer-destination", ".dat");
+        destinationFile.deleteOnExit();
+        final IStorageModule source = RandomAccessStorageModule.open(sourceFile, TEST_FILE_SIZE, true, RandomAccessStorageModule.class);
+        final IStorageModule destination = RandomAccessStorageModule.open(destinationFile, TEST_FILE_SIZE, true, RandomAccessStorageModule.class);
+        final IStorageModule wrappedSource = new ElevatorStorageModule(source);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final byte[] data = new byte[TEST_FILE_SIZE];
+            new Random(3).nextBytes(data);
+            source.write(data, 0);
+
+            // even chunks are transferred, odd chunks are written and read back
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < TEST_FILE_SIZE / chunk; ++i) {
+                final int index = i * chunk;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call () throws IOException {
+                        if (index / chunk % 2 == 0) {
+                            destination.transferFrom(index / chunk % 4 == 0 ? source : wrappedSource, index, chunk, index);
+                        } else {
+                            destination.write(Arrays.copyOfRange(data, index, index + chunk), index);
+                            final byte[] read = new byte[chunk];
+                            destination.read(read, index);
+                            assertEquals(read, Arrays.copyOfRange(data, index, index + chunk));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures)
+                future.get();
+
+            final byte[] read = new byte[TEST_FILE_SIZE];
+            destination.read(read, 0);
+            assertEquals(read, data);
+        } finally {
+            executor.shutdown();
+            source.close();
+            destination.close();
+        }
+    }
+
     @Test
     public void testCheckBounds0 () {
         // should all be within bounds
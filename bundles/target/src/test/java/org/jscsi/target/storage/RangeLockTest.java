@@ -0,0 +1,50 @@
+package org.jscsi.target.storage;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+
+public class RangeLockTest {
+
+    /**
+     * Locks on disjoint ranges are granted immediately, locks on overlapping ranges wait for their release.
+     */
+    @Test
+    public void testOverlappingRanges () throws Exception {
+        final RangeLock rangeLock = new RangeLock();
+        final RangeLock.Range first = rangeLock.lock(10, 10);
+        final RangeLock.Range disjoint = rangeLock.lock(20, 5);
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run () {
+                try {
+                    rangeLock.unlock(rangeLock.lock(19, 1));
+                    locked.countDown();
+                } catch (InterruptedException e) {
+                    // test fails
+                }
+            }
+        };
+        thread.start();
+
+        assertFalse(locked.await(100, TimeUnit.MILLISECONDS));
+        rangeLock.unlock(disjoint);
+        assertFalse(locked.await(100, TimeUnit.MILLISECONDS));
+        rangeLock.unlock(first);
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        thread.join();
+
+        assertEquals(rangeLock.getHoldTimeHistogram().getTotalCount(), 3);
+        assertEquals(rangeLock.getWaitTimeHistogram().getTotalCount(), 3);
+    }
+}
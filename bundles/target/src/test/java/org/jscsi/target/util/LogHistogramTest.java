@@ -0,0 +1,68 @@
+package org.jscsi.target.util;
+
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+
+public class LogHistogramTest {
+
+    @Test
+    public void testBucketOf () {
+        assertEquals(LogHistogram.bucketOf(-5), 0);
+        assertEquals(LogHistogram.bucketOf(0), 0);
+        assertEquals(LogHistogram.bucketOf(1), 1);
+        assertEquals(LogHistogram.bucketOf(15), 15);
+        // two values per sub-bucket between 16 and 31
+        assertEquals(LogHistogram.bucketOf(16), 16);
+        assertEquals(LogHistogram.bucketOf(17), 16);
+        assertEquals(LogHistogram.bucketOf(18), 17);
+        assertEquals(LogHistogram.bucketOf(31), 23);
+        assertEquals(LogHistogram.bucketOf(32), 24);
+        assertEquals(LogHistogram.bucketOf(1023), 63);
+        assertEquals(LogHistogram.bucketOf(1024), 64);
+        assertEquals(LogHistogram.bucketOf(Long.MAX_VALUE), LogHistogram.BUCKETS - 1);
+    }
+
+    @Test
+    public void testUpperBoundOf () {
+        for (int i = 0; i < LogHistogram.BUCKETS; ++i)
+            assertEquals(LogHistogram.bucketOf(LogHistogram.upperBoundOf(i)), i);
+    }
+
+    /**
+     * The upper bound of the bucket of any value is off by less than one sub-bucket's share of the value.
+     */
+    @Test
+    public void testRelativeError () {
+        for (long value = 1; value > 0; value = value * 3 + 1) {
+            final long upperBound = LogHistogram.upperBoundOf(LogHistogram.bucketOf(value));
+            assertTrue(upperBound >= value);
+            assertTrue(upperBound - value < Math.max(1, value / LogHistogram.SUB_BUCKETS));
+        }
+    }
+
+    @Test
+    public void testRecordAndQuantile () {
+        final LogHistogram histogram = new LogHistogram();
+        assertEquals(histogram.getQuantile(0.5), 0);
+
+        for (int i = 0; i < 90; ++i)
+            histogram.record(1);
+        for (int i = 0; i < 10; ++i)
+            histogram.record(100);
+
+        assertEquals(histogram.getTotalCount(), 100);
+        assertEquals(histogram.getCount(1), 90);
+        assertEquals(histogram.getCount(LogHistogram.bucketOf(100)), 10);
+        assertEquals(histogram.getQuantile(0.5), 1);
+        assertEquals(histogram.getQuantile(0.9), 1);
+        assertEquals(histogram.getQuantile(0.99), 103);
+        assertEquals(histogram.getQuantile(1), 103);
+
+        histogram.reset();
+        assertEquals(histogram.getTotalCount(), 0);
+    }
+}
@@ -43,4 +43,28 @@ public class SerialArithmeticNumberTest {
 
     }
 
+    /**
+     * Increments a serial number from several threads at once, like the receivers of the connections of a session.
+     */
+    @Test
+    public void testConcurrentIncrements () throws InterruptedException {
+        final SerialArithmeticNumber number = new SerialArithmeticNumber(-100000);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run () {
+                    for (int j = 0; j < 100000; ++j)
+                        number.increment();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(300000, number.getValue());
+    }
+
 }